@@ -6,20 +6,45 @@ import simpledb.Aggregator.Op;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min), or several aggregates in a single pass over its child. Note that we
+ * only support grouping by a single column.
+ * <p>
+ * Groups are aggregated in memory until their number reaches a memory
+ * budget. From then on, tuples of groups that are not in memory yet are
+ * hash-partitioned by their group into {@link TupleSpillFile}s, and each
+ * partition is aggregated on its own once the child is exhausted, with a
+ * different hash function should it still be too large. Every group ends up
+ * in exactly one place, so the result is the same as in memory; only the
+ * order of the groups differs.
  */
 public class Aggregate extends Operator {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Default memory budget, in pages worth of groups. */
+	public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+	/** Number of partitions overflowing groups are split into at each level. */
+	public static final int NUM_PARTITIONS = 16;
+
+	/** Number of levels of partitioning after which a partition is aggregated in memory regardless. */
+	public static final int MAX_DEPTH = 4;
+
 	private DbIterator m_child;
 	private DbIterator m_tupleIterator;
-	private int m_afield;
+	private int[] m_afields;
 	private int m_gfield;
-	private Aggregator.Op m_aop;
+	private Aggregator.Op[] m_aops;
+	private final int m_memoryPages;
+	private final int m_level;
 	TupleDesc m_td;
+	private TupleDesc m_outTd;
 	Aggregator m_aggregator;
+	//Partitions of the tuples whose groups did not fit into memory
+	private transient TupleSpillFile[] m_partitions;
+	private transient int m_partition;
+	private transient Aggregate m_partitionAggregate;
+	private transient int m_spilledPartitions;
 	/**
 	 * Constructor.
 	 * 
@@ -39,28 +64,116 @@ public class Aggregate extends Operator {
 	 *            The aggregation operator to use
 	 */
 	public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-		// some code goes here
+		this(child, afield, gfield, aop, DEFAULT_MEMORY_PAGES);
+	}
+
+	/**
+	 * @param memoryPages
+	 *            how many pages worth of groups (each counted at the size of
+	 *            an input tuple) may be kept in memory
+	 * @see #Aggregate(DbIterator, int, int, Aggregator.Op)
+	 */
+	public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int memoryPages) {
+		this(child, new int[] { afield }, gfield, new Aggregator.Op[] { aop }, memoryPages, 0);
+	}
+
+	/**
+	 * Constructor for several aggregates computed in the same pass.
+	 * 
+	 * @param afields
+	 *            The columns over which we are computing aggregates.
+	 * @param aops
+	 *            The aggregation operator to use for each of afields
+	 * @see #Aggregate(DbIterator, int, int, Aggregator.Op)
+	 */
+	public Aggregate(DbIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+		this(child, afields, gfield, aops, DEFAULT_MEMORY_PAGES, 0);
+	}
+
+	/**
+	 * @see #Aggregate(DbIterator, int[], int, Aggregator.Op[])
+	 * @see #Aggregate(DbIterator, int, int, Aggregator.Op, int)
+	 */
+	public Aggregate(DbIterator child, int[] afields, int gfield, Aggregator.Op[] aops, int memoryPages) {
+		this(child, afields, gfield, aops, memoryPages, 0);
+	}
+
+	private Aggregate(DbIterator child, int[] afields, int gfield, Aggregator.Op[] aops,
+			int memoryPages, int level) {
+		if (memoryPages < 1)
+			throw new IllegalArgumentException("memory budget must be at least one page");
+		if (afields.length == 0 || afields.length != aops.length)
+			throw new IllegalArgumentException("need an op for each of at least one field");
 		m_child = child;
-		m_afield = afield;
-		m_aop = aop;
+		m_afields = afields.clone();
+		m_aops = aops.clone();
+		m_memoryPages = memoryPages;
+		m_level = level;
 		
 		m_td = m_child.getTupleDesc();
-		Type groupFieldType = null;
-		Type aggregateFieldType = m_td.getFieldType(m_afield);
 
 		if (gfield == -1) m_gfield = Aggregator.NO_GROUPING;
-		else 
+		else m_gfield = gfield;
+		
+		m_aggregator = newAggregator();
+		m_outTd = outputTupleDesc(m_td, m_afields, m_gfield, m_aops);
+	}
+
+	/**
+	 * @return the TupleDesc of the result of aggregating tuples of td:
+	 *         ( [groupValue,] aggregate Value, ... ), with the aggregates
+	 *         named aop(field)
+	 */
+	static TupleDesc outputTupleDesc(TupleDesc td, int[] afields, int gfield, Aggregator.Op[] aops) {
+		int offset = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+		Type[] types = new Type[offset + afields.length];
+		String[] names = new String[types.length];
+		if (offset == 1)
 		{
-			m_gfield = gfield;
-			groupFieldType = m_td.getFieldType(gfield);
+			types[0] = td.getFieldType(gfield);
+			names[0] = td.getFieldName(gfield);
 		}
-		
-		if (aggregateFieldType == Type.INT_TYPE)
+		for (int i = 0; i < afields.length; i++)
 		{
-			m_aggregator = new IntegerAggregator(m_gfield, groupFieldType, afield, m_aop);
+			types[offset + i] = Type.INT_TYPE;
+			names[offset + i] = nameOfAggregatorOp(aops[i]) + "(" + td.getFieldName(afields[i]) + ")";
 		}
-		else { m_aggregator = new StringAggregator(gfield, groupFieldType, m_afield, Op.COUNT); }
+		return new TupleDesc(types, names);
+	}
 
+	/**
+	 * @return an empty aggregator for tuples of td: an IntegerAggregator or
+	 *         a StringAggregator for a single aggregate, a MultiAggregator
+	 *         for several
+	 */
+	static Aggregator newAggregator(TupleDesc td, int[] afields, int gfield, Aggregator.Op[] aops) {
+		Type groupFieldType = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+		if (afields.length > 1)
+		{
+			Type[] types = new Type[afields.length];
+			for (int i = 0; i < types.length; i++)
+				types[i] = td.getFieldType(afields[i]);
+			return new MultiAggregator(gfield, groupFieldType, afields, types, aops);
+		}
+		if (td.getFieldType(afields[0]) == Type.INT_TYPE)
+		{
+			return new IntegerAggregator(gfield, groupFieldType, afields[0], aops[0]);
+		}
+		else { return new StringAggregator(gfield, groupFieldType, afields[0], Op.COUNT); }
+	}
+
+	/** @return an empty aggregator for this operator's fields and ops */
+	private Aggregator newAggregator() {
+		return newAggregator(m_td, m_afields, m_gfield, m_aops);
+	}
+
+	/**
+	 * @return the number of partitions the last {@link #open()} had to
+	 *         spill to disk, not counting those of partitions that were
+	 *         split up again
+	 */
+	public int getSpilledPartitionCount() {
+		return m_spilledPartitions;
 	}
 
 	/**
@@ -83,26 +196,40 @@ public class Aggregate extends Operator {
 	}
 
 	/**
-	 * @return the aggregate field
+	 * @return the aggregate field, or the first of them if there are several
 	 * */
 	public int aggregateField() {
-		return m_afield;
+		return m_afields[0];
+	}
+
+	/**
+	 * @return the aggregate fields, in the order of the output columns
+	 * */
+	public int[] aggregateFields() {
+		return m_afields.clone();
 	}
 
 	/**
-	 * @return return the name of the aggregate field in the <b>OUTPUT</b>
-	 *         tuples
+	 * @return return the name of the (first) aggregate field in the
+	 *         <b>INPUT</b> tuples
 	 * */
 	public String aggregateFieldName() {
-		// some code goes here
-		return m_td.getFieldName(m_afield);
+		return m_td.getFieldName(m_afields[0]);
 	}
 
 	/**
-	 * @return return the aggregate operator
+	 * @return return the aggregate operator, or the first of them if there
+	 *         are several
 	 * */
 	public Aggregator.Op aggregateOp() {
-		return m_aop;
+		return m_aops[0];
+	}
+
+	/**
+	 * @return the aggregate operators, in the order of the output columns
+	 * */
+	public Aggregator.Op[] aggregateOps() {
+		return m_aops.clone();
 	}
 
 	public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -113,14 +240,69 @@ public class Aggregate extends Operator {
 	TransactionAbortedException {
 		m_child.open();
 		super.open();
-		
+		aggregate();
+	}
+
+	/**
+	 * Partition of a group. Every level uses a different hash function, so
+	 * that a partition is split up again when it is aggregated.
+	 */
+	private int partitionOf(Field group) {
+		int h = group.hashCode() ^ (m_level * 0x9E3779B9);
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return (h & 0x7FFFFFFF) % NUM_PARTITIONS;
+	}
+
+	/** Reads the child, aggregating in memory and spilling what does not fit. */
+	private void aggregate() throws DbException, TransactionAbortedException {
+		m_aggregator = newAggregator();
+		m_partitions = new TupleSpillFile[NUM_PARTITIONS];
+		m_partition = -1;
+		m_partitionAggregate = null;
+		m_spilledPartitions = 0;
+		//Without grouping there is a single group, which always fits
+		boolean canSpill = m_gfield != Aggregator.NO_GROUPING && m_level < MAX_DEPTH;
+		int budget = Math.max(1, m_memoryPages * BufferPool.getPageSize() / m_td.getSize());
+
 		while (m_child.hasNext())
 		{
-			m_aggregator.mergeTupleIntoGroup(m_child.next());
+			Tuple t = m_child.next();
+			if (canSpill && m_aggregator.numGroups() >= budget)
+			{
+				Field group = t.getField(m_gfield);
+				if (!m_aggregator.containsGroup(group))
+				{
+					int p = partitionOf(group);
+					if (m_partitions[p] == null)
+					{
+						m_partitions[p] = new TupleSpillFile(m_td);
+						m_spilledPartitions++;
+					}
+					m_partitions[p].add(t);
+					continue;
+				}
+			}
+			m_aggregator.mergeTupleIntoGroup(t);
 		}
 		m_tupleIterator = m_aggregator.iterator();
 		m_tupleIterator.open();
+	}
 
+	/** Deletes all spill files. */
+	private void release() {
+		if (m_partitionAggregate != null)
+		{
+			m_partitionAggregate.close();
+			m_partitionAggregate = null;
+		}
+		if (m_partitions != null)
+		{
+			for (TupleSpillFile f : m_partitions)
+				if (f != null) f.delete();
+			m_partitions = null;
+		}
 	}
 
 	/**
@@ -132,30 +314,55 @@ public class Aggregate extends Operator {
 	 */
 	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 		if (m_tupleIterator.hasNext()) return m_tupleIterator.next();
-		return null;
+		//The groups in memory are done; aggregate the spilled partitions one by one
+		while (true)
+		{
+			if (m_partitionAggregate != null)
+			{
+				if (m_partitionAggregate.hasNext()) return m_partitionAggregate.next();
+				m_partitionAggregate.close();
+				m_partitionAggregate = null;
+				m_partitions[m_partition].delete();
+				m_partitions[m_partition] = null;
+			}
+			do
+			{
+				if (++m_partition >= NUM_PARTITIONS) return null;
+			} while (m_partitions[m_partition] == null);
+			m_partitionAggregate = new Aggregate(m_partitions[m_partition].iterator(),
+					m_afields, m_gfield, m_aops, m_memoryPages, m_level + 1);
+			m_partitionAggregate.open();
+		}
 	}
 
 	public void rewind() throws DbException, TransactionAbortedException {
-		m_tupleIterator.rewind();
+		if (m_spilledPartitions == 0)
+		{
+			m_tupleIterator.rewind();
+			return;
+		}
+		//The spilled partitions are deleted as they are read; start over
+		release();
+		m_child.rewind();
+		aggregate();
 	}
 
 	/**
 	 * Returns the TupleDesc of this Aggregate. If there is no group by field,
-	 * this will have one field - the aggregate column. If there is a group by
-	 * field, the first field will be the group by field, and the second will be
-	 * the aggregate value column.
+	 * this will have one field per aggregate column. If there is a group by
+	 * field, the first field will be the group by field, followed by the
+	 * aggregate value columns.
 	 * 
-	 * The name of an aggregate column should be informative. For example:
-	 * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-	 * given in the constructor, and child_td is the TupleDesc of the child
-	 * iterator.
+	 * The group by column keeps its name; an aggregate column is named
+	 * "aop(child_td.getFieldName(afield))", e.g. "count(t.c1)".
 	 */
 	public TupleDesc getTupleDesc() {
-		return m_td;
+		return m_outTd;
 	}
 
 	public void close() {
-		m_tupleIterator.close();
+		if (m_tupleIterator != null) m_tupleIterator.close();
+		release();
 		m_child.close();
 		super.close();
 	}
@@ -170,8 +377,7 @@ public class Aggregate extends Operator {
 
 	@Override
 	public void setChildren(DbIterator[] children) {
-		children[0] = m_child;
-		children[1] = m_tupleIterator;
+		m_child = children[0];
 	}
 
 }
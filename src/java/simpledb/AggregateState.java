@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * The running aggregate of one group: the sum, count, minimum and maximum of
+ * the values merged into it, from which any {@link Aggregator.Op} can be
+ * computed. Kept in primitive fields so that merging a value allocates
+ * nothing.
+ */
+class AggregateState implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	long sum;
+	int count;
+	int min = Integer.MAX_VALUE;
+	int max = Integer.MIN_VALUE;
+
+	/** Merges a value into the group. */
+	void add(int value) {
+		sum += value;
+		count++;
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * Merges the values of another running aggregate into this one, as if
+	 * they had all been added here. Averages stay exact, since they are only
+	 * computed from the combined sum and count.
+	 */
+	void merge(AggregateState other) {
+		sum += other.sum;
+		count += other.count;
+		if (other.min < min)
+			min = other.min;
+		if (other.max > max)
+			max = other.max;
+	}
+
+	/** Counts a value that is not aggregated otherwise, e.g. a string. */
+	void increment() {
+		count++;
+	}
+
+	/**
+	 * @return the value of the given aggregate over the values merged so
+	 *         far; sums and averages wrap around like int arithmetic
+	 */
+	int result(Aggregator.Op op) {
+		switch (op) {
+		case MIN:
+			return min;
+		case MAX:
+			return max;
+		case SUM:
+			return (int) sum;
+		case AVG:
+			return (int) (sum / count);
+		case COUNT:
+			return count;
+		default:
+			throw new UnsupportedOperationException("unsupported aggregate " + op);
+		}
+	}
+}
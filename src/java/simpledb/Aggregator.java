@@ -81,5 +81,29 @@ public interface Aggregator extends Serializable {
      * @see simpledb.TupleIterator for a possible helper
      */
     public DbIterator iterator();
+
+    /**
+     * @return the number of groups merged so far; 1 once a tuple has been
+     *         merged if there is no grouping
+     */
+    public int numGroups();
+
+    /**
+     * @param group a value of the group-by field, or null if there is no
+     *        grouping
+     * @return true if a tuple of that group has been merged already
+     */
+    public boolean containsGroup(Field group);
+
+    /**
+     * Merges the groups of another aggregator into this one, as if the
+     * tuples merged into it had been merged here. Used to combine partial
+     * aggregates computed over parts of the input.
+     *
+     * @param other an aggregator of the same class, over the same fields
+     *        and with the same operators; it is left unchanged
+     * @throws IllegalArgumentException if other is of a different class
+     */
+    public void merge(Aggregator other);
     
 }
@@ -0,0 +1,542 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a disk-resident B+ tree over an INT_TYPE field of a table
+ * stored in a HeapFile. It is a secondary index: its leaves map each key to
+ * the RecordIds of the tuples that have it, in key order, and are chained so
+ * that a range lookup reads the leaves that hold the range one after the
+ * other. The pages of the tree are {@link BTreePage}s, whose layout is
+ * described there, and are read and written through the BufferPool like
+ * those of a HeapFile; the file must therefore be registered with
+ * {@link Catalog#addIndex} before it is used.
+ * <p>
+ * Entries are ordered by key and then by RecordId, so duplicate keys need no
+ * special handling. Full pages are split on insert; pages are not merged on
+ * delete, so a tree that shrinks keeps its height and may have empty leaves,
+ * which lookups skip.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile implements IndexFile {
+
+	private final File m_file;
+	private final int m_tableId;
+	private final int m_keyField;
+	private RandomAccessFile m_raf;
+	private FileChannel m_channel;
+
+	/** A separator pushed up to the parent of a page that was split. */
+	private static class Split {
+		final int key, ridPage, ridSlot;
+		/** The page holding the entries from the separator on. */
+		final int page;
+
+		Split(int key, int ridPage, int ridSlot, int page) {
+			this.key = key;
+			this.ridPage = ridPage;
+			this.ridSlot = ridSlot;
+			this.page = page;
+		}
+	}
+
+	/**
+	 * Opens the B+ tree stored in the specified file, creating an empty tree
+	 * if the file is empty. Use {@link #build} to create the index of a table
+	 * that already has tuples.
+	 *
+	 * @param f the file the tree is stored in
+	 * @param tableid the id of the indexed table
+	 * @param keyField the indexed field, which must be an INT_TYPE field
+	 */
+	public BTreeFile(File f, int tableid, int keyField) {
+		m_file = f;
+		m_tableId = tableid;
+		m_keyField = keyField;
+		try {
+			m_raf = new RandomAccessFile(f, "rw");
+			m_channel = m_raf.getChannel();
+			if (m_channel.size() == 0) {
+				byte[] meta = BTreePage.createEmptyPageData(BTreePage.META);
+				BTreePage.writeInt(meta, 4, 1);
+				write(0, meta);
+				write(1, BTreePage.createEmptyPageData(BTreePage.LEAF));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates the index of a table in the specified file, replacing whatever
+	 * the file held, by sorting the entries of all the table's tuples and
+	 * writing the tree bottom-up. This is much faster than inserting the
+	 * entries one at a time and leaves every page full. The pages are
+	 * written directly, so no page of a previous index in the same file may
+	 * be in the BufferPool.
+	 *
+	 * @return the index, not yet registered with the Catalog
+	 */
+	public static BTreeFile build(File f, int tableid, int keyField)
+			throws DbException, TransactionAbortedException, IOException {
+		DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+		if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE)
+			throw new DbException("only INT_TYPE fields can be indexed");
+
+		// sort (key, page, slot) triples through two parallel arrays
+		int n = 0;
+		long[] keys = new long[1024];
+		int[] rids = new int[2048];
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (n == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * n);
+				rids = Arrays.copyOf(rids, 4 * n);
+			}
+			RecordId rid = t.getRecordId();
+			rids[2 * n] = rid.getPageId().pageNumber();
+			rids[2 * n + 1] = rid.tupleno();
+			// the key in the high half, the scan position in the low half
+			keys[n] = ((long) ((IntField) t.getField(keyField)).getValue() << 32) | n;
+			n++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		Arrays.sort(keys, 0, n);
+		// tuples are scanned in RecordId order, so ties stay in that order
+
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		FileChannel channel = raf.getChannel();
+		try {
+			channel.truncate(0);
+			int pageSize = BufferPool.getPageSize();
+			int nextPage = 1;
+
+			// the leaves, and the smallest entry and page number of each
+			int leafCap = BTreePage.capacity(BTreePage.LEAF);
+			int numLeaves = Math.max(1, (n + leafCap - 1) / leafCap);
+			int[] mins = new int[3 * numLeaves];
+			int[] pages = new int[numLeaves];
+			for (int l = 0; l < numLeaves; l++) {
+				byte[] data = BTreePage.createEmptyPageData(BTreePage.LEAF);
+				int from = l * leafCap, to = Math.min(n, from + leafCap);
+				BTreePage.writeInt(data, 4, to - from);
+				BTreePage.writeInt(data, 8, l + 1 < numLeaves ? nextPage + 1 : 0);
+				for (int i = from; i < to; i++) {
+					int offset = BTreePage.HEADER_SIZE + (i - from) * BTreePage.LEAF_ENTRY_SIZE;
+					int seq = (int) keys[i];
+					BTreePage.writeInt(data, offset, (int) (keys[i] >> 32));
+					BTreePage.writeInt(data, offset + 4, rids[2 * seq]);
+					BTreePage.writeInt(data, offset + 8, rids[2 * seq + 1]);
+				}
+				if (to > from) {
+					int seq = (int) keys[from];
+					mins[3 * l] = (int) (keys[from] >> 32);
+					mins[3 * l + 1] = rids[2 * seq];
+					mins[3 * l + 2] = rids[2 * seq + 1];
+				}
+				pages[l] = nextPage;
+				write(channel, nextPage++, data);
+			}
+
+			// the internal levels, until one page is left
+			int fanout = BTreePage.capacity(BTreePage.INTERNAL) + 1;
+			int count = numLeaves;
+			while (count > 1) {
+				int parents = (count + fanout - 1) / fanout;
+				for (int p = 0; p < parents; p++) {
+					byte[] data = BTreePage.createEmptyPageData(BTreePage.INTERNAL);
+					int from = p * fanout, to = Math.min(count, from + fanout);
+					BTreePage.writeInt(data, 4, to - from - 1);
+					BTreePage.writeInt(data, 8, pages[from]);
+					for (int c = from + 1; c < to; c++) {
+						int offset = BTreePage.HEADER_SIZE
+								+ (c - from - 1) * BTreePage.INTERNAL_ENTRY_SIZE;
+						BTreePage.writeInt(data, offset, mins[3 * c]);
+						BTreePage.writeInt(data, offset + 4, mins[3 * c + 1]);
+						BTreePage.writeInt(data, offset + 8, mins[3 * c + 2]);
+						BTreePage.writeInt(data, offset + 12, pages[c]);
+					}
+					mins[3 * p] = mins[3 * from];
+					mins[3 * p + 1] = mins[3 * from + 1];
+					mins[3 * p + 2] = mins[3 * from + 2];
+					pages[p] = nextPage;
+					write(channel, nextPage++, data);
+				}
+				count = parents;
+			}
+
+			byte[] meta = BTreePage.createEmptyPageData(BTreePage.META);
+			BTreePage.writeInt(meta, 4, pages[0]);
+			write(channel, 0, meta);
+			channel.force(false);
+			if (channel.size() != (long) nextPage * pageSize)
+				throw new IOException("index file " + f + " has the wrong size");
+		} finally {
+			raf.close();
+		}
+		return new BTreeFile(f, tableid, keyField);
+	}
+
+	private static void write(FileChannel channel, int pgNo, byte[] data) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		long offset = (long) pgNo * BufferPool.getPageSize();
+		while (buffer.hasRemaining())
+			channel.write(buffer, offset + buffer.position());
+	}
+
+	private void write(int pgNo, byte[] data) throws IOException {
+		write(m_channel, pgNo, data);
+	}
+
+	/** @return the File the tree is stored in */
+	public File getFile() {
+		return m_file;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this index, the hash of the
+	 * absolute name of its file like for a HeapFile.
+	 */
+	public int getId() {
+		return m_file.getAbsolutePath().hashCode();
+	}
+
+	public int getTableId() {
+		return m_tableId;
+	}
+
+	public int getKeyField() {
+		return m_keyField;
+	}
+
+	/**
+	 * Returns the TupleDesc of the indexed table.
+	 */
+	public TupleDesc getTupleDesc() {
+		return Database.getCatalog().getTupleDesc(m_tableId);
+	}
+
+	/**
+	 * Returns the number of pages in this file, including the meta page.
+	 */
+	public int numPages() {
+		return (int) (m_file.length() / BufferPool.getPageSize());
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BufferPool.getPageSize());
+			long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
+			while (buffer.hasRemaining()) {
+				if (m_channel.read(buffer, offset + buffer.position()) < 0)
+					break;
+			}
+			return new BTreePage((BTreePageId) pid, buffer.array());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		write(page.getId().pageNumber(), page.getPageData());
+	}
+
+	private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (BTreePage) Database.getBufferPool().getPage(tid,
+				new BTreePageId(getId(), pgNo), perm);
+	}
+
+	/**
+	 * Appends an empty page of the given type to the file and returns it.
+	 */
+	private BTreePage allocatePage(TransactionId tid, int type)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo = numPages();
+		write(pgNo, BTreePage.createEmptyPageData(type));
+		return getPage(tid, pgNo, Permissions.READ_WRITE);
+	}
+
+	private int key(Tuple t) {
+		return ((IntField) t.getField(m_keyField)).getValue();
+	}
+
+	/**
+	 * Adds the entry of a tuple stored in the indexed table to the tree.
+	 *
+	 * @return the pages that were changed, all of them marked dirty
+	 * @throws DbException if the tree already has the tuple's entry
+	 */
+	public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		RecordId rid = t.getRecordId();
+		int root = getPage(tid, 0, Permissions.READ_ONLY).getRoot();
+		Split split = insert(tid, root, key(t), rid.getPageId().pageNumber(), rid.tupleno(),
+				dirtied);
+		if (split != null) {
+			// the root was split: grow the tree by one level
+			BTreePage newRoot = allocatePage(tid, BTreePage.INTERNAL);
+			newRoot.setChild(0, root);
+			newRoot.setCount(1);
+			newRoot.setEntry(0, split.key, split.ridPage, split.ridSlot);
+			newRoot.setChild(1, split.page);
+			BTreePage meta = getPage(tid, 0, Permissions.READ_WRITE);
+			meta.setRoot(newRoot.getId().pageNumber());
+			markDirty(tid, newRoot, dirtied);
+			markDirty(tid, meta, dirtied);
+		}
+		return dirtied;
+	}
+
+	private static void markDirty(TransactionId tid, BTreePage page, ArrayList<Page> dirtied) {
+		page.markDirty(true, tid);
+		if (!dirtied.contains(page))
+			dirtied.add(page);
+	}
+
+	/**
+	 * Inserts an entry into the subtree rooted at a page.
+	 *
+	 * @return the separator to add to the page's parent if the page was
+	 *         split, or null
+	 */
+	private Split insert(TransactionId tid, int pgNo, int key, int ridPage, int ridSlot,
+			ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+		BTreePage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+		if (page.getType() == BTreePage.LEAF) {
+			int pos = page.search(key, ridPage, ridSlot, true);
+			if (pos < page.getCount() && page.compare(pos, key, ridPage, ridSlot) == 0)
+				throw new DbException("index already has an entry for this tuple");
+			markDirty(tid, page, dirtied);
+			if (page.getCount() < page.capacity()) {
+				page.openGap(pos);
+				page.setEntry(pos, key, ridPage, ridSlot);
+				return null;
+			}
+			BTreePage right = allocatePage(tid, BTreePage.LEAF);
+			markDirty(tid, right, dirtied);
+			int mid = page.getCount() / 2;
+			page.moveEntriesTo(mid, right);
+			right.setNext(page.getNext());
+			page.setNext(right.getId().pageNumber());
+			BTreePage target = pos <= mid ? page : right;
+			pos = pos <= mid ? pos : pos - mid;
+			target.openGap(pos);
+			target.setEntry(pos, key, ridPage, ridSlot);
+			return new Split(right.getKey(0), right.getRidPage(0), right.getRidSlot(0),
+					right.getId().pageNumber());
+		}
+
+		int pos = page.search(key, ridPage, ridSlot, false);
+		Split split = insert(tid, page.getChild(pos), key, ridPage, ridSlot, dirtied);
+		if (split == null)
+			return null;
+		// the page may have been evicted while the child was changed
+		page = getPage(tid, pgNo, Permissions.READ_WRITE);
+		markDirty(tid, page, dirtied);
+		if (page.getCount() < page.capacity()) {
+			page.openGap(pos);
+			page.setEntry(pos, split.key, split.ridPage, split.ridSlot);
+			page.setChild(pos + 1, split.page);
+			return null;
+		}
+
+		// split a full internal page: lay out all its entries and children
+		// with the new one, keep the lower half, move the upper half to a
+		// new page, and push the middle entry up
+		int n = page.getCount() + 1;
+		int[] keys = new int[n], pages = new int[n], slots = new int[n];
+		int[] children = new int[n + 1];
+		children[0] = page.getChild(0);
+		for (int i = 0, j = 0; i < n; i++) {
+			if (i == pos) {
+				keys[i] = split.key;
+				pages[i] = split.ridPage;
+				slots[i] = split.ridSlot;
+				children[i + 1] = split.page;
+			} else {
+				keys[i] = page.getKey(j);
+				pages[i] = page.getRidPage(j);
+				slots[i] = page.getRidSlot(j);
+				children[i + 1] = page.getChild(j + 1);
+				j++;
+			}
+		}
+		int mid = n / 2;
+		BTreePage right = allocatePage(tid, BTreePage.INTERNAL);
+		markDirty(tid, right, dirtied);
+		page.truncate(mid);
+		for (int i = 0; i < mid; i++) {
+			page.setEntry(i, keys[i], pages[i], slots[i]);
+			page.setChild(i + 1, children[i + 1]);
+		}
+		right.setCount(n - mid - 1);
+		right.setChild(0, children[mid + 1]);
+		for (int i = mid + 1; i < n; i++) {
+			right.setEntry(i - mid - 1, keys[i], pages[i], slots[i]);
+			right.setChild(i - mid, children[i + 1]);
+		}
+		return new Split(keys[mid], pages[mid], slots[mid], right.getId().pageNumber());
+	}
+
+	/**
+	 * Removes the entry of a tuple stored in the indexed table from the tree.
+	 *
+	 * @return the page that was changed, marked dirty
+	 * @throws DbException if the tree has no entry for the tuple
+	 */
+	public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		int key = key(t), ridPage = rid.getPageId().pageNumber(), ridSlot = rid.tupleno();
+		BTreePage page = getPage(tid, 0, Permissions.READ_ONLY);
+		page = getPage(tid, page.getRoot(), Permissions.READ_ONLY);
+		while (page.getType() == BTreePage.INTERNAL) {
+			int child = page.getChild(page.search(key, ridPage, ridSlot, false));
+			page = getPage(tid, child, Permissions.READ_ONLY);
+		}
+		page = getPage(tid, page.getId().pageNumber(), Permissions.READ_WRITE);
+		int pos = page.search(key, ridPage, ridSlot, true);
+		if (pos == page.getCount() || page.compare(pos, key, ridPage, ridSlot) != 0)
+			throw new DbException("index has no entry for this tuple");
+		page.removeEntry(pos);
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		markDirty(tid, page, dirtied);
+		return dirtied;
+	}
+
+	/**
+	 * Returns the tuples of the indexed table in key order.
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new IndexFileIterator(tid, this,
+				lookup(tid, Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE), null);
+	}
+
+	/**
+	 * A B+ tree finds keys equal to, less than or greater than a value, but
+	 * not those that differ from it.
+	 */
+	public boolean supports(Predicate.Op op) {
+		return op != Predicate.Op.NOT_EQUALS;
+	}
+
+	/**
+	 * Returns the RecordIds of the tuples whose key satisfies "key op value",
+	 * in key order.
+	 */
+	public IndexIterator lookup(TransactionId tid, Predicate.Op op, int value) {
+		int low = Integer.MIN_VALUE, high = Integer.MAX_VALUE;
+		boolean empty = false;
+		switch (op) {
+		case EQUALS:
+		case LIKE:
+			low = value;
+			high = value;
+			break;
+		case GREATER_THAN:
+			empty = value == Integer.MAX_VALUE;
+			low = value + 1;
+			break;
+		case GREATER_THAN_OR_EQ:
+			low = value;
+			break;
+		case LESS_THAN:
+			empty = value == Integer.MIN_VALUE;
+			high = value - 1;
+			break;
+		case LESS_THAN_OR_EQ:
+			high = value;
+			break;
+		default:
+			throw new UnsupportedOperationException("a B+ tree cannot look up " + op);
+		}
+		return new RangeIterator(tid, low, high, empty);
+	}
+
+	/**
+	 * Returns the entries with keys between low and high, inclusive, by
+	 * finding the leaf of the first one and following the leaf chain.
+	 */
+	private class RangeIterator implements IndexIterator {
+		private final TransactionId m_tid;
+		private final int m_low, m_high;
+		private final boolean m_empty;
+		private BTreePage m_leaf;
+		private int m_pos;
+		private boolean m_done = true;
+
+		RangeIterator(TransactionId tid, int low, int high, boolean empty) {
+			m_tid = tid;
+			m_low = low;
+			m_high = high;
+			m_empty = empty;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			m_done = m_empty;
+			if (m_done)
+				return;
+			BTreePage page = getPage(m_tid, 0, Permissions.READ_ONLY);
+			page = getPage(m_tid, page.getRoot(), Permissions.READ_ONLY);
+			while (page.getType() == BTreePage.INTERNAL) {
+				int pos = page.search(m_low, Integer.MIN_VALUE, Integer.MIN_VALUE, false);
+				page = getPage(m_tid, page.getChild(pos), Permissions.READ_ONLY);
+			}
+			m_leaf = page;
+			m_pos = page.search(m_low, Integer.MIN_VALUE, Integer.MIN_VALUE, true);
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (m_done)
+				return false;
+			while (m_pos >= m_leaf.getCount()) {
+				int next = m_leaf.getNext();
+				if (next == 0) {
+					m_done = true;
+					return false;
+				}
+				m_leaf = getPage(m_tid, next, Permissions.READ_ONLY);
+				m_pos = 0;
+			}
+			if (m_leaf.getKey(m_pos) > m_high) {
+				m_done = true;
+				return false;
+			}
+			return true;
+		}
+
+		public RecordId next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			RecordId rid = new RecordId(new HeapPageId(m_tableId, m_leaf.getRidPage(m_pos)),
+					m_leaf.getRidSlot(m_pos));
+			m_pos++;
+			return rid;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			m_leaf = null;
+			m_done = true;
+		}
+	}
+}
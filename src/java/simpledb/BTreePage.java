@@ -0,0 +1,273 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Each instance of BTreePage stores one page of a {@link BTreeFile} and
+ * implements the Page interface that is used by BufferPool. Like HeapPage,
+ * the page is kept in its on-disk layout and read and written in place.
+ * <p>
+ * Every page starts with a 12-byte header of three ints: the page type, the
+ * number of entries on the page, and a page number whose meaning depends on
+ * the type. An entry is a key followed by the page number and slot of the
+ * RecordId it points to; entries are ordered by key, then by RecordId, so
+ * every entry is unique even when keys are not.
+ * <ul>
+ * <li>A leaf page holds up to (page size - 12) / 12 entries. The third
+ * header int is the page number of the next leaf, or 0 for the last one.
+ * <li>An internal page holds up to (page size - 12) / 16 entries, each
+ * followed by the page number of the child holding the entries greater than
+ * or equal to it. The third header int is the child holding the entries
+ * less than the first entry.
+ * <li>The meta page, page 0 of the file, only holds the page number of the
+ * root as its second int.
+ * </ul>
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+	static final int META = 0;
+	static final int LEAF = 1;
+	static final int INTERNAL = 2;
+
+	static final int HEADER_SIZE = 12;
+	static final int LEAF_ENTRY_SIZE = 12;
+	static final int INTERNAL_ENTRY_SIZE = 16;
+
+	final BTreePageId pid;
+	/** The page image, exactly as written to disk. */
+	final byte data[];
+	boolean dirt;
+	TransactionId tid = null;
+
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a BTreePage from a set of bytes of data read from disk; the
+	 * bytes are copied.
+	 */
+	public BTreePage(BTreePageId id, byte[] data) {
+		this(id, Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize())), true);
+	}
+
+	private BTreePage(BTreePageId id, byte[] data, boolean owned) {
+		this.pid = id;
+		this.data = data;
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the image of an empty page of the given type
+	 */
+	static byte[] createEmptyPageData(int type) {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		writeInt(data, 0, type);
+		return data;
+	}
+
+	static void writeInt(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >>> 24);
+		data[offset + 1] = (byte) (value >>> 16);
+		data[offset + 2] = (byte) (value >>> 8);
+		data[offset + 3] = (byte) value;
+	}
+
+	public BTreePageId getId() {
+		return pid;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public BTreePage getBeforeImage() {
+		synchronized (oldDataLock)
+		{
+			return new BTreePage(pid, oldData.clone(), true);
+		}
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock)
+		{
+			oldData = getPageData();
+		}
+	}
+
+	public byte[] getPageData() {
+		return Arrays.copyOf(data, BufferPool.getPageSize());
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirt = dirty;
+		this.tid = dirty ? tid : null;
+	}
+
+	public TransactionId isDirty() {
+		return dirt ? tid : null;
+	}
+
+	/** @return META, LEAF or INTERNAL */
+	int getType() {
+		return Type.readInt(data, 0);
+	}
+
+	int getCount() {
+		return Type.readInt(data, 4);
+	}
+
+	void setCount(int count) {
+		writeInt(data, 4, count);
+	}
+
+	/** @return the page number of the root; meta page only */
+	int getRoot() {
+		return Type.readInt(data, 4);
+	}
+
+	void setRoot(int page) {
+		writeInt(data, 4, page);
+	}
+
+	/** @return the page number of the next leaf, or 0; leaves only */
+	int getNext() {
+		return Type.readInt(data, 8);
+	}
+
+	void setNext(int page) {
+		writeInt(data, 8, page);
+	}
+
+	/**
+	 * @return the page number of child i, which holds the entries between
+	 *         entries i-1 and i; internal pages only
+	 */
+	int getChild(int i) {
+		return Type.readInt(data, i == 0 ? 8 : entryOffset(i - 1) + 12);
+	}
+
+	void setChild(int i, int page) {
+		writeInt(data, i == 0 ? 8 : entryOffset(i - 1) + 12, page);
+	}
+
+	private int entrySize() {
+		return getType() == LEAF ? LEAF_ENTRY_SIZE : INTERNAL_ENTRY_SIZE;
+	}
+
+	private int entryOffset(int i) {
+		return HEADER_SIZE + i * entrySize();
+	}
+
+	/** @return the most entries a page of this type holds */
+	int capacity() {
+		return capacity(getType());
+	}
+
+	static int capacity(int type) {
+		int entry = type == LEAF ? LEAF_ENTRY_SIZE : INTERNAL_ENTRY_SIZE;
+		return (BufferPool.getPageSize() - HEADER_SIZE) / entry;
+	}
+
+	int getKey(int i) {
+		return Type.readInt(data, entryOffset(i));
+	}
+
+	int getRidPage(int i) {
+		return Type.readInt(data, entryOffset(i) + 4);
+	}
+
+	int getRidSlot(int i) {
+		return Type.readInt(data, entryOffset(i) + 8);
+	}
+
+	void setEntry(int i, int key, int ridPage, int ridSlot) {
+		int offset = entryOffset(i);
+		writeInt(data, offset, key);
+		writeInt(data, offset + 4, ridPage);
+		writeInt(data, offset + 8, ridSlot);
+	}
+
+	/**
+	 * Compares entry i with the given entry, by key and then by RecordId.
+	 *
+	 * @return a negative number, zero or a positive number if entry i is less
+	 *         than, equal to or greater than the given entry
+	 */
+	int compare(int i, int key, int ridPage, int ridSlot) {
+		int offset = entryOffset(i);
+		int c = compare(Type.readInt(data, offset), key);
+		if (c == 0)
+			c = compare(Type.readInt(data, offset + 4), ridPage);
+		if (c == 0)
+			c = compare(Type.readInt(data, offset + 8), ridSlot);
+		return c;
+	}
+
+	private static int compare(int a, int b) {
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
+	/**
+	 * @return the position of the first entry greater than the given one
+	 *         (or, if inclusive, greater than or equal to it); getCount()
+	 *         if there is none
+	 */
+	int search(int key, int ridPage, int ridSlot, boolean inclusive) {
+		int lo = 0, hi = getCount();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(mid, key, ridPage, ridSlot);
+			if (c > 0 || (inclusive && c == 0))
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Makes room for an entry at position i by moving the entries from i on
+	 * (and the children that follow them) one position up.
+	 */
+	void openGap(int i) {
+		int offset = entryOffset(i);
+		int end = entryOffset(getCount());
+		System.arraycopy(data, offset, data, offset + entrySize(), end - offset);
+		setCount(getCount() + 1);
+	}
+
+	/**
+	 * Removes entry i, and for internal pages the child that follows it, by
+	 * moving the following entries one position down.
+	 */
+	void removeEntry(int i) {
+		int offset = entryOffset(i);
+		int end = entryOffset(getCount());
+		int size = entrySize();
+		System.arraycopy(data, offset + size, data, offset, end - offset - size);
+		Arrays.fill(data, end - size, end, (byte) 0);
+		setCount(getCount() - 1);
+	}
+
+	/**
+	 * Drops the entries from position count on, and for internal pages the
+	 * children that follow them.
+	 */
+	void truncate(int count) {
+		Arrays.fill(data, entryOffset(count), entryOffset(getCount()), (byte) 0);
+		setCount(count);
+	}
+
+	/**
+	 * Moves the entries from position from on to the start of another page
+	 * of the same type, which must be empty.
+	 */
+	void moveEntriesTo(int from, BTreePage other) {
+		int offset = entryOffset(from);
+		int end = entryOffset(getCount());
+		System.arraycopy(data, offset, other.data, HEADER_SIZE, end - offset);
+		Arrays.fill(data, offset, end, (byte) 0);
+		other.setCount(getCount() - from);
+		setCount(from);
+	}
+}
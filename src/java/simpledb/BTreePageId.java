@@ -0,0 +1,62 @@
+package simpledb;
+
+/** Unique identifier for BTreePage objects. */
+public class BTreePageId implements PageId {
+
+	private final int m_tableID;
+	private final int m_pgNo;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific B+ tree file.
+	 *
+	 * @param tableId The id of the BTreeFile
+	 * @param pgNo The page number in that file.
+	 */
+	public BTreePageId(int tableId, int pgNo)
+	{
+		m_tableID = tableId;
+		m_pgNo = pgNo;
+	}
+
+	/** @return the id of the BTreeFile this page belongs to */
+	public int getTableId()
+	{
+		return m_tableID;
+	}
+
+	/** @return the page number in the file */
+	public int pageNumber()
+	{
+		return m_pgNo;
+	}
+
+	public int hashCode()
+	{
+		return 31 * m_tableID + m_pgNo;
+	}
+
+	public boolean equals(Object o)
+	{
+		if (o == this) return true;
+		if (!(o instanceof BTreePageId)) return false;
+		BTreePageId cur = (BTreePageId) o;
+		return cur.m_pgNo == m_pgNo && cur.m_tableID == m_tableID;
+	}
+
+	public String toString()
+	{
+		return "BTreePageId(" + m_tableID + ", " + m_pgNo + ")";
+	}
+
+	/**
+	 *  Return a representation of this object as an array of
+	 *  integers, for writing to disk.
+	 */
+	public int[] serialize() {
+		int data[] = new int[2];
+		data[0] = getTableId();
+		data[1] = pageNumber();
+		return data;
+	}
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The batch counterpart of {@link Aggregate}: computes one or more
+ * aggregates, optionally grouped by a field, over the batches of its child.
+ * <p>
+ * Every batch is processed a column at a time: first the group of each row
+ * is looked up, then each aggregate column is merged into the
+ * {@link AggregateState}s of those groups. Integer group values are looked
+ * up in an open-addressing table of ints, so no Field is built per row.
+ * Groups are returned in the order they were first seen. All groups are
+ * kept in memory; unlike Aggregate, this operator does not spill.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final int[] afields;
+    private final int gfield;
+    private final Aggregator.Op[] aops;
+    private final TupleDesc td;
+
+    // the groups in the order they were first seen, and their aggregates
+    private transient ArrayList<AggregateState[]> groups;
+    private transient int[] groupInts;
+    private transient ArrayList<String> groupStrings;
+    // open-addressing table from int group values to group numbers
+    private transient int[] slotKeys;
+    private transient int[] slotGroups;
+    private transient HashMap<String, Integer> stringGroups;
+    private transient int[] rowGroups;
+
+    private transient TupleBatch out;
+    private transient int emitted;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The BatchIterator that is feeding us rows.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each of afields; string
+     *            columns only support COUNT
+     */
+    public BatchAggregate(BatchIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need an op for each of at least one field");
+        TupleDesc childTd = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            if (childTd.getFieldType(afields[i]) != Type.INT_TYPE && aops[i] != Aggregator.Op.COUNT)
+                throw new IllegalArgumentException("only COUNT is supported for strings");
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.gfield = gfield == -1 ? Aggregator.NO_GROUPING : gfield;
+        this.aops = aops.clone();
+        td = Aggregate.outputTupleDesc(childTd, this.afields, this.gfield, this.aops);
+    }
+
+    /**
+     * Returns the TupleDesc of this aggregate, the same as that of an
+     * {@link Aggregate} over the same fields.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        groups = new ArrayList<AggregateState[]>();
+        if (gfield != Aggregator.NO_GROUPING) {
+            if (child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE) {
+                groupInts = new int[16];
+                slotKeys = new int[64];
+                slotGroups = new int[64];
+                Arrays.fill(slotGroups, -1);
+            } else {
+                groupStrings = new ArrayList<String>();
+                stringGroups = new HashMap<String, Integer>();
+            }
+        }
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null)
+            merge(b);
+        out = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY);
+        emitted = 0;
+    }
+
+    public void close() {
+        child.close();
+        groups = null;
+        groupInts = null;
+        groupStrings = null;
+        slotKeys = null;
+        slotGroups = null;
+        stringGroups = null;
+        rowGroups = null;
+        out = null;
+    }
+
+    /** Returns the aggregates again; the child is not read again. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        emitted = 0;
+    }
+
+    /** Merges the selected rows of a batch into their groups. */
+    private void merge(TupleBatch b) {
+        int n = b.numSelected();
+        if (rowGroups == null || rowGroups.length < n)
+            rowGroups = new int[b.capacity()];
+        if (gfield == Aggregator.NO_GROUPING) {
+            if (groups.isEmpty())
+                groups.add(newStates());
+            Arrays.fill(rowGroups, 0, n, 0);
+        } else if (slotKeys != null) {
+            int[] values = b.ints(gfield);
+            for (int i = 0; i < n; i++)
+                rowGroups[i] = intGroup(values[b.row(i)]);
+        } else {
+            String[] values = b.strings(gfield);
+            for (int i = 0; i < n; i++)
+                rowGroups[i] = stringGroup(values[b.row(i)]);
+        }
+
+        for (int k = 0; k < afields.length; k++) {
+            if (b.getTupleDesc().getFieldType(afields[k]) == Type.INT_TYPE) {
+                int[] values = b.ints(afields[k]);
+                for (int i = 0; i < n; i++)
+                    groups.get(rowGroups[i])[k].add(values[b.row(i)]);
+            } else {
+                for (int i = 0; i < n; i++)
+                    groups.get(rowGroups[i])[k].increment();
+            }
+        }
+    }
+
+    private AggregateState[] newStates() {
+        AggregateState[] states = new AggregateState[afields.length];
+        for (int k = 0; k < states.length; k++)
+            states[k] = new AggregateState();
+        return states;
+    }
+
+    /** @return the number of the group of an int value, adding it if new */
+    private int intGroup(int value) {
+        int mask = slotKeys.length - 1;
+        int slot = mix(value) & mask;
+        while (slotGroups[slot] >= 0) {
+            if (slotKeys[slot] == value)
+                return slotGroups[slot];
+            slot = (slot + 1) & mask;
+        }
+        int group = groups.size();
+        groups.add(newStates());
+        if (group == groupInts.length)
+            groupInts = Arrays.copyOf(groupInts, group * 2);
+        groupInts[group] = value;
+        slotKeys[slot] = value;
+        slotGroups[slot] = group;
+        // keep the table at most half full
+        if (groups.size() * 2 > slotKeys.length)
+            growTable();
+        return group;
+    }
+
+    private void growTable() {
+        int[] keys = new int[slotKeys.length * 2];
+        int[] values = new int[keys.length];
+        Arrays.fill(values, -1);
+        int mask = keys.length - 1;
+        for (int g = 0; g < groups.size(); g++) {
+            int slot = mix(groupInts[g]) & mask;
+            while (values[slot] >= 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = groupInts[g];
+            values[slot] = g;
+        }
+        slotKeys = keys;
+        slotGroups = values;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the number of the group of a string value, adding it if new */
+    private int stringGroup(String value) {
+        Integer group = stringGroups.get(value);
+        if (group != null)
+            return group;
+        int g = groups.size();
+        groups.add(newStates());
+        groupStrings.add(value);
+        stringGroups.put(value, g);
+        return g;
+    }
+
+    /**
+     * Returns the next batch of results: the group value, if there is
+     * grouping, followed by the value of each aggregate.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        int offset = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        while (!out.isFull() && emitted < groups.size()) {
+            int row = out.appendRow();
+            if (offset == 1) {
+                if (groupInts != null)
+                    out.setInt(0, row, groupInts[emitted]);
+                else
+                    out.setString(0, row, groupStrings.get(emitted));
+            }
+            AggregateState[] states = groups.get(emitted++);
+            for (int k = 0; k < states.length; k++)
+                out.setInt(offset + k, row, states[k].result(aops[k]));
+        }
+        return out.size() > 0 ? out : null;
+    }
+}
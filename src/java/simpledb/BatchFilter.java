@@ -0,0 +1,90 @@
+package simpledb;
+
+/**
+ * The batch counterpart of {@link Filter}: evaluates a predicate on a whole
+ * column of a batch at a time and narrows the batch's selection vector to
+ * the rows that satisfy it. Rows are never copied.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate pred;
+    private BatchIterator child;
+    private transient int[] selection;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.pred = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+        selection = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Returns the next batch of the child that has any row satisfying the
+     * predicate, with only those rows selected.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            if (filter(b) > 0)
+                return b;
+        }
+        return null;
+    }
+
+    /** @return the number of rows of the batch left selected */
+    private int filter(TupleBatch b) {
+        if (selection == null || selection.length < b.capacity())
+            selection = new int[b.capacity()];
+        // the selection vector of the batch may be the one written here,
+        // which works since no row is written before it has been read
+        int n = b.numSelected();
+        int count = 0;
+        int field = pred.getField();
+        Predicate.Op op = pred.getOp();
+        if (b.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            int operand = ((IntField) pred.getOperand()).getValue();
+            count = pred.getIntPredicate().select(b.ints(field), b.getSelection(), n,
+                    operand, selection);
+        } else {
+            String[] values = b.strings(field);
+            String operand = ((StringField) pred.getOperand()).getValue();
+            for (int i = 0; i < n; i++) {
+                int row = b.row(i);
+                if (StringField.compare(values[row], op, operand))
+                    selection[count++] = row;
+            }
+        }
+        b.select(selection, count);
+        return count;
+    }
+}
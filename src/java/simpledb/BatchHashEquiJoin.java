@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The batch counterpart of {@link HashEquiJoin}. The left child is the build
+ * side: all of its rows are copied into columns in memory and chained into
+ * a hash table on the join field, which is made of int arrays only. The
+ * batches of the right child are then probed row by row, and the matches
+ * are written column by column into output batches.
+ * <p>
+ * The build side must fit in memory.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int batchSize;
+
+    // the build side, column by column
+    private transient int[][] buildInts;
+    private transient String[][] buildStrings;
+    private transient int buildRows;
+    // bucket heads and the chain through the build rows, -1 terminated
+    private transient int[] head;
+    private transient int[] next;
+
+    private transient TupleBatch out;
+    private transient TupleBatch probe;
+    private transient int probePos;
+    private transient int probeRow;
+    private transient int match;
+    private transient boolean probeDone;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to join the children on; must be EQUALS
+     * @param child1
+     *            Iterator for the left (build) relation to join
+     * @param child2
+     *            Iterator for the right (probe) relation to join
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        this(p, child1, child2, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param batchSize
+     *            the number of rows per output batch
+     * @see #BatchHashEquiJoin(JoinPredicate, BatchIterator, BatchIterator)
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2,
+            int batchSize) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins need an equality predicate");
+        if (child1.getTupleDesc().getFieldType(p.getField1())
+                != child2.getTupleDesc().getFieldType(p.getField2()))
+            throw new IllegalArgumentException("join fields have different types");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.batchSize = batchSize;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        out = new TupleBatch(comboTD, batchSize);
+        build();
+        resetProbe();
+    }
+
+    public void close() {
+        child2.close();
+        child1.close();
+        buildInts = null;
+        buildStrings = null;
+        head = null;
+        next = null;
+        out = null;
+        probe = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        resetProbe();
+    }
+
+    private void resetProbe() {
+        probe = null;
+        probePos = 0;
+        match = -1;
+        probeDone = false;
+    }
+
+    /** Copies the left child into memory and hashes it. */
+    private void build() throws DbException, TransactionAbortedException {
+        TupleDesc td = child1.getTupleDesc();
+        int numFields = td.numFields();
+        int capacity = batchSize;
+        buildInts = new int[numFields][];
+        buildStrings = new String[numFields][];
+        for (int j = 0; j < numFields; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                buildInts[j] = new int[capacity];
+            else
+                buildStrings[j] = new String[capacity];
+        }
+        buildRows = 0;
+        TupleBatch b;
+        while ((b = child1.nextBatch()) != null) {
+            int n = b.numSelected();
+            if (buildRows + n > capacity) {
+                capacity = Math.max(capacity * 2, buildRows + n);
+                for (int j = 0; j < numFields; j++) {
+                    if (buildInts[j] != null)
+                        buildInts[j] = Arrays.copyOf(buildInts[j], capacity);
+                    else
+                        buildStrings[j] = Arrays.copyOf(buildStrings[j], capacity);
+                }
+            }
+            for (int j = 0; j < numFields; j++) {
+                if (buildInts[j] != null) {
+                    int[] from = b.ints(j), to = buildInts[j];
+                    for (int i = 0; i < n; i++)
+                        to[buildRows + i] = from[b.row(i)];
+                } else {
+                    String[] from = b.strings(j), to = buildStrings[j];
+                    for (int i = 0; i < n; i++)
+                        to[buildRows + i] = from[b.row(i)];
+                }
+            }
+            buildRows += n;
+        }
+
+        int buckets = Integer.highestOneBit(Math.max(1, buildRows) * 2);
+        head = new int[buckets];
+        Arrays.fill(head, -1);
+        next = new int[buildRows];
+        int key = pred.getField1();
+        for (int r = 0; r < buildRows; r++) {
+            int h = (buildInts[key] != null ? mix(buildInts[key][r])
+                    : mix(buildStrings[key][r].hashCode())) & (buckets - 1);
+            next[r] = head[h];
+            head[h] = r;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the first build row at or after r in its chain that matches the probe row */
+    private int findMatch(int r) {
+        int key1 = pred.getField1(), key2 = pred.getField2();
+        if (buildInts[key1] != null) {
+            int value = probe.getInt(key2, probeRow);
+            while (r >= 0 && buildInts[key1][r] != value)
+                r = next[r];
+        } else {
+            String value = probe.getString(key2, probeRow);
+            while (r >= 0 && !buildStrings[key1][r].equals(value))
+                r = next[r];
+        }
+        return r;
+    }
+
+    /** @return the first build row that matches the probe row, or -1 */
+    private int firstMatch() {
+        int key2 = pred.getField2();
+        int h = probe.getTupleDesc().getFieldType(key2) == Type.INT_TYPE
+                ? mix(probe.getInt(key2, probeRow))
+                : mix(probe.getString(key2, probeRow).hashCode());
+        return findMatch(head[h & (head.length - 1)]);
+    }
+
+    /** Adds the concatenation of a build row and the probe row to the output. */
+    private void emit(int buildRow) {
+        int row = out.appendRow();
+        int left = buildInts.length;
+        for (int j = 0; j < left; j++) {
+            if (buildInts[j] != null)
+                out.setInt(j, row, buildInts[j][buildRow]);
+            else
+                out.setString(j, row, buildStrings[j][buildRow]);
+        }
+        TupleDesc td2 = probe.getTupleDesc();
+        for (int j = 0; j < td2.numFields(); j++) {
+            if (td2.getFieldType(j) == Type.INT_TYPE)
+                out.setInt(left + j, row, probe.getInt(j, probeRow));
+            else
+                out.setString(left + j, row, probe.getString(j, probeRow));
+        }
+    }
+
+    /**
+     * Returns the next batch of joined rows: the concatenation of the
+     * matching rows from the left and right relation, in the order of the
+     * right relation.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        while (!out.isFull()) {
+            if (match >= 0) {
+                emit(match);
+                match = findMatch(next[match]);
+                continue;
+            }
+            if (probe == null || probePos >= probe.numSelected()) {
+                if (probeDone || (probe = child2.nextBatch()) == null) {
+                    probeDone = true;
+                    break;
+                }
+                probePos = 0;
+            }
+            probeRow = probe.row(probePos++);
+            match = firstMatch();
+        }
+        return out.size() > 0 ? out : null;
+    }
+}
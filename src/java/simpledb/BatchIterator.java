@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}:
+ * operators hand each other {@link TupleBatch}es of many rows instead of
+ * single tuples, which saves a call, a Tuple and its Fields per row.
+ * {@link BatchToTuples} and {@link TuplesToBatch} connect batch operators
+ * with the rest of the operators.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before {@link #nextBatch()}.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch. A batch has at least one selected row. It may
+     * be reused by the iterator, so it is only valid until the next call to
+     * nextBatch, rewind or close.
+     *
+     * @return the next batch, or null if there are no more rows
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchIterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * The batch counterpart of {@link Project}: picks and reorders columns of
+ * its child's batches. The projected batches share their columns with the
+ * child's, so nothing is copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final int[] fields;
+    private final TupleDesc td;
+
+    /**
+     * Constructor accepts a child operator to read batches from and the
+     * fields of its batches to keep
+     *
+     * @param fields
+     *            The ids of the fields of child's tupleDesc to project out
+     * @param child
+     *            The child operator
+     */
+    public BatchProject(int[] fields, BatchIterator child) {
+        this.child = child;
+        this.fields = fields.clone();
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = childtd.getFieldType(fields[i]);
+            names[i] = childtd.getFieldName(fields[i]);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        return b == null ? null : b.project(fields, td);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+/**
+ * The batch counterpart of {@link SeqScan}: reads the pages of a table, or
+ * a range of them, in order and decodes their tuples straight into the
+ * columns of a {@link TupleBatch}. Like a HeapFile iterator, it has the
+ * buffer pool prefetch the pages of the read-ahead window.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final TupleDesc td;
+    private final int startPage;
+    private final int endPage;
+    private final int batchSize;
+
+    private transient TupleBatch batch;
+    private transient int numPages;
+    private transient int page;
+    private transient HeapPage current;
+    private transient int slot;
+    private transient int prefetchedTo;
+
+    /**
+     * Creates a scan over a whole table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, 0, -1, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a scan over a range of pages of a table.
+     *
+     * @param startPage
+     *            the first page to scan
+     * @param endPage
+     *            the page after the last page to scan, or -1 to scan to the
+     *            end of the table
+     * @param batchSize
+     *            the number of rows per batch
+     * @see #BatchSeqScan(TransactionId, int, String)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias,
+            int startPage, int endPage, int batchSize) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.batchSize = batchSize;
+        TupleDesc fileTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[fileTd.numFields()];
+        String[] names = new String[fileTd.numFields()];
+        for (int i = 0; i < fileTd.numFields(); i++) {
+            types[i] = fileTd.getFieldType(i);
+            names[i] = tableAlias + "." + fileTd.getFieldName(i);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(td, batchSize);
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        numPages = endPage < 0 ? f.numPages() : Math.min(endPage, f.numPages());
+        rewind();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        page = startPage - 1;
+        current = null;
+        slot = 0;
+        prefetchedTo = startPage;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull()) {
+            if (current == null) {
+                if (++page >= numPages)
+                    break;
+                BufferPool bp = Database.getBufferPool();
+                current = (HeapPage) bp.getPage(tid, new HeapPageId(tableid, page),
+                        Permissions.READ_ONLY);
+                slot = 0;
+                int end = Math.min(numPages, page + 1 + bp.getReadAheadWindow());
+                for (int p = Math.max(prefetchedTo, page + 1); p < end; p++)
+                    bp.prefetchPage(new HeapPageId(tableid, p));
+                prefetchedTo = Math.max(prefetchedTo, end);
+            }
+            slot = current.readColumns(slot, batch);
+            if (!batch.isFull())
+                current = null;
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void close() {
+        batch = null;
+        current = null;
+    }
+}
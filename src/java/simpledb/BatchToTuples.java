@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Adapts a {@link BatchIterator} to a {@link DbIterator}, so that a plan of
+ * batch operators can feed any other operator. Returns the selected rows of
+ * every batch as tuples.
+ */
+public class BatchToTuples extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    /**
+     * @param child
+     *            the batch operator whose rows to return
+     */
+    public BatchToTuples(BatchIterator child) {
+        this.child = child;
+    }
+
+    /** @return the batch operator this adapter reads from */
+    public BatchIterator getBatchChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        batch = null;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || pos >= batch.numSelected()) {
+            batch = child.nextBatch();
+            if (batch == null)
+                return null;
+            pos = 0;
+        }
+        return batch.toTuple(batch.row(pos++));
+    }
+
+    /** Batch operators are not DbIterators; an adapter has no children. */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -0,0 +1,377 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A compressed set of tuple positions, each a page number and a slot on
+ * that page, organised like a Roaring bitmap: the page numbers that have
+ * members are kept in a sorted array, and the slots of each page in a
+ * container of their own. A container with few members is a sorted array of
+ * slots, two bytes per member; one with more than {@link #ARRAY_MAX} is a
+ * bitset over the slots of the page. Pages without members take no space,
+ * so a bitmap costs little whether it is sparse or dense.
+ * <p>
+ * Members are enumerated page by page, in page order, with
+ * {@link #numPages()}, {@link #getPage(int)} and {@link #getSlots(int)}.
+ * {@link #and} and {@link #or} return new bitmaps and leave their operands
+ * unchanged. Bitmaps are not thread-safe.
+ *
+ * @see BitmapIndex
+ * @see BitmapHeapScan
+ */
+public class Bitmap implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The most slots a container stores as an array. */
+	static final int ARRAY_MAX = 64;
+
+	/**
+	 * The slots of one page: a sorted array of slots if bits is null, a
+	 * bitset over the slots otherwise.
+	 */
+	private static final class Container implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		char[] array;
+		long[] bits;
+		int card;
+
+		Container() {
+			array = new char[4];
+		}
+
+		/** @return a container holding the first n of the sorted slots */
+		static Container of(int[] slots, int n) {
+			Container c = new Container();
+			if (n <= ARRAY_MAX) {
+				c.array = new char[Math.max(4, n)];
+				for (int i = 0; i < n; i++)
+					c.array[i] = (char) slots[i];
+			} else {
+				c.array = null;
+				c.bits = new long[(slots[n - 1] >>> 6) + 1];
+				for (int i = 0; i < n; i++)
+					c.bits[slots[i] >>> 6] |= 1L << slots[i];
+			}
+			c.card = n;
+			return c;
+		}
+
+		boolean contains(int slot) {
+			if (bits == null)
+				return Arrays.binarySearch(array, 0, card, (char) slot) >= 0;
+			int w = slot >>> 6;
+			return w < bits.length && (bits[w] & (1L << slot)) != 0;
+		}
+
+		/** @return true if the slot was not a member before */
+		boolean add(int slot) {
+			if (bits == null) {
+				int pos = Arrays.binarySearch(array, 0, card, (char) slot);
+				if (pos >= 0)
+					return false;
+				if (card == ARRAY_MAX) {
+					toBits();
+					return add(slot);
+				}
+				pos = -pos - 1;
+				if (card == array.length)
+					array = Arrays.copyOf(array, 2 * card);
+				System.arraycopy(array, pos, array, pos + 1, card - pos);
+				array[pos] = (char) slot;
+				card++;
+				return true;
+			}
+			int w = slot >>> 6;
+			if (w >= bits.length)
+				bits = Arrays.copyOf(bits, Math.max(w + 1, 2 * bits.length));
+			if ((bits[w] & (1L << slot)) != 0)
+				return false;
+			bits[w] |= 1L << slot;
+			card++;
+			return true;
+		}
+
+		/** @return true if the slot was a member */
+		boolean remove(int slot) {
+			if (bits == null) {
+				int pos = Arrays.binarySearch(array, 0, card, (char) slot);
+				if (pos < 0)
+					return false;
+				System.arraycopy(array, pos + 1, array, pos, card - pos - 1);
+				card--;
+				return true;
+			}
+			if (!contains(slot))
+				return false;
+			bits[slot >>> 6] &= ~(1L << slot);
+			card--;
+			// back to an array well below the limit, so that a container
+			// at the limit does not switch at every change
+			if (card <= ARRAY_MAX / 2) {
+				int[] slots = slots();
+				array = new char[ARRAY_MAX];
+				for (int i = 0; i < card; i++)
+					array[i] = (char) slots[i];
+				bits = null;
+			}
+			return true;
+		}
+
+		private void toBits() {
+			int[] slots = slots();
+			bits = new long[(slots[card - 1] >>> 6) + 1];
+			for (int i = 0; i < card; i++)
+				bits[slots[i] >>> 6] |= 1L << slots[i];
+			array = null;
+		}
+
+		/** @return the slots, in ascending order */
+		int[] slots() {
+			int[] slots = new int[card];
+			if (bits == null) {
+				for (int i = 0; i < card; i++)
+					slots[i] = array[i];
+				return slots;
+			}
+			int n = 0;
+			for (int w = 0; w < bits.length; w++) {
+				long word = bits[w];
+				while (word != 0) {
+					slots[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return slots;
+		}
+
+		/** @return the slots in both containers, or null if there are none */
+		Container and(Container other) {
+			if (bits != null && other.bits != null) {
+				int[] slots = new int[Math.min(card, other.card)];
+				int n = 0;
+				for (int w = 0; w < Math.min(bits.length, other.bits.length); w++) {
+					long word = bits[w] & other.bits[w];
+					while (word != 0) {
+						slots[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+				return n == 0 ? null : of(slots, n);
+			}
+			// test the members of the array against the other container
+			Container small = bits == null ? this : other;
+			Container large = small == this ? other : this;
+			int[] slots = new int[small.card];
+			int n = 0;
+			for (int i = 0; i < small.card; i++)
+				if (large.contains(small.array[i]))
+					slots[n++] = small.array[i];
+			return n == 0 ? null : of(slots, n);
+		}
+
+		/** @return the slots in either container */
+		Container or(Container other) {
+			int[] a = slots(), b = other.slots();
+			int[] slots = new int[a.length + b.length];
+			int i = 0, j = 0, n = 0;
+			while (i < a.length || j < b.length) {
+				if (j == b.length || (i < a.length && a[i] < b[j]))
+					slots[n++] = a[i++];
+				else if (i == a.length || b[j] < a[i])
+					slots[n++] = b[j++];
+				else {
+					slots[n++] = a[i++];
+					j++;
+				}
+			}
+			return of(slots, n);
+		}
+
+		Container copy() {
+			Container c = new Container();
+			c.array = array == null ? null : array.clone();
+			c.bits = bits == null ? null : bits.clone();
+			c.card = card;
+			return c;
+		}
+	}
+
+	private int[] m_pages;
+	private Container[] m_containers;
+	private int m_numPages;
+
+	/** Creates an empty bitmap. */
+	public Bitmap() {
+		m_pages = new int[4];
+		m_containers = new Container[4];
+	}
+
+	private int find(int page) {
+		return Arrays.binarySearch(m_pages, 0, m_numPages, page);
+	}
+
+	private void append(int page, Container c) {
+		if (m_numPages == m_pages.length) {
+			m_pages = Arrays.copyOf(m_pages, 2 * m_numPages);
+			m_containers = Arrays.copyOf(m_containers, 2 * m_numPages);
+		}
+		m_pages[m_numPages] = page;
+		m_containers[m_numPages++] = c;
+	}
+
+	/**
+	 * Adds a position to the bitmap.
+	 *
+	 * @param slot a slot number, less than 65536
+	 * @return true if the position was not a member before
+	 */
+	public boolean add(int page, int slot) {
+		int pos = find(page);
+		if (pos < 0) {
+			pos = -pos - 1;
+			append(0, null);
+			System.arraycopy(m_pages, pos, m_pages, pos + 1, m_numPages - pos - 1);
+			System.arraycopy(m_containers, pos, m_containers, pos + 1, m_numPages - pos - 1);
+			m_pages[pos] = page;
+			m_containers[pos] = new Container();
+		}
+		return m_containers[pos].add(slot);
+	}
+
+	/**
+	 * Removes a position from the bitmap.
+	 *
+	 * @return true if the position was a member
+	 */
+	public boolean remove(int page, int slot) {
+		int pos = find(page);
+		if (pos < 0 || !m_containers[pos].remove(slot))
+			return false;
+		if (m_containers[pos].card == 0) {
+			System.arraycopy(m_pages, pos + 1, m_pages, pos, m_numPages - pos - 1);
+			System.arraycopy(m_containers, pos + 1, m_containers, pos, m_numPages - pos - 1);
+			m_containers[--m_numPages] = null;
+		}
+		return true;
+	}
+
+	public boolean contains(int page, int slot) {
+		int pos = find(page);
+		return pos >= 0 && m_containers[pos].contains(slot);
+	}
+
+	/** @return the number of positions in the bitmap */
+	public int cardinality() {
+		int n = 0;
+		for (int i = 0; i < m_numPages; i++)
+			n += m_containers[i].card;
+		return n;
+	}
+
+	public boolean isEmpty() {
+		return m_numPages == 0;
+	}
+
+	/** @return the number of pages that have positions in the bitmap */
+	public int numPages() {
+		return m_numPages;
+	}
+
+	/** @return the i-th page that has positions, in ascending order */
+	public int getPage(int i) {
+		return m_pages[i];
+	}
+
+	/** @return the slots of the i-th page, in ascending order */
+	public int[] getSlots(int i) {
+		return m_containers[i].slots();
+	}
+
+	/** @return the positions that are in both this bitmap and other */
+	public Bitmap and(Bitmap other) {
+		Bitmap result = new Bitmap();
+		int i = 0, j = 0;
+		while (i < m_numPages && j < other.m_numPages) {
+			if (m_pages[i] < other.m_pages[j]) {
+				i++;
+			} else if (m_pages[i] > other.m_pages[j]) {
+				j++;
+			} else {
+				Container c = m_containers[i].and(other.m_containers[j]);
+				if (c != null)
+					result.append(m_pages[i], c);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/** @return the positions that are in this bitmap, other, or both */
+	public Bitmap or(Bitmap other) {
+		Bitmap result = new Bitmap();
+		int i = 0, j = 0;
+		while (i < m_numPages || j < other.m_numPages) {
+			if (j == other.m_numPages || (i < m_numPages && m_pages[i] < other.m_pages[j])) {
+				result.append(m_pages[i], m_containers[i].copy());
+				i++;
+			} else if (i == m_numPages || other.m_pages[j] < m_pages[i]) {
+				result.append(other.m_pages[j], other.m_containers[j].copy());
+				j++;
+			} else {
+				result.append(m_pages[i], m_containers[i].or(other.m_containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the bitmap: the number of pages, then for each page its number,
+	 * its number of slots and either the slots, as chars, or the words of
+	 * its bitset, preceded by their number.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(m_numPages);
+		for (int i = 0; i < m_numPages; i++) {
+			Container c = m_containers[i];
+			out.writeInt(m_pages[i]);
+			out.writeInt(c.card);
+			if (c.bits == null) {
+				for (int k = 0; k < c.card; k++)
+					out.writeChar(c.array[k]);
+			} else {
+				out.writeInt(c.bits.length);
+				for (long word : c.bits)
+					out.writeLong(word);
+			}
+		}
+	}
+
+	/** Reads a bitmap written by {@link #write}. */
+	public static Bitmap read(DataInput in) throws IOException {
+		Bitmap b = new Bitmap();
+		int pages = in.readInt();
+		for (int i = 0; i < pages; i++) {
+			int page = in.readInt();
+			Container c = new Container();
+			c.card = in.readInt();
+			if (c.card <= ARRAY_MAX) {
+				c.array = new char[Math.max(4, c.card)];
+				for (int k = 0; k < c.card; k++)
+					c.array[k] = in.readChar();
+			} else {
+				c.array = null;
+				c.bits = new long[in.readInt()];
+				for (int k = 0; k < c.bits.length; k++)
+					c.bits[k] = in.readLong();
+			}
+			b.append(page, c);
+		}
+		return b;
+	}
+}
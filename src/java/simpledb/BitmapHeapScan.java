@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapHeapScan is an access method that reads the tuples of a table at
+ * the positions of a {@link Bitmap}, typically the AND of the bitmaps that
+ * several {@link BitmapIndex}es return for predicates on their fields. Each
+ * page with a position in the bitmap is read once, in page order, and only
+ * those pages are prefetched; the other pages of the table are not read at
+ * all. Unlike an IndexScan, which reads a page once per RecordId the index
+ * returns, the cost of the scan is bounded by the number of pages of the
+ * table however many tuples match.
+ */
+public class BitmapHeapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tablealias;
+    private final List<Predicate> predicates;
+    private final Bitmap given;
+
+    private transient Bitmap bitmap;
+    private transient int page;
+    private transient HeapPage current;
+    private transient int[] slots;
+    private transient int pos;
+    private transient int prefetchedTo;
+    private transient Tuple next;
+
+    /**
+     * Creates a scan of the tuples of a table that satisfy all of the
+     * predicates, each of which must be on a field with a BitmapIndex.
+     * The bitmaps of the predicates are ANDed when the scan is opened, and
+     * the predicates are checked again on every tuple read.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of the table, used to prefix the field names of
+     *            the returned tupleDesc as in SeqScan
+     * @param predicates
+     *            the predicates, on the fields of the table with int operands
+     * @throws IllegalArgumentException if there are no predicates, or one is
+     *             on a field without a BitmapIndex
+     */
+    public BitmapHeapScan(TransactionId tid, int tableid, String tableAlias,
+            List<Predicate> predicates) {
+        if (predicates.isEmpty())
+            throw new IllegalArgumentException("a bitmap heap scan needs a predicate");
+        for (Predicate p : predicates)
+            if (Database.getCatalog().getBitmapIndex(tableid, p.getField()) == null
+                    || !(p.getOperand() instanceof IntField))
+                throw new IllegalArgumentException("no bitmap index for " + p);
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tablealias = tableAlias;
+        this.predicates = new ArrayList<Predicate>(predicates);
+        this.given = null;
+    }
+
+    /**
+     * Creates a scan of the tuples of a table at the positions of a bitmap
+     * built by the caller, for instance the OR of the bitmaps of two
+     * indexes. The tuples are not checked against any predicate.
+     */
+    public BitmapHeapScan(TransactionId tid, int tableid, String tableAlias,
+            Bitmap bitmap) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tablealias = tableAlias;
+        this.predicates = new ArrayList<Predicate>();
+        this.given = bitmap;
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tablealias;
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the predicates whose bitmaps are ANDed, numbered as in
+     *         {@link #getTupleDesc()}; empty if the bitmap was given
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    /**
+     * @return the bitmap given to the scan, or null if it is computed from
+     *         the predicates
+     */
+    public Bitmap getBitmap() {
+        return given;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (given != null) {
+            bitmap = given;
+        } else {
+            Catalog catalog = Database.getCatalog();
+            bitmap = null;
+            for (Predicate p : predicates) {
+                Bitmap b = catalog.getBitmapIndex(tableid, p.getField()).bitmap(p.getOp(),
+                        ((IntField) p.getOperand()).getValue());
+                bitmap = bitmap == null ? b : bitmap.and(b);
+            }
+        }
+        page = -1;
+        current = null;
+        slots = new int[0];
+        pos = 0;
+        prefetchedTo = 0;
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with the
+     * table alias as in {@link SeqScan#getTupleDesc()}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tablealias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : predicates)
+            if (!p.filter(t))
+                return false;
+        return true;
+    }
+
+    /** Reads the next page of the bitmap, and prefetches those after it. */
+    private void nextPage() throws DbException, TransactionAbortedException {
+        page++;
+        BufferPool bp = Database.getBufferPool();
+        current = (HeapPage) bp.getPage(tid, new HeapPageId(tableid, bitmap.getPage(page)),
+                Permissions.READ_ONLY);
+        slots = bitmap.getSlots(page);
+        pos = 0;
+        int end = Math.min(bitmap.numPages(), page + 1 + bp.getReadAheadWindow());
+        for (int p = Math.max(prefetchedTo, page + 1); p < end; p++)
+            bp.prefetchPage(new HeapPageId(tableid, bitmap.getPage(p)));
+        prefetchedTo = Math.max(prefetchedTo, end);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (bitmap == null)
+            throw new IllegalStateException("scan not open");
+        while (next == null) {
+            if (pos == slots.length) {
+                if (page + 1 >= bitmap.numPages())
+                    return false;
+                nextPage();
+                continue;
+            }
+            // the entry of a tuple deleted since may still be in a given bitmap
+            Tuple t = current.getTuple(slots[pos++]);
+            if (t != null && matches(t))
+                next = t;
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        bitmap = null;
+        current = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
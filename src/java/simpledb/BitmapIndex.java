@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndex is an index over an INT_TYPE field with few distinct values,
+ * such as a status or a category. For each value of the field it keeps a
+ * compressed {@link Bitmap} of the positions of the tuples that have it, so
+ * a lookup of a range of values ORs a few bitmaps, and lookups on several
+ * indexed fields can be ANDed before a single page of the table is read
+ * (see {@link #bitmap} and {@link BitmapHeapScan}).
+ * <p>
+ * Unlike a BTreeFile or a HashFile the index has no pages, and so is not a
+ * DbFile: like the {@link ZoneMap} of a HeapFile it is a side structure,
+ * which the Catalog keeps apart from its tables and indexes (see
+ * {@link Catalog#getBitmapIndexes}). The bitmaps are kept in memory and
+ * written whole to the index's file by {@link #save}, which the BufferPool
+ * calls when it flushes all pages. The file holds the number of values, then
+ * each value followed by its bitmap. As with the side files of a HeapFile,
+ * an index file older than its table is not to be trusted; the Catalog
+ * rebuilds such an index with {@link #build}.
+ */
+public class BitmapIndex {
+
+	private final File m_file;
+	private final int m_tableId;
+	private final int m_keyField;
+	/** The positions of the tuples with each value of the key. */
+	private final TreeMap<Integer, Bitmap> m_bitmaps;
+	private boolean m_dirty;
+
+	/**
+	 * Opens the bitmap index stored in the specified file, or creates an
+	 * empty index if the file is empty or does not exist. Use {@link #build}
+	 * to create the index of a table that already has tuples.
+	 *
+	 * @param f the file the index is stored in
+	 * @param tableid the id of the indexed table
+	 * @param keyField the indexed field, which must be an INT_TYPE field
+	 */
+	public BitmapIndex(File f, int tableid, int keyField) throws IOException {
+		m_file = f;
+		m_tableId = tableid;
+		m_keyField = keyField;
+		m_bitmaps = new TreeMap<Integer, Bitmap>();
+		if (f.exists() && f.length() > 0) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f)));
+			try {
+				int values = in.readInt();
+				for (int i = 0; i < values; i++) {
+					int value = in.readInt();
+					m_bitmaps.put(value, Bitmap.read(in));
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates the index of a table by scanning it, and writes it to the
+	 * specified file, replacing whatever the file held.
+	 *
+	 * @return the index, not yet registered with the Catalog
+	 */
+	public static BitmapIndex build(File f, int tableid, int keyField)
+			throws DbException, TransactionAbortedException, IOException {
+		DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+		if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE)
+			throw new DbException("only INT_TYPE fields can be indexed");
+		if (f.exists() && !f.delete())
+			throw new IOException("could not replace " + f);
+		BitmapIndex index = new BitmapIndex(f, tableid, keyField);
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		while (it.hasNext())
+			index.add(it.next());
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		index.m_dirty = true;
+		index.save();
+		return index;
+	}
+
+	/**
+	 * Writes the index to its file if it has changed since it was last
+	 * written.
+	 */
+	public synchronized void save() throws IOException {
+		if (!m_dirty)
+			return;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(m_file)));
+		try {
+			out.writeInt(m_bitmaps.size());
+			for (Map.Entry<Integer, Bitmap> e : m_bitmaps.entrySet()) {
+				out.writeInt(e.getKey());
+				e.getValue().write(out);
+			}
+		} finally {
+			out.close();
+		}
+		m_dirty = false;
+	}
+
+	/** @return the File the index is stored in */
+	public File getFile() {
+		return m_file;
+	}
+
+	public int getTableId() {
+		return m_tableId;
+	}
+
+	public int getKeyField() {
+		return m_keyField;
+	}
+
+	/** @return the number of distinct values of the key in the table */
+	public synchronized int numValues() {
+		return m_bitmaps.size();
+	}
+
+	private boolean add(Tuple t) {
+		int key = ((IntField) t.getField(m_keyField)).getValue();
+		Bitmap b = m_bitmaps.get(key);
+		if (b == null) {
+			b = new Bitmap();
+			m_bitmaps.put(key, b);
+		}
+		RecordId rid = t.getRecordId();
+		return b.add(rid.getPageId().pageNumber(), rid.tupleno());
+	}
+
+	/**
+	 * Adds the entry of a tuple stored in the indexed table.
+	 *
+	 * @throws DbException if the index has an entry for the tuple already
+	 */
+	public synchronized void insertTuple(Tuple t) throws DbException {
+		if (!add(t))
+			throw new DbException("index already has an entry for this tuple");
+		m_dirty = true;
+	}
+
+	/**
+	 * Removes the entry of a tuple stored in the indexed table.
+	 *
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public synchronized void deleteTuple(Tuple t) throws DbException {
+		int key = ((IntField) t.getField(m_keyField)).getValue();
+		Bitmap b = m_bitmaps.get(key);
+		RecordId rid = t.getRecordId();
+		if (b == null || !b.remove(rid.getPageId().pageNumber(), rid.tupleno()))
+			throw new DbException("index has no entry for this tuple");
+		if (b.isEmpty())
+			m_bitmaps.remove(key);
+		m_dirty = true;
+	}
+
+	/**
+	 * Returns the positions of the tuples whose key satisfies "key op value",
+	 * the OR of the bitmaps of the qualifying values. The bitmap is the
+	 * caller's, and does not change with the index.
+	 */
+	public synchronized Bitmap bitmap(Predicate.Op op, int value) {
+		SortedMap<Integer, Bitmap> values;
+		switch (op) {
+		case EQUALS:
+		case LIKE:
+			values = m_bitmaps.subMap(value, true, value, true);
+			break;
+		case GREATER_THAN:
+			values = m_bitmaps.tailMap(value, false);
+			break;
+		case GREATER_THAN_OR_EQ:
+			values = m_bitmaps.tailMap(value, true);
+			break;
+		case LESS_THAN:
+			values = m_bitmaps.headMap(value, false);
+			break;
+		case LESS_THAN_OR_EQ:
+			values = m_bitmaps.headMap(value, true);
+			break;
+		default:
+			values = new TreeMap<Integer, Bitmap>(m_bitmaps);
+			values.remove(value);
+		}
+		Bitmap result = new Bitmap();
+		for (Bitmap b : values.values())
+			result = result.or(b);
+		return result;
+	}
+
+	/**
+	 * Returns the RecordIds of the tuples whose key satisfies
+	 * "key op value", in page order. The bitmap is computed when the
+	 * iterator is opened.
+	 */
+	public IndexIterator lookup(Predicate.Op op, int value) {
+		return new PositionIterator(op, value);
+	}
+
+	/** Returns the positions of a lookup as RecordIds. */
+	private class PositionIterator implements IndexIterator {
+		private final Predicate.Op m_op;
+		private final int m_value;
+		private Bitmap m_bitmap;
+		private int m_page;
+		private int[] m_slots;
+		private int m_pos;
+
+		PositionIterator(Predicate.Op op, int value) {
+			m_op = op;
+			m_value = value;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			m_bitmap = bitmap(m_op, m_value);
+			m_page = -1;
+			m_slots = new int[0];
+			m_pos = 0;
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (m_bitmap == null)
+				return false;
+			while (m_pos == m_slots.length && m_page + 1 < m_bitmap.numPages()) {
+				m_slots = m_bitmap.getSlots(++m_page);
+				m_pos = 0;
+			}
+			return m_pos < m_slots.length;
+		}
+
+		public RecordId next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return new RecordId(new HeapPageId(m_tableId, m_bitmap.getPage(m_page)),
+					m_slots[m_pos++]);
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			m_bitmap = null;
+		}
+	}
+}
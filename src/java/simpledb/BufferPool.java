@@ -2,8 +2,18 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -14,6 +24,20 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Which page is given up when the pool is full is decided by a pluggable
+ * {@link ReplacementPolicy}; the pool counts hits, misses and evictions so
+ * that policies can be compared on the same workload.
+ * <p>
+ * Page lookups do not take a pool-wide lock. A miss registers a per-page
+ * future, so exactly one thread reads a given page from disk while other
+ * threads asking for the same page wait for that read; eviction is
+ * serialized only by the replacement policy.
+ * <p>
+ * Sequential scans can ask the pool to prefetch the pages they are about to
+ * read ({@link #prefetchPage}); those are read by background threads. A
+ * prefetched page that is requested before it is evicted is a prefetch hit,
+ * one that is evicted unused is a wasted prefetch.
  * 
  * @Threadsafe, all fields are final
  */
@@ -28,19 +52,126 @@ public class BufferPool {
     constructor instead. */
 	public static final int DEFAULT_PAGES = 50;
 
+	/** Default number of pages a sequential scan reads ahead. */
+	public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+	/** Background threads that run prefetches for every buffer pool. */
+	private static final Executor PREFETCHER = Executors.newFixedThreadPool(
+			Math.max(2, Runtime.getRuntime().availableProcessors()),
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "simpledb-prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
 	//PRIVATE
 	private ConcurrentHashMap<PageId, Page> m_pages;
+	private final ConcurrentHashMap<PageId, PageLoad> m_loading;
+	private final Set<PageId> m_prefetched;
+	private volatile int m_readAhead = DEFAULT_READ_AHEAD_PAGES;
 	private int m_numPages;
+	/** The number of resident pages plus the pages being read into the pool. */
+	private final AtomicInteger m_frames = new AtomicInteger();
+	private final ReplacementPolicy m_policy;
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_evictions = new AtomicLong();
+	private final AtomicLong m_prefetches = new AtomicLong();
+	private final AtomicLong m_prefetchHits = new AtomicLong();
+	private final AtomicLong m_prefetchesWasted = new AtomicLong();
 	//PRIVATE
 	/**
-	 * Creates a BufferPool that caches up to numPages pages.
+	 * Creates a BufferPool that caches up to numPages pages and replaces
+	 * them with LRU-2.
 	 *
 	 * @param numPages maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages) 
+	{
+		this(numPages, new LruKPolicy());
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and uses the
+	 * given policy to pick the pages it evicts.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param policy the replacement policy; it must not be shared with
+	 *        another buffer pool.
+	 */
+	public BufferPool(int numPages, ReplacementPolicy policy)
 	{
 		this.m_pages = new ConcurrentHashMap<PageId, Page>();
+		this.m_loading = new ConcurrentHashMap<PageId, PageLoad>();
+		this.m_prefetched = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
 		this.m_numPages = numPages;
+		this.m_policy = policy;
+	}
+
+	/** @return the replacement policy used by this buffer pool */
+	public ReplacementPolicy getReplacementPolicy() {
+		return m_policy;
+	}
+
+	/** @return the number of getPage calls served from the pool */
+	public long getHitCount() {
+		return m_hits.get();
+	}
+
+	/** @return the number of getPage calls that had to read the page from disk */
+	public long getMissCount() {
+		return m_misses.get();
+	}
+
+	/** @return the number of pages evicted to make room for other pages */
+	public long getEvictionCount() {
+		return m_evictions.get();
+	}
+
+	/** @return the number of prefetches started */
+	public long getPrefetchCount() {
+		return m_prefetches.get();
+	}
+
+	/** @return the number of prefetched pages that were requested before being evicted */
+	public long getPrefetchHitCount() {
+		return m_prefetchHits.get();
+	}
+
+	/** @return the number of prefetched pages that were evicted without being requested */
+	public long getWastedPrefetchCount() {
+		return m_prefetchesWasted.get();
+	}
+
+	/** Resets all hit, miss, eviction and prefetch counters to zero. */
+	public void resetStatistics() {
+		m_hits.set(0);
+		m_misses.set(0);
+		m_evictions.set(0);
+		m_prefetches.set(0);
+		m_prefetchHits.set(0);
+		m_prefetchesWasted.set(0);
+	}
+
+	/**
+	 * Sets how many pages ahead of the current page sequential scans
+	 * prefetch; 0 turns read-ahead off.
+	 */
+	public void setReadAheadWindow(int pages) {
+		if (pages < 0)
+			throw new IllegalArgumentException("read-ahead window must not be negative");
+		m_readAhead = pages;
+	}
+
+	/**
+	 * @return how many pages ahead sequential scans should prefetch. This is
+	 *         capped at a quarter of the pool so that read-ahead cannot push
+	 *         out the pages a small pool is working on.
+	 */
+	public int getReadAheadWindow() {
+		return Math.min(m_readAhead, m_numPages / 4);
 	}
 
 	public static int getPageSize() {
@@ -67,20 +198,165 @@ public class BufferPool {
 	 * @param pid the ID of the requested page
 	 * @param perm the requested permissions on the page
 	 */
-	public  Page getPage(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException, DbException 
+	public  Page getPage(TransactionId tid, final PageId pid, Permissions perm) throws TransactionAbortedException, DbException 
 	{
         Page page = m_pages.get(pid);
-        if (page != null)
+        if (page != null) {
+            pageHit(pid);
+            return page;
+        }
+        PageLoad load = new PageLoad(pid);
+        PageLoad pending = m_loading.putIfAbsent(pid, load);
+        if (pending == null) {
+            // the page may have been loaded (and its future retired) between
+            // the lookup above and registering this load
+            page = m_pages.get(pid);
+            if (page != null) {
+                m_loading.remove(pid, load);
+                pageHit(pid);
+                return page;
+            }
+            m_misses.incrementAndGet();
+            load.run();
+            return waitFor(load);
+        }
+        page = waitFor(pending);
+        pageHit(pid);
+        return page;
+	}
+
+	/**
+	 * Records a request for a page that was served without reading it on
+	 * behalf of the requester. The admission of a prefetched page stands in
+	 * for its first reference, so the first request for it is not reported
+	 * to the replacement policy again.
+	 */
+	private void pageHit(PageId pid) {
+        m_hits.incrementAndGet();
+        if (m_prefetched.remove(pid))
+            m_prefetchHits.incrementAndGet();
+        else
+            m_policy.pageAccessed(pid);
+	}
+
+	/**
+	 * Starts reading a page into the pool in the background unless it is
+	 * already cached or being read. Failures are not reported here; a later
+	 * getPage of the same page reads it again or sees the failure.
+	 *
+	 * @param pid the ID of the page to prefetch
+	 */
+	public void prefetchPage(PageId pid) {
+        if (m_pages.containsKey(pid) || m_loading.containsKey(pid))
+            return;
+        PageLoad load = new PageLoad(pid);
+        if (m_loading.putIfAbsent(pid, load) != null)
+            return;
+        if (m_pages.containsKey(pid)) {
+            m_loading.remove(pid, load);
+            return;
+        }
+        m_prefetches.incrementAndGet();
+        m_prefetched.add(pid);
+        PREFETCHER.execute(load);
+	}
+
+	/**
+	 * Reads a page that is not in the pool from disk, making room for it
+	 * first, and makes it resident. Only ever called by the one thread that
+	 * registered the load of pid.
+	 */
+	private Page loadPage(PageId pid) throws DbException {
+        reserveFrame();
+        boolean loaded = false;
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page page = f.readPage(pid);
+            if (m_pages.put(pid, page) != null)
+                m_frames.decrementAndGet();
+            m_policy.pageAdmitted(pid);
+            loaded = true;
             return page;
-        else {
-        	
-        	if(m_numPages == m_pages.size())
-                evictPage();  
-        	int m_tid = pid.getTableId();
-        	DbFile m_f = Database.getCatalog().getDatabaseFile(m_tid);
-            Page add_Page = m_f.readPage(pid);
-            m_pages.put(pid, add_Page);
-            return add_Page;
+        } finally {
+            if (!loaded)
+                m_frames.decrementAndGet();
+        }
+	}
+
+	/**
+	 * Claims a frame for a page about to be read, evicting pages until one
+	 * is free. Concurrent loads each claim their own frame, so together they
+	 * cannot fill the pool past its capacity; only when every page is dirty
+	 * does the pool grow past it.
+	 */
+	private void reserveFrame() throws DbException {
+        while (true) {
+            int frames = m_frames.get();
+            if (frames < m_numPages) {
+                if (m_frames.compareAndSet(frames, frames + 1))
+                    return;
+            } else if (!evictPage()) {
+                m_frames.incrementAndGet();
+                return;
+            }
+        }
+	}
+
+	/**
+	 * The pending read of one page. It retires itself from the table of
+	 * pending reads once it has finished, successfully or not.
+	 */
+	private class PageLoad extends FutureTask<Page> {
+		private final PageId m_pid;
+
+		PageLoad(final PageId pid) {
+			super(new Callable<Page>() {
+				public Page call() throws Exception {
+					return loadPage(pid);
+				}
+			});
+			m_pid = pid;
+		}
+
+		protected void done() {
+			m_loading.remove(m_pid, this);
+			if (isCancelled() || !succeeded())
+				m_prefetched.remove(m_pid);
+		}
+
+		private boolean succeeded() {
+			try {
+				get();
+				return true;
+			} catch (Exception e) {
+				return false;
+			}
+		}
+	}
+
+	/** Waits for a page load to finish and rethrows whatever it failed with. */
+	private static Page waitFor(FutureTask<Page> load) throws DbException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new DbException("could not read page: " + cause);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
 	}
 
@@ -138,7 +414,8 @@ public class BufferPool {
 	 * 
 	 * Marks any pages that were dirtied by the operation as dirty by calling
 	 * their markDirty bit, and updates cached versions of any pages that have 
-	 * been dirtied so that future requests see up-to-date pages. 
+	 * been dirtied so that future requests see up-to-date pages. The entry
+	 * of the tuple is added to every index of the table.
 	 *
 	 * @param tid the transaction adding the tuple
 	 * @param tableId the table to add the tuple to
@@ -148,8 +425,15 @@ public class BufferPool {
 			throws DbException, IOException, TransactionAbortedException {
 		HeapFile f = (HeapFile)Database.getCatalog().getDatabaseFile(tableId);
 		ArrayList<Page> p = f.insertTuple(tid, t);
-        Page p2 = p.get(0);
-        p2.markDirty(true, tid);
+        markDirty(p.get(0), tid);
+        // the tuple has its RecordId now, so its index entries can be added
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+        {
+                for (Page ip : index.insertTuple(tid, t))
+                        markDirty(ip, tid);
+        }
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+                index.insertTuple(t);
 	}
 
 	/**
@@ -159,7 +443,8 @@ public class BufferPool {
 	 *
 	 * Marks any pages that were dirtied by the operation as dirty by calling
 	 * their markDirty bit, and updates cached versions of any pages that have 
-	 * been dirtied so that future requests see up-to-date pages. 
+	 * been dirtied so that future requests see up-to-date pages. The entry
+	 * of the tuple is removed from every index of the table.
 	 *
 	 * @param tid the transaction deleting the tuple.
 	 * @param t the tuple to delete
@@ -167,10 +452,34 @@ public class BufferPool {
 	public  void deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException 
 			{
-	        HeapFile f = (HeapFile)Database.getCatalog().getDatabaseFile( t.getRecordId().getPageId().getTableId());
+	        int tableId = t.getRecordId().getPageId().getTableId();
+	        HeapFile f = (HeapFile)Database.getCatalog().getDatabaseFile(tableId);
+	        // remove the index entries while the tuple still has its RecordId
+	        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+	        {
+	                for (Page ip : index.deleteTuple(tid, t))
+	                        markDirty(ip, tid);
+	        }
+	        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+	                index.deleteTuple(t);
 	        ArrayList<Page> p = f.deleteTuple(tid, t);
-	        Page p2 = p.get(0);
-	        p2.markDirty(true, tid);
+	        markDirty(p.get(0), tid);
+	}
+
+	/**
+	 * Marks a page changed by a transaction dirty. The page is marked under
+	 * its monitor, which {@link #evictPage} holds while it checks that a page
+	 * is clean and removes it, and is put back into the pool if it was
+	 * evicted as clean while it was being changed.
+	 */
+	private void markDirty(Page page, TransactionId tid) {
+		synchronized (page) {
+			page.markDirty(true, tid);
+		}
+		if (m_pages.put(page.getId(), page) == null) {
+			m_frames.incrementAndGet();
+			m_policy.pageAdmitted(page.getId());
+		}
 	}
 
 	/**
@@ -185,6 +494,15 @@ public class BufferPool {
         {
                 flushPage(pid);
         }
+        // bitmap indexes have no pages, and are written whole after the
+        // pages of their tables, so that they are newer than those
+        Catalog catalog = Database.getCatalog();
+        Iterator<Integer> tables = catalog.tableIdIterator();
+        while (tables.hasNext())
+        {
+                for (BitmapIndex index : catalog.getBitmapIndexes(tables.next()))
+                        index.save();
+        }
 
 	}
 
@@ -194,8 +512,11 @@ public class BufferPool {
         cache.
 	 */
 	public synchronized void discardPage(PageId pid) {
-		// some code goes here
-		// only necessary for lab5
+		if (m_pages.remove(pid) != null) {
+			m_frames.decrementAndGet();
+			m_policy.pageRemoved(pid);
+			m_prefetched.remove(pid);
+		}
 	}
 
 	/**
@@ -206,9 +527,10 @@ public class BufferPool {
 	{
 		// Object get(Object key) 
 		Page page = m_pages.get(pid);
-        if(page.isDirty() != null)
+        if(page != null && page.isDirty() != null)
         {
                 Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                page.markDirty(false, null);
         } 
 	}
 
@@ -220,27 +542,39 @@ public class BufferPool {
 	}
 
 	/**
-	 * Discards a page from the buffer pool.
-	 * Flushes the page to disk to ensure dirty pages are updated on disk.
+	 * Discards a page from the buffer pool. The page to discard is chosen by
+	 * the replacement policy; dirty pages are never evicted. If every page
+	 * in the pool is dirty nothing is evicted and the pool temporarily grows
+	 * past its capacity.
+	 * <p>
+	 * This does not lock the pool: the policy hands out each victim exactly
+	 * once, so concurrent evictions never pick the same page. The victim is
+	 * checked again and removed under its monitor, so a page marked dirty
+	 * after the policy chose it stays in the pool, the policy is told that
+	 * the eviction was cancelled, and the caller tries again.
+	 *
+	 * @return false if there was no page that could be evicted
 	 */
-	private synchronized  void evictPage() throws DbException 
+	private boolean evictPage() throws DbException 
 	{
-		Set<PageId> pids = m_pages.keySet();
-        for(PageId pid : pids)
-		{
-            Page evpage = m_pages.get(pid);
-            if(evpage.isDirty() == null)
-            {
-                try {
-                      this.flushPage(pid);
-                      m_pages.remove(pid);
-                      break;
-                      } catch (IOException e) {
-                    	  		System.out.println(e.getMessage());
-                                e.printStackTrace();}
-                
-            }
-        }
+		PageId pid = m_policy.chooseVictim(m_pages);
+		if (pid == null)
+			return false;
+		Page page = m_pages.get(pid);
+		if (page != null) {
+			synchronized (page) {
+				if (page.isDirty() != null) {
+					m_policy.evictionCancelled(pid);
+					return true;
+				}
+				if (m_pages.remove(pid, page))
+					m_frames.decrementAndGet();
+			}
+		}
+		m_evictions.incrementAndGet();
+		if (m_prefetched.remove(pid))
+			m_prefetchesWasted.incrementAndGet();
+		return true;
 	}
 
-}
\ No newline at end of file
+}
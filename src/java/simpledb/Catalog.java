@@ -44,6 +44,9 @@ public class Catalog {
 
 	private ConcurrentHashMap<Table,DbFile> m_files;
 	private ConcurrentHashMap<Integer,Table> m_tables;
+	private ConcurrentHashMap<Integer,IndexFile> m_indexes;
+	/** Bitmap indexes have no pages, so they are not DbFiles, and are kept apart. */
+	private ConcurrentHashMap<String,BitmapIndex> m_bitmapIndexes;
 	//PRIVATE
 
 	/**
@@ -54,6 +57,8 @@ public class Catalog {
 	{
 		m_files = new ConcurrentHashMap<Catalog.Table, DbFile>();
 		m_tables = new ConcurrentHashMap<Integer, Catalog.Table>();
+		m_indexes = new ConcurrentHashMap<Integer, IndexFile>();
+		m_bitmapIndexes = new ConcurrentHashMap<String, BitmapIndex>();
 	}
 
 	/**
@@ -151,9 +156,121 @@ public class Catalog {
 		{
 			if (t.getId() == tableid) return t; 
 		}
+		IndexFile index = m_indexes.get(tableid);
+		if (index != null) return index;
 		throw new NoSuchElementException();
 	}
 
+	/**
+	 * Add an index to the catalog. Its pages can then be read through the
+	 * BufferPool, and the BufferPool keeps it up to date when tuples are
+	 * inserted into or deleted from its table.
+	 * @param index the index to add;  its table must be in the catalog already
+	 * @throws IllegalArgumentException if the indexed field is not an INT_TYPE field
+	 */
+	public void addIndex(IndexFile index)
+	{
+		TupleDesc td = getTupleDesc(index.getTableId());
+		if (td.getFieldType(index.getKeyField()) != Type.INT_TYPE)
+			throw new IllegalArgumentException("only INT_TYPE fields can be indexed");
+		m_indexes.put(index.getId(), index);
+	}
+
+	/**
+	 * Returns the indexes of the specified table, in no particular order.
+	 * @param tableid The id of the table, as specified by the DbFile.getId()
+	 *     function passed to addTable
+	 */
+	public List<IndexFile> getIndexes(int tableid)
+	{
+		List<IndexFile> indexes = new ArrayList<IndexFile>();
+		for (IndexFile index : m_indexes.values())
+		{
+			if (index.getTableId() == tableid) indexes.add(index);
+		}
+		return indexes;
+	}
+
+	/**
+	 * Returns an index of the specified table on the specified field that
+	 * can look up the values satisfying a predicate with the given operator.
+	 * @return the index, or null if there is none
+	 */
+	public IndexFile getIndex(int tableid, int field, Predicate.Op op)
+	{
+		for (IndexFile index : getIndexes(tableid))
+		{
+			if (index.getKeyField() == field && index.supports(op)) return index;
+		}
+		return null;
+	}
+
+	/**
+	 * Add a bitmap index to the catalog. The BufferPool keeps it up to date
+	 * when tuples are inserted into or deleted from its table, and saves it
+	 * when it flushes all pages.
+	 * @param index the index to add;  its table must be in the catalog already
+	 * @throws IllegalArgumentException if the indexed field is not an INT_TYPE field
+	 */
+	public void addBitmapIndex(BitmapIndex index)
+	{
+		TupleDesc td = getTupleDesc(index.getTableId());
+		if (td.getFieldType(index.getKeyField()) != Type.INT_TYPE)
+			throw new IllegalArgumentException("only INT_TYPE fields can be indexed");
+		m_bitmapIndexes.put(index.getFile().getAbsolutePath(), index);
+	}
+
+	/**
+	 * Returns the bitmap indexes of the specified table, in no particular order.
+	 * @param tableid The id of the table, as specified by the DbFile.getId()
+	 *     function passed to addTable
+	 */
+	public List<BitmapIndex> getBitmapIndexes(int tableid)
+	{
+		List<BitmapIndex> indexes = new ArrayList<BitmapIndex>();
+		for (BitmapIndex index : m_bitmapIndexes.values())
+		{
+			if (index.getTableId() == tableid) indexes.add(index);
+		}
+		return indexes;
+	}
+
+	/**
+	 * Returns the bitmap index of the specified table on the specified field.
+	 * @return the index, or null if there is none
+	 */
+	public BitmapIndex getBitmapIndex(int tableid, int field)
+	{
+		for (BitmapIndex index : getBitmapIndexes(tableid))
+		{
+			if (index.getKeyField() == field) return index;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an index that looks up the values of the primary key of the
+	 * specified table, with which the key of a new tuple can be checked
+	 * for uniqueness.
+	 * @return the index, or null if the table has no primary key or the
+	 *     key is not indexed
+	 */
+	public IndexFile getPrimaryKeyIndex(int tableid)
+	{
+		String pkey = getPrimaryKey(tableid);
+		if (pkey == null || pkey.length() == 0) return null;
+		int field;
+		try
+		{
+			field = getTupleDesc(tableid).fieldNameToIndex(pkey);
+		}
+		catch (NoSuchElementException e)
+		{
+			return null;
+		}
+		return getIndex(tableid, field, Predicate.Op.EQUALS);
+	}
+
 	public String getPrimaryKey(int tableid) 
 	{
 		try 
@@ -178,15 +295,37 @@ public class Catalog {
 		return temp.getName();
 	}
 
-	/** Delete all tables from the catalog */
+	/** Delete all tables from the catalog, closing the side files of heap files */
 	public void clear()
 	{
+		for (DbFile f : m_files.values()) {
+			if (f instanceof HeapFile) {
+				try {
+					((HeapFile) f).closeSideFiles();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 		m_files.clear();
 		m_tables.clear();
+		m_indexes.clear();
+		m_bitmapIndexes.clear();
 	}
 
 	/**
 	 * Reads the schema from a file and creates the appropriate tables in the database.
+	 * <p>
+	 * A line of the form <tt>index name (field)</tt> declares a B+ tree index on
+	 * an int field of a table declared before it. The index is stored in
+	 * <tt>name.field.idx</tt> next to the table, and is built from the table
+	 * if that file does not exist yet or is older than the table's. A line of the form
+	 * <tt>index name (field) hash</tt> declares a hash index instead, stored
+	 * in <tt>name.field.hash</tt>; every int field annotated with <tt>pk</tt>
+	 * gets one of those without being declared. A line of the form
+	 * <tt>index name (field) bitmap</tt> declares a bitmap index, stored in
+	 * <tt>name.field.bitmap</tt>. Hash and bitmap indexes are rebuilt the same
+	 * way as B+ tree indexes.
 	 * @param catalogFile
 	 */
 	public void loadSchema(String catalogFile) {
@@ -196,7 +335,11 @@ public class Catalog {
 			BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
 			while ((line = br.readLine()) != null) {
-				//assume line is of the format name (field type, field type, ...)
+				if (line.trim().startsWith("index ")) {
+					loadIndex(line, baseFolder);
+					continue;
+				}
+				//assume line is of the format name (field type, field type, ...) [slotted]
 				String name = line.substring(0, line.indexOf("(")).trim();
 				//System.out.println("TABLE NAME: " + name);
 				String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -224,12 +367,22 @@ public class Catalog {
 						}
 					}
 				}
+				HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+				String tableAnnotation = line.substring(line.indexOf(")") + 1).trim();
+				if (tableAnnotation.equals("slotted"))
+					format = HeapFile.PageFormat.SLOTTED;
+				else if (tableAnnotation.length() > 0) {
+					System.out.println("Unknown annotation " + tableAnnotation);
+					System.exit(0);
+				}
 				Type[] typeAr = types.toArray(new Type[0]);
 				String[] namesAr = names.toArray(new String[0]);
 				TupleDesc t = new TupleDesc(typeAr, namesAr);
-				HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+				HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, format);
 				addTable(tabHf,name,primaryKey);
 				System.out.println("Added table : " + name + " with schema " + t);
+				if (primaryKey.length() > 0 && t.getFieldType(t.fieldNameToIndex(primaryKey)) == Type.INT_TYPE)
+					openIndex(name, primaryKey, "hash", baseFolder);
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -240,6 +393,69 @@ public class Catalog {
 		}
 	}
 
+	/**
+	 * Opens, or builds, the index declared by a line of the form
+	 * <tt>index name (field) [hash|bitmap]</tt>.
+	 */
+	private void loadIndex(String line, String baseFolder) throws IOException {
+		String name = line.trim().substring("index ".length(), line.trim().indexOf("(")).trim();
+		String field = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+		String kind = line.substring(line.indexOf(")") + 1).trim();
+		if (kind.length() > 0 && !kind.equals("hash") && !kind.equals("bitmap")) {
+			System.out.println("Unknown index type " + kind);
+			System.exit(0);
+		}
+		openIndex(name, field, kind, baseFolder);
+	}
+
+	/**
+	 * Opens, or builds, a B+ tree, hash or bitmap index on a field of a
+	 * table, unless the Catalog has that index already.
+	 * @param kind "hash", "bitmap", or empty for a B+ tree
+	 */
+	private void openIndex(String name, String field, String kind, String baseFolder)
+			throws IOException {
+		int tableid;
+		int keyField;
+		try {
+			tableid = getTableId(name);
+			keyField = getTupleDesc(tableid).fieldNameToIndex(field);
+		} catch (NoSuchElementException e) {
+			System.out.println("Unknown table or field in index entry : " + name + "." + field);
+			System.exit(0);
+			return;
+		}
+		if (getTupleDesc(tableid).getFieldType(keyField) != Type.INT_TYPE) {
+			System.out.println("Only int fields can be indexed : " + name + "." + field);
+			System.exit(0);
+		}
+		File f = new File(baseFolder + "/" + name + "." + field + "." + (kind.length() > 0 ? kind : "idx"));
+		if (m_indexes.containsKey(f.getAbsolutePath().hashCode())
+				|| m_bitmapIndexes.containsKey(f.getAbsolutePath()))
+			return;
+		try {
+			boolean exists = f.exists() && f.length() > 0;
+			// an index older than its table may point at tuples that are gone
+			File data = ((HeapFile) getDatabaseFile(tableid)).getFile();
+			boolean fresh = exists && f.lastModified() >= data.lastModified();
+			if (kind.equals("bitmap")) {
+				if (fresh)
+					addBitmapIndex(new BitmapIndex(f, tableid, keyField));
+				else
+					addBitmapIndex(BitmapIndex.build(f, tableid, keyField));
+			}
+			else if (kind.equals("hash"))
+				addIndex(fresh ? new HashFile(f, tableid, keyField) : HashFile.build(f, tableid, keyField));
+			else
+				addIndex(fresh ? new BTreeFile(f, tableid, keyField) : BTreeFile.build(f, tableid, keyField));
+		} catch (DbException e) {
+			throw new IOException(e.getMessage());
+		} catch (TransactionAbortedException e) {
+			throw new IOException(e.getMessage());
+		}
+		System.out.println("Added " + (kind.length() > 0 ? kind + " " : "") + "index on " + name + "." + field);
+	}
+
 
 }
 
@@ -0,0 +1,294 @@
+package simpledb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK-Pro page replacement (Jiang, Chen and Zhang, USENIX 2005).
+ * <p>
+ * Pages are kept on a single circular list and are either hot or cold. Cold
+ * pages start a "test period" when they are admitted; a cold page that is
+ * referenced again while it is being tested has a small reuse distance and is
+ * promoted to hot. Evicted cold pages that are still in their test period
+ * stay on the list as non-resident entries, so a quick re-fault can still be
+ * recognised. Three hands sweep the list:
+ * <ul>
+ * <li>HAND_cold looks for a cold resident page to evict,</li>
+ * <li>HAND_hot demotes hot pages whose reference bit is clear to cold,</li>
+ * <li>HAND_test ends test periods and drops surplus non-resident entries.</li>
+ * </ul>
+ * The number of resident cold pages the policy aims for adapts to the
+ * workload: a re-fault during a test period grows it, a test period that
+ * expires unused shrinks it. A one-pass scan therefore only ever churns the
+ * cold pages and leaves the hot ones alone.
+ * <p>
+ * A hit only sets the page's reference bit, which needs no lock; everything
+ * that moves the hands is serialized on the policy.
+ */
+public class ClockProPolicy implements ReplacementPolicy {
+
+	private static final class Node {
+		final PageId pid;
+		boolean hot;
+		boolean resident;
+		boolean test;
+		volatile boolean referenced;
+		Node prev;
+		Node next;
+
+		Node(PageId pid) {
+			this.pid = pid;
+		}
+	}
+
+	private final int m_capacity;
+	private int m_coldTarget;
+	private int m_hotCount;
+	private int m_coldCount;
+	private int m_testCount;
+	private final ConcurrentHashMap<PageId, Node> m_nodes;
+	private Node m_handHot;
+	private Node m_handCold;
+	private Node m_handTest;
+
+	/**
+	 * @param numPages the number of pages in the buffer pool that uses this
+	 *          policy; it bounds both the resident and the non-resident
+	 *          entries tracked
+	 */
+	public ClockProPolicy(int numPages) {
+		if (numPages < 1)
+			throw new IllegalArgumentException("numPages must be positive");
+		m_capacity = numPages;
+		m_coldTarget = 1;
+		m_nodes = new ConcurrentHashMap<PageId, Node>();
+	}
+
+	/** @return the current target number of resident cold pages */
+	public synchronized int getColdTarget() {
+		return m_coldTarget;
+	}
+
+	/** @return true if pid is resident and currently classified as hot */
+	public synchronized boolean isHot(PageId pid) {
+		Node n = m_nodes.get(pid);
+		return n != null && n.resident && n.hot;
+	}
+
+	public synchronized void pageAdmitted(PageId pid) {
+		Node n = m_nodes.get(pid);
+		if (n != null && n.resident)
+			return;
+		if (n != null) {
+			// re-fault during the test period: the reuse distance is small
+			// enough for the page to be hot, and cold pages deserve more room
+			unlink(n);
+			m_testCount--;
+			m_coldTarget = Math.min(m_coldTarget + 1, Math.max(1, m_capacity - 1));
+			n = new Node(pid);
+			n.hot = true;
+			n.resident = true;
+			insertAtHead(n);
+			m_hotCount++;
+			balanceHot();
+		} else {
+			n = new Node(pid);
+			n.resident = true;
+			n.test = true;
+			insertAtHead(n);
+			m_coldCount++;
+		}
+		while (m_testCount > m_capacity)
+			runHandTest();
+	}
+
+	public void pageAccessed(PageId pid) {
+		Node n = m_nodes.get(pid);
+		if (n != null && n.resident)
+			n.referenced = true;
+	}
+
+	public synchronized void pageRemoved(PageId pid) {
+		Node n = m_nodes.get(pid);
+		if (n == null)
+			return;
+		if (!n.resident)
+			m_testCount--;
+		else if (n.hot)
+			m_hotCount--;
+		else
+			m_coldCount--;
+		unlink(n);
+	}
+
+	public synchronized PageId chooseVictim(Map<PageId, Page> resident) {
+		if (m_coldCount == 0)
+			demoteOneHot();
+		// a lap of HAND_cold that finds nothing to evict means the cold pages
+		// are all dirty; demote hot pages one at a time until a clean page
+		// turns up or there is nothing left to demote
+		int steps = 0;
+		int demotions = m_hotCount;
+		while (m_handCold != null) {
+			if (steps++ > 2 * m_nodes.size() + 1) {
+				if (demotions-- <= 0)
+					return null;
+				demoteOneHot();
+				steps = 0;
+			}
+			Node n = m_handCold;
+			if (!n.resident || n.hot) {
+				m_handCold = n.next;
+				continue;
+			}
+			Page page = resident.get(n.pid);
+			if (page != null && page.isDirty() != null) {
+				m_handCold = n.next;
+				continue;
+			}
+			if (n.referenced) {
+				n.referenced = false;
+				m_handCold = n.next;
+				unlink(n);
+				if (n.test) {
+					n.test = false;
+					n.hot = true;
+					m_coldCount--;
+					m_hotCount++;
+					insertAtHead(n);
+					balanceHot();
+				} else {
+					n.test = true;
+					insertAtHead(n);
+				}
+				if (m_coldCount == 0)
+					demoteOneHot();
+				continue;
+			}
+			m_handCold = n.next;
+			m_coldCount--;
+			if (n.test) {
+				n.resident = false;
+				m_testCount++;
+				while (m_testCount > m_capacity)
+					runHandTest();
+			} else {
+				unlink(n);
+			}
+			return n.pid;
+		}
+		return null;
+	}
+
+	public synchronized void evictionCancelled(PageId pid) {
+		Node n = m_nodes.get(pid);
+		if (n != null && n.resident)
+			return;
+		if (n != null) {
+			// still in its test period, at its place on the clock
+			n.resident = true;
+			m_testCount--;
+		} else {
+			n = new Node(pid);
+			n.resident = true;
+			insertAtHead(n);
+		}
+		m_coldCount++;
+	}
+
+	/** Runs HAND_hot until the hot set fits next to the cold target. */
+	private void balanceHot() {
+		while (m_hotCount > 0 && m_hotCount > m_capacity - m_coldTarget)
+			demoteOneHot();
+	}
+
+	/**
+	 * Advances HAND_hot until one hot page has been demoted, ending the test
+	 * periods of the cold pages it passes on the way.
+	 */
+	private void demoteOneHot() {
+		if (m_hotCount == 0)
+			return;
+		while (true) {
+			Node n = m_handHot;
+			m_handHot = n.next;
+			if (n.hot) {
+				if (n.referenced) {
+					n.referenced = false;
+				} else {
+					n.hot = false;
+					m_hotCount--;
+					m_coldCount++;
+					return;
+				}
+			} else if (n.test) {
+				endTest(n);
+			}
+		}
+	}
+
+	/** Advances HAND_test past one cold page, ending its test period. */
+	private void runHandTest() {
+		int budget = m_nodes.size();
+		while (budget-- > 0) {
+			Node n = m_handTest;
+			m_handTest = n.next;
+			if (!n.hot && n.test) {
+				endTest(n);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Ends the test period of a cold page without it having been re-used,
+	 * which means cold pages were given more room than they needed.
+	 */
+	private void endTest(Node n) {
+		n.test = false;
+		if (!n.resident) {
+			unlink(n);
+			m_testCount--;
+		}
+		m_coldTarget = Math.max(1, m_coldTarget - 1);
+	}
+
+	/**
+	 * Inserts n at the head of the clock, i.e. right behind HAND_hot, which
+	 * is the last position any of the hands will reach.
+	 */
+	private void insertAtHead(Node n) {
+		m_nodes.put(n.pid, n);
+		if (m_handHot == null) {
+			n.prev = n;
+			n.next = n;
+			m_handHot = n;
+			m_handCold = n;
+			m_handTest = n;
+			return;
+		}
+		Node tail = m_handHot.prev;
+		n.prev = tail;
+		n.next = m_handHot;
+		tail.next = n;
+		m_handHot.prev = n;
+	}
+
+	/** Removes n from the clock, moving any hand that points at it forward. */
+	private void unlink(Node n) {
+		m_nodes.remove(n.pid);
+		Node next = n.next == n ? null : n.next;
+		if (m_handHot == n)
+			m_handHot = next;
+		if (m_handCold == n)
+			m_handCold = next;
+		if (m_handTest == n)
+			m_handTest = next;
+		if (next != null) {
+			n.prev.next = next;
+			next.prev = n.prev;
+		}
+		n.prev = null;
+		n.next = null;
+	}
+}
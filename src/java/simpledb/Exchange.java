@@ -0,0 +1,218 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exchange runs each of its children in a worker thread of its own and
+ * merges their output. The children are independent pipelines, typically
+ * {@link Filter}s over {@link SeqScan}s of disjoint page ranges of a table
+ * (see {@link SeqScan#partition}), so that the pages are read and the
+ * predicates evaluated in parallel.
+ * <p>
+ * The workers hand their tuples over in batches through a bounded queue,
+ * which blocks them when the consumer falls behind. Tuples are returned in
+ * no particular order. If a worker fails, the exception is rethrown to the
+ * consumer.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples a worker hands over at a time. */
+    public static final int BATCH_SIZE = 256;
+
+    /** Number of batches that may wait for the consumer. */
+    public static final int QUEUE_CAPACITY = 16;
+
+    /** Marks the end of the output of one worker. */
+    private static final List<Tuple> END = new ArrayList<Tuple>(0);
+
+    private DbIterator[] children;
+
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient Thread[] workers;
+    private transient volatile boolean cancelled;
+    private transient volatile Exception failure;
+    private transient boolean childrenOpen;
+    private transient int running;
+    private transient Iterator<Tuple> batch;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the pipelines to run in parallel; they must all return
+     *            tuples of the same TupleDesc and must not share any operator
+     */
+    public Exchange(DbIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("an exchange needs at least one child");
+        this.children = children.clone();
+    }
+
+    /** @return the number of worker threads, one per child */
+    public int getParallelism() {
+        return children.length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+        if (childrenOpen) {
+            for (DbIterator child : children)
+                child.close();
+            childrenOpen = false;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    /**
+     * Starts a worker per child. The first time the children are opened,
+     * later they are rewound.
+     */
+    private void start() {
+        queue = new ArrayBlockingQueue<List<Tuple>>(QUEUE_CAPACITY);
+        cancelled = false;
+        failure = null;
+        batch = null;
+        running = children.length;
+        final boolean rewind = childrenOpen;
+        childrenOpen = true;
+        workers = new Thread[children.length];
+        for (int i = 0; i < children.length; i++) {
+            final DbIterator child = children[i];
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    produce(child, rewind);
+                }
+            }, "exchange-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /** Cancels the workers and waits for them to finish. */
+    private void stop() {
+        if (workers == null)
+            return;
+        cancelled = true;
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        workers = null;
+        queue = null;
+        batch = null;
+    }
+
+    /** The work of one worker: runs a child and queues its tuples. */
+    private void produce(DbIterator child, boolean rewind) {
+        try {
+            if (rewind)
+                child.rewind();
+            else
+                child.open();
+            List<Tuple> tuples = new ArrayList<Tuple>(BATCH_SIZE);
+            while (!cancelled && child.hasNext()) {
+                tuples.add(child.next());
+                if (tuples.size() == BATCH_SIZE) {
+                    put(tuples);
+                    tuples = new ArrayList<Tuple>(BATCH_SIZE);
+                }
+            }
+            if (!tuples.isEmpty())
+                put(tuples);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            put(END);
+        }
+    }
+
+    /** Queues a batch, unless the exchange is stopped in the meantime. */
+    private void put(List<Tuple> tuples) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(tuples, 10, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Returns the next tuple of any of the children, or null once all of
+     * them are exhausted.
+     *
+     * @return The next tuple
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (batch != null && batch.hasNext())
+                return batch.next();
+            batch = null;
+            checkFailure();
+            if (running == 0)
+                return null;
+            List<Tuple> tuples;
+            try {
+                tuples = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for exchange workers");
+            }
+            if (tuples == END)
+                running--;
+            else
+                batch = tuples.iterator();
+        }
+    }
+
+    /** Rethrows the exception a worker failed with, if any. */
+    private void checkFailure() throws DbException, TransactionAbortedException {
+        Exception e = failure;
+        if (e == null)
+            return;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        throw new DbException("exchange worker failed: " + e);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.children = children.clone();
+    }
+
+}
@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child in the order of a
+ * {@link TupleComparator}, using no more than a fixed amount of memory.
+ * <p>
+ * The child is read in memory-sized chunks. If the whole input fits into
+ * memory it is simply sorted there. Otherwise every chunk is sorted and
+ * written to a {@link TupleSpillFile} as a sorted run, and the runs are
+ * merged with a k-way merge. If there are more runs than can be merged at
+ * once (every run is read through a one-page buffer, and those buffers have
+ * to fit into memory as well), groups of runs are merged into longer runs
+ * first.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages worth of tuples. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    private DbIterator child;
+    private final TupleComparator comparator;
+    private final int memoryPages;
+
+    private transient ArrayList<Tuple> sorted;
+    private transient Iterator<Tuple> it;
+    private transient List<TupleSpillFile> runs;
+    /** Every spill file of the current sort, deleted by release(). */
+    private transient List<TupleSpillFile> spillFiles;
+    private transient PriorityQueue<Run> merge;
+    private transient int runsWritten;
+
+    /**
+     * Creates a sort of the child on the given fields using the default
+     * memory budget.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param fields
+     *            the indexes of the sort fields, most significant first
+     * @param asc
+     *            for each sort field, true if it is sorted ascending
+     */
+    public ExternalSort(DbIterator child, int[] fields, boolean[] asc) {
+        this(child, fields, asc, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages worth of tuples may be kept in memory; at
+     *            least 3 so that two runs can be merged
+     * @see #ExternalSort(DbIterator, int[], boolean[])
+     */
+    public ExternalSort(DbIterator child, int[] fields, boolean[] asc, int memoryPages) {
+        if (memoryPages < 3)
+            throw new IllegalArgumentException("an external sort needs at least three pages");
+        this.child = child;
+        this.comparator = new TupleComparator(fields, asc);
+        this.memoryPages = memoryPages;
+    }
+
+    /** @return the comparator that defines the output order */
+    public TupleComparator getComparator() {
+        return comparator;
+    }
+
+    /**
+     * @return true if the output is sorted on the given field in the given
+     *         direction first
+     */
+    public boolean isSortedOn(int field, boolean asc) {
+        return comparator.getField(0) == field && comparator.isAscending(0) == asc;
+    }
+
+    /**
+     * @return the number of sorted runs written to disk by the last
+     *         {@link #open()}, including those of intermediate merge passes;
+     *         0 if the input was sorted in memory
+     */
+    public int getRunCount() {
+        return runsWritten;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        sort();
+    }
+
+    public void close() {
+        super.close();
+        release();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (runs == null) {
+            it = sorted.iterator();
+        } else {
+            closeMerge();
+            merge = startMerge(runs);
+        }
+    }
+
+    /** Reads the child, producing either a sorted list or sorted runs. */
+    private void sort() throws DbException, TransactionAbortedException {
+        release();
+        runsWritten = 0;
+        int budget = Math.max(1, memoryPages * BufferPool.getPageSize()
+                / getTupleDesc().getSize());
+        ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+        ArrayList<TupleSpillFile> spilled = null;
+        spillFiles = new ArrayList<TupleSpillFile>();
+        while (child.hasNext()) {
+            buffer.add(child.next());
+            if (buffer.size() >= budget && child.hasNext()) {
+                if (spilled == null)
+                    spilled = new ArrayList<TupleSpillFile>();
+                spilled.add(writeRun(buffer));
+                buffer.clear();
+            }
+        }
+        if (spilled == null) {
+            Collections.sort(buffer, comparator);
+            sorted = buffer;
+            it = sorted.iterator();
+            return;
+        }
+        if (!buffer.isEmpty())
+            spilled.add(writeRun(buffer));
+        buffer = null;
+
+        // every run being merged is read through a one-page buffer; keep
+        // one page for the output
+        int fanIn = memoryPages - 1;
+        while (spilled.size() > fanIn) {
+            ArrayList<TupleSpillFile> merged = new ArrayList<TupleSpillFile>();
+            for (int i = 0; i < spilled.size(); i += fanIn) {
+                List<TupleSpillFile> group = spilled.subList(i,
+                        Math.min(i + fanIn, spilled.size()));
+                merged.add(mergeRuns(group));
+            }
+            spilled = merged;
+        }
+        runs = spilled;
+        merge = startMerge(runs);
+    }
+
+    /** Sorts the tuples and writes them to a new run. */
+    private TupleSpillFile writeRun(ArrayList<Tuple> tuples) throws DbException {
+        Collections.sort(tuples, comparator);
+        TupleSpillFile run = new TupleSpillFile(getTupleDesc());
+        spillFiles.add(run);
+        for (Tuple t : tuples)
+            run.add(t);
+        runsWritten++;
+        return run;
+    }
+
+    /** Merges a group of runs into a single new run and deletes them. */
+    private TupleSpillFile mergeRuns(List<TupleSpillFile> group)
+            throws DbException, TransactionAbortedException {
+        TupleSpillFile out = new TupleSpillFile(getTupleDesc());
+        spillFiles.add(out);
+        PriorityQueue<Run> queue = startMerge(group);
+        Tuple t;
+        while ((t = nextMerged(queue)) != null)
+            out.add(t);
+        for (TupleSpillFile run : group)
+            run.delete();
+        runsWritten++;
+        return out;
+    }
+
+    /** Opens the given runs and queues up their first tuples. */
+    private PriorityQueue<Run> startMerge(List<TupleSpillFile> toMerge)
+            throws DbException, TransactionAbortedException {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(toMerge.size());
+        for (TupleSpillFile file : toMerge) {
+            Run run = new Run(file.iterator());
+            run.in.open();
+            if (run.advance())
+                queue.add(run);
+            else
+                run.in.close();
+        }
+        return queue;
+    }
+
+    /** @return the smallest tuple at the head of any run, or null */
+    private Tuple nextMerged(PriorityQueue<Run> queue)
+            throws DbException, TransactionAbortedException {
+        Run run = queue.poll();
+        if (run == null)
+            return null;
+        Tuple t = run.head;
+        if (run.advance())
+            queue.add(run);
+        else
+            run.in.close();
+        return t;
+    }
+
+    private void closeMerge() {
+        if (merge != null) {
+            for (Run run : merge)
+                run.in.close();
+            merge = null;
+        }
+    }
+
+    /** Drops the sorted tuples and deletes all runs. */
+    private void release() {
+        closeMerge();
+        if (spillFiles != null) {
+            for (TupleSpillFile file : spillFiles)
+                file.delete();
+            spillFiles = null;
+        }
+        runs = null;
+        sorted = null;
+        it = null;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child
+     * operator in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (merge != null)
+            return nextMerged(merge);
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+    /** A sorted run being merged, with the tuple it is currently at. */
+    private class Run implements Comparable<Run> {
+        final DbIterator in;
+        Tuple head;
+
+        Run(DbIterator in) {
+            this.in = in;
+        }
+
+        boolean advance() throws DbException, TransactionAbortedException {
+            head = in.hasNext() ? in.next() : null;
+            return head != null;
+        }
+
+        public int compareTo(Run o) {
+            return comparator.compare(head, o.head);
+        }
+    }
+}
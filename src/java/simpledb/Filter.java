@@ -11,6 +11,8 @@ public class Filter extends Operator {
 	//PRIVATE MEMBERS
 	private Predicate m_p; //Predicate used to filter tuples
 	DbIterator m_child; //iterator
+	//true if the scan under this filter applies the predicate already
+	private transient boolean m_applied;
 	/**
 	 * Constructor accepts a predicate to apply and a child operator to read
 	 * tuples to filter from.
@@ -37,6 +39,18 @@ public class Filter extends Operator {
 	TransactionAbortedException {
 		super.open();
 		m_child.open();
+		m_applied = appliedBelow(m_child, m_p);
+	}
+
+	/**
+	 * @return true if p is one of the predicates pushed into the SeqScan at
+	 *         the bottom of a chain of filters starting at plan, which then
+	 *         only returns tuples that satisfy it
+	 */
+	private static boolean appliedBelow(DbIterator plan, Predicate p) {
+		while (plan instanceof Filter)
+			plan = ((Filter) plan).m_child;
+		return plan instanceof SeqScan && ((SeqScan) plan).getPredicates().contains(p);
 	}
 
 	public void close() {
@@ -52,6 +66,9 @@ public class Filter extends Operator {
 	 * AbstractDbIterator.readNext implementation. Iterates over tuples from the
 	 * child operator, applying the predicate to them and returning those that
 	 * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+	 * If the scan below has the predicate pushed into it, the tuples are
+	 * returned as they are; the Filter then only stands for the predicate in
+	 * the plan, where cardinality estimates and plan displays look for it.
 	 * 
 	 * @return The next tuple that passes the filter, or null if there are no
 	 *         more tuples
@@ -63,7 +80,7 @@ public class Filter extends Operator {
 		while (m_child.hasNext())
 		{
 			Tuple cur = m_child.next();
-			if (m_p.filter(cur)) { return cur; }
+			if (m_applied || m_p.filter(cur)) { return cur; }
 		}
 		return null;
 	}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * FreeSpaceMap remembers how many empty tuple slots each page of a HeapFile
+ * has, so that inserts can go straight to a page with room instead of
+ * reading every page of the file through the BufferPool.
+ * <p>
+ * The map is kept in memory and persisted in a side file next to the heap
+ * file (the data file's name with ".fsm" appended) holding one unsigned
+ * 2-byte count per page. A page's entry on disk is rewritten whenever the
+ * page itself is written, so the side file describes the pages as they are
+ * on disk. A side file whose length does not match the heap file, or that
+ * is older than it, is ignored and rebuilt from the page headers. For files
+ * of {@link SlottedHeapPage}s the counts are of tuples of the largest
+ * possible size, as reported by {@link SlottedHeapPage#getNumEmptySlots},
+ * and rebuilding reads each page whole.
+ * <p>
+ * The counts are hints: callers must check the page they are sent to and
+ * report what they actually found with {@link #setFreeSlots}.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+	private static final int ENTRY_SIZE = 2;
+
+	private final File m_file;
+	private final File m_dataFile;
+	private final int m_slotsPerPage;
+	private final int m_headerSize;
+	/** The tuples of a file of slotted pages, or null for fixed slots. */
+	private final TupleDesc m_slottedTd;
+	private RandomAccessFile m_raf;
+	private int[] m_free;
+	private int m_numPages;
+	/** No page before this one has free slots. */
+	private int m_hint;
+
+	/**
+	 * @param dataFile the heap file described by this map
+	 * @param slotsPerPage the number of tuple slots on each page
+	 */
+	public FreeSpaceMap(File dataFile, int slotsPerPage) {
+		m_file = sideFile(dataFile);
+		m_dataFile = dataFile;
+		m_slotsPerPage = slotsPerPage;
+		m_headerSize = (slotsPerPage + 7) / 8;
+		m_slottedTd = null;
+	}
+
+	/**
+	 * @param dataFile a heap file of {@link SlottedHeapPage}s
+	 * @param td the TupleDesc of the file's tuples
+	 */
+	public FreeSpaceMap(File dataFile, TupleDesc td) {
+		m_file = sideFile(dataFile);
+		m_dataFile = dataFile;
+		m_slotsPerPage = SlottedHeapPage.maxSlots(td);
+		m_headerSize = BufferPool.getPageSize();
+		m_slottedTd = td;
+	}
+
+	/** @return the side file the map of a heap file is persisted in */
+	static File sideFile(File dataFile) {
+		return new File(dataFile.getPath() + ".fsm");
+	}
+
+	/** @return the side file the map is persisted in */
+	public File getFile() {
+		return m_file;
+	}
+
+	/**
+	 * Loads the map for the heap file read through data, rebuilding it from
+	 * the page headers if the side file is missing or out of date. Does
+	 * nothing if the map has already been loaded.
+	 */
+	public synchronized void load(FileChannel data) throws IOException {
+		if (m_free != null)
+			return;
+		int numPages = (int) (data.size() / BufferPool.PAGE_SIZE);
+		m_free = new int[Math.max(16, numPages)];
+		m_numPages = numPages;
+		m_hint = 0;
+		boolean current = m_file.exists() && m_file.lastModified() >= m_dataFile.lastModified();
+		m_raf = new RandomAccessFile(m_file, "rw");
+		if (current && m_raf.length() == (long) numPages * ENTRY_SIZE) {
+			byte[] entries = new byte[numPages * ENTRY_SIZE];
+			m_raf.readFully(entries);
+			ByteBuffer buf = ByteBuffer.wrap(entries);
+			for (int i = 0; i < numPages; i++)
+				m_free[i] = buf.getChar();
+		} else {
+			rebuild(data);
+		}
+	}
+
+	/**
+	 * Counts the empty slots of every page from its header and rewrites the
+	 * side file.
+	 */
+	private void rebuild(FileChannel data) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(m_headerSize);
+		ByteBuffer entries = ByteBuffer.allocate(m_numPages * ENTRY_SIZE);
+		for (int i = 0; i < m_numPages; i++) {
+			header.clear();
+			long offset = (long) i * BufferPool.PAGE_SIZE;
+			while (header.hasRemaining()) {
+				if (data.read(header, offset + header.position()) < 0)
+					break;
+			}
+			if (m_slottedTd != null) {
+				m_free[i] = SlottedHeapPage.emptySlots(header.array(), m_slottedTd);
+				entries.putChar((char) m_free[i]);
+				continue;
+			}
+			int used = 0;
+			for (int slot = 0; slot < m_slotsPerPage; slot++) {
+				if ((header.get(slot / 8) & (1 << (slot % 8))) != 0)
+					used++;
+			}
+			m_free[i] = m_slotsPerPage - used;
+			entries.putChar((char) m_free[i]);
+		}
+		m_raf.setLength(0);
+		m_raf.write(entries.array());
+	}
+
+	/**
+	 * @return the number of a page that has empty slots according to the
+	 *         map, or -1 if no page has
+	 */
+	public synchronized int findPageWithSpace() {
+		while (m_hint < m_numPages && m_free[m_hint] == 0)
+			m_hint++;
+		return m_hint < m_numPages ? m_hint : -1;
+	}
+
+	/** @return the number of empty slots the map has for a page */
+	public synchronized int getFreeSlots(int pageNo) {
+		return pageNo < m_numPages ? m_free[pageNo] : 0;
+	}
+
+	/**
+	 * Records the number of empty slots a page of the file (possibly one
+	 * past its current end) has in memory.
+	 */
+	public synchronized void setFreeSlots(int pageNo, int free) {
+		if (pageNo >= m_free.length) {
+			int[] grown = new int[Math.max(pageNo + 1, m_free.length * 2)];
+			System.arraycopy(m_free, 0, grown, 0, m_numPages);
+			m_free = grown;
+		}
+		m_numPages = Math.max(m_numPages, pageNo + 1);
+		m_free[pageNo] = free;
+		if (free > 0 && pageNo < m_hint)
+			m_hint = pageNo;
+	}
+
+	/**
+	 * Records that a page with the given number of empty slots has been
+	 * written to the heap file, updating both the map and its side file.
+	 */
+	public synchronized void pageWritten(int pageNo, int free) throws IOException {
+		setFreeSlots(pageNo, free);
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.putChar(0, (char) free);
+		if (m_raf == null)
+			m_raf = new RandomAccessFile(m_file, "rw");
+		FileChannel ch = m_raf.getChannel();
+		long offset = (long) pageNo * ENTRY_SIZE;
+		while (entry.hasRemaining())
+			ch.write(entry, offset + entry.position());
+	}
+
+	/**
+	 * Closes the side file. The map stays loaded; the side file is opened
+	 * again when a page is next written.
+	 */
+	public synchronized void close() throws IOException {
+		if (m_raf != null) {
+			m_raf.close();
+			m_raf = null;
+		}
+	}
+}
@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements JoinOperator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -76,6 +76,7 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        super.open();
         loadMap();
     }
 
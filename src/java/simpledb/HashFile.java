@@ -0,0 +1,450 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * HashFile is a disk-resident extendible hash index over an INT_TYPE field
+ * of a table stored in a HeapFile. Its directory maps the last d bits of the
+ * hash of a key, d being the global depth, to the bucket holding the entries
+ * of the key, so an equality lookup reads the meta page and one bucket no
+ * matter how large the table is. Range lookups are not supported.
+ * <p>
+ * A full bucket is split in two, doubling the directory first if the bucket
+ * is the only one for its hash values. The directory lives on the meta page,
+ * which bounds the global depth by {@link HashPage#maxGlobalDepth()}; a full
+ * bucket that can no longer be split, or whose entries all share their hash
+ * value, gets overflow pages instead. Buckets are not merged on delete.
+ * <p>
+ * Like a BTreeFile, the pages are read and written through the BufferPool,
+ * so the file must be registered with {@link Catalog#addIndex} before it is
+ * used. The Catalog creates one for the primary key of every table it loads.
+ *
+ * @see HashPage
+ * @see Catalog#getPrimaryKeyIndex
+ */
+public class HashFile implements IndexFile {
+
+	private final File m_file;
+	private final int m_tableId;
+	private final int m_keyField;
+	private RandomAccessFile m_raf;
+	private FileChannel m_channel;
+
+	/**
+	 * Opens the hash index stored in the specified file, creating an empty
+	 * index if the file is empty. Use {@link #build} to create the index of
+	 * a table that already has tuples.
+	 *
+	 * @param f the file the index is stored in
+	 * @param tableid the id of the indexed table
+	 * @param keyField the indexed field, which must be an INT_TYPE field
+	 */
+	public HashFile(File f, int tableid, int keyField) {
+		m_file = f;
+		m_tableId = tableid;
+		m_keyField = keyField;
+		try {
+			m_raf = new RandomAccessFile(f, "rw");
+			m_channel = m_raf.getChannel();
+			if (m_channel.size() == 0) {
+				byte[] meta = HashPage.createEmptyPageData(HashPage.META);
+				BTreePage.writeInt(meta, HashPage.HEADER_SIZE, 1);
+				write(m_channel, 0, meta);
+				write(m_channel, 1, HashPage.createEmptyPageData(HashPage.BUCKET));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates the index of a table in the specified file, replacing whatever
+	 * the file held. The global depth is chosen so that the buckets start
+	 * out about three quarters full, and the pages are written directly, so
+	 * no page of a previous index in the same file may be in the BufferPool.
+	 *
+	 * @return the index, not yet registered with the Catalog
+	 */
+	public static HashFile build(File f, int tableid, int keyField)
+			throws DbException, TransactionAbortedException, IOException {
+		DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+		if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE)
+			throw new DbException("only INT_TYPE fields can be indexed");
+
+		// (key, page, slot) triples, in scan order
+		int n = 0;
+		int[] entries = new int[3 * 1024];
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (3 * n == entries.length)
+				entries = Arrays.copyOf(entries, 2 * entries.length);
+			RecordId rid = t.getRecordId();
+			entries[3 * n] = ((IntField) t.getField(keyField)).getValue();
+			entries[3 * n + 1] = rid.getPageId().pageNumber();
+			entries[3 * n + 2] = rid.tupleno();
+			n++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+
+		int cap = HashPage.capacity();
+		int depth = 0;
+		while (depth < HashPage.maxGlobalDepth() && n > (3L << depth) * cap / 4)
+			depth++;
+		int buckets = 1 << depth;
+		// the entries of each bucket, as chains of page images
+		List<List<byte[]>> chains = new ArrayList<List<byte[]>>(buckets);
+		for (int b = 0; b < buckets; b++)
+			chains.add(new ArrayList<byte[]>());
+		for (int i = 0; i < n; i++) {
+			List<byte[]> chain = chains.get(hash(entries[3 * i]) & (buckets - 1));
+			byte[] data = chain.isEmpty() ? null : chain.get(chain.size() - 1);
+			if (data == null || Type.readInt(data, 4) == cap) {
+				data = HashPage.createEmptyPageData(HashPage.BUCKET);
+				BTreePage.writeInt(data, 12, depth);
+				chain.add(data);
+			}
+			int count = Type.readInt(data, 4);
+			int offset = HashPage.HEADER_SIZE + count * HashPage.ENTRY_SIZE;
+			BTreePage.writeInt(data, offset, entries[3 * i]);
+			BTreePage.writeInt(data, offset + 4, entries[3 * i + 1]);
+			BTreePage.writeInt(data, offset + 8, entries[3 * i + 2]);
+			BTreePage.writeInt(data, 4, count + 1);
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		FileChannel channel = raf.getChannel();
+		try {
+			channel.truncate(0);
+			byte[] meta = HashPage.createEmptyPageData(HashPage.META);
+			BTreePage.writeInt(meta, 4, depth);
+			int nextPage = 1;
+			for (int b = 0; b < buckets; b++) {
+				List<byte[]> chain = chains.get(b);
+				if (chain.isEmpty()) {
+					byte[] data = HashPage.createEmptyPageData(HashPage.BUCKET);
+					BTreePage.writeInt(data, 12, depth);
+					chain.add(data);
+				}
+				BTreePage.writeInt(meta, HashPage.HEADER_SIZE + 4 * b, nextPage);
+				for (int i = 0; i < chain.size(); i++) {
+					byte[] data = chain.get(i);
+					if (i + 1 < chain.size())
+						BTreePage.writeInt(data, 8, nextPage + 1);
+					write(channel, nextPage++, data);
+				}
+			}
+			write(channel, 0, meta);
+			channel.force(false);
+		} finally {
+			raf.close();
+		}
+		return new HashFile(f, tableid, keyField);
+	}
+
+	/**
+	 * @return the hash of a key, whose low bits select its bucket
+	 */
+	static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static void write(FileChannel channel, int pgNo, byte[] data) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		long offset = (long) pgNo * BufferPool.getPageSize();
+		while (buffer.hasRemaining())
+			channel.write(buffer, offset + buffer.position());
+	}
+
+	/** @return the File the index is stored in */
+	public File getFile() {
+		return m_file;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this index, the hash of the
+	 * absolute name of its file like for a HeapFile.
+	 */
+	public int getId() {
+		return m_file.getAbsolutePath().hashCode();
+	}
+
+	public int getTableId() {
+		return m_tableId;
+	}
+
+	public int getKeyField() {
+		return m_keyField;
+	}
+
+	/**
+	 * Returns the TupleDesc of the indexed table.
+	 */
+	public TupleDesc getTupleDesc() {
+		return Database.getCatalog().getTupleDesc(m_tableId);
+	}
+
+	/**
+	 * Returns the number of pages in this file, including the meta page.
+	 */
+	public int numPages() {
+		return (int) (m_file.length() / BufferPool.getPageSize());
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BufferPool.getPageSize());
+			long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
+			while (buffer.hasRemaining()) {
+				if (m_channel.read(buffer, offset + buffer.position()) < 0)
+					break;
+			}
+			return new HashPage((HashPageId) pid, buffer.array());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		write(m_channel, page.getId().pageNumber(), page.getPageData());
+	}
+
+	private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (HashPage) Database.getBufferPool().getPage(tid,
+				new HashPageId(getId(), pgNo), perm);
+	}
+
+	/**
+	 * Appends an empty bucket page with the given local depth to the file
+	 * and returns it, marked dirty.
+	 */
+	private HashPage allocatePage(TransactionId tid, int localDepth, ArrayList<Page> dirtied)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo = numPages();
+		byte[] data = HashPage.createEmptyPageData(HashPage.BUCKET);
+		BTreePage.writeInt(data, 12, localDepth);
+		write(m_channel, pgNo, data);
+		HashPage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+		markDirty(tid, page, dirtied);
+		return page;
+	}
+
+	private static void markDirty(TransactionId tid, HashPage page, ArrayList<Page> dirtied) {
+		page.markDirty(true, tid);
+		if (!dirtied.contains(page))
+			dirtied.add(page);
+	}
+
+	private int key(Tuple t) {
+		return ((IntField) t.getField(m_keyField)).getValue();
+	}
+
+	/** @return the page number of the first page of a key's bucket */
+	private int bucketOf(TransactionId tid, int key) throws DbException,
+			TransactionAbortedException {
+		HashPage meta = getPage(tid, 0, Permissions.READ_ONLY);
+		return meta.getBucket(hash(key) & ((1 << meta.getGlobalDepth()) - 1));
+	}
+
+	/**
+	 * Adds the entry of a tuple stored in the indexed table to the index.
+	 *
+	 * @return the pages that were changed, all of them marked dirty
+	 * @throws DbException if the index already has the tuple's entry
+	 */
+	public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		RecordId rid = t.getRecordId();
+		int key = key(t), ridPage = rid.getPageId().pageNumber(), ridSlot = rid.tupleno();
+		while (true) {
+			HashPage bucket = getPage(tid, bucketOf(tid, key), Permissions.READ_WRITE);
+			for (HashPage page = bucket; ; ) {
+				if (page.find(key, ridPage, ridSlot) >= 0)
+					throw new DbException("index already has an entry for this tuple");
+				if (page.getNext() == 0)
+					break;
+				page = getPage(tid, page.getNext(), Permissions.READ_ONLY);
+			}
+			if (bucket.getCount() == HashPage.capacity() && bucket.getNext() == 0
+					&& split(tid, bucket, dirtied))
+				continue;
+			// the first page of the chain with room, or a new one at its end
+			HashPage page = bucket;
+			while (page.getCount() == HashPage.capacity() && page.getNext() != 0)
+				page = getPage(tid, page.getNext(), Permissions.READ_WRITE);
+			markDirty(tid, page, dirtied);
+			if (page.getCount() == HashPage.capacity()) {
+				HashPage overflow = allocatePage(tid, page.getLocalDepth(), dirtied);
+				page.setNext(overflow.getId().pageNumber());
+				page = overflow;
+			}
+			page.addEntry(key, ridPage, ridSlot);
+			return dirtied;
+		}
+	}
+
+	/**
+	 * Splits a full bucket without overflow pages in two by one more bit of
+	 * the hash values, doubling the directory first if needed.
+	 *
+	 * @return false if the bucket cannot be split because the directory has
+	 *         reached its largest size, or because all of its entries would
+	 *         stay together
+	 */
+	private boolean split(TransactionId tid, HashPage bucket, ArrayList<Page> dirtied)
+			throws DbException, IOException, TransactionAbortedException {
+		int depth = bucket.getLocalDepth();
+		boolean allSame = true;
+		int bits = hash(bucket.getKey(0)) & ((1 << (depth + 1)) - 1);
+		for (int i = 1; i < bucket.getCount() && allSame; i++)
+			allSame = (hash(bucket.getKey(i)) & ((1 << (depth + 1)) - 1)) == bits;
+		HashPage meta = getPage(tid, 0, Permissions.READ_WRITE);
+		int globalDepth = meta.getGlobalDepth();
+		if (allSame || (depth == globalDepth && globalDepth == HashPage.maxGlobalDepth()))
+			return false;
+
+		// mark the pages dirty first, so that they stay in the BufferPool
+		// while the new page is allocated
+		markDirty(tid, meta, dirtied);
+		markDirty(tid, bucket, dirtied);
+		if (depth == globalDepth) {
+			for (int i = 0; i < 1 << globalDepth; i++)
+				meta.setBucket(i + (1 << globalDepth), meta.getBucket(i));
+			meta.setGlobalDepth(++globalDepth);
+		}
+		HashPage image = new HashPage(bucket.getId(), bucket.getPageData());
+		HashPage high = allocatePage(tid, depth + 1, dirtied);
+		bucket.clear();
+		bucket.setLocalDepth(depth + 1);
+		for (int i = 0; i < image.getCount(); i++) {
+			int key = image.getKey(i);
+			HashPage to = (hash(key) & (1 << depth)) != 0 ? high : bucket;
+			to.addEntry(key, image.getRidPage(i), image.getRidSlot(i));
+		}
+		int oldPage = bucket.getId().pageNumber();
+		for (int i = 0; i < 1 << globalDepth; i++)
+			if (meta.getBucket(i) == oldPage && (i & (1 << depth)) != 0)
+				meta.setBucket(i, high.getId().pageNumber());
+		return true;
+	}
+
+	/**
+	 * Removes the entry of a tuple stored in the indexed table from the
+	 * index.
+	 *
+	 * @return the page that was changed, marked dirty
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		int key = key(t), ridPage = rid.getPageId().pageNumber(), ridSlot = rid.tupleno();
+		int pgNo = bucketOf(tid, key);
+		while (pgNo != 0) {
+			HashPage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+			int pos = page.find(key, ridPage, ridSlot);
+			if (pos >= 0) {
+				page.removeEntry(pos);
+				ArrayList<Page> dirtied = new ArrayList<Page>();
+				markDirty(tid, page, dirtied);
+				return dirtied;
+			}
+			pgNo = page.getNext();
+		}
+		throw new DbException("index has no entry for this tuple");
+	}
+
+	/**
+	 * Returns the tuples of the indexed table, bucket page by bucket page.
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new IndexFileIterator(tid, this, new EntryIterator(tid, 0, true), null);
+	}
+
+	/**
+	 * A hash index finds the keys equal to a value only.
+	 */
+	public boolean supports(Predicate.Op op) {
+		return op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE;
+	}
+
+	/**
+	 * Returns the RecordIds of the tuples whose key equals value, in no
+	 * particular order.
+	 */
+	public IndexIterator lookup(TransactionId tid, Predicate.Op op, int value) {
+		if (!supports(op))
+			throw new UnsupportedOperationException("a hash index cannot look up " + op);
+		return new EntryIterator(tid, value, false);
+	}
+
+	/**
+	 * Returns the entries of a key by following its bucket's chain, or all
+	 * entries by reading every page after the meta page.
+	 */
+	private class EntryIterator implements IndexIterator {
+		private final TransactionId m_tid;
+		private final int m_key;
+		private final boolean m_all;
+		private HashPage m_page;
+		private int m_pos;
+
+		EntryIterator(TransactionId tid, int key, boolean all) {
+			m_tid = tid;
+			m_key = key;
+			m_all = all;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			int first = m_all ? 1 : bucketOf(m_tid, m_key);
+			m_page = first < numPages() ? getPage(m_tid, first, Permissions.READ_ONLY) : null;
+			m_pos = 0;
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			while (m_page != null) {
+				for (; m_pos < m_page.getCount(); m_pos++)
+					if (m_all || m_page.getKey(m_pos) == m_key)
+						return true;
+				int next = m_all ? m_page.getId().pageNumber() + 1 : m_page.getNext();
+				if (next == 0 || next >= numPages())
+					m_page = null;
+				else
+					m_page = getPage(m_tid, next, Permissions.READ_ONLY);
+				m_pos = 0;
+			}
+			return false;
+		}
+
+		public RecordId next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			RecordId rid = new RecordId(new HeapPageId(m_tableId, m_page.getRidPage(m_pos)),
+					m_page.getRidSlot(m_pos));
+			m_pos++;
+			return rid;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			m_page = null;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Each instance of HashPage stores one page of a {@link HashFile} and
+ * implements the Page interface that is used by BufferPool. Like BTreePage,
+ * the page is kept in its on-disk layout and read and written in place.
+ * <p>
+ * Every page starts with a 16-byte header of four ints: the page type, a
+ * count, the page number of the next page of an overflow chain (0 for
+ * none), and the local depth of a bucket.
+ * <ul>
+ * <li>A bucket page holds up to (page size - 16) / 12 entries, each a key
+ * followed by the page number and slot of the RecordId it points to, in no
+ * particular order. The count is the number of entries. The overflow pages
+ * of a bucket have the bucket's local depth.
+ * <li>The meta page, page 0 of the file, holds the directory: the count is
+ * the global depth d, and the header is followed by the 2^d page numbers of
+ * the buckets that the hash values ending in 0 ... 2^d - 1 belong to.
+ * </ul>
+ *
+ * @see HashFile
+ */
+public class HashPage implements Page {
+
+	static final int META = 0;
+	static final int BUCKET = 1;
+
+	static final int HEADER_SIZE = 16;
+	static final int ENTRY_SIZE = 12;
+
+	final HashPageId pid;
+	/** The page image, exactly as written to disk. */
+	final byte data[];
+	boolean dirt;
+	TransactionId tid = null;
+
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	/**
+	 * Create a HashPage from a set of bytes of data read from disk; the
+	 * bytes are copied.
+	 */
+	public HashPage(HashPageId id, byte[] data) {
+		this(id, Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize())), true);
+	}
+
+	private HashPage(HashPageId id, byte[] data, boolean owned) {
+		this.pid = id;
+		this.data = data;
+		setBeforeImage();
+	}
+
+	/**
+	 * @return the image of an empty page of the given type
+	 */
+	static byte[] createEmptyPageData(int type) {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		BTreePage.writeInt(data, 0, type);
+		return data;
+	}
+
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashPage getBeforeImage() {
+		synchronized (oldDataLock)
+		{
+			return new HashPage(pid, oldData.clone(), true);
+		}
+	}
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock)
+		{
+			oldData = getPageData();
+		}
+	}
+
+	public byte[] getPageData() {
+		return Arrays.copyOf(data, BufferPool.getPageSize());
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirt = dirty;
+		this.tid = dirty ? tid : null;
+	}
+
+	public TransactionId isDirty() {
+		return dirt ? tid : null;
+	}
+
+	/** @return META or BUCKET */
+	int getType() {
+		return Type.readInt(data, 0);
+	}
+
+	int getCount() {
+		return Type.readInt(data, 4);
+	}
+
+	void setCount(int count) {
+		BTreePage.writeInt(data, 4, count);
+	}
+
+	/** @return the page number of the next page of the chain, or 0 */
+	int getNext() {
+		return Type.readInt(data, 8);
+	}
+
+	void setNext(int page) {
+		BTreePage.writeInt(data, 8, page);
+	}
+
+	/** @return the number of hash bits all keys of the bucket share */
+	int getLocalDepth() {
+		return Type.readInt(data, 12);
+	}
+
+	void setLocalDepth(int depth) {
+		BTreePage.writeInt(data, 12, depth);
+	}
+
+	/** @return the global depth; meta page only */
+	int getGlobalDepth() {
+		return getCount();
+	}
+
+	void setGlobalDepth(int depth) {
+		setCount(depth);
+	}
+
+	/** @return the bucket of the hash values ending in i; meta page only */
+	int getBucket(int i) {
+		return Type.readInt(data, HEADER_SIZE + 4 * i);
+	}
+
+	void setBucket(int i, int page) {
+		BTreePage.writeInt(data, HEADER_SIZE + 4 * i, page);
+	}
+
+	/** @return the largest global depth whose directory fits on a page */
+	static int maxGlobalDepth() {
+		int slots = (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+		return 31 - Integer.numberOfLeadingZeros(slots);
+	}
+
+	/** @return the most entries a bucket page holds */
+	static int capacity() {
+		return (BufferPool.getPageSize() - HEADER_SIZE) / ENTRY_SIZE;
+	}
+
+	private static int entryOffset(int i) {
+		return HEADER_SIZE + i * ENTRY_SIZE;
+	}
+
+	int getKey(int i) {
+		return Type.readInt(data, entryOffset(i));
+	}
+
+	int getRidPage(int i) {
+		return Type.readInt(data, entryOffset(i) + 4);
+	}
+
+	int getRidSlot(int i) {
+		return Type.readInt(data, entryOffset(i) + 8);
+	}
+
+	/**
+	 * @return the position of the given entry on this page, or -1
+	 */
+	int find(int key, int ridPage, int ridSlot) {
+		for (int i = 0; i < getCount(); i++) {
+			int offset = entryOffset(i);
+			if (Type.readInt(data, offset) == key && Type.readInt(data, offset + 4) == ridPage
+					&& Type.readInt(data, offset + 8) == ridSlot)
+				return i;
+		}
+		return -1;
+	}
+
+	/** Adds an entry after the last one; the page must not be full. */
+	void addEntry(int key, int ridPage, int ridSlot) {
+		int offset = entryOffset(getCount());
+		BTreePage.writeInt(data, offset, key);
+		BTreePage.writeInt(data, offset + 4, ridPage);
+		BTreePage.writeInt(data, offset + 8, ridSlot);
+		setCount(getCount() + 1);
+	}
+
+	/** Removes entry i by moving the last entry into its place. */
+	void removeEntry(int i) {
+		int last = entryOffset(getCount() - 1);
+		System.arraycopy(data, last, data, entryOffset(i), ENTRY_SIZE);
+		Arrays.fill(data, last, last + ENTRY_SIZE, (byte) 0);
+		setCount(getCount() - 1);
+	}
+
+	/** Removes all entries. */
+	void clear() {
+		Arrays.fill(data, HEADER_SIZE, entryOffset(getCount()), (byte) 0);
+		setCount(0);
+	}
+}
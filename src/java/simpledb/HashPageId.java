@@ -0,0 +1,62 @@
+package simpledb;
+
+/** Unique identifier for HashPage objects. */
+public class HashPageId implements PageId {
+
+	private final int m_tableID;
+	private final int m_pgNo;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific hash index file.
+	 *
+	 * @param tableId The id of the HashFile
+	 * @param pgNo The page number in that file.
+	 */
+	public HashPageId(int tableId, int pgNo)
+	{
+		m_tableID = tableId;
+		m_pgNo = pgNo;
+	}
+
+	/** @return the id of the HashFile this page belongs to */
+	public int getTableId()
+	{
+		return m_tableID;
+	}
+
+	/** @return the page number in the file */
+	public int pageNumber()
+	{
+		return m_pgNo;
+	}
+
+	public int hashCode()
+	{
+		return 31 * m_tableID + m_pgNo;
+	}
+
+	public boolean equals(Object o)
+	{
+		if (o == this) return true;
+		if (!(o instanceof HashPageId)) return false;
+		HashPageId cur = (HashPageId) o;
+		return cur.m_pgNo == m_pgNo && cur.m_tableID == m_tableID;
+	}
+
+	public String toString()
+	{
+		return "HashPageId(" + m_tableID + ", " + m_pgNo + ")";
+	}
+
+	/**
+	 *  Return a representation of this object as an array of
+	 *  integers, for writing to disk.
+	 */
+	public int[] serialize() {
+		int data[] = new int[2];
+		data[0] = getTableId();
+		data[1] = pageNumber();
+		return data;
+	}
+}
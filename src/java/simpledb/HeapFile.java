@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,32 +12,140 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read either from a read-only memory mapping of the file
+ * ({@link IoMode#MAPPED}, the default), which copies each page out of the
+ * mapping without a read() call, or with seek() and read() on a
+ * RandomAccessFile ({@link IoMode#RANDOM_ACCESS}). Both modes write pages with
+ * positional writes on a single FileChannel.
+ * <p>
+ * Pages are either {@link HeapPage}s with fixed-size slots
+ * ({@link PageFormat#FIXED}, the default) or {@link SlottedHeapPage}s with
+ * variable-length records ({@link PageFormat#SLOTTED}), which store strings
+ * without padding them to Type.STRING_LEN.
+ * <p>
+ * Next to the data file, a {@link FreeSpaceMap} tells inserts which pages
+ * have room, and a {@link ZoneMap} tells scans with predicates which pages
+ * cannot hold a qualifying tuple, so that they are never read.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+	/** How a HeapFile reads its pages. */
+	public enum IoMode {
+		/** Serve reads from a memory mapping of the file. */
+		MAPPED,
+		/** Seek and read a RandomAccessFile into a new array per page. */
+		RANDOM_ACCESS
+	}
+
+	/** How a HeapFile lays out tuples on its pages. */
+	public enum PageFormat {
+		/** Fixed-size slots and a slot bitmap; see {@link HeapPage}. */
+		FIXED,
+		/** Variable-length records and a slot directory; see {@link SlottedHeapPage}. */
+		SLOTTED
+	}
+
+	private static volatile IoMode defaultIoMode = IoMode.MAPPED;
+
 	private File        File;
 	private TupleDesc   Td;
 	private RandomAccessFile readpagefile;
+	private FileChannel m_channel;
+	private final IoMode m_ioMode;
+	private final PageFormat m_format;
+	private volatile MappedByteBuffer m_map;
+	private final FreeSpaceMap m_fsm;
+	private final ZoneMap m_zoneMap;
 
 	/**
-	 * Constructs a heap file backed by the specified file.
+	 * Constructs a heap file backed by the specified file, using the default
+	 * I/O mode.
 	 * 
 	 * @param f
 	 *            the file that stores the on-disk backing store for this heap
 	 *            file.
+	 * @see #setDefaultIoMode
 	 */
 	public HeapFile(File f, TupleDesc td) {
+		this(f, td, defaultIoMode);
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file that reads its
+	 * pages in the given way.
+	 */
+	public HeapFile(File f, TupleDesc td, IoMode mode) {
+		this(f, td, mode, PageFormat.FIXED);
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file whose pages have
+	 * the given format, using the default I/O mode.
+	 */
+	public HeapFile(File f, TupleDesc td, PageFormat format) {
+		this(f, td, defaultIoMode, format);
+	}
+
+	/**
+	 * Constructs a heap file backed by the specified file whose pages have
+	 * the given format, and that reads them in the given way.
+	 */
+	public HeapFile(File f, TupleDesc td, IoMode mode, PageFormat format) {
 		File   = f;
+		m_ioMode = mode;
+		m_format = format;
 		try {
 			readpagefile = new RandomAccessFile(f, "rw");
+			m_channel = readpagefile.getChannel();
 		} catch (FileNotFoundException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 		Td = td;
+		if (format == PageFormat.SLOTTED)
+			m_fsm = new FreeSpaceMap(f, td);
+		else
+			m_fsm = new FreeSpaceMap(f, (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1));
+		m_zoneMap = new ZoneMap(f, td);
+	}
+
+	/** @return the I/O mode used by HeapFiles created without an explicit one */
+	public static IoMode getDefaultIoMode() {
+		return defaultIoMode;
+	}
+
+	/**
+	 * Sets the I/O mode used by HeapFiles created from now on without an
+	 * explicit one; RANDOM_ACCESS falls back to the original read path.
+	 */
+	public static void setDefaultIoMode(IoMode mode) {
+		defaultIoMode = mode;
+	}
+
+	/** @return the way this file reads its pages */
+	public IoMode getIoMode() {
+		return m_ioMode;
+	}
+
+	/** @return the layout of this file's pages */
+	public PageFormat getPageFormat() {
+		return m_format;
+	}
+
+	/**
+	 * Creates a page of this file's format on a buffer that was read for it
+	 * and is not used afterwards, so the page need not copy it.
+	 */
+	private HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+		if (data.length < BufferPool.getPageSize())
+			data = Arrays.copyOf(data, BufferPool.getPageSize());
+		if (m_format == PageFormat.SLOTTED)
+			return new SlottedHeapPage(pid, data, true);
+		return new HeapPage(pid, data, true);
 	}
 
 	/**
@@ -72,12 +183,16 @@ public class HeapFile implements DbFile {
 	public Page readPage(PageId pid) 
 	{
 		try {
+			if (m_ioMode == IoMode.MAPPED)
+				return readMappedPage((HeapPageId) pid);
 			byte[] buffer = new byte[BufferPool.PAGE_SIZE];
-			long offset = pid.pageNumber()*BufferPool.PAGE_SIZE;
-			readpagefile.seek(offset);
-			readpagefile.read(buffer);
+			long offset = (long) pid.pageNumber()*BufferPool.PAGE_SIZE;
+			synchronized (readpagefile) {
+				readpagefile.seek(offset);
+				readpagefile.read(buffer);
+			}
 			HeapPage page = null;
-			page = new HeapPage((HeapPageId) pid, buffer);
+			page = newPage((HeapPageId) pid, buffer);
 			return page;
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -86,13 +201,112 @@ public class HeapFile implements DbFile {
 
 	}
 
+	/**
+	 * Reads a page from the memory mapping, remapping the file first if it
+	 * has grown enough past the mapped region (see {@link #remap}). Pages
+	 * past the mapping are read with a positional read, and pages past the
+	 * end of the file as empty pages, like the RandomAccessFile path does.
+	 */
+	private HeapPage readMappedPage(HeapPageId pid) throws IOException {
+		long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+		long end = offset + BufferPool.PAGE_SIZE;
+		MappedByteBuffer map = m_map;
+		if (map == null || end > map.capacity())
+			map = remap(end);
+		if (map == null || end > map.capacity())
+			return readPositional(pid, offset);
+		// absolute positioning on a private duplicate keeps concurrent
+		// readers from disturbing each other
+		ByteBuffer slice = map.duplicate();
+		slice.position((int) offset);
+		slice.limit((int) end);
+		if (m_format == PageFormat.SLOTTED)
+			return new SlottedHeapPage(pid, slice.slice());
+		return new HeapPage(pid, slice.slice());
+	}
+
+	/**
+	 * Maps the whole file again if it now covers the byte at end - 1 and has
+	 * at least doubled since it was last mapped. The pages appended in
+	 * between are read with positional reads, so a file that grows a page
+	 * at a time is mapped a logarithmic number of times rather than once
+	 * per page.
+	 * 
+	 * @return the current mapping, or null if the file cannot be mapped
+	 */
+	private synchronized MappedByteBuffer remap(long end) throws IOException {
+		MappedByteBuffer map = m_map;
+		if (map != null && end <= map.capacity())
+			return map;
+		long size = m_channel.size();
+		if (size < end || size > Integer.MAX_VALUE)
+			return map;
+		if (map != null && size < 2L * map.capacity())
+			return map;
+		map = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		m_map = map;
+		return map;
+	}
+
+	/**
+	 * Reads a page that is not (entirely) covered by the mapping with a
+	 * positional read; bytes past the end of the file read as zeros.
+	 */
+	private HeapPage readPositional(HeapPageId pid, long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+		while (buffer.hasRemaining()) {
+			if (m_channel.read(buffer, offset + buffer.position()) < 0)
+				break;
+		}
+		return newPage(pid, buffer.array());
+	}
+
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException 
 	{
-        RandomAccessFile f = new RandomAccessFile(File, "rw"); // rws forces a flush of both data and metadata
-        f.seek(page.getId().pageNumber() * BufferPool.PAGE_SIZE);
-        f.write(page.getPageData());
-        f.close();
+		ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+		long offset = (long) page.getId().pageNumber() * BufferPool.PAGE_SIZE;
+		m_fsm.load(m_channel);
+		m_zoneMap.load(this);
+		while (data.hasRemaining())
+			m_channel.write(data, offset + data.position());
+		m_fsm.pageWritten(page.getId().pageNumber(), ((HeapPage) page).getNumEmptySlots());
+		m_zoneMap.pageWritten((HeapPage) page);
+	}
+
+	/**
+	 * Returns the free-space map of this file, loading it first if needed.
+	 */
+	public FreeSpaceMap getFreeSpaceMap() throws IOException {
+		m_fsm.load(m_channel);
+		return m_fsm;
+	}
+
+	/**
+	 * Returns the zone map of this file, loading it first if needed.
+	 */
+	public ZoneMap getZoneMap() throws IOException {
+		m_zoneMap.load(this);
+		return m_zoneMap;
+	}
+
+	/**
+	 * Closes the side files of the free-space map and the zone map. The maps
+	 * stay usable and open their side files again when they next write.
+	 */
+	public void closeSideFiles() throws IOException {
+		m_fsm.close();
+		m_zoneMap.close();
+	}
+
+	/**
+	 * Arranges for a heap file and the side files it may get to be deleted
+	 * when the virtual machine exits; for temporary tables.
+	 */
+	public static void deleteOnExit(File f) {
+		f.deleteOnExit();
+		FreeSpaceMap.sideFile(f).deleteOnExit();
+		ZoneMap.sideFile(f).deleteOnExit();
 	}
 
 	/**
@@ -108,27 +322,33 @@ public class HeapFile implements DbFile {
 	{
 
         List<Page> pagesarr = new ArrayList<Page>();
-      
-        for(int i = 0; i < numPages(); i++)
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        ZoneMap zm = getZoneMap();
+
+        // the map may be stale for pages changed behind the file's back;
+        // correct it for every page that turns out to be full
+        int pageNo;
+        while ((pageNo = fsm.findPageWithSpace()) >= 0)
         {
-          PageId pid = new HeapPageId(this.getId(), i);
+          PageId pid = new HeapPageId(this.getId(), pageNo);
           HeapPage p = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
           if(p.getNumEmptySlots() > 0)
           {
              p.insertTuple(t);
+             fsm.setFreeSlots(pageNo, p.getNumEmptySlots());
+             zm.tupleInserted(pageNo, t);
              pagesarr.add(p);
              return (ArrayList<Page>)pagesarr;
-          }      
+          }
+          fsm.setFreeSlots(pageNo, 0);
         }
         
         HeapPageId insertpage = new HeapPageId(getId(), numPages());
         HeapPage newPage = (HeapPage)Database.getBufferPool().getPage(tid, insertpage, Permissions.READ_WRITE);
         newPage.insertTuple(t);
+        zm.tupleInserted(insertpage.pageNumber(), t);
         
-        RandomAccessFile f = new RandomAccessFile(File, "rw");
-        f.seek(numPages() * BufferPool.PAGE_SIZE);
-        f.write(newPage.getPageData(), 0, BufferPool.PAGE_SIZE);
-        f.close();
+        writePage(newPage);
         pagesarr.add(newPage);
         return (ArrayList<Page>)pagesarr;
 		
@@ -139,48 +359,149 @@ public class HeapFile implements DbFile {
 	TransactionAbortedException 
 	{
 		List<Page> pagesarr = new ArrayList<Page>();
+	      ZoneMap zm;
+	      try {
+	    	  zm = getZoneMap();
+	      } catch (IOException e) {
+	    	  throw new DbException("could not load zone map: " + e.getMessage());
+	      }
 	      HeapPage p = (HeapPage)Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
 	      p.deleteTuple(t);
+	      zm.tupleDeleted(p, t);
+	      try {
+	    	  getFreeSpaceMap().setFreeSlots(p.getId().pageNumber(), p.getNumEmptySlots());
+	      } catch (IOException e) {
+	    	  throw new DbException("could not update free-space map: " + e.getMessage());
+	      }
 	      pagesarr.add(p);
 	      return (ArrayList<Page>)pagesarr;
 	}
 
 	// see DbFile.java for javadocs
 	public DbFileIterator iterator(TransactionId tid) {
-		return new HeapFileIterator(this, tid);
+		return new HeapFileIterator(this, tid, null);
 	}
 
+	/**
+	 * Returns an iterator over the tuples of this file that satisfy all of
+	 * the given predicates. The predicates are evaluated on the page data,
+	 * so tuples that do not qualify are never decoded, and pages that the
+	 * zone map rules out are not read at all.
+	 *
+	 * @param predicates predicates on the fields of this file's tuples
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+		return new HeapFileIterator(this, tid, predicates);
+	}
+
+	/**
+	 * Returns an iterator over the tuples on a range of pages of this file
+	 * that satisfy all of the given predicates. Iterators over disjoint
+	 * ranges can be used by different threads at the same time.
+	 *
+	 * @param predicates predicates on the fields of this file's tuples, or null
+	 * @param startPage the first page to read
+	 * @param endPage the page after the last page to read; clamped to
+	 *            {@link #numPages()}
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] predicates,
+			int startPage, int endPage) {
+		if (startPage < 0 || endPage < startPage)
+			throw new IllegalArgumentException("invalid page range " + startPage + "-" + endPage);
+		return new HeapFileIterator(this, tid, predicates, startPage, endPage);
+	}
+
+	/**
+	 * Iterates over the pages of the file, or a range of them, in order.
+	 * Whenever it moves to a page it asks the buffer pool to prefetch the
+	 * pages of the read-ahead window that follow it. With predicates, it
+	 * passes over the pages the zone map rules out, neither reading nor
+	 * prefetching them.
+	 */
 	class HeapFileIterator implements DbFileIterator
 	{
 		TransactionId m_tid;
 		HeapFile m_file;
+		int m_startP;
 		int m_curP;
 		int m_numP;
+		int m_prefetchedTo;
 		HeapPage m_curPage;
 		Iterator<Tuple> m_iterator;
+		Predicate[] m_predicates;
+		ZoneMap m_zoneMap;
+
+		public HeapFileIterator(HeapFile file, TransactionId tid, Predicate[] predicates)
+		{
+			this(file, tid, predicates, 0, file.numPages());
+		}
 
-		public HeapFileIterator(HeapFile file, TransactionId tid)
+		public HeapFileIterator(HeapFile file, TransactionId tid, Predicate[] predicates,
+				int startPage, int endPage)
 		{
 			m_file = file;
 			m_tid = tid;
-			m_numP = m_file.numPages();
-			m_curP = 0;
+			m_predicates = predicates;
+			m_numP = Math.min(endPage, m_file.numPages());
+			m_startP = startPage;
+			m_curP = startPage;
+			m_prefetchedTo = startPage;
 		}
 		public void open() throws DbException, TransactionAbortedException {
+			m_zoneMap = null;
+			if (m_predicates != null)
+			{
+				try {
+					m_zoneMap = m_file.getZoneMap();
+				} catch (IOException e) {
+					// scan every page
+				}
+			}
+			readCurrentPage();
+		}
+
+		/** Moves to the first page from the current one on that may match. */
+		private void readCurrentPage() throws DbException, TransactionAbortedException {
+			while (m_curP < m_numP && !mayMatch(m_curP))
+				m_curP++;
+			if (m_curP > 0 && m_curP >= m_numP)
+			{
+				//nothing to read in this range (scans from page 0 read it
+				//as before, even if the file looked empty)
+				m_iterator = Collections.<Tuple>emptyList().iterator();
+				return;
+			}
 			BufferPool m_bp = Database.getBufferPool();
 			HeapPageId m_hpid = new HeapPageId(m_file.getId(),m_curP);
 			m_curPage = (HeapPage) m_bp.getPage(this.m_tid, m_hpid, null);
-			m_iterator = m_curPage.iterator();
+			m_iterator = m_curPage.iterator(m_predicates);
+			readAhead(m_bp);
+		}
+
+		/** Prefetches the pages of the read-ahead window not asked for yet. */
+		private void readAhead(BufferPool bp) {
+			int end = Math.min(m_numP, m_curP + 1 + bp.getReadAheadWindow());
+			for (int p = Math.max(m_prefetchedTo, m_curP + 1); p < end; p++)
+				if (mayMatch(p))
+					bp.prefetchPage(new HeapPageId(m_file.getId(), p));
+			m_prefetchedTo = Math.max(m_prefetchedTo, end);
+		}
+
+		private boolean mayMatch(int pageNo) {
+			return m_zoneMap == null || m_zoneMap.mayMatch(pageNo, m_predicates);
 		}
 
 		public boolean hasNext() throws DbException,
 		TransactionAbortedException {
 			try 
 			{
-				if (m_iterator.hasNext()) return true;
-				if (++m_curP >= m_numP) return false;
-				open();
-				return m_iterator.hasNext();
+				// a page may have no qualifying tuple; keep going
+				while (!m_iterator.hasNext())
+				{
+					if (++m_curP >= m_numP) return false;
+					readCurrentPage();
+				}
+				return true;
 			}
 			catch (Exception e) 
 			{
@@ -195,8 +516,9 @@ public class HeapFile implements DbFile {
 		}
 
 		public void rewind() throws DbException, TransactionAbortedException {
-			m_curP = 0;
-			this.open();
+			m_curP = m_startP;
+			m_prefetchedTo = m_startP;
+			readCurrentPage();
 		}
 
 		public void close() {
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -66,6 +68,76 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  /**
+   * Convert the specified input text file into a binary page file with
+   * pages of the given format.
+   *
+   * @see #convert(File, File, int, int, Type[], char)
+   * @see SlottedHeapPage
+   * @param format FIXED for HeapPages, SLOTTED for SlottedHeapPages; slotted
+   *   pages must be BufferPool.getPageSize() bytes long
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 HeapFile.PageFormat format) throws IOException {
+      if (format == HeapFile.PageFormat.SLOTTED)
+          convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+      else
+          convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+  }
+
+  /**
+   * Packs the lines of the input file into slotted pages, as many records
+   * as fit on each page. Strings are trimmed and truncated to
+   * Type.STRING_LEN like in fixed-size pages, but stored without padding.
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator) throws IOException {
+      if (npagebytes != BufferPool.getPageSize())
+          throw new IllegalArgumentException("slotted pages must be "
+                  + BufferPool.getPageSize() + " bytes");
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] page = new byte[npagebytes];
+      boolean empty = true;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().length() == 0)
+              continue;
+          String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          if (values.length < numFields) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < numFields; i++) {
+                  if (typeAr[i] == Type.INT_TYPE)
+                      t.setField(i, new IntField(Integer.parseInt(values[i].trim())));
+                  else
+                      t.setField(i, new StringField(values[i].trim(), Type.STRING_LEN));
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          if (SlottedHeapPage.insert(page, t) < 0) {
+              os.write(page);
+              npages++;
+              page = new byte[npagebytes];
+              SlottedHeapPage.insert(page, t);
+          }
+          empty = false;
+      }
+      // like the fixed format, an empty file still gets one empty page
+      if (!empty || npages == 0)
+          os.write(page);
+      br.close();
+      os.close();
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
     * Assume format of the input file is (note that only integer fields are
@@ -2,10 +2,16 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page is kept in its on-disk layout: inserts and deletes write straight
+ * into the page image, so serializing the page or taking its before image is
+ * a single array copy. Tuples are decoded from the image when asked for.
+ * {@link SlottedHeapPage} lays out tuples as variable-length records instead.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,14 +21,24 @@ public class HeapPage implements Page {
 
 	final HeapPageId pid;
 	final TupleDesc td;
-	final byte header[];
+	/** Decoded tuples; null for empty slots and for slots not decoded yet. */
 	final Tuple tuples[];
 	final int numSlots;
+	final int headerSize;
+	/**
+	 * The page image: the header bytes followed by the tuple slots, exactly
+	 * as written to disk. Always up to date with this page's contents.
+	 */
+	final byte data[];
     boolean dirt;
     TransactionId tid = null;
 
+	/**
+	 * The before image, or null while the page is unchanged since the before
+	 * image was last set; it is only copied out of data on the first write.
+	 */
 	byte[] oldData;
-	private final Byte oldDataLock=new Byte((byte)0);
+	private final Object oldDataLock = new Object();
 
 	/**
 	 * Create a HeapPage from a set of bytes of data read from disk.
@@ -41,25 +57,59 @@ public class HeapPage implements Page {
 	 * @see BufferPool#getPageSize()
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
+		// the page is modified in place, so it needs its own copy
+		this(id, Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize())), true);
+	}
+
+	/**
+	 * Create a HeapPage from the remaining bytes of a buffer, e.g. a region
+	 * of a memory-mapped file. The page is decoded from and modified in a
+	 * byte array, so the bytes are copied into one; this is the only copy
+	 * made until the page is first modified. The buffer's position is left
+	 * untouched.
+	 *
+	 * @see #HeapPage(HeapPageId, byte[])
+	 */
+	public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+		this(id, copyOf(data), true);
+	}
+
+	static byte[] copyOf(ByteBuffer data) {
+		byte[] copy = new byte[Math.max(data.remaining(), BufferPool.getPageSize())];
+		data.duplicate().get(copy, 0, data.remaining());
+		return copy;
+	}
+
+	/**
+	 * Creates a page that takes ownership of data, which must be at least a
+	 * page long and must not be used by anyone else afterwards.
+	 */
+	HeapPage(HeapPageId id, byte[] data, boolean owned) throws IOException {
+		this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data, owned);
+	}
+
+	private HeapPage(HeapPageId id, TupleDesc td, byte[] data, boolean owned) throws IOException {
+		this(id, td, data, getNumTuples(td), getHeaderSize(td));
+		if (data.length < headerSize + numSlots * td.getSize())
+			throw new EOFException("page data too short");
+	}
+
+	/**
+	 * Creates a page with a layout of its own that takes ownership of data;
+	 * used by subclasses, which override the methods that depend on the
+	 * layout.
+	 *
+	 * @param numSlots the most slots the page can have
+	 * @param headerSize the size of the page header, in bytes
+	 */
+	HeapPage(HeapPageId id, TupleDesc td, byte[] data, int numSlots, int headerSize) {
 		this.pid = id;
-		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-		this.numSlots = getNumTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
-
-		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-		dis.close();
+		this.td = td;
+		this.numSlots = numSlots;
+		this.headerSize = headerSize;
+		// the tuples are only decoded when they are asked for
+		this.data = data;
+		this.tuples = new Tuple[numSlots];
 
 		setBeforeImage();
 	}
@@ -67,7 +117,7 @@ public class HeapPage implements Page {
 	/** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
 	 */
-	private int getNumTuples() 
+	private static int getNumTuples(TupleDesc td) 
 	{        
 		return (int) Math.floor((BufferPool.PAGE_SIZE*8) / (td.getSize() * 8 + 1));
 	}
@@ -76,21 +126,16 @@ public class HeapPage implements Page {
 	 * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
 	 * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
 	 */
-	private int getHeaderSize() 
+	private static int getHeaderSize(TupleDesc td) 
 	{        
-		return (int) Math.ceil( getNumTuples() / 8.0);         
+		return (int) Math.ceil( getNumTuples(td) / 8.0);         
 	}
 
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public HeapPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new HeapPage(pid,oldDataRef);
+			return new HeapPage(pid,getBeforeImageData(),true);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -99,10 +144,30 @@ public class HeapPage implements Page {
 		return null;
 	}
 
+	/** @return a copy of the page image the before image is made of */
+	byte[] getBeforeImageData() {
+		synchronized(oldDataLock)
+		{
+			return oldData == null ? getPageData() : oldData.clone();
+		}
+	}
+
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Keeps the before image before the page image is first changed; every
+	 * method that writes to data calls this first.
+	 */
+	void beforeWrite() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null)
+				oldData = getPageData();
 		}
 	}
 
@@ -114,37 +179,109 @@ public class HeapPage implements Page {
 	}
 
 	/**
-	 * Suck up tuples from the source file.
+	 * @return the number of slots to look at for tuples; slots at or past it
+	 *         are never used
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
+	int numSlots() {
+		return numSlots;
+	}
+
+	/**
+	 * @return the offset of slot slotId's tuple in the page data
+	 */
+	int slotOffset(int slotId) {
+		return headerSize + slotId * td.getSize();
+	}
+
+	/**
+	 * @return the offset of a field of the tuple in a used slot
+	 */
+	int fieldOffset(int slotId, int field) {
+		return slotOffset(slotId) + td.getFieldOffset(field);
+	}
+
+	/**
+	 * @return the offset of the field that follows a field of the given type
+	 *         stored at offset
+	 */
+	int nextField(int offset, Type type) {
+		return offset + type.getLen();
+	}
+
+	/**
+	 * Returns the tuple in a slot, decoding it from the page data the first
+	 * time it is asked for.
+	 *
+	 * @return the tuple in the slot, or null if the slot is empty
+	 */
+	public Tuple getTuple(int slotId) {
+		if (!isSlotUsed(slotId))
 			return null;
+		Tuple t = tuples[slotId];
+		if (t == null) {
+			t = decodeTuple(slotId);
+			tuples[slotId] = t;
 		}
+		return t;
+	}
 
-		// read fields in the tuple
+	/**
+	 * Builds the tuple stored in a used slot from the page data.
+	 */
+	private Tuple decodeTuple(int slotId) {
 		Tuple t = new Tuple(td);
 		RecordId rid = new RecordId(pid, slotId);
 		t.setRecordId(rid);
-		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
+		int offset = slotOffset(slotId);
+		for (int j=0; j<td.numFields(); j++) {
+			Type type = td.getFieldType(j);
+			t.setField(j, type.parse(data, offset));
+			offset = nextField(offset, type);
+		}
+		return t;
+	}
+
+	/**
+	 * Appends the tuples in used slots, starting at a slot, to a batch until
+	 * the batch is full. The values are read straight from the page data,
+	 * without building tuples.
+	 *
+	 * @return the slot to continue from; if the batch is not full the page
+	 *         has been read completely
+	 */
+	int readColumns(int slot, TupleBatch batch) {
+		int numFields = td.numFields();
+		int slots = numSlots();
+		for (; slot < slots && !batch.isFull(); slot++) {
+			if (!isSlotUsed(slot))
+				continue;
+			int row = batch.appendRow();
+			int offset = slotOffset(slot);
+			for (int j = 0; j < numFields; j++) {
+				Type type = td.getFieldType(j);
+				if (type == Type.INT_TYPE)
+					batch.setInt(j, row, Type.readInt(data, offset));
+				else
+					batch.setString(j, row, new String(data, offset + 4,
+							Type.readInt(data, offset)));
+				offset = nextField(offset, type);
 			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
 		}
+		return slot;
+	}
 
-		return t;
+	/**
+	 * Evaluates a predicate against the tuple in a used slot. Integer fields
+	 * are compared straight from the page data, so tuples that fail the
+	 * predicate are never built.
+	 */
+	private boolean matches(int slotId, Predicate p) {
+		int field = p.getField();
+		int offset = fieldOffset(slotId, field);
+		Type type = td.getFieldType(field);
+		if (type == Type.INT_TYPE && p.getIntPredicate() != null)
+			return p.filter(Type.readInt(data, offset));
+		return type.parse(data, offset).compare(p.getOp(), p.getOperand());
 	}
 
 	/**
@@ -159,64 +296,7 @@ public class HeapPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the tuples
-		for (int i=0; i<tuples.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		return Arrays.copyOf(data, BufferPool.getPageSize());
 	}
 
 	/**
@@ -248,8 +328,12 @@ public class HeapPage implements Page {
     if(!isSlotUsed(t.getRecordId().tupleno()))
             throw new DbException("tuple slot already empty, so tuple to delete not on page");
    
-    markSlotUsed(t.getRecordId().tupleno(), false);
-    tuples[t.getRecordId().tupleno()] = null;
+    int slot = t.getRecordId().tupleno();
+    beforeWrite();
+    markSlotUsed(slot, false);
+    tuples[slot] = null;
+    int offset = slotOffset(slot);
+    Arrays.fill(data, offset, offset + td.getSize(), (byte) 0);
 	}
 
 	/**
@@ -274,6 +358,8 @@ public class HeapPage implements Page {
             if (!isSlotUsed(i))
             	slotindex = i;
         
+        beforeWrite();
+        writeTuple(slotindex, t);
         t.setRecordId(new RecordId(pid, slotindex));
         tuples[slotindex] = t;
         this.markSlotUsed(slotindex, true);
@@ -283,6 +369,21 @@ public class HeapPage implements Page {
 	
 	
 
+	/**
+	 * Serializes a tuple straight into its slot of the page image.
+	 */
+	private void writeTuple(int slot, Tuple t) throws DbException {
+		SlotOutputStream out = new SlotOutputStream(data);
+		out.seek(slotOffset(slot));
+		DataOutputStream dos = new DataOutputStream(out);
+		try {
+			for (int j=0; j<td.numFields(); j++)
+				t.getField(j).serialize(dos);
+		} catch (IOException e) {
+			throw new DbException("could not serialize tuple: " + e.getMessage());
+		}
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
@@ -327,12 +428,12 @@ public class HeapPage implements Page {
 	public boolean isSlotUsed(int i) 
 	{
         int slot = i/8;
-        if (slot >= header.length)
+        if (slot >= headerSize)
         {
         	return false;
         }
         int bitposition = i%8;
-        return ((header[slot] & (1 << bitposition)) > 0);
+        return ((data[slot] & (1 << bitposition)) != 0);
 	}
 
 	/**
@@ -344,11 +445,11 @@ public class HeapPage implements Page {
 		 int bitposition = i%8;
 		 if (value == true)
 		 {
-			 header[slot] = (byte) (header[slot] | (1 << bitposition));
+			 data[slot] = (byte) (data[slot] | (1 << bitposition));
 		 }
 		 else
 		 {
-			 header[slot] = (byte) (header[slot] & ~(1 << bitposition));
+			 data[slot] = (byte) (data[slot] & ~(1 << bitposition));
 		 }
 	}
 
@@ -357,36 +458,96 @@ public class HeapPage implements Page {
 	 * (note that this iterator shouldn't return tuples in empty slots!)
 	 */
 	public Iterator<Tuple> iterator() {
-		return new HeapPageIterator(this);
+		return new HeapPageIterator(this, null);
+	}
+
+	/**
+	 * @return an iterator over the tuples on this page that satisfy all of
+	 *         the given predicates. Only tuples that qualify are decoded.
+	 * @param predicates predicates on the fields of this page's tuples; null
+	 *         or empty to return every tuple
+	 */
+	public Iterator<Tuple> iterator(Predicate[] predicates) {
+		if (predicates != null && predicates.length == 0)
+			predicates = null;
+		return new HeapPageIterator(this, predicates);
 	}
 
 	class HeapPageIterator implements Iterator<Tuple>
 	{
-		//Tuples on HeapPage
-		private List<Tuple> tuples;
-		Iterator<Tuple> iter;
+		private final HeapPage m_page;
+		private final Predicate[] m_predicates;
+		private int m_next;
+
+		public HeapPageIterator(HeapPage p, Predicate[] predicates) { 
+			m_page = p;
+			m_predicates = predicates;
+			m_next = advance(0);
+		}
 
-		public HeapPageIterator(HeapPage p) { 
-			tuples = new ArrayList<Tuple>();
-			for (int i = 0; i < p.numSlots; i++)
+		/** @return the first qualifying used slot at or after slot i */
+		private int advance(int i) {
+			for (; i < m_page.numSlots(); i++)
 			{
 				//Iterator shouldn't return tuples in empty slots!
-				if (p.isSlotUsed(i)) {tuples.add(p.tuples[i]);}	
+				if (m_page.isSlotUsed(i) && qualifies(i))
+					return i;
 			}
-			iter = tuples.iterator();
+			return i;
+		}
+
+		private boolean qualifies(int slot) {
+			if (m_predicates == null)
+				return true;
+			for (Predicate p : m_predicates)
+			{
+				if (!m_page.matches(slot, p))
+					return false;
+			}
+			return true;
 		}
 
 		public boolean hasNext() {
-			return iter.hasNext();
+			return m_next < m_page.numSlots();
 		}
 		public Tuple next() {
-			return iter.next();
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Tuple t = m_page.getTuple(m_next);
+			m_next = advance(m_next + 1);
+			return t;
 		}
 
 		@Override
 		public void remove() {
-			// TODO Auto-generated method stub
-			
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Writes into a byte array at a position that can be moved, so tuples
+	 * can be serialized straight into their slots.
+	 */
+	private static class SlotOutputStream extends OutputStream
+	{
+		private final byte[] m_buf;
+		private int m_pos;
+
+		SlotOutputStream(byte[] buf) {
+			m_buf = buf;
+		}
+
+		void seek(int pos) {
+			m_pos = pos;
+		}
+
+		public void write(int b) {
+			m_buf[m_pos++] = (byte) b;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			System.arraycopy(b, off, m_buf, m_pos, len);
+			m_pos += len;
 		}
 	}
 
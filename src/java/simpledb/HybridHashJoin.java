@@ -0,0 +1,321 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HybridHashJoin is an equality join that works within a memory budget.
+ * <p>
+ * The left child is the build side. Its tuples are hashed into a fixed
+ * number of partitions, all of which start out in memory. Whenever the
+ * tuples in memory exceed the budget, the largest in-memory partition is
+ * written to a {@link TupleSpillFile}, and later build tuples of that
+ * partition go straight to its file. The right child is then probed against
+ * the partitions that stayed in memory, while its tuples that hash to a
+ * spilled partition are spilled as well. Finally every pair of spilled
+ * build and probe partitions is joined the same way with a different hash
+ * function. A partition that still does not fit after {@link #MAX_DEPTH}
+ * levels (typically because most of it has a single key) is joined in
+ * memory-sized chunks by {@link HashEquiJoin}.
+ * <p>
+ * If the build side fits in memory this is a plain in-memory hash join
+ * that reads each child once.
+ */
+public class HybridHashJoin extends Operator implements JoinOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages worth of build tuples. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** Number of partitions the inputs are split into at each level. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** Number of levels of repartitioning before falling back to chunks. */
+    public static final int MAX_DEPTH = 4;
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int memoryPages;
+    private final int level;
+
+    private transient ArrayList<HashMap<Field, ArrayList<Tuple>>> tables;
+    private transient int[] partitionSizes;
+    private transient TupleSpillFile[] buildFiles;
+    private transient TupleSpillFile[] probeFiles;
+    private transient int tuplesInMemory;
+    private transient int spilledPartitions;
+
+    private transient Tuple t2;
+    private transient Iterator<Tuple> matches;
+    private transient boolean probeDone;
+    private transient int partition;
+    private transient DbIterator partitionJoin;
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on, and uses the default memory budget.
+     *
+     * @param p
+     *            The predicate to join the children on; must be EQUALS
+     * @param child1
+     *            Iterator for the left (build) relation to join
+     * @param child2
+     *            Iterator for the right (probe) relation to join
+     */
+    public HybridHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages worth of build tuples may be kept in memory
+     * @see #HybridHashJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public HybridHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages) {
+        this(p, child1, child2, memoryPages, 0);
+    }
+
+    private HybridHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins need an equality predicate");
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+        this.level = level;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /** @return the number of build partitions that had to be spilled to disk */
+    public int getSpilledPartitionCount() {
+        return spilledPartitions;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        build();
+    }
+
+    public void close() {
+        super.close();
+        release();
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        release();
+        child1.rewind();
+        child2.rewind();
+        build();
+    }
+
+    /**
+     * Picks the partition of a join key. Every level uses a different hash
+     * function, so that a partition is split up again when it is rejoined.
+     */
+    private int partitionOf(Field key) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & 0x7FFFFFFF) % NUM_PARTITIONS;
+    }
+
+    /** Reads the build side into memory, spilling partitions as needed. */
+    private void build() throws DbException, TransactionAbortedException {
+        int budget = Math.max(1, memoryPages * BufferPool.getPageSize()
+                / child1.getTupleDesc().getSize());
+        tables = new ArrayList<HashMap<Field, ArrayList<Tuple>>>(NUM_PARTITIONS);
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            tables.add(new HashMap<Field, ArrayList<Tuple>>());
+        partitionSizes = new int[NUM_PARTITIONS];
+        buildFiles = new TupleSpillFile[NUM_PARTITIONS];
+        probeFiles = new TupleSpillFile[NUM_PARTITIONS];
+        tuplesInMemory = 0;
+        spilledPartitions = 0;
+        t2 = null;
+        matches = null;
+        probeDone = false;
+        partition = -1;
+        partitionJoin = null;
+
+        while (child1.hasNext()) {
+            Tuple t1 = child1.next();
+            Field key = t1.getField(pred.getField1());
+            int p = partitionOf(key);
+            if (buildFiles[p] != null) {
+                buildFiles[p].add(t1);
+                continue;
+            }
+            ArrayList<Tuple> list = tables.get(p).get(key);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                tables.get(p).put(key, list);
+            }
+            list.add(t1);
+            partitionSizes[p]++;
+            if (++tuplesInMemory > budget)
+                spillLargestPartition();
+        }
+    }
+
+    /** Moves the largest partition still in memory to a spill file. */
+    private void spillLargestPartition() throws DbException {
+        int largest = -1;
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            if (buildFiles[i] == null
+                    && (largest < 0 || partitionSizes[i] > partitionSizes[largest]))
+                largest = i;
+        }
+        TupleSpillFile file = new TupleSpillFile(child1.getTupleDesc());
+        // registered first, so that release() deletes it if writing fails
+        buildFiles[largest] = file;
+        for (ArrayList<Tuple> list : tables.get(largest).values()) {
+            for (Tuple t : list)
+                file.add(t);
+        }
+        tables.get(largest).clear();
+        tuplesInMemory -= partitionSizes[largest];
+        spilledPartitions++;
+    }
+
+    /** Deletes all spill files and drops the in-memory partitions. */
+    private void release() {
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        if (buildFiles != null) {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (buildFiles[i] != null)
+                    buildFiles[i].delete();
+                if (probeFiles[i] != null)
+                    probeFiles[i].delete();
+            }
+        }
+        tables = null;
+        buildFiles = null;
+        probeFiles = null;
+        matches = null;
+        t2 = null;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples returned are the concatenation of the joining
+     * tuples from the left and right relation; tuples are not returned in
+     * any particular order.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!probeDone) {
+            Tuple t = probe();
+            if (t != null)
+                return t;
+            probeDone = true;
+            // the in-memory partitions are done with
+            tables = null;
+        }
+        return joinSpilledPartitions();
+    }
+
+    /** Probes the in-memory partitions with the right child. */
+    private Tuple probe() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext())
+                return merge(matches.next(), t2);
+            matches = null;
+            if (!child2.hasNext())
+                return null;
+            t2 = child2.next();
+            Field key = t2.getField(pred.getField2());
+            int p = partitionOf(key);
+            if (buildFiles[p] != null) {
+                if (probeFiles[p] == null)
+                    probeFiles[p] = new TupleSpillFile(child2.getTupleDesc());
+                probeFiles[p].add(t2);
+                continue;
+            }
+            ArrayList<Tuple> list = tables.get(p).get(key);
+            if (list != null)
+                matches = list.iterator();
+        }
+    }
+
+    /** Joins the spilled partitions one after the other. */
+    private Tuple joinSpilledPartitions() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (partitionJoin != null) {
+                if (partitionJoin.hasNext())
+                    return partitionJoin.next();
+                partitionJoin.close();
+                partitionJoin = null;
+                buildFiles[partition].delete();
+                probeFiles[partition].delete();
+            }
+            do {
+                if (++partition >= NUM_PARTITIONS)
+                    return null;
+            } while (buildFiles[partition] == null || probeFiles[partition] == null);
+
+            DbIterator build = buildFiles[partition].iterator();
+            DbIterator probe = probeFiles[partition].iterator();
+            if (level + 1 < MAX_DEPTH)
+                partitionJoin = new HybridHashJoin(pred, build, probe, memoryPages, level + 1);
+            else
+                partitionJoin = new HashEquiJoin(pred, build, probe);
+            partitionJoin.open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * An index over an INT_TYPE field of a table stored in a {@link HeapFile}.
+ * An index is a DbFile of its own, whose pages are read through the
+ * BufferPool like those of the table, but it holds entries that map key
+ * values to the {@link RecordId}s of the table's tuples.
+ * <p>
+ * The tuples of an index, as seen through the DbFile methods, are those of
+ * the indexed table: {@link #insertTuple} and {@link #deleteTuple} add and
+ * remove the entry of a tuple already stored in the table, and
+ * {@link #iterator} returns the tuples of the table through the index.
+ * The BufferPool keeps the indexes the Catalog knows of up to date when
+ * tuples are inserted into or deleted from a table.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the indexed table */
+    public int getTableId();
+
+    /** @return the index of the indexed field in the table's TupleDesc */
+    public int getKeyField();
+
+    /**
+     * @return true if {@link #lookup} can find the keys that satisfy
+     *         "key op value"
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns the RecordIds of the tuples whose key satisfies "key op value".
+     *
+     * @throws UnsupportedOperationException if the index does not support op
+     */
+    public IndexIterator lookup(TransactionId tid, Predicate.Op op, int value);
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Returns the tuples of a table whose RecordIds an {@link IndexIterator}
+ * returns, fetching the page of each through the BufferPool. Tuples are
+ * returned in the order of the RecordIds, so consecutive tuples on the same
+ * page cost one page lookup each.
+ * <p>
+ * Predicates given to the iterator are checked on every fetched tuple; they
+ * typically repeat the lookup the index was asked for, so that an entry the
+ * index returns by mistake, or for a tuple that has changed since, is never
+ * passed on.
+ */
+public class IndexFileIterator implements DbFileIterator {
+
+	private final TransactionId m_tid;
+	private final IndexFile m_index;
+	private final IndexIterator m_rids;
+	private final Predicate[] m_predicates;
+	private Tuple m_next;
+
+	/**
+	 * @param predicates predicates on the fields of the table's tuples, or
+	 *            null
+	 */
+	public IndexFileIterator(TransactionId tid, IndexFile index, IndexIterator rids,
+			Predicate[] predicates) {
+		m_tid = tid;
+		m_index = index;
+		m_rids = rids;
+		m_predicates = predicates;
+	}
+
+	/** @return the index the RecordIds come from */
+	public IndexFile getIndex() {
+		return m_index;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		m_next = null;
+		m_rids.open();
+	}
+
+	public boolean hasNext() throws DbException, TransactionAbortedException {
+		while (m_next == null && m_rids.hasNext()) {
+			RecordId rid = m_rids.next();
+			HeapPage page = (HeapPage) Database.getBufferPool().getPage(m_tid,
+					rid.getPageId(), Permissions.READ_ONLY);
+			Tuple t = page.getTuple(rid.tupleno());
+			if (t != null && matches(t))
+				m_next = t;
+		}
+		return m_next != null;
+	}
+
+	private boolean matches(Tuple t) {
+		if (m_predicates != null)
+			for (Predicate p : m_predicates)
+				if (!p.filter(t))
+					return false;
+		return true;
+	}
+
+	public Tuple next() throws DbException, TransactionAbortedException,
+			NoSuchElementException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Tuple t = m_next;
+		m_next = null;
+		return t;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		m_next = null;
+		m_rids.rewind();
+	}
+
+	public void close() {
+		m_next = null;
+		m_rids.close();
+	}
+}
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexIterator is the iterator interface that indexes use to return the
+ * RecordIds of the tuples that match a lookup.
+ *
+ * @see IndexFile#lookup
+ */
+public interface IndexIterator {
+
+    /**
+     * Opens the iterator
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /** @return true if there are more RecordIds available. */
+    public boolean hasNext() throws DbException, TransactionAbortedException;
+
+    /**
+     * Gets the next RecordId from the index.
+     * @return The next RecordId.
+     * @throws NoSuchElementException if there are no more RecordIds
+     */
+    public RecordId next() throws DbException, TransactionAbortedException, NoSuchElementException;
+
+    /** Resets the iterator to the start. */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /** Closes the iterator. */
+    public void close();
+}
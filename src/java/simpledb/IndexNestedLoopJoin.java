@@ -0,0 +1,264 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins two inputs by reading one of them, the outer
+ * input, once, and looking the tuples of the other, the inner input, that
+ * match each outer tuple up in an {@link IndexFile} on the inner join field.
+ * The inner input is never scanned, so a join with few outer tuples reads
+ * only the inner pages that hold matches.
+ * <p>
+ * The inner child must be a scan of a table ({@link SeqScan} or
+ * {@link IndexScan}), possibly under {@link Filter}s; it describes the
+ * inner input but is not opened. The predicates of its filters and index
+ * scan are checked on every tuple the index returns. Either child can be
+ * the inner one; the tuples returned are always the concatenation of the
+ * tuples of child1 and child2, in the order of the outer child.
+ */
+public class IndexNestedLoopJoin extends Operator implements JoinOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private final boolean innerIsChild1;
+    private final TupleDesc comboTD;
+    private final IndexFile index;
+    private final Predicate.Op innerOp;
+    private final int outerField;
+    private final int innerField;
+    /** The inner child's predicates, followed by a slot for the join key. */
+    private final Predicate[] innerPredicates;
+
+    private transient Tuple outer;
+    private transient DbFileIterator matches;
+
+    /**
+     * Creates a join that probes an index of child2's table for the tuples
+     * of child1.
+     *
+     * @param tid
+     *            the transaction the index lookups run as a part of
+     * @param p
+     *            The predicate to join the children on; both join fields
+     *            must be INT_TYPE fields
+     * @throws IllegalArgumentException if child2 is not a scan of a table
+     *             with an index that can answer the join predicate
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, DbIterator child1,
+            DbIterator child2) {
+        this(tid, p, child1, child2, false);
+    }
+
+    /**
+     * Creates a join that probes an index of the inner child's table for
+     * the tuples of the other child.
+     *
+     * @param innerIsChild1
+     *            true to probe child1's table for the tuples of child2
+     * @see #IndexNestedLoopJoin(TransactionId, JoinPredicate, DbIterator, DbIterator)
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, DbIterator child1,
+            DbIterator child2, boolean innerIsChild1) {
+        this.tid = tid;
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.innerIsChild1 = innerIsChild1;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        DbIterator inner = innerIsChild1 ? child1 : child2;
+        outerField = innerIsChild1 ? p.getField2() : p.getField1();
+        innerField = innerIsChild1 ? p.getField1() : p.getField2();
+        // the index is asked for "inner op' key", so the operator of
+        // "key op inner" is mirrored
+        innerOp = innerIsChild1 ? p.getOperator() : mirror(p.getOperator());
+        index = probeIndex(inner, innerField, innerOp);
+        if (index == null)
+            throw new IllegalArgumentException("no index to probe for " + p.getOperator());
+        if ((innerIsChild1 ? child2 : child1).getTupleDesc().getFieldType(outerField) != Type.INT_TYPE)
+            throw new IllegalArgumentException("only INT_TYPE keys can be looked up");
+        List<Predicate> preds = innerPredicates(inner);
+        innerPredicates = preds.toArray(new Predicate[preds.size() + 1]);
+    }
+
+    /**
+     * @return the operator that holds for "b op' a" whenever "a op b" holds
+     */
+    static Predicate.Op mirror(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    /**
+     * @return the scan at the bottom of a chain of filters, or null if plan
+     *         is anything else
+     */
+    private static DbIterator scanOf(DbIterator plan) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        if (plan instanceof SeqScan || plan instanceof IndexScan)
+            return plan;
+        // a scan of a given bitmap has no predicates a probe could recheck
+        if (plan instanceof BitmapHeapScan && ((BitmapHeapScan) plan).getBitmap() == null)
+            return plan;
+        return null;
+    }
+
+    private static List<Predicate> innerPredicates(DbIterator plan) {
+        List<Predicate> preds = new ArrayList<Predicate>();
+        while (plan instanceof Filter) {
+            preds.add(((Filter) plan).getPredicate());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (plan instanceof SeqScan) {
+            // the filters above the scan may hold the same predicates
+            for (Predicate p : ((SeqScan) plan).getPredicates())
+                if (!preds.contains(p))
+                    preds.add(p);
+        }
+        if (plan instanceof IndexScan)
+            preds.add(((IndexScan) plan).getPredicate());
+        if (plan instanceof BitmapHeapScan)
+            preds.addAll(((BitmapHeapScan) plan).getPredicates());
+        return preds;
+    }
+
+    /**
+     * Returns the index a join can probe for the tuples of a plan whose
+     * field satisfies "field op key".
+     *
+     * @return the index, or null if plan is not a scan of a table, possibly
+     *         filtered, or the table has no such index
+     */
+    public static IndexFile probeIndex(DbIterator plan, int field, Predicate.Op op) {
+        DbIterator scan = scanOf(plan);
+        if (scan == null)
+            return null;
+        int tableId;
+        if (scan instanceof SeqScan)
+            tableId = ((SeqScan) scan).getTableId();
+        else if (scan instanceof BitmapHeapScan)
+            tableId = ((BitmapHeapScan) scan).getTableId();
+        else
+            tableId = ((IndexScan) scan).getIndex().getTableId();
+        return Database.getCatalog().getIndex(tableId, field, op);
+    }
+
+    /** @return the index the inner tuples are looked up in */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /** @return true if child1 is the inner child, which is never opened */
+    public boolean isInnerChild1() {
+        return innerIsChild1;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    private DbIterator outerChild() {
+        return innerIsChild1 ? child2 : child1;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outerChild().open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        outerChild().close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        outerChild().rewind();
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+        outer = null;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples come in the order of the outer child, and those
+     * of one outer tuple in the order of the index.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                Tuple inner = matches.next();
+                return innerIsChild1 ? merge(inner, outer) : merge(outer, inner);
+            }
+            DbIterator outerChild = outerChild();
+            if (!outerChild.hasNext())
+                return null;
+            outer = outerChild.next();
+            int key = ((IntField) outer.getField(outerField)).getValue();
+            if (matches != null)
+                matches.close();
+            innerPredicates[innerPredicates.length - 1] =
+                    new Predicate(innerField, innerOp, new IntField(key));
+            matches = new IndexFileIterator(tid, index, index.lookup(tid, innerOp, key),
+                    innerPredicates);
+            matches.open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
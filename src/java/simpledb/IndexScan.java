@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by looking the qualifying RecordIds
+ * up in an {@link IndexFile} and fetching only the pages that hold them.
+ * For a selective predicate this reads far fewer pages than a SeqScan with
+ * the predicate pushed down.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final String tablealias;
+    private final Predicate predicate;
+    private final DbFileIterator dbit;
+
+    /**
+     * Creates a scan of the tuples of the index's table whose indexed field
+     * satisfies "field op value".
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in; must support op
+     * @param tableAlias
+     *            the alias of the table, used to prefix the field names of
+     *            the returned tupleDesc as in SeqScan
+     * @throws UnsupportedOperationException if the index does not support op
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias,
+            Predicate.Op op, int value) {
+        this.tid = tid;
+        this.index = index;
+        this.tablealias = tableAlias;
+        this.predicate = new Predicate(index.getKeyField(), op, new IntField(value));
+        this.dbit = new IndexFileIterator(tid, index, index.lookup(tid, op, value),
+                new Predicate[] { predicate });
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tablealias;
+    }
+
+    /**
+     * @return the index this scan looks tuples up in
+     */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate on the indexed field that the returned tuples
+     *         satisfy, numbered as in {@link #getTupleDesc()}
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        dbit.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table, with field names prefixed
+     * with the table alias as in {@link SeqScan#getTupleDesc()}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tablealias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return dbit.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return dbit.next();
+    }
+
+    public void close() {
+        dbit.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        dbit.rewind();
+    }
+}
@@ -60,12 +60,16 @@ public class Insert extends Operator {
 	 * Inserts tuples read from child into the tableid specified by the
 	 * constructor. It returns a one field tuple containing the number of
 	 * inserted records. Inserts should be passed through BufferPool. An
-	 * instances of BufferPool is available via Database.getBufferPool(). Note
-	 * that insert DOES NOT need check to see if a particular tuple is a
-	 * duplicate before inserting it.
+	 * instances of BufferPool is available via Database.getBufferPool(). If
+	 * the primary key of the table is indexed, the key of every tuple is
+	 * looked up in the index first, and a tuple whose key the table already
+	 * has is not inserted.
 	 * 
 	 * @return A 1-field tuple containing the number of inserted records, or
 	 *         null if called more than once.
+	 * @throws DbException if a tuple has the primary key of a tuple of the
+	 *         table; the tuples before it have been inserted
+	 * @see Catalog#getPrimaryKeyIndex
 	 * @see Database#getBufferPool
 	 * @see BufferPool#insertTuple
 	 */
@@ -74,10 +78,15 @@ public class Insert extends Operator {
 		int ctr = 0;
 		if (flag)
 		{
+			IndexFile pkIndex = Database.getCatalog().getPrimaryKeyIndex(m_tid);
 			while (m_child.hasNext())
 			{
 				ctr++;
 				Tuple cur = m_child.next();
+				if (pkIndex != null && hasKey(pkIndex, cur))
+				{
+					throw new DbException("duplicate primary key " + cur.getField(pkIndex.getKeyField()));
+				}
 				try {
 					curPool.insertTuple(m_t, m_tid, cur);
 				} catch (IOException e) {
@@ -94,6 +103,19 @@ public class Insert extends Operator {
 		return null;
 	}
 
+	/**
+	 * @return true if the index has an entry with the key of t
+	 */
+	private boolean hasKey(IndexFile index, Tuple t)
+			throws DbException, TransactionAbortedException {
+		int key = ((IntField) t.getField(index.getKeyField())).getValue();
+		IndexIterator it = index.lookup(m_t, Predicate.Op.EQUALS, key);
+		it.open();
+		boolean found = it.hasNext();
+		it.close();
+		return found;
+	}
+
 	@Override
 	public DbIterator[] getChildren() {
 		// some code goes here
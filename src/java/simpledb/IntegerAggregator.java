@@ -1,9 +1,15 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are kept in a hash table keyed by the group-by field, each with an
+ * {@link AggregateState}, so merging a tuple costs one lookup however many
+ * groups there are. Groups are returned in the order they were first seen.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -16,11 +22,8 @@ public class IntegerAggregator implements Aggregator {
 	//Op
 	private Op m_op;
 	private TupleDesc m_td;
-	private ArrayList<Tuple> tupleGroup;
-	//NEEDED FOR THE AVERAGE CALCULATION
-	ArrayList<Integer> count;
-	ArrayList<Integer> sum;
-	int avgIndex;
+	//Running aggregate of each group; the key is null if there is no grouping
+	private LinkedHashMap<Field, AggregateState> m_groups;
 	/**
 	 * Aggregate constructor
 	 * 
@@ -59,123 +62,9 @@ public class IntegerAggregator implements Aggregator {
 			m_td = new TupleDesc(temp);
 		}
 		
-		tupleGroup = new ArrayList<Tuple>();
-		count = new ArrayList<Integer>();
-		sum = new ArrayList<Integer>();
+		m_groups = new LinkedHashMap<Field, AggregateState>();
 	}
-	//================HELPER FUNCTION ==> MERGETUPLEINTOGROUP ================
-	//PARAMETERS: Tuple Tup => the tuple currently considered
-	//Two IntField's corresponding to the aggregate field of the tuple and the comparison field
-	//Index => if no grouping, tupleDesc has one field and index is 0; if grouping, tupleDesc has two fields and index is 1
-	//first indicates whether or not tuple is first being considered ( relevant to average calculation ) 
-	private void tupleAggregator(Tuple Tup, IntField Val, IntField cmpField,int index, boolean first)
-	{
-		//HELPER FUNCTION
-		Tuple curTup = Tup;
-		IntField newValue = Val;
-
-		int curVal = newValue.getValue();
-		//flag is set true if a valid comparison field is supplied
-		boolean flag = false;
-		int cmpVal = 0;
-		if (cmpField != null) { cmpVal = cmpField.getValue(); flag = true;}
 
-		//Relevant only for Average Determination
-		
-		
-		if (m_op == Op.MIN)
-		{
-			//MINIMUM DETERMINATION
-			if (flag)  
-			{
-				if (cmpVal > curVal)
-				{
-					//The current value is smaller and replaces comparison value
-					curTup.setField(index, newValue);
-				}
-			}
-			//By default, the first ( & only ) value is the minimum
-			else { curTup.setField(index, newValue); }
-		}
-		else if (m_op == Op.MAX)
-		{
-			//MAXIMUM DETERMINATION
-			if (flag)
-			{
-				if (cmpVal < curVal)
-				{
-					//The current value is larger and replaces the comparison value
-					curTup.setField(index, newValue);
-				}
-			}
-			//By default, the first ( & only ) value is the maximum 
-			else { curTup.setField(index, newValue); }
-		}
-		else if (m_op == Op.SUM)
-		{
-			//SUM DETERMINATION
-			if (flag)
-			{
-				//Replace the cmp value with the sum of current and comparison
-				curTup.setField(index, new IntField(cmpVal + curVal));
-			}
-			else
-			{ curTup.setField(index, newValue); }
-		}
-		else if (m_op == Op.COUNT)
-		{
-			//COUNT DETERMINATION
-			if (flag)
-			{
-				//Increment count by 1
-				curTup.setField(index, new IntField(cmpVal+1));
-			}
-			else
-			//Initialize count
-			{ curTup.setField(index, new IntField(1)); }
-		}
-		else if (m_op == Op.AVG)
-		{
-			//AVERAGE DETERMINATION	
-			if (flag) //There is a comparison value
-			{
-				if (first) //This is the first value
-				{
-					avgIndex = 0;
-					count.add(1);
-					sum.add(curVal);
-					curTup.setField(index, new IntField(curVal));
-				}
-				else
-				{
-					int total = sum.get(avgIndex) + curVal;
-					int counter = count.get(avgIndex) + 1;
-					count.set(avgIndex,counter);
-					sum.set(avgIndex,total);
-					curTup.setField(index, new IntField(total/counter));
-				}
-			}
-			else
-			{
-				if (first)
-				{
-					avgIndex = 0;
-					count.add(1);
-					sum.add(curVal);
-					curTup.setField(index, new IntField(curVal));
-				}
-				else 
-				{
-					int total = sum.get(avgIndex) + curVal;
-					int counter = count.get(avgIndex) + 1;
-					count.set(avgIndex,counter);
-					sum.set(avgIndex,total);
-					curTup.setField(index, new IntField(total/counter));
-				}
-			}
-		}
-	}
-	
 	/**
 	 * Merge a new tuple into the aggregate, grouping as indicated in the
 	 * constructor
@@ -184,66 +73,18 @@ public class IntegerAggregator implements Aggregator {
 	 *            the Tuple containing an aggregate field and a group-by field
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
-		//Field and Value we are considering
-		IntField curField = (IntField) tup.getField(m_afield);
-		int curVal = curField.getValue();
-		//List of Grouped Tuples
-
-		if (m_gbfield == Aggregator.NO_GROUPING)
-		{
-			//NO GROUPING
-			if (tupleGroup.size() == 0)
-			{
-				//FIRST TUPLE
-				Tuple curTup = new Tuple(m_td);
-				IntField newValue = new IntField(curVal);
-				tupleAggregator(curTup,newValue,null,0,true);
-				tupleGroup.add(curTup);
-			}
-			else
-			{
-				//There are already other tuples inserted.
-				Tuple first = tupleGroup.get(0);
-				IntField compareField = (IntField) first.getField(0);
-				IntField newValue = new IntField(curVal);
-				tupleAggregator(first, newValue, compareField, 0,false);
-			}
-		}
-		else
+		//Group of the tuple; all tuples share one group if there is no grouping
+		Field group = m_gbfield == Aggregator.NO_GROUPING ? null : tup.getField(m_gbfield);
+		AggregateState state = m_groups.get(group);
+		if (state == null)
 		{
-			//GROUPING
-			Field tupGroup = tup.getField(m_gbfield);
-			Tuple current = null;
-			//Find tuple to Group
-			for (int i = 0; i < tupleGroup.size(); i++)
-			{
-				Tuple temp = tupleGroup.get(i);
-				Field tempField = temp.getField(0);
-				if (tempField.equals(tupGroup))
-				{
-					current = temp;
-					avgIndex = i;
-					
-				}
-			}
-			//First Tuple to group
-			if (current == null)
-			{
-				current = new Tuple(m_td);
-				IntField newValue = new IntField(curVal);
-				current.setField(0, tupGroup);
-				tupleAggregator(current,newValue,null,1,true);
-				tupleGroup.add(current);
-			}
-			//There are already grouped tuples
-			else
-			{
-				IntField compareField = (IntField) current.getField(1);
-				IntField newValue = new IntField(curVal);
-				tupleAggregator(current, newValue, compareField, 1,false);
-			}
+			//First tuple of the group
+			state = new AggregateState();
+			m_groups.put(group, state);
 		}
+		state.add(((IntField) tup.getField(m_afield)).getValue());
 	}
+
 	/**
 	 * Create a DbIterator over group aggregate results.
 	 * 
@@ -253,7 +94,40 @@ public class IntegerAggregator implements Aggregator {
 	 *         the constructor.
 	 */
 	public DbIterator iterator() {
+		ArrayList<Tuple> tupleGroup = new ArrayList<Tuple>(m_groups.size());
+		for (Map.Entry<Field, AggregateState> e : m_groups.entrySet())
+		{
+			Tuple t = new Tuple(m_td);
+			int index = 0;
+			if (m_gbfield != Aggregator.NO_GROUPING)
+				t.setField(index++, e.getKey());
+			t.setField(index, new IntField(e.getValue().result(m_op)));
+			tupleGroup.add(t);
+		}
 		return new TupleIterator(m_td,tupleGroup);
 	}
 
+	public int numGroups() {
+		return m_groups.size();
+	}
+
+	public boolean containsGroup(Field group) {
+		return m_groups.containsKey(group);
+	}
+
+	public void merge(Aggregator other) {
+		if (!(other instanceof IntegerAggregator))
+			throw new IllegalArgumentException("cannot merge a " + other.getClass().getSimpleName());
+		for (Map.Entry<Field, AggregateState> e : ((IntegerAggregator) other).m_groups.entrySet())
+		{
+			AggregateState state = m_groups.get(e.getKey());
+			if (state == null)
+			{
+				state = new AggregateState();
+				m_groups.put(e.getKey(), state);
+			}
+			state.merge(e.getValue());
+		}
+	}
+
 }
@@ -3,16 +3,33 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation with block
+ * nested loops: it reads a block of outer tuples into memory, scans the
+ * inner relation once for the whole block, and repeats with the next block.
+ * The inner relation is therefore scanned once per block rather than once
+ * per outer tuple.
+ * <p>
+ * When both join fields are ints, the join fields of the block are also kept
+ * in an int array, and each inner tuple is compared against all of them at
+ * once with the {@link IntPredicate} of the join predicate.
  */
 public class Join extends Operator {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Default size of a block of outer tuples, in pages. */
+	public static final int DEFAULT_BLOCK_PAGES = 8;
+
 	private JoinPredicate m_jp; //Predicate for joining children
 	private DbIterator m_child1; //Left relation
 	private DbIterator m_child2; //Right relation
-	private Tuple temp;
+	private final int m_blockPages; //Pages worth of outer tuples per inner scan
+	private transient ArrayList<Tuple> m_block; //Current block of outer tuples
+	private transient int m_blockPos; //Next outer tuple to compare with m_right
+	private transient Tuple m_right; //Current inner tuple
+	private transient int[] m_blockKeys; //Int join fields of the block, if both are ints
+	private transient int[] m_matches; //Positions in the block that match m_right
+	private transient int m_numMatches;
 
 	/**
 	 * Constructor. Accepts to children to join and the predicate to join them
@@ -26,9 +43,39 @@ public class Join extends Operator {
 	 *            Iterator for the right(inner) relation to join
 	 */
 	public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+		this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+	}
+
+	/**
+	 * Constructor for a join that buffers the given number of pages worth
+	 * of outer tuples per scan of the inner relation.
+	 * 
+	 * @param blockPages
+	 *            size of a block of outer tuples, in pages; 1 or more
+	 * @see #Join(JoinPredicate, DbIterator, DbIterator)
+	 */
+	public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
+		if (blockPages < 1)
+			throw new IllegalArgumentException("block must be at least one page");
 		m_jp = p;
 		m_child1 = child1;
 		m_child2 = child2;
+		m_blockPages = blockPages;
+	}
+
+	/**
+	 * @return the size of a block of outer tuples, in pages
+	 */
+	public int getBlockPages() {
+		return m_blockPages;
+	}
+
+	/**
+	 * @return the number of outer tuples with the given TupleDesc that fit
+	 *         into a block of the given number of pages
+	 */
+	public static int blockTuples(int blockPages, TupleDesc outer) {
+		return Math.max(1, blockPages * BufferPool.getPageSize() / outer.getSize());
 	}
 
 	public JoinPredicate getJoinPredicate() {
@@ -82,17 +129,50 @@ public class Join extends Operator {
 		m_child1.open();
 		m_child2.open();
 		super.open();
+		m_block = new ArrayList<Tuple>();
+		m_right = null;
+		if (m_child1.getTupleDesc().getFieldType(m_jp.getField1()) == Type.INT_TYPE
+				&& m_child2.getTupleDesc().getFieldType(m_jp.getField2()) == Type.INT_TYPE) {
+			int size = blockTuples(m_blockPages, m_child1.getTupleDesc());
+			m_blockKeys = new int[size];
+			m_matches = new int[size];
+		}
+		loadBlock();
 	}
 
 	public void close() {
 		m_child1.close();
 		m_child2.close();
 		super.close();
+		m_block = null;
+		m_right = null;
+		m_blockKeys = null;
+		m_matches = null;
 	}
 
 	public void rewind() throws DbException, TransactionAbortedException {
 		m_child1.rewind();
 		m_child2.rewind();
+		m_right = null;
+		loadBlock();
+	}
+
+	/**
+	 * Reads the next block of outer tuples.
+	 * 
+	 * @return false if the outer relation is exhausted
+	 */
+	private boolean loadBlock() throws DbException, TransactionAbortedException {
+		m_block.clear();
+		int size = blockTuples(m_blockPages, m_child1.getTupleDesc());
+		while (m_block.size() < size && m_child1.hasNext())
+		{
+			Tuple t = m_child1.next();
+			if (m_blockKeys != null)
+				m_blockKeys[m_block.size()] = ((IntField) t.getField(m_jp.getField1())).getValue();
+			m_block.add(t);
+		}
+		return !m_block.isEmpty();
 	}
 
 	/**
@@ -114,39 +194,54 @@ public class Join extends Operator {
 	 * @see JoinPredicate#filter
 	 */
 	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-		//Left Tuples
-		Tuple left = temp;
-		if (left == null && !m_child1.hasNext()) {return null;} //There are no tuples to combine.
-		if (left == null && m_child1.hasNext()) 
+		//There are no tuples to combine.
+		if (m_block.isEmpty()) {return null;}
+		while (true)
 		{
-			left = m_child1.next();
-			//Begin at the first tuple
-		}
-		while (left != null)
-		{
-			while (m_child2.hasNext())
+			if (m_right != null && m_blockKeys != null)
+			{
+				//The matches of the right tuple were found when it was read
+				if (m_blockPos < m_numMatches)
+					return CrossProduct(m_block.get(m_matches[m_blockPos++]), m_right, getTupleDesc());
+				m_right = null;
+			}
+			else if (m_right != null)
+			{
+				//Compare the current right tuple with the rest of the block
+				while (m_blockPos < m_block.size())
+				{
+					Tuple left = m_block.get(m_blockPos++);
+					//If tuple 1 and tuple 2 satisfy join predicate, join them
+					if (m_jp.filter(left, m_right))
+					{
+						//TupleMaker effectively performs the cross-product of left and right 
+						return CrossProduct(left, m_right, getTupleDesc());
+					}
+				}
+				m_right = null;
+			}
+			if (m_child2.hasNext())
 			{
-				Tuple right = m_child2.next(); 
-				//If tuple 1 and tuple 2 satisfy join predicate, join them
-				if (m_jp.filter(left, right))
+				m_right = m_child2.next();
+				m_blockPos = 0;
+				if (m_blockKeys != null)
 				{
-					temp = left;
-					//TupleMaker effectively performs the cross-product of left and right 
-					return CrossProduct(left, right, getTupleDesc());
+					//Compare the join field of the whole block at once
+					int key = ((IntField) m_right.getField(m_jp.getField2())).getValue();
+					m_numMatches = m_jp.getIntPredicate().select(m_blockKeys, null,
+							m_block.size(), key, m_matches);
 				}
+				continue;
 			}
-			//There are no more right tuples
-			if (m_child1.hasNext())
+			//There are no more right tuples: move on to the next block and
+			//reset right tuple to beginning
+			if (!loadBlock())
 			{
-				//Move on to next left tuple and reset right tuple to beginning
-				left = m_child1.next();
-				m_child2.rewind();
+				//There are no more left or right tuples and the join is completed
+				return null;
 			}
-			//There are no more left or right tuples and the join is completed
-			else { break; }
+			m_child2.rewind();
 		}
-		temp = null;
-		return null;                
 	}
 	
 	private Tuple CrossProduct(Tuple left,Tuple right,TupleDesc td)
@@ -176,8 +271,8 @@ public class Join extends Operator {
 
 	@Override
 	public void setChildren(DbIterator[] children) {
-		children[0] = m_child1;
-		children[1] = m_child2;
+		m_child1 = children[0];
+		m_child2 = children[1];
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package simpledb;
+
+/**
+ * JoinOperator is implemented by the join operators other than the plain
+ * nested loops {@link Join}, so that the tools that walk physical plans
+ * ({@link OperatorCardinality}, {@link QueryPlanVisualizer}) can treat them
+ * alike.
+ */
+public interface JoinOperator extends DbIterator {
+
+    /** @return the predicate the operator joins its children on */
+    public JoinPredicate getJoinPredicate();
+
+    /** @return the name of the join field of the left (outer) child */
+    public String getJoinField1Name();
+
+    /** @return the name of the join field of the right (inner) child */
+    public String getJoinField2Name();
+}
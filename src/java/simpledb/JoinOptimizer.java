@@ -34,6 +34,13 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * Equality joins are run as a {@link HybridHashJoin} with plan1 as the
+     * build side, which stays in memory when it is small and spills to disk
+     * when it is not, unless both plans already come out sorted on their join
+     * fields, in which case a {@link SortMergeJoin} merges them without
+     * sorting anything. Range joins (&lt;, &lt;=, &gt;, &gt;=) are always run
+     * as a SortMergeJoin; the remaining ones use nested loops.
      * 
      * @param lj
      *            The join being considered
@@ -68,12 +75,104 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.p == Predicate.Op.EQUALS) {
+            if (SortMergeJoin.isSortedOn(plan1, t1id, true)
+                    && SortMergeJoin.isSortedOn(plan2, t2id, true))
+                j = new SortMergeJoin(p, plan1, plan2);
+            else
+                j = new HybridHashJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.supports(lj.p))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * Return the best iterator for computing a given logical join, like
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)}, but
+     * also consider an {@link IndexNestedLoopJoin} when either plan is a scan
+     * of a table with an index on its join field. The index join is used
+     * when {@link #estimateJoinCost} finds it cheaper, typically because the
+     * other plan returns few tuples.
+     * 
+     * @param tid
+     *            the transaction the join runs as a part of
+     * @param stats
+     *            table stats for the tables of the plan, referenced by table
+     *            names
+     * @param filterSelectivities
+     *            the selectivities of the filters over each table, referenced
+     *            by alias
+     */
+    public DbIterator instantiateJoin(TransactionId tid, LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities) throws ParsingException {
+        DbIterator j = instantiateJoin(lj, plan1, plan2);
+        if (lj instanceof LogicalSubplanJoinNode
+                || !(j instanceof JoinOperator || j instanceof Join))
+            return j;
+        JoinPredicate jp = j instanceof Join ? ((Join) j).getJoinPredicate()
+                : ((JoinOperator) j).getJoinPredicate();
+        if (plan1.getTupleDesc().getFieldType(jp.getField1()) != Type.INT_TYPE)
+            return j;
+        // can either plan be looked up by the other's join key?
+        boolean probe2 = IndexNestedLoopJoin.probeIndex(plan2, jp.getField2(),
+                IndexNestedLoopJoin.mirror(lj.p)) != null;
+        boolean probe1 = IndexNestedLoopJoin.probeIndex(plan1, jp.getField1(), lj.p) != null;
+        if (!probe1 && !probe2)
+            return j;
+
+        int card1 = estimatePlanCardinality(plan1, stats);
+        int card2 = estimatePlanCardinality(plan2, stats);
+        // the outer plan is read once whichever way the join is run, so
+        // only the inner plans' scan costs matter
+        double cost1 = probe1 ? stats.get(Database.getCatalog().getTableName(
+                p.getTableId(lj.t1Alias))).estimateScanCost() : 0;
+        double cost2 = probe2 ? stats.get(Database.getCatalog().getTableName(
+                p.getTableId(lj.t2Alias))).estimateScanCost() : 0;
+        double plain = Math.min(estimateJoinCostWithoutIndex(lj, card1, card2, 0, cost2),
+                estimateJoinCostWithoutIndex(lj.swapInnerOuter(), card2, card1, 0, cost1));
+        double index2 = probe2 ? estimateIndexJoinCost(lj, card1, 0) : Double.POSITIVE_INFINITY;
+        double index1 = probe1 ? estimateIndexJoinCost(lj.swapInnerOuter(), card2, 0)
+                : Double.POSITIVE_INFINITY;
+        if (Math.min(index1, index2) >= plain)
+            return j;
+        return new IndexNestedLoopJoin(tid, jp, plan1, plan2, index1 < index2);
+    }
+
+    /**
+     * @return the estimated number of tuples a plan returns
+     */
+    private int estimatePlanCardinality(DbIterator plan, Map<String, TableStats> stats) {
+        if (plan instanceof Operator) {
+            OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                    p.getTableAliasToIdMapping(), stats);
+            return ((Operator) plan).getEstimatedCardinality();
+        } else if (plan instanceof SeqScan) {
+            return stats.get(((SeqScan) plan).getTableName())
+                    .estimateTableCardinality(1.0);
+        } else if (plan instanceof IndexScan) {
+            IndexScan s = (IndexScan) plan;
+            TableStats ts = stats.get(s.getTableName());
+            Predicate pred = s.getPredicate();
+            return ts.estimateTableCardinality(ts.estimateSelectivity(
+                    pred.getField(), pred.getOp(), pred.getOperand()));
+        } else if (plan instanceof BitmapHeapScan) {
+            BitmapHeapScan s = (BitmapHeapScan) plan;
+            if (s.getBitmap() != null)
+                return s.getBitmap().cardinality();
+            TableStats ts = stats.get(s.getTableName());
+            double sel = 1.0;
+            for (Predicate pred : s.getPredicates())
+                sel *= ts.estimateSelectivity(pred.getField(), pred.getOp(), pred.getOperand());
+            return ts.estimateTableCardinality(sel);
+        }
+        return 1;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -106,15 +205,93 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
+        }
+        return Math.min(estimateJoinCostWithoutIndex(j, card1, card2, cost1, cost2),
+                estimateIndexJoinCost(j, card1, cost1));
+    }
+
+    /**
+     * @return the cost of a join that reads both of its inputs, as
+     *         {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)}
+     *         runs it
+     */
+    private double estimateJoinCostWithoutIndex(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        if (j.p == Predicate.Op.EQUALS) {
+            // hybrid hash join: both inputs are read once and every tuple
+            // is hashed once; spilling is not modelled
+            return cost1 + cost2 + card1 + card2;
+        } else if (SortMergeJoin.supports(j.p)) {
+            // sort-merge band join: both inputs are sorted, and every left
+            // tuple reads the right tuples it matches plus one more; about
+            // a third of all pairs are assumed to match a range predicate
+            return cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                    + card1 + (double) card1 * card2 / 3.0;
         } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
-            return -1.0;
+            // block nested loops: the inner relation is scanned once per
+            // block of outer tuples, and every pair of tuples is compared
+            double blocks = (double) card1
+                    / Join.blockTuples(Join.DEFAULT_BLOCK_PAGES, outerTupleDesc(j));
+            return cost1 + Math.max(1.0, blocks) * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * Estimates the cost of an {@link IndexNestedLoopJoin} that looks the
+     * tuples of the right-hand table that match each left-hand tuple up in
+     * an index: the left-hand side is read once, and every probe costs what
+     * {@link TableStats#estimateIndexScanCost} says an index scan returning
+     * a left-hand tuple's share of the join does. That share is taken from
+     * the join of the whole left-hand table, as filters on the left-hand
+     * side leave fewer tuples to probe for but not fewer matches for each.
+     * 
+     * @return the estimated cost, or infinity if the right-hand table has
+     *         no index on its join field that can answer the predicate
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1) {
+        Integer t1id = p == null ? null : p.getTableId(j.t1Alias);
+        Integer t2id = p == null || j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (t1id == null || t2id == null)
+            return Double.POSITIVE_INFINITY;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(t2id).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // each probe looks up "t2.f2 op' value" for the value of t1.f1
+        Predicate.Op op = IndexNestedLoopJoin.mirror(j.p);
+        TableStats s1 = TableStats.getTableStats(Database.getCatalog().getTableName(t1id));
+        TableStats s2 = TableStats.getTableStats(Database.getCatalog().getTableName(t2id));
+        if (s1 == null || s2 == null || Database.getCatalog().getIndex(t2id, field, op) == null)
+            return Double.POSITIVE_INFINITY;
+        int table1Card = Math.max(1, s1.estimateTableCardinality(1.0));
+        int table2Card = Math.max(1, s2.estimateTableCardinality(1.0));
+        int tableJoinCard = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, table1Card, table2Card,
+                isPkey(j.t1Alias, j.f1PureName), isPkey(j.t2Alias, j.f2PureName),
+                TableStats.getStatsMap(), p.getTableAliasToIdMapping());
+        double perProbe = (double) tableJoinCard / table1Card;
+        return cost1 + card1 * s2.estimateIndexScanCost(op, Math.min(1.0, perProbe / table2Card))
+                + card1 * perProbe;
+    }
+
+    /** @return the number of comparisons needed to sort card tuples */
+    private static double sortCost(int card) {
+        return card <= 1 ? 0.0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * @return the TupleDesc of the left table of a join, or a single int
+     *         column if the table is not known to the plan
+     */
+    private TupleDesc outerTupleDesc(LogicalJoinNode j) {
+        Integer tableId = p == null ? null : p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return new TupleDesc(new Type[] { Type.INT_TYPE });
+        return Database.getCatalog().getTupleDesc(tableId);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -13,6 +13,7 @@ public class JoinPredicate implements Serializable {
     private int m_f1; //First field
     private int m_f2; //Second Field
     private Predicate.Op m_op; //Operation to be Applied
+    private transient IntPredicate m_intPred; //m_op on raw ints
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
      * 
@@ -42,8 +43,29 @@ public class JoinPredicate implements Serializable {
     public boolean filter(Tuple t1, Tuple t2) {
     	Field first = t1.getField(m_f1);
     	Field second = t2.getField(m_f2);
+    	if (first instanceof IntField && second instanceof IntField)
+    		return filter(((IntField) first).getValue(), ((IntField) second).getValue());
     	return first.compare(m_op, second);
     }
+
+    /**
+     * Applies the predicate to raw int values of the two fields.
+     * 
+     * @return true if "value1 op value2" holds
+     */
+    public boolean filter(int value1, int value2) {
+    	return getIntPredicate().test(value1, value2);
+    }
+
+    /**
+     * @return the comparison to apply to raw int values of the two fields
+     */
+    public IntPredicate getIntPredicate()
+    {
+    	if (m_intPred == null)
+    		m_intPred = IntPredicate.forOp(m_op);
+    	return m_intPred;
+    }
     
     public int getField1()
     {
@@ -6,6 +6,10 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -13,8 +17,8 @@ import java.util.NoSuchElementException;
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
  * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * LogicalPlans can represent queries with several aggregates but
+ * only one group by field.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -31,10 +35,13 @@ public class LogicalPlan {
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps;
+    private Vector<String> aggFields;
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields;
+    private Vector<Boolean> oByAsc;
+    private int limit = -1;
+    private int parallelism = 1;
     private String query;
 //    private Query owner;
 
@@ -186,8 +193,8 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Calling this more than once computes several aggregates
+        in the same pass; SimpleDb only supports a single GROUP BY field.
         @param op the aggregation operator
         @param afield the field to aggregate over
         @param gfield the field to group by
@@ -197,25 +204,63 @@ public class LogicalPlan {
         afield=disambiguateName(afield);
         if (gfield!=null)
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
+        if (!hasAgg) {
+            aggOps = new Vector<String>();
+            aggFields = new Vector<String>();
+        } else if (gfield == null ? groupByField != null : !gfield.equals(groupByField)) {
+            throw new ParsingException("Aggregates grouped by different fields are not supported.");
+        }
+        aggOps.add(op);
+        aggFields.add(afield);
         groupByField = gfield;
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this more
+        than once sorts on several fields; ties on the fields added first are broken by the later ones.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        if (!hasOrderBy) {
+            oByFields = new Vector<String>();
+            oByAsc = new Vector<Boolean>();
+        }
+        oByFields.add(field);
+        oByAsc.add(asc);
         hasOrderBy = true;
     }
 
+    /** Only return the first tuples of the result, as in a LIMIT clause.  Combined with an ORDER BY
+        only the first tuples of the ordering are kept, rather than sorting the whole result.
+        @param n the number of tuples to return at most
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
+    /** Scan every table with up to dop threads: the pages of a table are split into ranges that
+        are scanned and filtered in parallel by an {@link Exchange}.  An aggregate directly over
+        such a table is computed by a {@link ParallelAggregate} over the same ranges.
+        @param dop the degree of parallelism; 1 scans every table in the query's thread
+     * @throws ParsingException if dop is less than 1
+    */
+    public void setParallelism(int dop) throws ParsingException {
+        if (dop < 1)
+            throw new ParsingException("degree of parallelism must be at least 1");
+        parallelism = dop;
+    }
+
+    /** @return the degree of parallelism set with {@link #setParallelism} */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -289,6 +334,14 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,SeqScan> scanMap = new HashMap<String,SeqScan>();
+        // the most selective predicate of each table that an index can answer
+        HashMap<String,Predicate> indexPredicates = new HashMap<String,Predicate>();
+        HashMap<String,Double> indexSelectivities = new HashMap<String,Double>();
+        // the predicates of each table that bitmap indexes can answer, and
+        // the selectivity of their conjunction
+        HashMap<String,List<Predicate>> bitmapPredicates = new HashMap<String,List<Predicate>>();
+        HashMap<String,Double> bitmapSelectivities = new HashMap<String,Double>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -300,6 +353,7 @@ public class LogicalPlan {
             }
             
             subplanMap.put(table.alias,ss);
+            scanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -334,15 +388,92 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
+            // the scan evaluates the predicate on raw page data; the Filter
+            // stays in the plan for the estimates, and passes the tuples
+            // through without testing them again
+            scanMap.get(lf.tableAlias).addPredicate(p);
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the histogram cannot tell that a primary key value is unique
+            if (lf.p == Predicate.Op.EQUALS
+                    && lf.fieldPureName.equals(Database.getCatalog().getPrimaryKey(getTableId(lf.tableAlias))))
+                sel = Math.min(sel, 1.0 / Math.max(1, s.estimateTableCardinality(1.0)));
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            if (ftyp == Type.INT_TYPE
+                    && Database.getCatalog().getIndex(getTableId(lf.tableAlias), p.getField(), p.getOp()) != null
+                    && (!indexSelectivities.containsKey(lf.tableAlias) || sel < indexSelectivities.get(lf.tableAlias))) {
+                indexPredicates.put(lf.tableAlias, p);
+                indexSelectivities.put(lf.tableAlias, sel);
+            }
+            if (ftyp == Type.INT_TYPE
+                    && Database.getCatalog().getBitmapIndex(getTableId(lf.tableAlias), p.getField()) != null) {
+                if (!bitmapPredicates.containsKey(lf.tableAlias)) {
+                    bitmapPredicates.put(lf.tableAlias, new ArrayList<Predicate>());
+                    bitmapSelectivities.put(lf.tableAlias, 1.0);
+                }
+                bitmapPredicates.get(lf.tableAlias).add(p);
+                bitmapSelectivities.put(lf.tableAlias, bitmapSelectivities.get(lf.tableAlias) * sel);
+            }
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // look the tuples of a table up in an index, or in the AND of the
+        // bitmaps of its bitmap-indexed predicates, instead of scanning it
+        // when that reads fewer pages
+        Set<String> indexedAliases = new HashSet<String>(indexPredicates.keySet());
+        indexedAliases.addAll(bitmapPredicates.keySet());
+        for (String alias : indexedAliases) {
+            int tableId = getTableId(alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            double best = s.estimateScanCost();
+            DbIterator plan = null;
+            List<Predicate> used = null;
+            Predicate p = indexPredicates.get(alias);
+            if (p != null && s.estimateIndexScanCost(p.getOp(), indexSelectivities.get(alias)) < best) {
+                best = s.estimateIndexScanCost(p.getOp(), indexSelectivities.get(alias));
+                IndexFile index = Database.getCatalog().getIndex(tableId, p.getField(), p.getOp());
+                plan = new IndexScan(t, index, alias, p.getOp(), ((IntField) p.getOperand()).getValue());
+                used = Arrays.asList(p);
+            }
+            List<Predicate> bp = bitmapPredicates.get(alias);
+            if (bp != null && s.estimateBitmapScanCost(bitmapSelectivities.get(alias)) < best) {
+                plan = new BitmapHeapScan(t, tableId, alias, bp);
+                used = bp;
+            }
+            if (plan == null)
+                continue;
+            for (Predicate other : scanMap.get(alias).getPredicates()) {
+                if (!used.contains(other))
+                    plan = new Filter(other, plan);
+            }
+            subplanMap.put(alias, plan);
+            scanMap.remove(alias);
+        }
+
+        if (parallelism > 1) {
+            // replace the scan and filters of every table by copies over
+            // ranges of its pages, run by an exchange; as in the serial plan,
+            // the filters pass on what their scans selected untested
+            for (Map.Entry<String,SeqScan> e : scanMap.entrySet()) {
+                SeqScan ss = e.getValue();
+                SeqScan[] parts = SeqScan.partition(t, getTableId(e.getKey()), e.getKey(), parallelism);
+                if (parts.length == 1)
+                    continue;
+                DbIterator[] pipelines = new DbIterator[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    pipelines[i] = parts[i];
+                    for (Predicate p : ss.getPredicates()) {
+                        parts[i].addPredicate(p);
+                        pipelines[i] = new Filter(p, pipelines[i]);
+                    }
+                }
+                subplanMap.put(e.getKey(), new Exchange(pipelines));
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -382,7 +513,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(t, lj, plan1, plan2, statsMap, filterSelectivities);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -414,7 +545,14 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                //aggregates follow the group by field, in the order they were added
+                int agg = 0;
+                while (agg < aggOps.size()
+                        && !(aggOps.get(agg).equals(si.aggOp) && aggFields.get(agg).equals(si.fname)))
+                    agg++;
+                if (agg == aggOps.size())
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add((groupByField!=null?1:0) + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -460,12 +598,21 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int j = 0; j < afields.length; j++) {
+                    afields[j] = td.fieldNameToIndex(aggFields.get(j));
+                    aops[j] = getAggOp(aggOps.get(j));
+                }
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (node instanceof Exchange) {
+                    // aggregate the parallel scans in place of the exchange
+                    aggNode = new ParallelAggregate(((Exchange) node).getChildren(), afields, gfield, aops);
+                } else {
+                    aggNode = new Aggregate(node, afields, gfield, aops);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,7 +622,22 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int j = 0; j < fields.length; j++) {
+                try {
+                    fields[j] = node.getTupleDesc().fieldNameToIndex(oByFields.get(j));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.get(j) + " in ORDER BY");
+                }
+                asc[j] = oByAsc.get(j);
+            }
+            if (limit >= 0)
+                node = new TopN(fields, asc, limit, node);
+            else
+                node = new OrderBy(fields, asc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum). The victim is the clean
+ * page whose K-th most recent reference lies furthest in the past. Pages that
+ * have been referenced fewer than K times count as infinitely old, so a page
+ * touched once by a sequential scan is evicted before any page that has been
+ * re-referenced, which keeps large scans from flushing hot pages out of the
+ * pool. Ties are broken by plain LRU on the most recent reference.
+ * <p>
+ * The reference history of evicted pages is kept for a bounded number of
+ * pages, so that a page which comes back soon after being evicted still
+ * remembers its earlier references.
+ * <p>
+ * Hits do not take the policy lock: each page's history is updated under its
+ * own monitor and the clock is atomic, so concurrent readers of different
+ * pages do not contend. Admissions, removals and victim selection are
+ * serialized on the policy.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+	/** Default number of references tracked per page. */
+	public static final int DEFAULT_K = 2;
+
+	/** Default number of evicted pages whose history is retained. */
+	public static final int DEFAULT_RETAINED_HISTORY = 1024;
+
+	private final int m_k;
+	private final AtomicLong m_clock;
+	private final ConcurrentHashMap<PageId, long[]> m_resident;
+	private final LinkedHashMap<PageId, long[]> m_retired;
+
+	/**
+	 * Creates an LRU-2 policy that retains the history of
+	 * {@link #DEFAULT_RETAINED_HISTORY} evicted pages.
+	 */
+	public LruKPolicy() {
+		this(DEFAULT_K, DEFAULT_RETAINED_HISTORY);
+	}
+
+	/**
+	 * @param k the number of most recent references tracked per page; must be
+	 *          at least 1 (LRU-1 is plain LRU)
+	 * @param retainedHistory how many evicted pages keep their reference
+	 *          history
+	 */
+	public LruKPolicy(int k, final int retainedHistory) {
+		if (k < 1)
+			throw new IllegalArgumentException("k must be at least 1");
+		m_k = k;
+		m_clock = new AtomicLong();
+		m_resident = new ConcurrentHashMap<PageId, long[]>();
+		m_retired = new LinkedHashMap<PageId, long[]>() {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+				return size() > retainedHistory;
+			}
+		};
+	}
+
+	/** @return the number of references tracked per page */
+	public int getK() {
+		return m_k;
+	}
+
+	public synchronized void pageAdmitted(PageId pid) {
+		long[] history = m_retired.remove(pid);
+		if (history == null)
+			history = new long[m_k];
+		m_resident.put(pid, history);
+		reference(history);
+	}
+
+	public void pageAccessed(PageId pid) {
+		long[] history = m_resident.get(pid);
+		if (history != null)
+			reference(history);
+	}
+
+	public synchronized void pageRemoved(PageId pid) {
+		m_resident.remove(pid);
+	}
+
+	public synchronized void evictionCancelled(PageId pid) {
+		long[] history = m_retired.remove(pid);
+		if (history == null)
+			history = new long[m_k];
+		m_resident.put(pid, history);
+	}
+
+	public synchronized PageId chooseVictim(Map<PageId, Page> resident) {
+		PageId victim = null;
+		long[] victimHistory = null;
+		long victimKth = 0;
+		long victimLast = 0;
+		for (Map.Entry<PageId, long[]> e : m_resident.entrySet()) {
+			Page page = resident.get(e.getKey());
+			if (page == null || page.isDirty() != null)
+				continue;
+			long[] history = e.getValue();
+			long kth;
+			long last;
+			synchronized (history) {
+				kth = history[m_k - 1];
+				last = history[0];
+			}
+			// larger backward K-distance first, then least recently used
+			if (victim == null || kth < victimKth
+					|| (kth == victimKth && last < victimLast)) {
+				victim = e.getKey();
+				victimHistory = history;
+				victimKth = kth;
+				victimLast = last;
+			}
+		}
+		if (victim != null) {
+			m_resident.remove(victim);
+			m_retired.put(victim, victimHistory);
+		}
+		return victim;
+	}
+
+	/**
+	 * Shifts the reference history of a page and records a reference at the
+	 * current time. history[0] is the most recent reference and
+	 * history[k - 1] the K-th most recent one; 0 means "never".
+	 */
+	private void reference(long[] history) {
+		synchronized (history) {
+			System.arraycopy(history, 0, history, 1, m_k - 1);
+			history[0] = m_clock.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute several aggregates over the same set of tuples at
+ * once, e.g. COUNT(a), MIN(a) and MAX(b) grouped by c. Every group keeps an
+ * {@link AggregateState} per aggregate, so one pass over the input computes
+ * all of them. Aggregates over StringFields only support COUNT.
+ */
+public class MultiAggregator implements Aggregator {
+
+	private static final long serialVersionUID = 1L;
+	//Group field
+	private int m_gbfield;
+	//Aggregate fields and their ops, in output order
+	private int[] m_afields;
+	private Op[] m_ops;
+	//true for the aggregate fields that hold integers
+	private boolean[] m_numeric;
+
+	private TupleDesc m_td;
+	//Running aggregates of each group; the key is null if there is no grouping
+	private LinkedHashMap<Field, AggregateState[]> m_groups;
+
+	/**
+	 * Aggregate constructor
+	 *
+	 * @param gbfield
+	 *            the 0-based index of the group-by field in the tuple, or
+	 *            NO_GROUPING if there is no grouping
+	 * @param gbfieldtype
+	 *            the type of the group by field (e.g., Type.INT_TYPE), or null
+	 *            if there is no grouping
+	 * @param afields
+	 *            the 0-based indexes of the aggregate fields in the tuple
+	 * @param afieldtypes
+	 *            the types of the aggregate fields
+	 * @param what
+	 *            the aggregation operator of each aggregate field
+	 * @throws IllegalArgumentException
+	 *             if the arrays differ in length, or a StringField is
+	 *             aggregated with anything but COUNT
+	 */
+	public MultiAggregator(int gbfield, Type gbfieldtype, int[] afields, Type[] afieldtypes, Op[] what)
+	{
+		if (afields.length == 0 || afields.length != what.length || afields.length != afieldtypes.length)
+			throw new IllegalArgumentException("need a type and an op for each of at least one field");
+		m_gbfield = gbfield;
+		m_afields = afields.clone();
+		m_ops = what.clone();
+		m_numeric = new boolean[afields.length];
+		for (int i = 0; i < afields.length; i++)
+		{
+			m_numeric[i] = afieldtypes[i] == Type.INT_TYPE;
+			if (!m_numeric[i] && what[i] != Op.COUNT)
+				throw new IllegalArgumentException("only COUNT is supported for strings");
+		}
+
+		//Tuples are of form ( [groupValue,] aggregate Value, ... )
+		int offset = gbfield == Aggregator.NO_GROUPING ? 0 : 1;
+		Type [] temp = new Type[offset + afields.length];
+		if (offset == 1) temp[0] = gbfieldtype;
+		for (int i = 0; i < afields.length; i++)
+			temp[offset + i] = Type.INT_TYPE;
+		m_td = new TupleDesc(temp);
+
+		m_groups = new LinkedHashMap<Field, AggregateState[]>();
+	}
+
+	/**
+	 * Merge a new tuple into the aggregates, grouping as indicated in the
+	 * constructor
+	 *
+	 * @param tup
+	 *            the Tuple containing the aggregate fields and a group-by field
+	 */
+	public void mergeTupleIntoGroup(Tuple tup) {
+		Field group = m_gbfield == Aggregator.NO_GROUPING ? null : tup.getField(m_gbfield);
+		AggregateState[] states = m_groups.get(group);
+		if (states == null)
+		{
+			//First tuple of the group
+			states = new AggregateState[m_afields.length];
+			for (int i = 0; i < states.length; i++)
+				states[i] = new AggregateState();
+			m_groups.put(group, states);
+		}
+		for (int i = 0; i < states.length; i++)
+		{
+			if (m_numeric[i])
+				states[i].add(((IntField) tup.getField(m_afields[i])).getValue());
+			else
+				states[i].increment();
+		}
+	}
+
+	/**
+	 * Create a DbIterator over group aggregate results.
+	 *
+	 * @return a DbIterator whose tuples hold the group value, if using group,
+	 *         followed by the value of each aggregate in the order given to
+	 *         the constructor.
+	 */
+	public DbIterator iterator() {
+		ArrayList<Tuple> tupleGroup = new ArrayList<Tuple>(m_groups.size());
+		for (Map.Entry<Field, AggregateState[]> e : m_groups.entrySet())
+		{
+			Tuple t = new Tuple(m_td);
+			int index = 0;
+			if (m_gbfield != Aggregator.NO_GROUPING)
+				t.setField(index++, e.getKey());
+			AggregateState[] states = e.getValue();
+			for (int i = 0; i < states.length; i++)
+				t.setField(index++, new IntField(states[i].result(m_ops[i])));
+			tupleGroup.add(t);
+		}
+		return new TupleIterator(m_td, tupleGroup);
+	}
+
+	public int numGroups() {
+		return m_groups.size();
+	}
+
+	public boolean containsGroup(Field group) {
+		return m_groups.containsKey(group);
+	}
+
+	public void merge(Aggregator other) {
+		if (!(other instanceof MultiAggregator))
+			throw new IllegalArgumentException("cannot merge a " + other.getClass().getSimpleName());
+		for (Map.Entry<Field, AggregateState[]> e : ((MultiAggregator) other).m_groups.entrySet())
+		{
+			AggregateState[] states = m_groups.get(e.getKey());
+			if (states == null)
+			{
+				states = new AggregateState[m_afields.length];
+				for (int i = 0; i < states.length; i++)
+					states[i] = new AggregateState();
+				m_groups.put(e.getKey(), states);
+			}
+			for (int i = 0; i < states.length; i++)
+				states[i].merge(e.getValue()[i]);
+		}
+	}
+
+}
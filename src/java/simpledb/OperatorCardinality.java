@@ -26,12 +26,17 @@ public class OperatorCardinality {
                     tableStats);
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
-        } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+        } else if (o instanceof JoinOperator) {
+            return updateHashEquiJoinCardinality(o,
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
-            return updateAggregateCardinality((Aggregate) o, tableAliasToId,
-                    tableStats);
+            Aggregate a = (Aggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
+        } else if (o instanceof ParallelAggregate) {
+            ParallelAggregate a = (ParallelAggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
@@ -45,8 +50,18 @@ public class OperatorCardinality {
                     childC = tableStats.get(
                             ((SeqScan) children[0]).getTableName())
                             .estimateTableCardinality(1.0);
+                } else if (children[0] instanceof IndexScan) {
+                    childC = indexScanCardinality((IndexScan) children[0],
+                            tableStats);
+                } else if (children[0] instanceof BitmapHeapScan) {
+                    childC = bitmapScanCardinality(
+                            (BitmapHeapScan) children[0], tableStats);
                 }
             }
+            if (o instanceof Limit)
+                childC = Math.min(childC, ((Limit) o).getLimit());
+            else if (o instanceof TopN)
+                childC = Math.min(childC, ((TopN) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -82,6 +97,14 @@ public class OperatorCardinality {
                         ((SeqScan) child).getTableName())
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
+            } else if (child instanceof IndexScan) {
+                f.setEstimatedCardinality((int) (indexScanCardinality(
+                        (IndexScan) child, tableStats) * selectivity) + 1);
+                return false;
+            } else if (child instanceof BitmapHeapScan) {
+                f.setEstimatedCardinality((int) (bitmapScanCardinality(
+                        (BitmapHeapScan) child, tableStats) * selectivity) + 1);
+                return false;
             }
         }
         f.setEstimatedCardinality(1);
@@ -123,6 +146,10 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = (int) (tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child1 instanceof IndexScan) {
+            child1Card = indexScanCardinality((IndexScan) child1, tableStats);
+        } else if (child1 instanceof BitmapHeapScan) {
+            child1Card = bitmapScanCardinality((BitmapHeapScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -135,6 +162,10 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = (int) (tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child2 instanceof IndexScan) {
+            child2Card = indexScanCardinality((IndexScan) child2, tableStats);
+        } else if (child2 instanceof BitmapHeapScan) {
+            child2Card = bitmapScanCardinality((BitmapHeapScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -144,11 +175,12 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
+    private static boolean updateHashEquiJoinCardinality(Operator o,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
 
-        DbIterator[] children = j.getChildren();
+        JoinOperator j = (JoinOperator) o;
+        DbIterator[] children = o.getChildren();
         DbIterator child1 = children[0];
         DbIterator child2 = children[1];
         int child1Card = 1;
@@ -180,6 +212,10 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = (int) (tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child1 instanceof IndexScan) {
+            child1Card = indexScanCardinality((IndexScan) child1, tableStats);
+        } else if (child1 instanceof BitmapHeapScan) {
+            child1Card = bitmapScanCardinality((BitmapHeapScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -192,16 +228,21 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = (int) (tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0));
+        } else if (child2 instanceof IndexScan) {
+            child2Card = indexScanCardinality((IndexScan) child2, tableStats);
+        } else if (child2 instanceof BitmapHeapScan) {
+            child2Card = bitmapScanCardinality((BitmapHeapScan) child2, tableStats);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
+        o.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
                 .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateAggregateCardinality(Aggregate a,
+    private static boolean updateAggregateCardinality(Operator a,
+            int groupField, String groupFieldName,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         DbIterator child = a.getChildren()[0];
@@ -214,7 +255,7 @@ public class OperatorCardinality {
             childCard = oChild.getEstimatedCardinality();
         }
 
-        if (a.groupField() == Aggregator.NO_GROUPING) {
+        if (groupField == Aggregator.NO_GROUPING) {
             a.setEstimatedCardinality(1);
             return hasJoinPK;
         }
@@ -222,9 +263,13 @@ public class OperatorCardinality {
         if (child instanceof SeqScan) {
             childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
                     .estimateTableCardinality(1.0));
+        } else if (child instanceof IndexScan) {
+            childCard = indexScanCardinality((IndexScan) child, tableStats);
+        } else if (child instanceof BitmapHeapScan) {
+            childCard = bitmapScanCardinality((BitmapHeapScan) child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
+        String[] tmp = groupFieldName.split("[.]");
         String tableAlias = tmp[0];
         String pureFieldName = tmp[1];
         Integer tableId = tableAliasToId.get(tableAlias);
@@ -244,4 +289,33 @@ public class OperatorCardinality {
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    /**
+     * @return the estimated number of tuples an index scan returns, those
+     *         of its table that satisfy its predicate
+     */
+    private static int indexScanCardinality(IndexScan s,
+            Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(s.getTableName());
+        Predicate pred = s.getPredicate();
+        return stats.estimateTableCardinality(stats.estimateSelectivity(
+                pred.getField(), pred.getOp(), pred.getOperand()));
+    }
+
+    /**
+     * @return the estimated number of tuples a bitmap heap scan returns,
+     *         the size of its bitmap if it was given one, or those of its
+     *         table that satisfy all of its predicates
+     */
+    private static int bitmapScanCardinality(BitmapHeapScan s,
+            Map<String, TableStats> tableStats) {
+        if (s.getBitmap() != null)
+            return s.getBitmap().cardinality();
+        TableStats stats = tableStats.get(s.getTableName());
+        double selectivity = 1.0;
+        for (Predicate pred : s.getPredicates())
+            selectivity *= stats.estimateSelectivity(pred.getField(),
+                    pred.getOp(), pred.getOperand());
+        return stats.estimateTableCardinality(selectivity);
+    }
 }
@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Computes the same aggregates as {@link Aggregate}, but over several inputs
+ * in parallel, typically the page ranges of a table that an {@link Exchange}
+ * would scan (see {@link SeqScan#partition}). Every input is aggregated by a
+ * thread of its own into a partial aggregate of the same kind Aggregate
+ * uses; the partial aggregates are merged with {@link Aggregator#merge} once
+ * all threads are done. Since the partial aggregates keep sums and counts, averages are
+ * exact.
+ * <p>
+ * The partial aggregates are kept in memory; unlike Aggregate, this
+ * operator does not spill groups to disk.
+ */
+public class ParallelAggregate extends Operator {
+
+	private static final long serialVersionUID = 1L;
+
+	private DbIterator[] m_children;
+	private int[] m_afields;
+	private int m_gfield;
+	private Aggregator.Op[] m_aops;
+	private TupleDesc m_outTd;
+	private transient DbIterator m_result;
+	private transient boolean m_childrenOpen;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param children
+	 *            The inputs to aggregate in parallel; they must all return
+	 *            tuples of the same TupleDesc and must not share any operator
+	 * @param afield
+	 *            The column over which we are computing an aggregate.
+	 * @param gfield
+	 *            The column over which we are grouping the result, or -1 if
+	 *            there is no grouping
+	 * @param aop
+	 *            The aggregation operator to use
+	 */
+	public ParallelAggregate(DbIterator[] children, int afield, int gfield, Aggregator.Op aop) {
+		this(children, new int[] { afield }, gfield, new Aggregator.Op[] { aop });
+	}
+
+	/**
+	 * Constructor for several aggregates computed in the same pass.
+	 *
+	 * @see #ParallelAggregate(DbIterator[], int, int, Aggregator.Op)
+	 * @see Aggregate#Aggregate(DbIterator, int[], int, Aggregator.Op[])
+	 */
+	public ParallelAggregate(DbIterator[] children, int[] afields, int gfield, Aggregator.Op[] aops) {
+		if (children.length == 0)
+			throw new IllegalArgumentException("need at least one child");
+		if (afields.length == 0 || afields.length != aops.length)
+			throw new IllegalArgumentException("need an op for each of at least one field");
+		m_children = children.clone();
+		m_afields = afields.clone();
+		m_gfield = gfield == -1 ? Aggregator.NO_GROUPING : gfield;
+		m_aops = aops.clone();
+		m_outTd = Aggregate.outputTupleDesc(children[0].getTupleDesc(), m_afields, m_gfield, m_aops);
+	}
+
+	/**
+	 * @return If this aggregate is accompanied by a groupby, return the groupby
+	 *         field index in the <b>INPUT</b> tuples. If not, return
+	 *         {@link simpledb.Aggregator#NO_GROUPING}
+	 * */
+	public int groupField() {
+		return m_gfield;
+	}
+
+	/**
+	 * @return If this aggregate is accompanied by a group by, return the name
+	 *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
+	 *         null;
+	 * */
+	public String groupFieldName() {
+		return m_gfield == Aggregator.NO_GROUPING ? null : m_outTd.getFieldName(0);
+	}
+
+	/**
+	 * @return the aggregate fields, in the order of the output columns
+	 * */
+	public int[] aggregateFields() {
+		return m_afields.clone();
+	}
+
+	/**
+	 * @return the aggregate operators, in the order of the output columns
+	 * */
+	public Aggregator.Op[] aggregateOps() {
+		return m_aops.clone();
+	}
+
+	/** @return the number of threads the inputs are aggregated with */
+	public int getParallelism() {
+		return m_children.length;
+	}
+
+	public void open() throws NoSuchElementException, DbException,
+	TransactionAbortedException {
+		//The children are opened by the threads
+		m_childrenOpen = true;
+		aggregateInParallel();
+		m_result.open();
+		super.open();
+	}
+
+	/**
+	 * Aggregates every child in a thread of its own, the first one in the
+	 * calling thread, and merges the results.
+	 */
+	private void aggregateInParallel() throws DbException, TransactionAbortedException {
+		final Aggregator[] partials = new Aggregator[m_children.length];
+		final Exception[] failures = new Exception[m_children.length];
+		Thread[] workers = new Thread[m_children.length];
+		for (int i = 1; i < m_children.length; i++)
+		{
+			final int worker = i;
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					try
+					{
+						partials[worker] = aggregatePart(m_children[worker]);
+					}
+					catch (Exception e)
+					{
+						failures[worker] = e;
+					}
+				}
+			}, "aggregate-worker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		try
+		{
+			partials[0] = aggregatePart(m_children[0]);
+		}
+		catch (Exception e)
+		{
+			failures[0] = e;
+		}
+		boolean interrupted = false;
+		for (int i = 1; i < workers.length; i++)
+		{
+			while (workers[i].isAlive())
+			{
+				try
+				{
+					workers[i].join();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		for (Exception e : failures)
+		{
+			if (e instanceof DbException) throw (DbException) e;
+			if (e instanceof TransactionAbortedException) throw (TransactionAbortedException) e;
+			if (e instanceof RuntimeException) throw (RuntimeException) e;
+			if (e != null) throw new DbException("aggregate worker failed: " + e);
+		}
+		Aggregator result = Aggregate.newAggregator(m_children[0].getTupleDesc(),
+				m_afields, m_gfield, m_aops);
+		for (Aggregator partial : partials)
+			result.merge(partial);
+		m_result = result.iterator();
+	}
+
+	/** @return the partial aggregate of one child */
+	private Aggregator aggregatePart(DbIterator child) throws DbException, TransactionAbortedException {
+		Aggregator partial = Aggregate.newAggregator(child.getTupleDesc(),
+				m_afields, m_gfield, m_aops);
+		child.open();
+		while (child.hasNext())
+			partial.mergeTupleIntoGroup(child.next());
+		return partial;
+	}
+
+	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+		if (m_result.hasNext()) return m_result.next();
+		return null;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		m_result.rewind();
+	}
+
+	/**
+	 * Returns the TupleDesc of this aggregate, the same as that of an
+	 * {@link Aggregate} over one of the children.
+	 */
+	public TupleDesc getTupleDesc() {
+		return m_outTd;
+	}
+
+	public void close() {
+		if (m_result != null) m_result.close();
+		m_result = null;
+		if (m_childrenOpen)
+		{
+			for (DbIterator child : m_children)
+				child.close();
+			m_childrenOpen = false;
+		}
+		super.close();
+	}
+
+	@Override
+	public DbIterator[] getChildren() {
+		return m_children.clone();
+	}
+
+	@Override
+	public void setChildren(DbIterator[] children) {
+		m_children = children.clone();
+	}
+
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,6 +14,80 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    /**
+     * A LIMIT clause at the end of a statement. Zql does not know LIMIT, so
+     * it is cut off the statement before the statement is parsed.
+     */
+    private static final Pattern LIMIT = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*\\z", Pattern.CASE_INSENSITIVE);
+
+    /** The LIMIT of the statement being processed, or -1 if it has none. */
+    private int limit = -1;
+
+    /** The degree of parallelism queries are planned with. */
+    private int parallelism = 1;
+
+    /**
+     * Interactive command that sets the degree of parallelism of the queries
+     * that follow it.
+     */
+    private static final Pattern SET_PARALLELISM = Pattern.compile(
+            "SET\\s+PARALLELISM\\s+(\\d+)\\s*;", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Sets the number of threads the tables of the following queries are
+     * scanned with.
+     * 
+     * @see LogicalPlan#setParallelism(int)
+     */
+    public void setParallelism(int dop) {
+        if (dop < 1)
+            throw new IllegalArgumentException("degree of parallelism must be at least 1");
+        parallelism = dop;
+    }
+
+    /**
+     * Removes a LIMIT clause at the end of a single statement and remembers
+     * its value for {@link #handleQueryStatement}.
+     * 
+     * @return the statement without the LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        Matcher m = LIMIT.matcher(s);
+        if (!m.find())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1) + " is too large");
+        }
+        return s.substring(0, m.start()) + m.group(2);
+    }
+
+    /**
+     * Reads the first statement from a stream: everything up to and
+     * including the first ';' that is not inside a quoted string, or up to
+     * the end of the stream.
+     */
+    static String readStatement(InputStream is) throws IOException {
+        ByteArrayOutputStream statement = new ByteArrayOutputStream();
+        int quote = -1;
+        int c;
+        while ((c = is.read()) >= 0) {
+            statement.write(c);
+            if (quote >= 0) {
+                if (c == quote)
+                    quote = -1;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';') {
+                break;
+            }
+        }
+        return statement.toString("UTF-8");
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -138,6 +214,7 @@ public class Parser {
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setParallelism(parallelism);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -218,16 +295,13 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
                 aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
                 aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, groupByField);
             } else {
                 if (groupByField != null
                         && !(groupByField.equals(si.getTable() + "."
@@ -245,26 +319,20 @@ public class Parser {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -280,6 +348,8 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.addLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -388,6 +458,8 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            if (limit >= 0)
+                lp.addLimit(limit);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -466,12 +538,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.addLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -504,7 +578,9 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            String stripped = stripLimit(readStatement(is));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stripped.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -586,7 +662,7 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -596,7 +672,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel threads] [-f queryFile]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -616,6 +692,14 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    try {
+                        setParallelism(Integer.parseInt(argv[++i]));
+                    } catch (RuntimeException e) {
+                        System.out.println("Expected a number of threads after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -675,6 +759,18 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    Matcher set = SET_PARALLELISM.matcher(cmd);
+                    if (set.matches()) {
+                        try {
+                            setParallelism(Integer.parseInt(set.group(1)));
+                            System.out.println("Degree of parallelism set to " + parallelism);
+                        } catch (RuntimeException e) {
+                            System.out.println("Invalid degree of parallelism " + set.group(1));
+                        }
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
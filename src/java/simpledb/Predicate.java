@@ -48,6 +48,8 @@ public class Predicate implements Serializable {
     private int m_field;
     private Op m_op;
     private Field m_operand;
+    //Comparison of raw ints, if the operand is an IntField
+    private transient IntPredicate m_intPred;
     /**
      * Constructor.
      * 
@@ -88,6 +90,17 @@ public class Predicate implements Serializable {
         return m_operand;
     }
     
+    /**
+     * @return the comparison to apply to raw int values of the field, or
+     *         null if the operand is not an IntField
+     */
+    public IntPredicate getIntPredicate()
+    {
+    	if (m_intPred == null && m_operand instanceof IntField)
+    		m_intPred = IntPredicate.forOp(m_op);
+    	return m_intPred;
+    }
+
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
@@ -100,9 +113,25 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
     	Field temp = t.getField(m_field);
+    	if (temp instanceof IntField && getIntPredicate() != null)
+    		return filter(((IntField) temp).getValue());
     	return temp.compare(m_op, m_operand);
     }
 
+    /**
+     * Applies the predicate to a raw int value of the field, without boxing
+     * it in an IntField.
+     * 
+     * @throws ClassCastException if the operand is not an IntField
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(int value) {
+    	IntPredicate ip = getIntPredicate();
+    	if (ip == null)
+    		throw new ClassCastException("operand is not an IntField");
+    	return ip.test(value, ((IntField) m_operand).getValue());
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
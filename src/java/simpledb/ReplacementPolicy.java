@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool gives up when it has to
+ * make room for a page that is not yet cached. The BufferPool reports every
+ * hit, every admission and every removal to the policy, and asks it for a
+ * victim when it is full.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ * @see LruKPolicy
+ * @see ClockProPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when a page that was not cached has been read into the buffer
+     * pool. The read itself counts as the first reference to the page.
+     *
+     * @param pid the id of the page that entered the pool
+     */
+    public void pageAdmitted(PageId pid);
+
+    /**
+     * Called every time a cached page is requested from the buffer pool.
+     *
+     * @param pid the id of the page that was hit
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool without having been picked
+     * by {@link #chooseVictim} (e.g. because it was discarded).
+     *
+     * @param pid the id of the page that left the pool
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page to evict. Dirty pages must never be picked. The page
+     * returned is no longer resident as far as the policy is concerned, so
+     * the caller must remove it from the pool.
+     *
+     * @param resident the pages currently cached by the buffer pool
+     * @return the id of the page to evict, or null if every cached page is
+     *         dirty
+     */
+    public PageId chooseVictim(Map<PageId, Page> resident);
+
+    /**
+     * Called when the victim last returned by {@link #chooseVictim} stays in
+     * the pool after all, because it was dirtied before it could be removed.
+     * The page is resident again, as it was before it was picked as far as
+     * the policy can tell; this is not a reference to the page.
+     *
+     * @param pid the id of the page that was not evicted
+     */
+    public void evictionCancelled(PageId pid);
+}
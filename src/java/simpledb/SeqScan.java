@@ -17,6 +17,10 @@ public class SeqScan implements DbIterator {
     private HeapFile heapfile;
     private DbFileIterator dbit;
     private DbFile file;
+    private ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    // the page range to scan; endPage is -1 for the whole file
+    private int startPage = 0;
+    private int endPage = -1;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -43,6 +47,68 @@ public class SeqScan implements DbIterator {
     	dbit = heapfile.iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan over a range of pages of the specified
+     * table. Scans over disjoint ranges of a table may run in different
+     * threads.
+     * 
+     * @param startPage
+     *            the first page to scan
+     * @param endPage
+     *            the page after the last page to scan
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+    	this(tid, tableid, tableAlias);
+    	this.startPage = startPage;
+    	this.endPage = endPage;
+    	dbit = heapfile.iterator(tid, null, startPage, endPage);
+    }
+
+    /**
+     * Splits the pages of a table into contiguous ranges of about the same
+     * size and creates a scan for each.
+     * 
+     * @param parts
+     *            the number of scans wanted; fewer are returned if the table
+     *            has fewer pages
+     * @return at least one scan; together they return every tuple of the
+     *         table once
+     */
+    public static SeqScan[] partition(TransactionId tid, int tableid, String tableAlias, int parts) {
+    	int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+    	parts = Math.max(1, Math.min(parts, numPages));
+    	if (parts == 1)
+    		return new SeqScan[] { new SeqScan(tid, tableid, tableAlias) };
+    	SeqScan[] scans = new SeqScan[parts];
+    	for (int i = 0; i < parts; i++)
+    		scans[i] = new SeqScan(tid, tableid, tableAlias,
+    				(int) ((long) numPages * i / parts), (int) ((long) numPages * (i + 1) / parts));
+    	return scans;
+    }
+
+    /**
+     * @return the first page this scan reads
+     */
+    public int getStartPage() {
+    	return startPage;
+    }
+
+    /**
+     * @return the page after the last page this scan reads, or -1 if it
+     *         scans the whole table
+     */
+    public int getEndPage() {
+    	return endPage;
+    }
+
+    /**
+     * @return the id of the table the operator scans
+     */
+    public int getTableId() {
+    	return _tableid;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -77,6 +143,31 @@ public class SeqScan implements DbIterator {
     	this.tablealias = tableAlias;
     }
 
+    /**
+     * Pushes a predicate down into the scan: only tuples that satisfy it
+     * (and every predicate added before) are returned, and tuples that do
+     * not are never decoded. Must be called before the scan is opened.
+     * 
+     * @param p
+     *            predicate on the fields of the scanned table, numbered as
+     *            in {@link #getTupleDesc()}
+     */
+    public void addPredicate(Predicate p) {
+    	predicates.add(p);
+    	Predicate[] preds = predicates.toArray(new Predicate[predicates.size()]);
+    	if (endPage < 0)
+    		dbit = heapfile.iterator(_tid, preds);
+    	else
+    		dbit = heapfile.iterator(_tid, preds, startPage, endPage);
+    }
+
+    /**
+     * @return the predicates pushed down into this scan
+     */
+    public List<Predicate> getPredicates() {
+    	return Collections.unmodifiableList(predicates);
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
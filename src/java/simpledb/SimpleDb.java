@@ -7,6 +7,12 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // a trailing "slotted" writes variable-length slotted pages
+            HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+            if (args[args.length - 1].equals("slotted")) {
+                format = HeapFile.PageFormat.SLOTTED;
+                args = java.util.Arrays.copyOf(args, args.length - 1);
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -44,7 +50,7 @@ public class SimpleDb {
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,format);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,316 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A HeapPage that stores its tuples as variable-length records, so string
+ * fields only take as many bytes as they have characters instead of
+ * Type.STRING_LEN.
+ * <p>
+ * The page starts with a 4-byte header: the number of entries of the slot
+ * directory and the number of bytes of the record area, both unsigned
+ * shorts. The slot directory follows the header, with one 4-byte entry per
+ * slot: the offset and the length of the slot's record, or zeros for an
+ * empty slot. Records are stored at the end of the page and grow towards
+ * the directory. A record holds its fields in order: ints as 4 bytes, and
+ * strings as a 4-byte length followed by their characters, without padding.
+ * <p>
+ * Deleting a tuple leaves a hole in the record area; the page is compacted
+ * when an insert does not fit otherwise. Slot numbers, and therefore record
+ * ids, never change. An all-zero page is a valid empty page.
+ *
+ * @see HeapFile.PageFormat#SLOTTED
+ */
+public class SlottedHeapPage extends HeapPage {
+
+	/** Size of the page header: slot count and record area size. */
+	static final int HEADER_SIZE = 4;
+	/** Size of a slot directory entry: record offset and length. */
+	static final int SLOT_SIZE = 4;
+
+	/**
+	 * Create a SlottedHeapPage from a set of bytes of data read from disk,
+	 * in the format described above.
+	 */
+	public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize())), true);
+	}
+
+	/**
+	 * Create a SlottedHeapPage from the remaining bytes of a buffer, which
+	 * are copied; the buffer's position is left untouched.
+	 */
+	public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+		this(id, copyOf(data), true);
+	}
+
+	/**
+	 * Creates a page that takes ownership of data, which must be at least a
+	 * page long and must not be used by anyone else afterwards.
+	 */
+	SlottedHeapPage(HeapPageId id, byte[] data, boolean owned) throws IOException {
+		this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+	}
+
+	private SlottedHeapPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+		super(id, td, data, maxSlots(td), HEADER_SIZE);
+		if (BufferPool.getPageSize() > 0x10000)
+			throw new IllegalStateException("slotted pages hold at most 64KB");
+		if (HEADER_SIZE + slotCount(data) * SLOT_SIZE > recordStart(data))
+			throw new IOException("corrupt slotted page " + id);
+	}
+
+	/**
+	 * @return the most slots a page of tuples with the given TupleDesc can
+	 *         have, reached when every record is as short as possible
+	 */
+	static int maxSlots(TupleDesc td) {
+		int minRecord = 4 * td.numFields();
+		return (BufferPool.getPageSize() - HEADER_SIZE) / (SLOT_SIZE + minRecord);
+	}
+
+	/** @return the number of bytes the record of a tuple takes */
+	static int recordSize(Tuple t) {
+		TupleDesc td = t.getTupleDesc();
+		int size = 0;
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getFieldType(j) == Type.INT_TYPE)
+				size += 4;
+			else
+				size += 4 + Math.min(((StringField) t.getField(j)).getValue().length(),
+						Type.STRING_LEN);
+		}
+		return size;
+	}
+
+	private static int readShort(byte[] data, int offset) {
+		return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+	}
+
+	private static void writeShort(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >>> 8);
+		data[offset + 1] = (byte) value;
+	}
+
+	private static void writeInt(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >>> 24);
+		data[offset + 1] = (byte) (value >>> 16);
+		data[offset + 2] = (byte) (value >>> 8);
+		data[offset + 3] = (byte) value;
+	}
+
+	private static int slotCount(byte[] data) {
+		return readShort(data, 0);
+	}
+
+	/** @return the offset of the first byte of the record area */
+	private static int recordStart(byte[] data) {
+		return BufferPool.getPageSize() - readShort(data, 2);
+	}
+
+	private static int entryOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	/** @return the bytes of the page not taken by the header, directory or records */
+	private static int freeBytes(byte[] data) {
+		int count = slotCount(data);
+		int used = HEADER_SIZE + count * SLOT_SIZE;
+		for (int i = 0; i < count; i++)
+			used += readShort(data, entryOffset(i) + 2);
+		return BufferPool.getPageSize() - used;
+	}
+
+	/** @return the number of directory entries of deleted records */
+	private static int emptyEntries(byte[] data) {
+		int count = slotCount(data);
+		int empty = 0;
+		for (int i = 0; i < count; i++)
+			if (readShort(data, entryOffset(i)) == 0)
+				empty++;
+		return empty;
+	}
+
+	/**
+	 * Counts how many more tuples of the largest possible size for td fit on
+	 * a page, which is how many empty slots the page reports.
+	 *
+	 * @param data the page image
+	 */
+	static int emptySlots(byte[] data, TupleDesc td) {
+		int free = freeBytes(data);
+		int empty = emptyEntries(data);
+		int record = td.getSize();
+		int fit = free / record;
+		// past the deleted entries, every tuple needs a new entry as well
+		if (fit > empty)
+			fit = (free + empty * SLOT_SIZE) / (record + SLOT_SIZE);
+		return fit;
+	}
+
+	/**
+	 * Stores a tuple in a page image, reusing the entry of a deleted record
+	 * if there is one and compacting the records if there is enough free
+	 * space but not in one piece.
+	 *
+	 * @param data the page image
+	 * @return the slot the tuple was stored in, or -1 if it does not fit
+	 */
+	static int insert(byte[] data, Tuple t) {
+		int count = slotCount(data);
+		int slot = count;
+		for (int i = 0; i < count; i++) {
+			if (readShort(data, entryOffset(i)) == 0) {
+				slot = i;
+				break;
+			}
+		}
+		int size = recordSize(t);
+		int directoryEnd = entryOffset(Math.max(count, slot + 1));
+		if (directoryEnd + size > recordStart(data)) {
+			if (freeBytes(data) - (slot == count ? SLOT_SIZE : 0) < size)
+				return -1;
+			compact(data);
+		}
+		int offset = recordStart(data) - size;
+		writeRecord(data, offset, t);
+		writeShort(data, 2, BufferPool.getPageSize() - offset);
+		writeShort(data, entryOffset(slot), offset);
+		writeShort(data, entryOffset(slot) + 2, size);
+		if (slot == count)
+			writeShort(data, 0, count + 1);
+		return slot;
+	}
+
+	private static void writeRecord(byte[] data, int offset, Tuple t) {
+		TupleDesc td = t.getTupleDesc();
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getFieldType(j) == Type.INT_TYPE) {
+				writeInt(data, offset, ((IntField) t.getField(j)).getValue());
+				offset += 4;
+			} else {
+				String s = ((StringField) t.getField(j)).getValue();
+				int len = Math.min(s.length(), Type.STRING_LEN);
+				writeInt(data, offset, len);
+				offset += 4;
+				// one byte per character, as DataOutputStream.writeBytes does
+				for (int k = 0; k < len; k++)
+					data[offset++] = (byte) s.charAt(k);
+			}
+		}
+	}
+
+	/**
+	 * Moves all records to the end of the page, closing the holes left by
+	 * deleted records.
+	 */
+	private static void compact(byte[] data) {
+		int pageSize = BufferPool.getPageSize();
+		int count = slotCount(data);
+		byte[] records = new byte[pageSize];
+		int end = pageSize;
+		for (int i = 0; i < count; i++) {
+			int offset = readShort(data, entryOffset(i));
+			if (offset == 0)
+				continue;
+			int len = readShort(data, entryOffset(i) + 2);
+			end -= len;
+			System.arraycopy(data, offset, records, end, len);
+			writeShort(data, entryOffset(i), end);
+		}
+		int directoryEnd = entryOffset(count);
+		Arrays.fill(data, directoryEnd, end, (byte) 0);
+		System.arraycopy(records, end, data, end, pageSize - end);
+		writeShort(data, 2, pageSize - end);
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public SlottedHeapPage getBeforeImage() {
+		try {
+			return new SlottedHeapPage(pid, td, getBeforeImageData());
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	int numSlots() {
+		return slotCount(data);
+	}
+
+	int slotOffset(int slotId) {
+		return readShort(data, entryOffset(slotId));
+	}
+
+	int fieldOffset(int slotId, int field) {
+		int offset = slotOffset(slotId);
+		for (int j = 0; j < field; j++)
+			offset = nextField(offset, td.getFieldType(j));
+		return offset;
+	}
+
+	int nextField(int offset, Type type) {
+		if (type == Type.INT_TYPE)
+			return offset + 4;
+		return offset + 4 + Type.readInt(data, offset);
+	}
+
+	/**
+	 * Returns the number of tuples of the largest possible size that still
+	 * fit on this page. Shorter tuples may fit when this is 0.
+	 */
+	public int getNumEmptySlots() {
+		return emptySlots(data, td);
+	}
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		return i >= 0 && i < slotCount(data) && readShort(data, entryOffset(i)) != 0;
+	}
+
+	/**
+	 * Adds the specified tuple to the page;  the tuple should be updated to reflect
+	 *  that it is now stored on this page.
+	 * @throws DbException if the tuple does not fit or tupledesc is mismatch.
+	 * @param t The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!td.equals(t.getTupleDesc()))
+			throw new DbException("td mismatch");
+		beforeWrite();
+		int slot = insert(data, t);
+		if (slot < 0)
+			throw new DbException("page full");
+		t.setRecordId(new RecordId(pid, slot));
+		tuples[slot] = t;
+	}
+
+	/**
+	 * Delete the specified tuple from the page;  the tuple should be updated to reflect
+	 *   that it is no longer stored on any page.
+	 * @throws DbException if this tuple is not on this page, or tuple slot is
+	 *         already empty.
+	 * @param t The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		if (!t.getRecordId().getPageId().equals(pid))
+			throw new DbException("Tuple not on this page");
+		int slot = t.getRecordId().tupleno();
+		if (!isSlotUsed(slot))
+			throw new DbException("tuple slot already empty, so tuple to delete not on page");
+		int offset = slotOffset(slot);
+		int len = readShort(data, entryOffset(slot) + 2);
+		beforeWrite();
+		Arrays.fill(data, offset, offset + len, (byte) 0);
+		writeShort(data, entryOffset(slot), 0);
+		writeShort(data, entryOffset(slot) + 2, 0);
+		tuples[slot] = null;
+	}
+}
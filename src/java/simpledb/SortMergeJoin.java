@@ -0,0 +1,355 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted on their join fields. Inputs
+ * that are not sorted already are sorted with an {@link ExternalSort}.
+ * <p>
+ * Equality joins are a classic merge: both inputs are read once, in
+ * ascending order, and the right tuples that share a key are buffered in
+ * memory while the left tuples with that key are joined with them.
+ * <p>
+ * Band joins (&lt;, &lt;=, &gt;, &gt;=) sort the right input so that the
+ * tuples matching any left tuple form a prefix of it: ascending for &gt; and
+ * &gt;=, descending for &lt; and &lt;=. The left input is sorted the other way
+ * round, so the prefixes get shorter. The right input is read once, up to
+ * the end of the first left tuple's prefix, into a window; every later left
+ * tuple reads the window from its start, trims it where the first tuple
+ * does not match, and the join stops as soon as the window is empty. The
+ * window can be as large as the right input: as much of it as fits into the
+ * memory budget is kept in memory, and the rest in a {@link TupleSpillFile}
+ * that is read again for every left tuple whose prefix reaches into it.
+ */
+public class SortMergeJoin extends Operator implements JoinOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int memoryPages;
+    private final boolean leftAsc, rightAsc;
+
+    private transient DbIterator left, right;
+    private transient Tuple t1;
+    // the right tuples that match t1: the tuples with its key in equality
+    // joins, the start of the window of the prefix in band joins
+    private transient ArrayList<Tuple> group;
+    private transient int groupPos;
+    private transient Tuple t2;
+    // band joins: the rest of the window, and its size in all
+    private transient TupleSpillFile windowFile;
+    private transient DbIterator windowIt;
+    private transient int windowSize;
+    private transient boolean windowFilled;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, and sorts the children with the default memory budget where
+     * needed.
+     *
+     * @param p
+     *            The predicate to join the children on; anything but
+     *            NOT_EQUALS and LIKE
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, ExternalSort.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * @param memoryPages
+     *            how many pages worth of tuples each sort of an input may
+     *            keep in memory
+     * @see #SortMergeJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int memoryPages) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge joins cannot evaluate "
+                    + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+        switch (p.getOperator()) {
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            leftAsc = false;
+            rightAsc = true;
+            break;
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            leftAsc = true;
+            rightAsc = false;
+            break;
+        default:
+            leftAsc = true;
+            rightAsc = true;
+        }
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a sort-merge join can evaluate the given operator */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the tuples of the given operator are known to come out
+     *         sorted on a field in a direction: the operator is an
+     *         {@link OrderBy}, an {@link ExternalSort} or a SortMergeJoin
+     *         that sorts on that field
+     */
+    public static boolean isSortedOn(DbIterator it, int field, boolean asc) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.getOrderByField() == field && o.isASC() == asc;
+        }
+        if (it instanceof ExternalSort)
+            return ((ExternalSort) it).isSortedOn(field, asc);
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            if (j.pred.getField1() == field && j.leftAsc == asc)
+                return true;
+            // in an equality join the right key equals the left one
+            int right = j.child1.getTupleDesc().numFields() + j.pred.getField2();
+            return j.pred.getOperator() == Predicate.Op.EQUALS && right == field
+                    && asc;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the left child is already sorted the way the join
+     *         needs it
+     */
+    public boolean isLeftSorted() {
+        return isSortedOn(child1, pred.getField1(), leftAsc);
+    }
+
+    /**
+     * @return true if the right child is already sorted the way the join
+     *         needs it
+     */
+    public boolean isRightSorted() {
+        return isSortedOn(child2, pred.getField2(), rightAsc);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = isLeftSorted() ? child1 : new ExternalSort(child1,
+                new int[] { pred.getField1() }, new boolean[] { leftAsc }, memoryPages);
+        right = isRightSorted() ? child2 : new ExternalSort(child2,
+                new int[] { pred.getField2() }, new boolean[] { rightAsc }, memoryPages);
+        left.open();
+        right.open();
+        super.open();
+        reset();
+    }
+
+    public void close() {
+        super.close();
+        if (right != null)
+            right.close();
+        if (left != null)
+            left.close();
+        left = null;
+        right = null;
+        group = null;
+        releaseWindow();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        t1 = null;
+        group = new ArrayList<Tuple>();
+        groupPos = 0;
+        t2 = right.hasNext() ? right.next() : null;
+        releaseWindow();
+        windowSize = 0;
+        windowFilled = false;
+    }
+
+    /** Deletes the part of the band join window that was spilled. */
+    private void releaseWindow() {
+        if (windowIt != null) {
+            windowIt.close();
+            windowIt = null;
+        }
+        if (windowFile != null) {
+            windowFile.delete();
+            windowFile = null;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples returned are the concatenation of the joining
+     * tuples from the left and right relation, in the order of the sorted
+     * left relation.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return fetchNextEquals();
+        return fetchNextBand();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && groupPos < group.size())
+                return merge(t1, group.get(groupPos++));
+            if (!left.hasNext())
+                return null;
+            t1 = left.next();
+            groupPos = 0;
+            Field key = t1.getField(pred.getField1());
+            if (!group.isEmpty()
+                    && group.get(0).getField(pred.getField2()).equals(key))
+                continue;
+            // move the right input up to the key, and buffer its tuples
+            // with that key
+            group.clear();
+            while (t2 != null
+                    && t2.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key))
+                t2 = right.hasNext() ? right.next() : null;
+            while (t2 != null && t2.getField(pred.getField2()).equals(key)) {
+                group.add(t2);
+                t2 = right.hasNext() ? right.next() : null;
+            }
+            if (t2 == null && group.isEmpty())
+                return null;
+        }
+    }
+
+    private Tuple fetchNextBand() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && groupPos < windowSize) {
+                Tuple t = nextInWindow();
+                if (pred.filter(t1, t))
+                    return merge(t1, t);
+                // neither this tuple nor those after it match any later
+                // left tuple
+                trimWindow(groupPos - 1);
+            }
+            if (!left.hasNext())
+                return null;
+            t1 = left.next();
+            groupPos = 0;
+            if (windowIt != null) {
+                windowIt.close();
+                windowIt = null;
+            }
+            if (!windowFilled) {
+                fillWindow();
+                windowFilled = true;
+            }
+            // every later left tuple matches less than this one does
+            if (windowSize == 0)
+                return null;
+        }
+    }
+
+    /**
+     * Reads the right tuples that match the first left tuple into the
+     * window, spilling those that do not fit into the memory budget.
+     */
+    private void fillWindow() throws TransactionAbortedException, DbException {
+        int budget = Math.max(1, memoryPages * BufferPool.getPageSize()
+                / right.getTupleDesc().getSize());
+        while (t2 != null && pred.filter(t1, t2)) {
+            if (group.size() < budget) {
+                group.add(t2);
+            } else {
+                if (windowFile == null)
+                    windowFile = new TupleSpillFile(right.getTupleDesc());
+                windowFile.add(t2);
+            }
+            windowSize++;
+            t2 = right.hasNext() ? right.next() : null;
+        }
+    }
+
+    /** @return the next tuple of the window in this pass over it */
+    private Tuple nextInWindow() throws TransactionAbortedException, DbException {
+        int pos = groupPos++;
+        if (pos < group.size())
+            return group.get(pos);
+        if (windowIt == null) {
+            windowIt = windowFile.iterator();
+            windowIt.open();
+        }
+        return windowIt.next();
+    }
+
+    /** Drops the tuples of the window from the given position on. */
+    private void trimWindow(int size) {
+        windowSize = size;
+        groupPos = size;
+        if (size <= group.size()) {
+            group.subList(size, group.size()).clear();
+            releaseWindow();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
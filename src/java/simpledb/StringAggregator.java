@@ -1,9 +1,14 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Like {@link IntegerAggregator}, groups are kept in a hash table keyed by
+ * the group-by field.
  */
 public class StringAggregator implements Aggregator {
 
@@ -17,7 +22,8 @@ public class StringAggregator implements Aggregator {
 	private Op m_op;
 
 	private TupleDesc m_td;
-	private ArrayList<Tuple> tupleGroup;
+	//Running count of each group; the key is null if there is no grouping
+	private LinkedHashMap<Field, AggregateState> m_groups;
 	/**
 	 * Aggregate constructor
 	 * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -50,7 +56,7 @@ public class StringAggregator implements Aggregator {
 			m_td = new TupleDesc(temp);
 		}
 		
-		tupleGroup = new ArrayList<Tuple>();
+		m_groups = new LinkedHashMap<Field, AggregateState>();
 	}
 
 	/**
@@ -58,59 +64,17 @@ public class StringAggregator implements Aggregator {
 	 * @param tup the Tuple containing an aggregate field and a group-by field
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
-
-		if (m_gbfield == Aggregator.NO_GROUPING)
+		//Group of the tuple; all tuples share one group if there is no grouping
+		Field group = m_gbfield == Aggregator.NO_GROUPING ? null : tup.getField(m_gbfield);
+		AggregateState state = m_groups.get(group);
+		if (state == null)
 		{
-			//NO GROUPING
-			if (tupleGroup.size() == 0)
-			{
-				//FIRST TUPLE
-				Tuple curTup = new Tuple(m_td);
-				//Initializing the count to be 1
-				curTup.setField(0, new IntField(1));
-				tupleGroup.add(curTup);
-			}
-			else
-			{
-				//There are already other tuples inserted.
-				Tuple curTup = tupleGroup.get(0);
-				IntField temp = (IntField) curTup.getField(1);
-				//Incrementing the count by 1
-				curTup.setField(0, new IntField(temp.getValue()+1));
-			}
-		}
-		else
-		{
-			//GROUPING
-			Field tupGroup = tup.getField(m_gbfield);
-			Tuple current = null;
-			//Find tuple to Group
-			for (int i = 0; i < tupleGroup.size(); i++)
-			{
-				Tuple temp = tupleGroup.get(i);
-				Field tempField = temp.getField(0);
-				if (tempField.equals(tupGroup))
-				{
-					current = temp;
-				}
-			}
-			//First Tuple to group
-			if (current == null)
-			{
-				current = new Tuple(m_td);
-				//Initializing Count to 1
-				current.setField(0, tupGroup);
-				current.setField(1, new IntField(1));
-				tupleGroup.add(current);
-			}
-			//There are already grouped tuples
-			else
-			{
-				//Incrementing the count
-				IntField temp1 = (IntField) current.getField(1);
-				current.setField(1, new IntField(temp1.getValue()+1));
-			}
+			//First tuple of the group
+			state = new AggregateState();
+			m_groups.put(group, state);
 		}
+		//Incrementing the count
+		state.increment();
 	}
 
 	/**
@@ -122,7 +86,40 @@ public class StringAggregator implements Aggregator {
 	 *   aggregate specified in the constructor.
 	 */
 	public DbIterator iterator() {
+		ArrayList<Tuple> tupleGroup = new ArrayList<Tuple>(m_groups.size());
+		for (Map.Entry<Field, AggregateState> e : m_groups.entrySet())
+		{
+			Tuple t = new Tuple(m_td);
+			int index = 0;
+			if (m_gbfield != Aggregator.NO_GROUPING)
+				t.setField(index++, e.getKey());
+			t.setField(index, new IntField(e.getValue().result(m_op)));
+			tupleGroup.add(t);
+		}
 		return new TupleIterator(m_td, tupleGroup);
 	}
 
+	public int numGroups() {
+		return m_groups.size();
+	}
+
+	public boolean containsGroup(Field group) {
+		return m_groups.containsKey(group);
+	}
+
+	public void merge(Aggregator other) {
+		if (!(other instanceof StringAggregator))
+			throw new IllegalArgumentException("cannot merge a " + other.getClass().getSimpleName());
+		for (Map.Entry<Field, AggregateState> e : ((StringAggregator) other).m_groups.entrySet())
+		{
+			AggregateState state = m_groups.get(e.getKey());
+			if (state == null)
+			{
+				state = new AggregateState();
+				m_groups.put(e.getKey(), state);
+			}
+			state.merge(e.getValue());
+		}
+	}
+
 }
@@ -77,7 +77,17 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		return compare(value, op, iVal.value);
+	}
+
+	/**
+	 * Compares two strings the way {@link #compare(Predicate.Op, Field)}
+	 * compares StringFields, without having to wrap them.
+	 *
+	 * @return true if "value op operand" holds
+	 */
+	public static boolean compare(String value, Predicate.Op op, String operand) {
+		int cmpVal = value.compareTo(operand);
 
 		switch (op) {
 		case EQUALS:
@@ -99,7 +109,7 @@ public class StringField implements Field {
 			return cmpVal <= 0;
 
 		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+			return value.indexOf(operand) >= 0;
 		}
 
 		return false;
@@ -124,6 +124,51 @@ public class TableStats {
 		return temp.numPages() * m_ioCostPerPage;
 	}
 
+	/**
+	 * Estimates the cost of reading the tuples that satisfy a predicate
+	 * through an index instead: a page of the index for the lookup and one
+	 * per leaf of matching entries, plus the pages of the table the matching
+	 * tuples are on. The entries of one key are in RecordId order, so an
+	 * equality lookup reads each table page once, and the number of pages it
+	 * touches follows Cardenas' formula. The entries of a range are in key
+	 * order, so every tuple of a range may cost a page read of its own.
+	 *
+	 * @param op The operator of the predicate
+	 * @param selectivityFactor The selectivity of the predicate
+	 * @return The estimated cost of the index scan, in the units of
+	 *         {@link #estimateScanCost()}
+	 */
+	public double estimateIndexScanCost(Predicate.Op op, double selectivityFactor) {
+		double pages = ((HeapFile) m_file).numPages();
+		double matches = estimateTableCardinality(selectivityFactor);
+		double tablePages;
+		if (op == Predicate.Op.EQUALS && pages > 0)
+			tablePages = pages * (1 - Math.pow(1 - 1 / pages, matches));
+		else
+			tablePages = matches;
+		double indexPages = 1 + Math.ceil(matches / BTreePage.capacity(BTreePage.LEAF));
+		return (indexPages + tablePages) * m_ioCostPerPage;
+	}
+
+	/**
+	 * Estimates the cost of reading the tuples that satisfy predicates on
+	 * bitmap-indexed fields with a {@link BitmapHeapScan}. The bitmaps are in
+	 * memory, and the scan reads each table page with a matching tuple once,
+	 * so the cost is that of the pages Cardenas' formula expects the
+	 * matching tuples to be on, whatever the operators.
+	 *
+	 * @param selectivityFactor The selectivity of the predicates together
+	 * @return The estimated cost of the bitmap heap scan, in the units of
+	 *         {@link #estimateScanCost()}
+	 */
+	public double estimateBitmapScanCost(double selectivityFactor) {
+		double pages = ((HeapFile) m_file).numPages();
+		double matches = estimateTableCardinality(selectivityFactor);
+		if (pages == 0)
+			return 0;
+		return pages * (1 - Math.pow(1 - 1 / pages, matches)) * m_ioCostPerPage;
+	}
+
 	/** 
 	 * This method returns the number of tuples in the relation,
 	 * given that a predicate with selectivity selectivityFactor is
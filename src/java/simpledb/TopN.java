@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an ORDER BY that only returns the first N tuples of the ordering.
+ * Rather than sorting its whole input it keeps the best N tuples seen so far
+ * in a bounded heap, so it needs memory for N tuples however large the input
+ * is, and about log N comparisons for every tuple that makes it into the
+ * heap.
+ */
+public class TopN extends OrderBy {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, DbIterator child) {
+        super(orderbyFields, asc, child);
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        this.limit = limit;
+    }
+
+    /** @return the number of tuples returned at most */
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    protected DbIterator newSort(DbIterator child) {
+        return new BoundedSort(child,
+                new TupleComparator(getOrderByFields(), getAscending()));
+    }
+
+    /** Keeps the first tuples of the ordering in a heap of limit tuples. */
+    private class BoundedSort extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private DbIterator child;
+        private final TupleComparator order;
+        private transient ArrayList<Tuple> top;
+        private transient Iterator<Tuple> it;
+
+        BoundedSort(DbIterator child, TupleComparator order) {
+            this.child = child;
+            this.order = order;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, NoSuchElementException,
+                TransactionAbortedException {
+            child.open();
+            // the head of the heap is the worst of the tuples kept
+            PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, limit),
+                    Collections.reverseOrder(order));
+            if (limit > 0) {
+                while (child.hasNext()) {
+                    Tuple t = child.next();
+                    if (heap.size() < limit) {
+                        heap.add(t);
+                    } else if (order.compare(t, heap.peek()) < 0) {
+                        heap.poll();
+                        heap.add(t);
+                    }
+                }
+            }
+            top = new ArrayList<Tuple>(heap);
+            Collections.sort(top, order);
+            it = top.iterator();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            top = null;
+            it = null;
+        }
+
+        public void rewind() {
+            it = top.iterator();
+        }
+
+        protected Tuple fetchNext() {
+            if (it != null && it.hasNext())
+                return it.next();
+            return null;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+/**
+ * A batch of rows stored column by column, the unit {@link BatchIterator}s
+ * pass between each other. Integer columns are plain int arrays and string
+ * columns arrays of Strings, so operators can work on a whole column in a
+ * tight loop without a Tuple or Field per row.
+ * <p>
+ * A batch may carry a selection vector, the ascending indexes of the rows
+ * that are part of the result; rows not in it were filtered out but are
+ * still stored. Without a selection vector all rows are selected. Loops
+ * over a batch therefore visit {@code row(0)} to
+ * {@code row(numSelected() - 1)}.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    // one of the two is set for every column, depending on its type
+    private final int[][] ints;
+    private final String[][] strings;
+    private int size;
+    private int[] selection;
+    private int selected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the TupleDesc of the rows
+     * @param capacity
+     *            the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a batch needs room for at least one row");
+        this.td = td;
+        this.capacity = capacity;
+        ints = new int[td.numFields()][];
+        strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+    }
+
+    /** A view of the columns of another batch. */
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows stored, selected or not */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Removes all rows and the selection vector. */
+    public void clear() {
+        size = 0;
+        selection = null;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return selection == null ? size : selected;
+    }
+
+    /** @return the index of the i-th selected row */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * Restricts the rows of the batch to those in a selection vector.
+     *
+     * @param rows
+     *            the indexes of the selected rows, ascending; the batch
+     *            keeps the array
+     * @param count
+     *            the number of entries of rows that are used
+     */
+    public void select(int[] rows, int count) {
+        selection = rows;
+        selected = count;
+    }
+
+    /** @return the selection vector, or null if all rows are selected */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return the values of an integer column, indexed by row; only the
+     *         first {@link #size()} entries are rows
+     */
+    public int[] ints(int column) {
+        return ints[column];
+    }
+
+    /**
+     * @return the values of a string column, indexed by row; only the first
+     *         {@link #size()} entries are rows
+     */
+    public String[] strings(int column) {
+        return strings[column];
+    }
+
+    public int getInt(int column, int row) {
+        return ints[column][row];
+    }
+
+    public String getString(int column, int row) {
+        return strings[column][row];
+    }
+
+    /**
+     * Adds a row to the batch; its values are set with {@link #setInt} and
+     * {@link #setString}. Adding rows is only allowed as long as there is no
+     * selection vector.
+     *
+     * @return the index of the new row
+     */
+    public int appendRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (selection != null)
+            throw new IllegalStateException("cannot add rows to a filtered batch");
+        return size++;
+    }
+
+    public void setInt(int column, int row, int value) {
+        ints[column][row] = value;
+    }
+
+    public void setString(int column, int row, String value) {
+        strings[column][row] = value;
+    }
+
+    /** Adds a row with the values of a tuple. */
+    public void addTuple(Tuple t) {
+        int row = appendRow();
+        for (int i = 0; i < ints.length; i++) {
+            Field f = t.getField(i);
+            if (ints[i] != null)
+                ints[i][row] = ((IntField) f).getValue();
+            else
+                strings[i][row] = ((StringField) f).getValue();
+        }
+    }
+
+    /** @return the value of a row in a column, as a Field */
+    public Field getField(int column, int row) {
+        if (ints[column] != null)
+            return new IntField(ints[column][row]);
+        return new StringField(strings[column][row], Type.STRING_LEN);
+    }
+
+    /** @return a tuple with the values of a row */
+    public Tuple toTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++)
+            t.setField(i, getField(i, row));
+        return t;
+    }
+
+    /**
+     * Returns a batch with some of the columns of this one, in a different
+     * order. The new batch shares the column arrays and the selection
+     * vector with this one, so nothing is copied.
+     *
+     * @param columns
+     *            the columns of this batch that make up the new one
+     * @param td
+     *            the TupleDesc of the new batch
+     */
+    public TupleBatch project(int[] columns, TupleDesc td) {
+        int[][] projectedInts = new int[columns.length][];
+        String[][] projectedStrings = new String[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            projectedInts[i] = ints[columns[i]];
+            projectedStrings[i] = strings[columns[i]];
+        }
+        TupleBatch b = new TupleBatch(td, capacity, projectedInts, projectedStrings);
+        b.size = size;
+        b.selection = selection;
+        b.selected = selected;
+        return b;
+    }
+}
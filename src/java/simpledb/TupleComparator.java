@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * TupleComparator orders tuples by one or more of their fields. Tuples are
+ * compared on the first key field, ties are broken by the second, and so on;
+ * every key field is sorted either ascending or descending.
+ */
+class TupleComparator implements Comparator<Tuple>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final boolean[] asc;
+
+    /**
+     * Creates a comparator on a single field.
+     * 
+     * @param field
+     *            the index of the field to compare
+     * @param asc
+     *            true if the field is sorted ascending
+     */
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * Creates a comparator on several fields.
+     * 
+     * @param fields
+     *            the indexes of the key fields, most significant first
+     * @param asc
+     *            for each key field, true if it is sorted ascending
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException("need a direction for each of at least one field");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    /** @return the number of key fields */
+    public int numFields() {
+        return fields.length;
+    }
+
+    /** @return the index of the i-th key field */
+    public int getField(int i) {
+        return fields[i];
+    }
+
+    /** @return true if the i-th key field is sorted ascending */
+    public boolean isAscending(int i) {
+        return asc[i];
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = o1.getField(fields[i]);
+            Field t2 = o2.getField(fields[i]);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                continue;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc[i] ? 1 : -1;
+            else
+                return asc[i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+}
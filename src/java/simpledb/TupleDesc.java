@@ -39,6 +39,7 @@ public class TupleDesc implements Serializable {
 	//PRIVATE
 	private Type [] m_type; //Stores type of ith field. 
 	private String [] m_name; //Stores name of ith field.
+	private transient int [] m_offsets; //Byte offset of ith field, computed on first use.
 	//PRIVATE    
 
 	/**
@@ -155,6 +156,27 @@ public class TupleDesc implements Serializable {
 		return size;
 	}
 
+	/**
+	 * @return the offset (in bytes) of the ith field from the start of a
+	 *         tuple with this TupleDesc, as laid out on a HeapPage.
+	 * @param i
+	 *            index of the field. It must be a valid index.
+	 */
+	public int getFieldOffset(int i) 
+	{
+		int[] offsets = m_offsets;
+		if (offsets == null) 
+		{
+			offsets = new int[m_type.length];
+			for (int j = 1; j < m_type.length; j++) 
+			{
+				offsets[j] = offsets[j - 1] + m_type[j - 1].getLen();
+			}
+			m_offsets = offsets;
+		}
+		return offsets[i];
+	}
+
 	/**
 	 * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
 	 * with the first td1.numFields coming from td1 and the remaining from td2.
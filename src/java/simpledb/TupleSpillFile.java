@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleSpillFile is a temporary file that operators write tuples to when
+ * they run out of memory, and read back sequentially later. Tuples are
+ * stored back to back in the fixed-size format used on HeapPages (see
+ * {@link Field#serialize}); record ids are not kept.
+ * <p>
+ * A spill file is written first and read afterwards: once
+ * {@link #iterator()} has been called no more tuples can be added. The file
+ * is removed by {@link #delete()}, which the operators that spill call on
+ * every file they create when they are closed.
+ * <p>
+ * Reads and writes are buffered one page ({@link BufferPool#getPageSize()})
+ * at a time, so that an operator can count every open spill file as one
+ * page of its memory budget.
+ */
+public class TupleSpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Creates an empty spill file for tuples of the given TupleDesc.
+     *
+     * @throws DbException
+     *             if the temporary file cannot be created
+     */
+    public TupleSpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb-spill", ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BufferPool.getPageSize()));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return the TupleDesc of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written to this file */
+    public int size() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes the tuples in this file take up */
+    public long sizeInBytes() {
+        return (long) numTuples * td.getSize();
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException
+     *             if the file is already being read
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is no longer being written");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    /** Flushes and closes the writer, if it is still open. */
+    private void finishWriting() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        } finally {
+            out = null;
+        }
+    }
+
+    /**
+     * Finishes writing the file and returns an iterator over its tuples, in
+     * the order they were added. Several iterators may read the file at the
+     * same time.
+     */
+    public DbIterator iterator() throws DbException {
+        finishWriting();
+        return new SpillFileIterator();
+    }
+
+    /** Deletes the file; iterators over it must not be used afterwards. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class SpillFileIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            close();
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BufferPool.getPageSize()));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            return in != null && read < numTuples;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (java.text.ParseException e) {
+                throw new DbException("corrupt spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+                in = null;
+            }
+        }
+    }
+}
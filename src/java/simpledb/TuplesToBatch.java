@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * Adapts a {@link DbIterator} to a {@link BatchIterator}, so that any
+ * operator can feed a batch operator. Collects the tuples of its child into
+ * batches.
+ */
+public class TuplesToBatch implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child
+     *            the operator whose tuples to collect
+     */
+    public TuplesToBatch(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param batchSize
+     *            the number of rows per batch
+     * @see #TuplesToBatch(DbIterator)
+     */
+    public TuplesToBatch(DbIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), batchSize);
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.size() > 0 ? batch : null;
+    }
+}
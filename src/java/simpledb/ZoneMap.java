@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ZoneMap remembers the smallest and largest value of every INT_TYPE field
+ * on each page of a HeapFile, so that a scan with predicates can skip the
+ * pages none of whose tuples can satisfy them without reading those pages
+ * through the BufferPool.
+ * <p>
+ * Like the {@link FreeSpaceMap}, the map is kept in memory and persisted in
+ * a side file next to the heap file (the data file's name with ".zm"
+ * appended) that holds, for each page, the minimum and maximum of each int
+ * field as two 4-byte ints; an empty page has a minimum greater than its
+ * maximum. A page's entry on disk is recomputed from the page whenever the
+ * page itself is written. In memory, an insert widens the entry of its page
+ * at once, and a delete of a tuple that held a minimum or maximum
+ * recomputes it, so the map always covers the pages as the BufferPool has
+ * them. A side file whose length does not match the heap file, or that is
+ * older than it, is ignored and rebuilt by reading every page.
+ * <p>
+ * Unlike the free-space counts, the ranges are not hints: a page whose
+ * range rules a predicate out must really have no tuple that satisfies it.
+ *
+ * @see HeapFile#iterator(TransactionId, Predicate[])
+ */
+public class ZoneMap {
+
+	private final File m_file;
+	private final File m_dataFile;
+	/** For each field of the tuples, its column in the map, or -1. */
+	private final int[] m_column;
+	private final int m_numColumns;
+	private RandomAccessFile m_raf;
+	/** For each page, the minimum and maximum of each column. */
+	private int[] m_bounds;
+	private int m_numPages;
+
+	/**
+	 * @param dataFile the heap file described by this map
+	 * @param td the TupleDesc of the file's tuples
+	 */
+	public ZoneMap(File dataFile, TupleDesc td) {
+		m_file = sideFile(dataFile);
+		m_dataFile = dataFile;
+		m_column = new int[td.numFields()];
+		int columns = 0;
+		for (int i = 0; i < td.numFields(); i++)
+			m_column[i] = td.getFieldType(i) == Type.INT_TYPE ? columns++ : -1;
+		m_numColumns = columns;
+	}
+
+	/** @return the side file the map of a heap file is persisted in */
+	static File sideFile(File dataFile) {
+		return new File(dataFile.getPath() + ".zm");
+	}
+
+	/** @return the side file the map is persisted in */
+	public File getFile() {
+		return m_file;
+	}
+
+	private int entrySize() {
+		return 8 * m_numColumns;
+	}
+
+	/**
+	 * Loads the map for a heap file, rebuilding it from the pages of the
+	 * file if the side file is missing or out of date. Does nothing if the
+	 * map has already been loaded.
+	 */
+	public synchronized void load(HeapFile data) throws IOException {
+		if (m_bounds != null)
+			return;
+		int numPages = data.numPages();
+		m_bounds = new int[2 * m_numColumns * Math.max(16, numPages)];
+		m_numPages = numPages;
+		boolean current = m_file.exists() && m_file.lastModified() >= m_dataFile.lastModified();
+		m_raf = new RandomAccessFile(m_file, "rw");
+		if (current && m_raf.length() == (long) numPages * entrySize()) {
+			byte[] entries = new byte[numPages * entrySize()];
+			m_raf.readFully(entries);
+			ByteBuffer buf = ByteBuffer.wrap(entries);
+			for (int i = 0; i < 2 * m_numColumns * numPages; i++)
+				m_bounds[i] = buf.getInt();
+		} else {
+			rebuild(data);
+		}
+	}
+
+	/**
+	 * Recomputes the entry of every page from the page as it is on disk and
+	 * rewrites the side file.
+	 */
+	private void rebuild(HeapFile data) throws IOException {
+		ByteBuffer entries = ByteBuffer.allocate(m_numPages * entrySize());
+		for (int i = 0; i < m_numPages; i++) {
+			Page page = data.readPage(new HeapPageId(data.getId(), i));
+			if (page == null)
+				throw new IOException("could not read page " + i + " of " + m_dataFile);
+			compute(i, (HeapPage) page);
+			for (int j = 0; j < 2 * m_numColumns; j++)
+				entries.putInt(m_bounds[2 * m_numColumns * i + j]);
+		}
+		m_raf.setLength(0);
+		m_raf.write(entries.array());
+	}
+
+	/** Makes room for the entries of the pages up to pageNo, empty. */
+	private void grow(int pageNo) {
+		int needed = 2 * m_numColumns * (pageNo + 1);
+		if (needed > m_bounds.length)
+			m_bounds = Arrays.copyOf(m_bounds, Math.max(needed, 2 * m_bounds.length));
+		for (; m_numPages <= pageNo; m_numPages++)
+			clear(m_numPages);
+	}
+
+	private void clear(int pageNo) {
+		int base = 2 * m_numColumns * pageNo;
+		for (int c = 0; c < m_numColumns; c++) {
+			m_bounds[base + 2 * c] = Integer.MAX_VALUE;
+			m_bounds[base + 2 * c + 1] = Integer.MIN_VALUE;
+		}
+	}
+
+	/** Widens the entry of a page to include the values of a tuple. */
+	private void widen(int pageNo, Tuple t) {
+		int base = 2 * m_numColumns * pageNo;
+		for (int i = 0; i < m_column.length; i++) {
+			int c = m_column[i];
+			if (c < 0)
+				continue;
+			int v = ((IntField) t.getField(i)).getValue();
+			if (v < m_bounds[base + 2 * c])
+				m_bounds[base + 2 * c] = v;
+			if (v > m_bounds[base + 2 * c + 1])
+				m_bounds[base + 2 * c + 1] = v;
+		}
+	}
+
+	/** Sets the entry of a page to the ranges of the tuples on it. */
+	private void compute(int pageNo, HeapPage page) {
+		grow(pageNo);
+		clear(pageNo);
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext())
+			widen(pageNo, it.next());
+	}
+
+	/**
+	 * @return false if no tuple on the page can satisfy all of the
+	 *         predicates, true if one may
+	 */
+	public synchronized boolean mayMatch(int pageNo, Predicate[] predicates) {
+		if (m_bounds == null || pageNo >= m_numPages || predicates == null)
+			return true;
+		int base = 2 * m_numColumns * pageNo;
+		for (Predicate p : predicates) {
+			int c = p.getField() < m_column.length ? m_column[p.getField()] : -1;
+			if (c < 0 || !(p.getOperand() instanceof IntField))
+				continue;
+			int min = m_bounds[base + 2 * c], max = m_bounds[base + 2 * c + 1];
+			if (min > max)
+				return false;
+			int v = ((IntField) p.getOperand()).getValue();
+			boolean possible;
+			switch (p.getOp()) {
+			case EQUALS:
+			case LIKE:
+				possible = min <= v && v <= max;
+				break;
+			case GREATER_THAN:
+				possible = max > v;
+				break;
+			case GREATER_THAN_OR_EQ:
+				possible = max >= v;
+				break;
+			case LESS_THAN:
+				possible = min < v;
+				break;
+			case LESS_THAN_OR_EQ:
+				possible = min <= v;
+				break;
+			case NOT_EQUALS:
+				possible = min != v || max != v;
+				break;
+			default:
+				possible = true;
+			}
+			if (!possible)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the smallest value of an INT_TYPE field on a page, or
+	 *         Integer.MAX_VALUE if the page is empty
+	 */
+	public synchronized int getMin(int pageNo, int field) {
+		return m_bounds[2 * m_numColumns * pageNo + 2 * m_column[field]];
+	}
+
+	/**
+	 * @return the largest value of an INT_TYPE field on a page, or
+	 *         Integer.MIN_VALUE if the page is empty
+	 */
+	public synchronized int getMax(int pageNo, int field) {
+		return m_bounds[2 * m_numColumns * pageNo + 2 * m_column[field] + 1];
+	}
+
+	/** Records that a tuple has been inserted into a page. */
+	public synchronized void tupleInserted(int pageNo, Tuple t) {
+		grow(pageNo);
+		widen(pageNo, t);
+	}
+
+	/**
+	 * Records that a tuple has been deleted from a page, recomputing the
+	 * page's entry if the tuple held one of its bounds.
+	 */
+	public synchronized void tupleDeleted(HeapPage page, Tuple t) {
+		int pageNo = page.getId().pageNumber();
+		if (pageNo >= m_numPages)
+			return;
+		int base = 2 * m_numColumns * pageNo;
+		for (int i = 0; i < m_column.length; i++) {
+			int c = m_column[i];
+			if (c < 0)
+				continue;
+			int v = ((IntField) t.getField(i)).getValue();
+			if (v == m_bounds[base + 2 * c] || v == m_bounds[base + 2 * c + 1]) {
+				compute(pageNo, page);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Records that a page has been written to the heap file, updating both
+	 * the map and its side file.
+	 */
+	public synchronized void pageWritten(HeapPage page) throws IOException {
+		int pageNo = page.getId().pageNumber();
+		compute(pageNo, page);
+		ByteBuffer entry = ByteBuffer.allocate(entrySize());
+		for (int j = 0; j < 2 * m_numColumns; j++)
+			entry.putInt(m_bounds[2 * m_numColumns * pageNo + j]);
+		entry.flip();
+		if (m_raf == null)
+			m_raf = new RandomAccessFile(m_file, "rw");
+		FileChannel ch = m_raf.getChannel();
+		long offset = (long) pageNo * entrySize();
+		while (entry.hasRemaining())
+			ch.write(entry, offset + entry.position());
+	}
+
+	/**
+	 * Closes the side file. The map stays loaded; the side file is opened
+	 * again when a page is next written.
+	 */
+	public synchronized void close() throws IOException {
+		if (m_raf != null) {
+			m_raf.close();
+			m_raf = null;
+		}
+	}
+}
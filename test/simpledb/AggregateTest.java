@@ -3,12 +3,15 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.*;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +179,119 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /** @return the tuples of an opened iterator, as sorted strings */
+  /**
+   * Unit test for an Aggregate that computes several aggregates in one pass,
+   * in memory and spilling
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Random r = new Random(17);
+    int[] data = new int[30000 * 2];
+    for (int i = 0; i < data.length; i++)
+      data[i] = r.nextInt(20000);
+    Aggregator.Op[] ops = new Aggregator.Op[] { Aggregator.Op.COUNT,
+        Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG };
+
+    // expected rows: the group followed by each aggregate computed alone
+    Map<Integer, List<Integer>> rows = new HashMap<Integer, List<Integer>>();
+    for (Aggregator.Op op : ops) {
+      Aggregate single = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0, op);
+      single.open();
+      while (single.hasNext()) {
+        Tuple t = single.next();
+        int g = ((IntField) t.getField(0)).getValue();
+        if (!rows.containsKey(g))
+          rows.put(g, new ArrayList<Integer>());
+        rows.get(g).add(((IntField) t.getField(1)).getValue());
+      }
+      single.close();
+    }
+    TupleDesc td = Utility.getTupleDesc(ops.length + 1);
+    List<String> expected = new ArrayList<String>();
+    for (Map.Entry<Integer, List<Integer>> e : rows.entrySet()) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(e.getKey()));
+      for (int i = 0; i < ops.length; i++)
+        t.setField(i + 1, new IntField(e.getValue().get(i)));
+      expected.add(t.toString());
+    }
+    Collections.sort(expected);
+
+    int[] afields = new int[] { 1, 1, 1, 1 };
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(width1, data), afields, 0, ops);
+    assertEquals(ops.length + 1, inMemory.getTupleDesc().numFields());
+    inMemory.open();
+    assertEquals(expected, TestUtil.drain(inMemory));
+    inMemory.close();
+
+    Aggregate spilling = new Aggregate(TestUtil.createTupleList(width1, data), afields, 0, ops, 1);
+    spilling.open();
+    assertEquals(expected, TestUtil.drain(spilling));
+    assertTrue(spilling.getSpilledPartitionCount() > 0);
+    spilling.close();
+  }
+
+  /** The parser accepts several aggregates in the SELECT list. */
+  @Test public void parseMultipleAggregates() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 50, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c0, MAX(t.c1), COUNT(t.c1) FROM t GROUP BY t.c0;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    DbIterator max = new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, 0, Aggregator.Op.MAX);
+    DbIterator count = new Aggregate(new SeqScan(tid, f.getId(), "t"), 1, 0, Aggregator.Op.COUNT);
+    plan.open();
+    max.open();
+    count.open();
+    int rows = 0;
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      Tuple m = max.next();
+      Tuple c = count.next();
+      assertEquals(m.getField(0), t.getField(0));
+      assertEquals(m.getField(1), t.getField(1));
+      assertEquals(c.getField(1), t.getField(2));
+      rows++;
+    }
+    assertTrue(TestUtil.checkExhausted(max));
+    assertTrue(rows > 0);
+    plan.close();
+    max.close();
+    count.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * 20000 groups do not fit into a single page (512 groups), so tuples have
+   * to be partitioned to disk; every op must still give the in-memory result.
+   */
+  @Test public void spillingAggregate() throws Exception {
+    Random r = new Random(13);
+    int[] data = new int[30000 * 2];
+    for (int i = 0; i < data.length; i++)
+      data[i] = r.nextInt(20000);
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      Aggregate inMemory = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0, op);
+      inMemory.open();
+      List<String> expected = TestUtil.drain(inMemory);
+      assertEquals(0, inMemory.getSpilledPartitionCount());
+      inMemory.close();
+
+      Aggregate spilling = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0, op, 1);
+      spilling.open();
+      assertEquals(expected, TestUtil.drain(spilling));
+      assertTrue(spilling.getSpilledPartitionCount() > 0);
+      spilling.rewind();
+      assertEquals(expected, TestUtil.drain(spilling));
+      spilling.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,353 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+
+    private HeapFile f;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, 6000, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(f, "t");
+    }
+
+    private List<Tuple> tableTuples(TransactionId tid) throws Exception {
+        List<Tuple> result = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    /** @return the rows whose field 1 satisfies "c1 op value", sorted */
+    private List<String> expected(Predicate.Op op, int value) {
+        List<String> rows = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples)
+            if (new IntField(t.get(1)).compare(op, new IntField(value)))
+                rows.add(t.toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @return the tuples of the RecordIds of a lookup, sorted */
+    private static List<String> lookup(TransactionId tid, IndexFile index, Predicate.Op op,
+            int value) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        DbFileIterator it = new IndexFileIterator(tid, index, index.lookup(tid, op, value), null);
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()).toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private void checkLookups(TransactionId tid, IndexFile index) throws Exception {
+        for (Predicate.Op op : OPS)
+            for (int value : new int[] { -1, 0, 17, 500, 999, 1000 })
+                assertEquals(op + " " + value, expected(op, value), lookup(tid, index, op, value));
+    }
+
+    /** @return the keys of the whole index, in the order it returns them */
+    private static List<Integer> keys(TransactionId tid, IndexFile index) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(index.getKeyField())).getValue());
+        it.close();
+        return keys;
+    }
+
+    private static void assertSorted(List<Integer> keys) {
+        for (int i = 1; i < keys.size(); i++)
+            assertTrue(keys.get(i - 1) <= keys.get(i));
+    }
+
+    /**
+     * Entries inserted one at a time split leaves and internal pages, and
+     * every lookup finds exactly the tuples that satisfy it.
+     */
+    @Test public void insertAndLookup() throws Exception {
+        BTreeFile index = new BTreeFile(TestUtil.tempFile(".idx"), f.getId(), 1);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        assertEquals(0, keys(tid, index).size());
+        for (Tuple t : tableTuples(tid))
+            index.insertTuple(tid, t);
+        int leaves = tuples.size() / BTreePage.capacity(BTreePage.LEAF);
+        assertTrue(index.numPages() > leaves + 2);
+        checkLookups(tid, index);
+        List<Integer> keys = keys(tid, index);
+        assertEquals(tuples.size(), keys.size());
+        assertSorted(keys);
+        assertFalse(index.supports(Predicate.Op.NOT_EQUALS));
+
+        // the same entry cannot be added twice
+        try {
+            index.insertTuple(tid, tableTuples(tid).get(0));
+            assertTrue(false);
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Enough internal entries to split internal pages too, with a small
+     * page size.
+     */
+    @Test public void deepTree() throws Exception {
+        BufferPool.setPageSize(256);
+        try {
+            File file = TestUtil.tempFile(".idx");
+            BTreeFile index = new BTreeFile(file, f.getId(), 1);
+            Database.getCatalog().addIndex(index);
+            TransactionId tid = new TransactionId();
+            // the table's pages have the default size, so its tuples are
+            // made up rather than read
+            List<Tuple> all = new ArrayList<Tuple>();
+            for (ArrayList<Integer> row : tuples) {
+                Tuple t = new Tuple(f.getTupleDesc());
+                for (int j = 0; j < row.size(); j++)
+                    t.setField(j, new IntField(row.get(j)));
+                t.setRecordId(new RecordId(new HeapPageId(f.getId(), all.size() / 100),
+                        all.size() % 100));
+                all.add(t);
+            }
+            for (Tuple t : all)
+                index.insertTuple(tid, t);
+            int count = 0;
+            IndexIterator it = index.lookup(tid, Predicate.Op.GREATER_THAN_OR_EQ, 300);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            assertEquals(expected(Predicate.Op.GREATER_THAN_OR_EQ, 300).size(), count);
+            BTreePage meta = (BTreePage) Database.getBufferPool().getPage(tid,
+                    new BTreePageId(index.getId(), 0), Permissions.READ_ONLY);
+            BTreePage root = (BTreePage) Database.getBufferPool().getPage(tid,
+                    new BTreePageId(index.getId(), meta.getRoot()), Permissions.READ_ONLY);
+            BTreePage child = (BTreePage) Database.getBufferPool().getPage(tid,
+                    new BTreePageId(index.getId(), root.getChild(0)), Permissions.READ_ONLY);
+            assertEquals(BTreePage.INTERNAL, child.getType());
+
+            for (Tuple t : all)
+                if (t.getRecordId().tupleno() % 2 == 0)
+                    index.deleteTuple(tid, t);
+            it = index.lookup(tid, Predicate.Op.LESS_THAN_OR_EQ, Integer.MAX_VALUE);
+            it.open();
+            count = 0;
+            while (it.hasNext()) {
+                assertEquals(1, it.next().tupleno() % 2);
+                count++;
+            }
+            it.close();
+            assertEquals(all.size() / 2, count);
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+        }
+    }
+
+    /**
+     * A bulk-loaded index answers lookups like one built by inserts, and
+     * takes further inserts and deletes.
+     */
+    @Test public void buildInsertAndDelete() throws Exception {
+        BTreeFile index = BTreeFile.build(TestUtil.tempFile(".idx"), f.getId(), 1);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        checkLookups(tid, index);
+        List<Integer> keys = keys(tid, index);
+        assertEquals(tuples.size(), keys.size());
+        assertSorted(keys);
+
+        // deleting from and re-inserting into full leaves
+        List<Tuple> all = tableTuples(tid);
+        for (int i = 0; i < all.size(); i += 3)
+            index.deleteTuple(tid, all.get(i));
+        assertEquals(all.size() - (all.size() + 2) / 3, keys(tid, index).size());
+        for (int i = 0; i < all.size(); i += 3)
+            index.insertTuple(tid, all.get(i));
+        checkLookups(tid, index);
+        try {
+            index.deleteTuple(tid, all.get(0));
+            index.deleteTuple(tid, all.get(0));
+            assertTrue(false);
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The buffer pool keeps the indexes of a table up to date. */
+    @Test public void maintainedByBufferPool() throws Exception {
+        BTreeFile index = BTreeFile.build(TestUtil.tempFile(".idx"), f.getId(), 1);
+        Database.getCatalog().addIndex(index);
+        assertEquals(Arrays.asList((IndexFile) index), Database.getCatalog().getIndexes(f.getId()));
+        assertEquals(index, Database.getCatalog().getIndex(f.getId(), 1, Predicate.Op.LESS_THAN));
+        assertEquals(null, Database.getCatalog().getIndex(f.getId(), 1, Predicate.Op.NOT_EQUALS));
+        assertEquals(null, Database.getCatalog().getIndex(f.getId(), 0, Predicate.Op.EQUALS));
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(5000));
+        t.setField(2, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        List<String> found = lookup(tid, index, Predicate.Op.EQUALS, 5000);
+        assertEquals(Arrays.asList("[1, 5000, 3]"), found);
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, lookup(tid, index, Predicate.Op.EQUALS, 5000).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean containsIndexScan(DbIterator plan) {
+        if (plan instanceof IndexScan)
+            return true;
+        if (plan instanceof Operator)
+            for (DbIterator child : ((Operator) plan).getChildren())
+                if (child != null && containsIndexScan(child))
+                    return true;
+        return false;
+    }
+
+    /**
+     * IndexScan returns the matching tuples, and the planner uses it for
+     * selective predicates on indexed fields only.
+     */
+    @Test public void indexScanPlans() throws Exception {
+        BTreeFile index = BTreeFile.build(TestUtil.tempFile(".idx"), f.getId(), 1);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, index, "t", Predicate.Op.LESS_THAN, 20);
+        assertEquals("t.c1", scan.getTupleDesc().getFieldName(1));
+        assertEquals(expected(Predicate.Op.LESS_THAN, 20), TestUtil.executeLists(scan));
+
+        // with narrow tuples nearly every page holds a match anyway
+        TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+        Parser parser = new Parser();
+        LogicalPlan lp = parser.generateLogicalPlan(tid, "SELECT * FROM t WHERE t.c1 = 17;");
+        assertFalse(containsIndexScan(lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+
+        // wide tuples: few per page
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile wide = SystemTestUtil.createRandomHeapFile(20, 3000, 1000, null, rows, "c");
+        Database.getCatalog().addTable(wide, "w");
+        Database.getCatalog().addIndex(BTreeFile.build(TestUtil.tempFile(".idx"), wide.getId(), 1));
+        TableStats.setTableStats("w", new TableStats(wide.getId(), 1));
+        lp = parser.generateLogicalPlan(tid,
+                "SELECT * FROM w WHERE w.c1 = 17 AND w.c0 < 500;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(containsIndexScan(plan));
+        List<String> matches = new ArrayList<String>();
+        for (ArrayList<Integer> t : rows)
+            if (t.get(1) == 17 && t.get(0) < 500)
+                matches.add(t.toString());
+        Collections.sort(matches);
+        assertEquals(matches, TestUtil.executeLists(plan));
+
+        // most of the table qualifies: scanning it is cheaper
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM w WHERE w.c1 > 17;");
+        assertFalse(containsIndexScan(lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+        // no index on c0
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM w WHERE w.c0 = 17;");
+        assertFalse(containsIndexScan(lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Schema files declare indexes, which are built when first loaded. */
+    @Test public void schemaIndex() throws Exception {
+        File dir = f.getFile().getParentFile();
+        String name = "idx" + SystemTestUtil.getUUID().replace("-", "");
+        File data = new File(dir, name + ".dat");
+        HeapFile.deleteOnExit(data);
+        File idx = new File(dir, name + ".c1.idx");
+        idx.deleteOnExit();
+        copy(f.getFile(), data);
+        File schema = new File(dir, name + ".txt");
+        schema.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(schema));
+        out.println(name + " (c0 int, c1 int, c2 int)");
+        out.println("index " + name + " (c1)");
+        out.close();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableid = Database.getCatalog().getTableId(name);
+        IndexFile index = Database.getCatalog().getIndex(tableid, 1, Predicate.Op.EQUALS);
+        assertNotNull(index);
+        assertTrue(idx.length() > 0);
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples.size(), keys(tid, index).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the existing file is opened the second time
+        long length = idx.length();
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertEquals(length, idx.length());
+        tableid = Database.getCatalog().getTableId(name);
+        assertEquals(1, Database.getCatalog().getIndexes(tableid).size());
+
+        // an index older than a regenerated table is rebuilt rather than read
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, 1000000 + i, i)));
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 3);
+        assertTrue(idx.setLastModified(data.lastModified() - 10000));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(schema.getPath());
+        tableid = Database.getCatalog().getTableId(name);
+        index = Database.getCatalog().getIndex(tableid, 1, Predicate.Op.EQUALS);
+        tid = new TransactionId();
+        assertEquals(10, keys(tid, index).size());
+        IndexIterator rids = index.lookup(tid, Predicate.Op.EQUALS, 1000003);
+        rids.open();
+        assertTrue(rids.hasNext());
+        rids.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+        in.close();
+        out.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.util.*;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Checks every batch operator against its tuple-at-a-time counterpart.
+ */
+public class BatchTest extends SimpleDbTestBase {
+
+  private HeapFile f1, f2;
+  private TransactionId tid;
+
+  @Before public void createTables() throws Exception {
+    f1 = SystemTestUtil.createRandomHeapFile(3, 5000, 300, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f1, "t1");
+    f2 = SystemTestUtil.createRandomHeapFile(2, 800, 300, null,
+        new ArrayList<ArrayList<Integer>>(), "d");
+    Database.getCatalog().addTable(f2, "t2");
+    tid = new TransactionId();
+  }
+
+  /** A batch size that makes batches end in the middle of pages. */
+  private BatchSeqScan scan(HeapFile f, String alias) {
+    return new BatchSeqScan(tid, f.getId(), alias, 0, -1, 100);
+  }
+
+  @Test public void seqScan() throws Exception {
+    BatchSeqScan scan = scan(f1, "t1");
+    assertEquals(new SeqScan(tid, f1.getId(), "t1").getTupleDesc(), scan.getTupleDesc());
+    assertEquals(TestUtil.execute(new SeqScan(tid, f1.getId(), "t1")), TestUtil.execute(new BatchToTuples(scan)));
+
+    // a range of pages
+    BatchSeqScan part = new BatchSeqScan(tid, f1.getId(), "t1", 2, 5, 64);
+    assertEquals(TestUtil.execute(new SeqScan(tid, f1.getId(), "t1", 2, 5)), TestUtil.execute(new BatchToTuples(part)));
+  }
+
+  @Test public void filterAndProject() throws Exception {
+    Predicate p1 = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100));
+    Predicate p2 = new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(7));
+    int[] fields = new int[] { 2, 0 };
+    DbIterator expected = new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new Filter(p2, new Filter(p1, new SeqScan(tid, f1.getId(), "t1"))));
+    BatchProject actual = new BatchProject(fields,
+        new BatchFilter(p2, new BatchFilter(p1, scan(f1, "t1"))));
+    assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+    assertEquals(TestUtil.execute(expected), TestUtil.execute(new BatchToTuples(actual)));
+
+    // a filter that matches nothing returns no batch at all
+    BatchFilter none = new BatchFilter(new Predicate(0, Predicate.Op.LESS_THAN,
+        new IntField(-1)), scan(f1, "t1"));
+    none.open();
+    assertNull(none.nextBatch());
+    none.close();
+  }
+
+  @Test public void stringFilter() throws Exception {
+    DbIterator strings = TestUtil.createTupleList(2, new Object[] {
+        "apple", 1, "banana", 2, "cherry", 3, "banana", 4 });
+    BatchFilter filter = new BatchFilter(new Predicate(0, Predicate.Op.EQUALS,
+        new StringField("banana", Type.STRING_LEN)), new TuplesToBatch(strings, 3));
+    DbIterator expected = TestUtil.createTupleList(2, new Object[] {
+        "banana", 2, "banana", 4 });
+    assertEquals(TestUtil.execute(expected), TestUtil.execute(new BatchToTuples(filter)));
+  }
+
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    DbIterator expected = new HashEquiJoin(p, new SeqScan(tid, f2.getId(), "t2"),
+        new SeqScan(tid, f1.getId(), "t1"));
+    // small output batches end in the middle of a key's matches
+    BatchHashEquiJoin actual = new BatchHashEquiJoin(p, scan(f2, "t2"), scan(f1, "t1"), 7);
+    assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+    List<String> rows = TestUtil.execute(new BatchToTuples(actual));
+    assertEquals(TestUtil.execute(expected), rows);
+
+    BatchToTuples it = new BatchToTuples(actual);
+    it.open();
+    while (it.hasNext())
+      it.next();
+    it.rewind();
+    List<String> again = new ArrayList<String>();
+    while (it.hasNext())
+      again.add(it.next().toString());
+    it.close();
+    Collections.sort(again);
+    assertEquals(rows, again);
+  }
+
+  @Test public void aggregate() throws Exception {
+    Aggregator.Op[] ops = new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG,
+        Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT };
+    int[] afields = new int[] { 2, 2, 1, 1, 0 };
+    for (int gfield : new int[] { 0, Aggregator.NO_GROUPING }) {
+      Aggregate expected = new Aggregate(new SeqScan(tid, f1.getId(), "t1"), afields, gfield, ops);
+      BatchAggregate actual = new BatchAggregate(scan(f1, "t1"), afields, gfield, ops);
+      assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+      assertEquals(TestUtil.execute(expected), TestUtil.execute(new BatchToTuples(actual)));
+    }
+  }
+
+  @Test public void stringAggregate() throws Exception {
+    Object[] data = new Object[] { "a", "x", 1, "b", "y", 2, "a", "y", 3, "c", "x", 4, "a", "z", 5 };
+    Aggregate expected = new Aggregate(TestUtil.createTupleList(3, data),
+        new int[] { 1, 2 }, 0, new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+    BatchAggregate actual = new BatchAggregate(new TuplesToBatch(TestUtil.createTupleList(3, data), 2),
+        new int[] { 1, 2 }, 0, new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+    assertEquals(TestUtil.execute(expected), TestUtil.execute(new BatchToTuples(actual)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchTest.class);
+  }
+}
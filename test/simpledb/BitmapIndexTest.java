@@ -0,0 +1,321 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ };
+
+    private String name;
+    private File schema;
+    private File data;
+    private int tableid;
+    private ArrayList<ArrayList<Integer>> rows;
+
+    /**
+     * A table loaded from a schema file with bitmap indexes on c1, whose 50
+     * values each fill a run of pages, and on c2, whose 10 values are on
+     * every page.
+     */
+    @Before public void createTable() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        name = "bm" + SystemTestUtil.getUUID().replace("-", "");
+        data = new File(dir, name + ".dat");
+        HeapFile.deleteOnExit(data);
+        new File(dir, name + ".c1.bitmap").deleteOnExit();
+        new File(dir, name + ".c2.bitmap").deleteOnExit();
+        rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 60000; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i / 1200, i % 10)));
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 3);
+        schema = new File(dir, name + ".txt");
+        schema.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(schema));
+        out.println(name + " (c0 int, c1 int, c2 int)");
+        out.println("index " + name + " (c1) bitmap");
+        out.println("index " + name + " (c2) bitmap");
+        out.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        tableid = Database.getCatalog().getTableId(name);
+    }
+
+    private BitmapIndex index(int field) {
+        BitmapIndex index = Database.getCatalog().getBitmapIndex(tableid, field);
+        assertNotNull(index);
+        return index;
+    }
+
+    /** @return the values of field 0 of the rows that satisfy all predicates, sorted */
+    private List<Integer> expected(Predicate... preds) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (ArrayList<Integer> row : rows) {
+            boolean all = true;
+            for (Predicate p : preds)
+                all &= new IntField(row.get(p.getField())).compare(p.getOp(), p.getOperand());
+            if (all)
+                values.add(row.get(0));
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    /** @return the values of field 0 an iterator returns, sorted */
+    private static List<Integer> values(DbIterator it) throws Exception {
+        List<Integer> values = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    /** A bitmap holds the same positions as a set, through and, or and remove. */
+    @Test public void bitmapOperations() throws Exception {
+        Random rand = new Random(4);
+        Bitmap[] bitmaps = new Bitmap[2];
+        List<Set<Long>> sets = new ArrayList<Set<Long>>();
+        for (int b = 0; b < 2; b++) {
+            bitmaps[b] = new Bitmap();
+            sets.add(new TreeSet<Long>());
+            for (int i = 0; i < 5000; i++) {
+                // page 3 is dense in both, the others sparse
+                int page = rand.nextInt(3) == 0 ? 3 : rand.nextInt(200);
+                int slot = rand.nextInt(page == 3 ? 300 : 40);
+                assertEquals(sets.get(b).add((long) page << 16 | slot),
+                        bitmaps[b].add(page, slot));
+            }
+            assertEquals(sets.get(b), positions(bitmaps[b]));
+            assertEquals(sets.get(b).size(), bitmaps[b].cardinality());
+        }
+
+        Set<Long> and = new TreeSet<Long>(sets.get(0));
+        and.retainAll(sets.get(1));
+        assertEquals(and, positions(bitmaps[0].and(bitmaps[1])));
+        Set<Long> or = new TreeSet<Long>(sets.get(0));
+        or.addAll(sets.get(1));
+        assertEquals(or, positions(bitmaps[0].or(bitmaps[1])));
+        assertEquals(sets.get(0), positions(bitmaps[0]));
+
+        // empty the dense page down to a few slots, and a sparse page entirely
+        for (int slot = 0; slot < 295; slot++) {
+            assertEquals(sets.get(0).remove(3L << 16 | slot), bitmaps[0].remove(3, slot));
+            assertFalse(bitmaps[0].contains(3, slot));
+        }
+        for (int slot = 0; slot < 40; slot++)
+            assertEquals(sets.get(0).remove(7L << 16 | slot), bitmaps[0].remove(7, slot));
+        assertEquals(sets.get(0), positions(bitmaps[0]));
+        and.retainAll(sets.get(0));
+        assertEquals(and, positions(bitmaps[0].and(bitmaps[1])));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmaps[1].write(new DataOutputStream(bytes));
+        assertTrue(bytes.size() < 2 * bitmaps[1].cardinality() + 12 * bitmaps[1].numPages() + 4);
+        Bitmap read = Bitmap.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(sets.get(1), positions(read));
+    }
+
+    /** @return the positions of a bitmap, checking that they are in page order */
+    private static Set<Long> positions(Bitmap b) {
+        Set<Long> positions = new TreeSet<Long>();
+        long last = -1;
+        for (int i = 0; i < b.numPages(); i++) {
+            for (int slot : b.getSlots(i)) {
+                long position = (long) b.getPage(i) << 16 | slot;
+                assertTrue(position > last);
+                assertTrue(b.contains(b.getPage(i), slot));
+                positions.add(position);
+                last = position;
+            }
+        }
+        return positions;
+    }
+
+    /** Lookups of every operator find the tuples that satisfy it, in page order. */
+    @Test public void lookups() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int field = 1; field <= 2; field++) {
+            BitmapIndex index = index(field);
+            assertEquals(field == 1 ? 50 : 10, index.numValues());
+            for (Predicate.Op op : OPS) {
+                for (int v : new int[] { -1, 0, 7, 49 }) {
+                    Predicate p = new Predicate(field, op, new IntField(v));
+                    IndexIterator rids = index.lookup(op, v);
+                    List<Integer> values = new ArrayList<Integer>();
+                    rids.open();
+                    RecordId last = null;
+                    while (rids.hasNext()) {
+                        RecordId rid = rids.next();
+                        assertTrue(last == null
+                                || last.getPageId().pageNumber() < rid.getPageId().pageNumber()
+                                || (last.getPageId().pageNumber() == rid.getPageId().pageNumber()
+                                        && last.tupleno() < rid.tupleno()));
+                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                                rid.getPageId(), Permissions.READ_ONLY);
+                        values.add(((IntField) page.getTuple(rid.tupleno()).getField(0)).getValue());
+                        last = rid;
+                    }
+                    rids.close();
+                    Collections.sort(values);
+                    assertEquals(op + " " + v, expected(p), values);
+                }
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Bitmap indexes are not DbFiles, so they are kept apart from the page-based indexes. */
+    @Test public void keptApart() throws Exception {
+        assertEquals(2, Database.getCatalog().getBitmapIndexes(tableid).size());
+        assertTrue(Database.getCatalog().getIndexes(tableid).isEmpty());
+        assertNull(Database.getCatalog().getIndex(tableid, 1, Predicate.Op.EQUALS));
+    }
+
+    /** The BufferPool keeps the bitmaps up to date as tuples come and go. */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(Database.getCatalog().getTupleDesc(tableid));
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(77));
+        t.setField(2, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, tableid, t);
+        RecordId rid = t.getRecordId();
+        int page = rid.getPageId().pageNumber();
+        assertTrue(index(1).bitmap(Predicate.Op.EQUALS, 77).contains(page, rid.tupleno()));
+        assertEquals(1, index(1).bitmap(Predicate.Op.GREATER_THAN, 49).cardinality());
+        assertTrue(index(2).bitmap(Predicate.Op.EQUALS, 3).contains(page, rid.tupleno()));
+        assertEquals(51, index(1).numValues());
+        try {
+            index(1).insertTuple(t);
+            assertTrue(false);
+        } catch (DbException e) {
+        }
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, index(1).bitmap(Predicate.Op.GREATER_THAN, 49).cardinality());
+        assertFalse(index(2).bitmap(Predicate.Op.EQUALS, 3).contains(page, rid.tupleno()));
+        assertEquals(50, index(1).numValues());
+        try {
+            index(2).deleteTuple(t);
+            assertTrue(false);
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A bitmap heap scan ANDs the bitmaps of its predicates and reads only
+     * the pages with a matching tuple, once each; one of an OR reads the
+     * pages of either.
+     */
+    @Test public void scans() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p1 = new Predicate(1, Predicate.Op.EQUALS, new IntField(20));
+        Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(2));
+        BitmapHeapScan scan = new BitmapHeapScan(tid, tableid, "b", Arrays.asList(p1, p2));
+        assertEquals("b.c1", scan.getTupleDesc().getFieldName(1));
+        Bitmap and = index(1).bitmap(p1.getOp(), 20).and(index(2).bitmap(p2.getOp(), 2));
+        int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        assertTrue(and.numPages() < numPages / 10);
+        long before = TestUtil.pageRequests();
+        assertEquals(expected(p1, p2), values(scan));
+        assertEquals(and.numPages(), TestUtil.pageRequests() - before);
+        assertEquals(expected(p1, p2), values(scan));
+
+        Bitmap or = index(1).bitmap(Predicate.Op.GREATER_THAN_OR_EQ, 48)
+                .or(index(2).bitmap(Predicate.Op.EQUALS, 0));
+        List<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> row : rows)
+            if (row.get(1) >= 48 || row.get(2) == 0)
+                expected.add(row.get(0));
+        assertEquals(expected, values(new BitmapHeapScan(tid, tableid, "b", or)));
+
+        try {
+            new BitmapHeapScan(tid, tableid, "b",
+                    Arrays.asList(new Predicate(0, Predicate.Op.EQUALS, new IntField(1))));
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner reads a table through a bitmap heap scan when the
+     * predicates on its bitmap-indexed fields are selective together, and
+     * scans it when they are not.
+     */
+    @Test public void planner() throws Exception {
+        TableStats.setTableStats(name, new TableStats(tableid, 1));
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM " + name
+                + " WHERE " + name + ".c1 = 20 AND " + name + ".c2 = 3 AND " + name + ".c0 > 10;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        DbIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof Filter);
+        assertTrue(((Operator) child).getChildren()[0] instanceof BitmapHeapScan);
+        assertEquals(2, ((BitmapHeapScan) ((Operator) child).getChildren()[0]).getPredicates().size());
+        assertEquals(expected(new Predicate(1, Predicate.Op.EQUALS, new IntField(20)),
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(3))), values(plan));
+
+        lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM " + name
+                + " WHERE " + name + ".c2 < 8;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof BitmapHeapScan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The bitmaps are written when all pages are flushed and read back when
+     * the schema is loaded again, and rebuilt if the table is newer.
+     */
+    @Test public void persisted() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(Database.getCatalog().getTupleDesc(tableid));
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(77));
+        t.setField(2, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, tableid, t);
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        File file = index(1).getFile();
+        assertTrue(file.lastModified() >= data.lastModified());
+        BitmapIndex reopened = new BitmapIndex(file, tableid, 1);
+        assertEquals(1, reopened.bitmap(Predicate.Op.EQUALS, 77).cardinality());
+
+        // an index file older than the table is rebuilt rather than read
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0);
+        out.close();
+        assertTrue(file.setLastModified(data.lastModified() - 10000));
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(schema.getPath());
+        tableid = Database.getCatalog().getTableId(name);
+        assertEquals(51, index(1).numValues());
+        assertEquals(1, index(1).bitmap(Predicate.Op.EQUALS, 77).cardinality());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
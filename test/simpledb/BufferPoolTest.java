@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int TABLE_PAGES = 30;
+    private static final int THREADS = 8;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        // two int columns: 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+    }
+
+    /**
+     * Runs one thread per reader that all walk the pages of the table at
+     * the same time and returns once all of them have finished.
+     */
+    private void concurrentScans(final BufferPool bp) throws Throwable {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        start.await();
+                        for (int p = 0; p < TABLE_PAGES; p++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), p);
+                            Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            assertEquals(pid, page.getId());
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        start.countDown();
+        for (Thread t : readers)
+            t.join();
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    /**
+     * Concurrent readers of the same pages must read each page from disk
+     * exactly once.
+     */
+    @Test public void concurrentMissesLoadOnce() throws Throwable {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+        concurrentScans(bp);
+        assertEquals(TABLE_PAGES, bp.getMissCount());
+        assertEquals((THREADS - 1) * TABLE_PAGES, bp.getHitCount());
+        assertEquals(0, bp.getEvictionCount());
+    }
+
+    /**
+     * With a pool smaller than the table, concurrent readers keep evicting
+     * pages; every page handed out must still be the one asked for.
+     */
+    @Test public void concurrentScansWithEviction() throws Throwable {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES / 3);
+        concurrentScans(bp);
+        assertEquals(THREADS * TABLE_PAGES, bp.getHitCount() + bp.getMissCount());
+        assertTrue(bp.getEvictionCount() >= TABLE_PAGES - TABLE_PAGES / 3);
+    }
+
+    @Test public void prefetchedPageIsPrefetchHit() throws Exception {
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 3);
+        bp.prefetchPage(pid);
+        bp.prefetchPage(pid);
+        Page page = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertEquals(pid, page.getId());
+        assertEquals(1, bp.getPrefetchCount());
+        assertEquals(1, bp.getPrefetchHitCount());
+        assertEquals(1, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * A sequential scan only reads its first page on demand; every later
+     * page has been prefetched by the time the scan gets to it.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setReadAheadWindow(4);
+        assertEquals(4, bp.getReadAheadWindow());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * TABLE_PAGES, count);
+        assertEquals(1, bp.getMissCount());
+        assertEquals(TABLE_PAGES - 1, bp.getPrefetchCount());
+        assertEquals(TABLE_PAGES - 1, bp.getPrefetchHitCount());
+        assertEquals(0, bp.getWastedPrefetchCount());
+    }
+
+    @Test public void readAheadDisabled() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setReadAheadWindow(0);
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertEquals(TABLE_PAGES, bp.getMissCount());
+        assertEquals(0, bp.getPrefetchCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
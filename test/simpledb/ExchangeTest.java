@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private HeapFile f;
+  private ArrayList<ArrayList<Integer>> tuples;
+
+  @Before public void createTable() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    f = SystemTestUtil.createRandomHeapFile(3, 6000, 1000, null, tuples, "c");
+    Database.getCatalog().addTable(f, "t");
+  }
+
+  private List<String> expected(int maxC1) {
+    List<String> rows = new ArrayList<String>();
+    for (ArrayList<Integer> t : tuples)
+      if (t.get(1) < maxC1)
+        rows.add(t.toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /** The ranges of a partitioned scan cover the table exactly once. */
+  @Test public void partitionCoversTable() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan[] parts = SeqScan.partition(tid, f.getId(), "t", 4);
+    assertEquals(4, parts.length);
+    assertEquals(0, parts[0].getStartPage());
+    for (int i = 1; i < parts.length; i++)
+      assertEquals(parts[i - 1].getEndPage(), parts[i].getStartPage());
+    assertEquals(f.numPages(), parts[parts.length - 1].getEndPage());
+
+    // more threads than pages
+    assertEquals(f.numPages(), SeqScan.partition(tid, f.getId(), "t", 1000).length);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An exchange over partitioned, filtered scans returns every match once,
+   * testing it only in the scans the predicate is pushed into.
+   */
+  @Test public void parallelFilteredScan() throws Exception {
+    TransactionId tid = new TransactionId();
+    TestUtil.CountingPredicate p = new TestUtil.CountingPredicate(1,
+        Predicate.Op.LESS_THAN, new IntField(300));
+    SeqScan[] parts = SeqScan.partition(tid, f.getId(), "t", 4);
+    DbIterator[] pipelines = new DbIterator[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i].addPredicate(p);
+      pipelines[i] = new Filter(p, parts[i]);
+    }
+    Exchange x = new Exchange(pipelines);
+    assertEquals(4, x.getParallelism());
+    x.open();
+    List<String> rows = TestUtil.drainLists(x);
+    assertEquals(expected(300), rows);
+    assertTrue(TestUtil.checkExhausted(x));
+
+    x.rewind();
+    assertEquals(rows, TestUtil.drainLists(x));
+    x.close();
+    assertEquals(0, p.getCalls());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Rewinding or closing an exchange before it is drained stops its workers. */
+  @Test public void stopEarly() throws Exception {
+    TransactionId tid = new TransactionId();
+    Exchange x = new Exchange(SeqScan.partition(tid, f.getId(), "t", 3));
+    x.open();
+    for (int i = 0; i < 10; i++)
+      x.next();
+    x.rewind();
+    assertEquals(expected(Integer.MAX_VALUE), TestUtil.drainLists(x));
+    x.rewind();
+    x.next();
+    x.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** A plan with a degree of parallelism scans through exchanges. */
+  @Test public void parallelPlan() throws Exception {
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser parser = new Parser();
+    parser.setParallelism(4);
+    LogicalPlan lp = parser.generateLogicalPlan(tid,
+        "SELECT * FROM t WHERE t.c1 < 300;");
+    assertEquals(4, lp.getParallelism());
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Exchange);
+    plan.open();
+    assertEquals(expected(300), TestUtil.drainLists(plan));
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+  /** Checks that an opened iterator returns count tuples in order. */
+  private static void checkSorted(DbIterator it, Comparator<Tuple> order, int count)
+      throws Exception {
+    Tuple prev = null;
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (prev != null)
+        assertTrue(order.compare(prev, t) <= 0);
+      prev = t;
+      n++;
+    }
+    assertEquals(count, n);
+  }
+
+  @Test public void inMemory() throws Exception {
+    ExternalSort sort = new ExternalSort(TestUtil.randomTuples(new Random(1), 500, 100),
+        new int[] { 0 }, new boolean[] { true });
+    sort.open();
+    checkSorted(sort, new TupleComparator(0, true), 500);
+    assertEquals(0, sort.getRunCount());
+    sort.rewind();
+    checkSorted(sort, new TupleComparator(0, true), 500);
+    sort.close();
+  }
+
+  /**
+   * 6000 tuples make four runs of three pages each, and only two runs can
+   * be merged at once, so the runs are merged in two passes.
+   */
+  @Test public void multiPassMerge() throws Exception {
+    int[] fields = { 0, 1 };
+    boolean[] asc = { false, true };
+    ExternalSort sort = new ExternalSort(TestUtil.randomTuples(new Random(2), 6000, 1000),
+        fields, asc, 3);
+    sort.open();
+    checkSorted(sort, new TupleComparator(fields, asc), 6000);
+    assertEquals(4 + 2, sort.getRunCount());
+    sort.rewind();
+    checkSorted(sort, new TupleComparator(fields, asc), 6000);
+    sort.close();
+  }
+
+  @Test public void empty() throws Exception {
+    ExternalSort sort = new ExternalSort(TestUtil.createTupleList(2, new int[0]),
+        new int[] { 0 }, new boolean[] { true }, 3);
+    sort.open();
+    assertFalse(sort.hasNext());
+    sort.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExternalSortTest.class);
+  }
+}
@@ -3,12 +3,16 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class FilterTest extends SimpleDbTestBase {
 
@@ -120,6 +124,45 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * A Filter does not test the tuples again against a predicate that was
+   * pushed into the SeqScan below it.
+   */
+  @Test public void predicatePushedIntoScan() throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 10, null, rows);
+    int expected = 0;
+    for (ArrayList<Integer> row : rows)
+      if (row.get(0) < 3) expected++;
+    TransactionId tid = new TransactionId();
+    TestUtil.CountingPredicate pred = new TestUtil.CountingPredicate(0, Predicate.Op.LESS_THAN,
+        TestUtil.getField(3));
+
+    SeqScan ss = new SeqScan(tid, f.getId());
+    ss.addPredicate(pred);
+    Filter op = new Filter(pred, ss);
+    op.open();
+    assertEquals(expected, countTuples(op));
+    op.close();
+    assertEquals(0, pred.getCalls());
+
+    op = new Filter(pred, new SeqScan(tid, f.getId()));
+    op.open();
+    assertEquals(expected, countTuples(op));
+    op.close();
+    assertEquals(1000, pred.getCalls());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static int countTuples(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,290 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    private HeapFile f;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, 6000, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(f, "t");
+    }
+
+    private List<Tuple> tableTuples(TransactionId tid) throws Exception {
+        List<Tuple> result = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    /** @return the rows whose field 1 equals value, sorted */
+    private List<String> expected(int value) {
+        List<String> rows = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(1) == value)
+                rows.add(t.toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @return the tuples of the RecordIds of a lookup, sorted */
+    private static List<String> lookup(TransactionId tid, IndexFile index, int value)
+            throws Exception {
+        List<String> rows = new ArrayList<String>();
+        DbFileIterator it = new IndexFileIterator(tid, index,
+                index.lookup(tid, Predicate.Op.EQUALS, value), null);
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()).toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private void checkLookups(TransactionId tid, IndexFile index) throws Exception {
+        for (int value : new int[] { -1, 0, 17, 500, 999, 1000 })
+            assertEquals("" + value, expected(value), lookup(tid, index, value));
+    }
+
+    /** @return the number of entries of the whole index */
+    private static int size(TransactionId tid, IndexFile index) throws Exception {
+        int count = 0;
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Entries inserted one at a time split buckets and grow the directory,
+     * and every lookup finds exactly the tuples with the key.
+     */
+    @Test public void insertAndLookup() throws Exception {
+        HashFile index = new HashFile(TestUtil.tempFile(".hash"), f.getId(), 1);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        assertEquals(0, size(tid, index));
+        for (Tuple t : tableTuples(tid))
+            index.insertTuple(tid, t);
+        assertTrue(index.numPages() > tuples.size() / HashPage.capacity() + 1);
+        checkLookups(tid, index);
+        assertEquals(tuples.size(), size(tid, index));
+        assertTrue(index.supports(Predicate.Op.EQUALS));
+        assertFalse(index.supports(Predicate.Op.LESS_THAN));
+
+        // the same entry cannot be added twice
+        try {
+            index.insertTuple(tid, tableTuples(tid).get(0));
+            assertTrue(false);
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Checks that every tuple of a list is found by its key, which is
+     * unique, or, if oddOnly, those in odd slots only.
+     */
+    private static void checkUnique(TransactionId tid, IndexFile index, List<Tuple> all,
+            boolean oddOnly) throws Exception {
+        for (Tuple t : all) {
+            RecordId rid = t.getRecordId();
+            IndexIterator it = index.lookup(tid, Predicate.Op.EQUALS,
+                    ((IntField) t.getField(index.getKeyField())).getValue());
+            it.open();
+            if (oddOnly && rid.tupleno() % 2 == 0) {
+                assertFalse(it.hasNext());
+            } else {
+                assertEquals(rid, it.next());
+                assertFalse(it.hasNext());
+            }
+            it.close();
+        }
+    }
+
+    /**
+     * With a small page size the directory reaches its largest size, and
+     * buckets get overflow pages.
+     */
+    @Test public void overflow() throws Exception {
+        BufferPool.setPageSize(256);
+        try {
+            HashFile index = new HashFile(TestUtil.tempFile(".hash"), f.getId(), 1);
+            Database.getCatalog().addIndex(index);
+            TransactionId tid = new TransactionId();
+            // the table's pages have the default size, so its tuples are
+            // made up rather than read; keys are unique
+            List<Tuple> all = new ArrayList<Tuple>();
+            for (int i = 0; i < 3000; i++) {
+                Tuple t = new Tuple(f.getTupleDesc());
+                t.setField(0, new IntField(i % 7));
+                t.setField(1, new IntField(i * 3));
+                t.setField(2, new IntField(0));
+                t.setRecordId(new RecordId(new HeapPageId(f.getId(), i / 100), i % 100));
+                all.add(t);
+            }
+            for (Tuple t : all)
+                index.insertTuple(tid, t);
+            HashPage meta = (HashPage) Database.getBufferPool().getPage(tid,
+                    new HashPageId(index.getId(), 0), Permissions.READ_ONLY);
+            assertEquals(HashPage.maxGlobalDepth(), meta.getGlobalDepth());
+            assertTrue(index.numPages() > (1 << meta.getGlobalDepth()) + 1);
+            checkUnique(tid, index, all, false);
+
+            for (Tuple t : all)
+                if (t.getRecordId().tupleno() % 2 == 0)
+                    index.deleteTuple(tid, t);
+            checkUnique(tid, index, all, true);
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+        }
+    }
+
+    /**
+     * A bulk-loaded index answers lookups like one built by inserts, and
+     * takes further inserts and deletes.
+     */
+    @Test public void buildInsertAndDelete() throws Exception {
+        HashFile index = HashFile.build(TestUtil.tempFile(".hash"), f.getId(), 1);
+        Database.getCatalog().addIndex(index);
+        TransactionId tid = new TransactionId();
+        checkLookups(tid, index);
+        assertEquals(tuples.size(), size(tid, index));
+
+        List<Tuple> all = tableTuples(tid);
+        for (int i = 0; i < all.size(); i += 3)
+            index.deleteTuple(tid, all.get(i));
+        assertEquals(all.size() - (all.size() + 2) / 3, size(tid, index));
+        for (int i = 0; i < all.size(); i += 3)
+            index.insertTuple(tid, all.get(i));
+        checkLookups(tid, index);
+        try {
+            index.deleteTuple(tid, all.get(0));
+            index.deleteTuple(tid, all.get(0));
+            assertTrue(false);
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The primary key of a table loaded from a schema file gets a hash
+     * index, which Insert checks new keys against and the planner looks
+     * keys up in.
+     */
+    @Test public void primaryKey() throws Exception {
+        File dir = f.getFile().getParentFile();
+        String name = "pk" + SystemTestUtil.getUUID().replace("-", "");
+        File data = new File(dir, name + ".dat");
+        HeapFile.deleteOnExit(data);
+        new File(dir, name + ".c0.hash").deleteOnExit();
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 6000; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(2 * i, i % 10, i)));
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 3);
+        File schema = new File(dir, name + ".txt");
+        schema.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(schema));
+        out.println(name + " (c0 int pk, c1 int, c2 int)");
+        out.close();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableid = Database.getCatalog().getTableId(name);
+        IndexFile index = Database.getCatalog().getPrimaryKeyIndex(tableid);
+        assertNotNull(index);
+        assertTrue(index instanceof HashFile);
+        assertEquals(0, index.getKeyField());
+
+        TransactionId tid = new TransactionId();
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Tuple fresh = new Tuple(td);
+        fresh.setField(0, new IntField(1));
+        fresh.setField(1, new IntField(1));
+        fresh.setField(2, new IntField(1));
+        Insert insert = new Insert(tid, new TupleIterator(td, Arrays.asList(fresh)), tableid);
+        insert.open();
+        assertEquals(1, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        assertEquals(Arrays.asList("[1, 1, 1]"), lookup(tid, index, 1));
+
+        Tuple duplicate = new Tuple(td);
+        duplicate.setField(0, new IntField(4));
+        duplicate.setField(1, new IntField(1));
+        duplicate.setField(2, new IntField(1));
+        insert = new Insert(tid, new TupleIterator(td, Arrays.asList(duplicate)), tableid);
+        insert.open();
+        try {
+            insert.next();
+            assertTrue(false);
+        } catch (DbException e) {
+        }
+        insert.close();
+        assertEquals(Arrays.asList("[4, 2, 2]"), lookup(tid, index, 4));
+
+        // an equality on the key reads one tuple
+        TableStats.setTableStats(name, new TableStats(tableid, 1));
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM " + name + " WHERE " + name + ".c0 = 100;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexScan);
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(Arrays.asList(100, 0, 50), SystemTestUtil.tupleToList(plan.next()));
+        assertFalse(plan.hasNext());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // an index older than a regenerated table is rebuilt, so that it
+        // neither rejects keys of the old table nor misses the new ones
+        rows.clear();
+        for (int i = 0; i < 10; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(2 * i + 1, 0, i)));
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 3);
+        File hash = new File(dir, name + ".c0.hash");
+        assertTrue(hash.setLastModified(data.lastModified() - 10000));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(schema.getPath());
+        tableid = Database.getCatalog().getTableId(name);
+        index = Database.getCatalog().getPrimaryKeyIndex(tableid);
+        tid = new TransactionId();
+        assertEquals(Arrays.asList("[3, 0, 1]"), lookup(tid, index, 3));
+        insert = new Insert(tid, new TupleIterator(td, Arrays.asList(duplicate)), tableid);
+        insert.open();
+        assertEquals(1, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
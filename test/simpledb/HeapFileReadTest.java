@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,59 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Both I/O modes must read the same bytes for every page.
+     */
+    @Test
+    public void readPageIoModesAgree() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        HeapFile mapped = new HeapFile(big.getFile(), td, HeapFile.IoMode.MAPPED);
+        HeapFile legacy = new HeapFile(big.getFile(), td, HeapFile.IoMode.RANDOM_ACCESS);
+        assertEquals(3, big.numPages());
+        for (int i = 0; i < big.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(big.getId(), i);
+            assertArrayEquals(legacy.readPage(pid).getPageData(),
+                    mapped.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * A mapped file reads pages past its end as empty pages and sees pages
+     * written after it was first mapped.
+     */
+    @Test
+    public void readMappedPageAfterGrowth() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, HeapFile.IoMode.MAPPED);
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        HeapPageId second = new HeapPageId(hf.getId(), 1);
+        mapped.readPage(first);
+
+        HeapPage empty = (HeapPage) mapped.readPage(second);
+        assertEquals(504, empty.getNumEmptySlots());
+
+        HeapPage page = (HeapPage) mapped.readPage(first);
+        mapped.writePage(new HeapPage(second, page.getPageData()));
+        assertEquals(2, mapped.numPages());
+        assertArrayEquals(page.getPageData(), mapped.readPage(second).getPageData());
+    }
+
+    /**
+     * A mapped file that grows a page at a time reads every page it has
+     * written, whether the page is in the mapping or past it.
+     */
+    @Test
+    public void readMappedPagesDuringAppend() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, HeapFile.IoMode.MAPPED);
+        byte[] data = mapped.readPage(new HeapPageId(hf.getId(), 0)).getPageData();
+        for (int i = 1; i <= 9; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            mapped.writePage(new HeapPage(pid, data));
+            assertEquals(i + 1, mapped.numPages());
+            for (int j = 0; j <= i; j++)
+                assertArrayEquals(data, mapped.readPage(new HeapPageId(hf.getId(), j)).getPageData());
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +175,44 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan with predicates goes on past a page none of whose tuples
+     * qualify, instead of stopping there.
+     */
+    @Test
+    public void testIteratorPredicatesSkipPages() throws Exception {
+        // 504 tuples a page; field 1 is 1 on the first and third pages only
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1200; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i / 504 == 1 ? 0 : 1)));
+        File data = File.createTempFile("skip", ".dat");
+        HeapFile.deleteOnExit(data);
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 2);
+        HeapFile f = new HeapFile(data, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        assertEquals(3, f.numPages());
+
+        DbFileIterator it = f.iterator(tid,
+                new Predicate[] { new Predicate(0, Predicate.Op.EQUALS, new IntField(1100)) });
+        it.open();
+        assertTrue(it.hasNext());
+        assertEquals(1100, ((IntField) it.next().getField(0)).getValue());
+        assertFalse(it.hasNext());
+        it.close();
+
+        it = f.iterator(tid,
+                new Predicate[] { new Predicate(1, Predicate.Op.EQUALS, new IntField(1)) });
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            int value = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(value < 504 || value >= 1008);
+            count++;
+        }
+        assertEquals(504 + 192, count);
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +46,74 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts must go straight to a page with room rather than visiting
+     * every page of the file.
+     */
+    @Test public void addTupleUsesFreeSpaceMap() throws Exception {
+        for (int i = 0; i < 3 * 504; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+
+        BufferPool bp = Database.getBufferPool();
+        bp.resetStatistics();
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(4, empty.numPages());
+        assertEquals(1, bp.getHitCount() + bp.getMissCount());
+
+        // a slot freed on the first page is reused by the next insert
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), 0),
+                Permissions.READ_ONLY);
+        Tuple victim = first.iterator().next();
+        empty.deleteTuple(tid, victim);
+        assertEquals(1, empty.getFreeSpaceMap().getFreeSlots(0));
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(4, empty.numPages());
+    }
+
+    /**
+     * The map is written along with the pages and read back by the next
+     * HeapFile opened on the same file.
+     */
+    @Test public void freeSpaceMapPersists() throws Exception {
+        for (int i = 0; i < 504 + 10; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().flushAllPages();
+        assertTrue(empty.getFreeSpaceMap().getFile().length() == 4);
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        FreeSpaceMap fsm = reopened.getFreeSpaceMap();
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(504 - 10, fsm.getFreeSlots(1));
+        assertEquals(1, fsm.findPageWithSpace());
+
+        // a side file older than the data is not trusted
+        File side = fsm.getFile();
+        reopened.closeSideFiles();
+        RandomAccessFile raf = new RandomAccessFile(side, "rw");
+        raf.write(new byte[(int) raf.length()]);
+        raf.close();
+        assertTrue(side.setLastModified(empty.getFile().lastModified() - 10000));
+        reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(504 - 10, reopened.getFreeSpaceMap().getFreeSlots(1));
+        reopened.closeSideFiles();
+    }
+
+    /** Closing the side files does not stop the map from being kept up to date. */
+    @Test public void closedFreeSpaceMap() throws Exception {
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(0, 2));
+        Database.getBufferPool().flushAllPages();
+        empty.closeSideFiles();
+        Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(504 - 2, empty.getFreeSpaceMap().getFreeSlots(0));
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(504 - 2, reopened.getFreeSpaceMap().getFreeSlots(0));
+        reopened.closeSideFiles();
+    }
+
     /**
      * JUnit suite target
      */
@@ -99,6 +99,50 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate[])
+     */
+    @Test public void testIteratorWithPredicates() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947))
+        };
+        Iterator<Tuple> it = page.iterator(preds);
+
+        int matched = 0;
+        for (int[] row : EXAMPLE_VALUES) {
+            if (row[0] > 30000 && row[1] <= 44947) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(row[0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(row[1], ((IntField) tup.getField(1)).getValue());
+                matched++;
+            }
+        }
+        assertFalse(it.hasNext());
+        assertEquals(8, matched);
+
+        // the tuples that did not qualify were never decoded
+        int decoded = 0;
+        for (int i = 0; i < page.numSlots; i++) {
+            if (page.tuples[i] != null)
+                decoded++;
+        }
+        assertEquals(matched, decoded);
+    }
+
+    /**
+     * A page that has only been partly decoded still writes out the data it
+     * was read from.
+     */
+    @Test public void getPageDataPartlyDecoded() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.getTuple(3);
+        page.getTuple(17);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
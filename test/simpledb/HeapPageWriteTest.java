@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +130,31 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * The before image is the page as read until it is set again, however
+     * the page is changed in between, and whether the page was read from an
+     * array or a buffer.
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] original = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA).getPageData();
+        HeapPage[] pages = {
+            new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA),
+            new HeapPage(pid, ByteBuffer.wrap(HeapPageReadTest.EXAMPLE_DATA))
+        };
+        for (HeapPage page : pages) {
+            assertArrayEquals(original, page.getBeforeImage().getPageData());
+            page.insertTuple(Utility.getHeapTuple(7, 2));
+            assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+            page.setBeforeImage();
+            byte[] inserted = page.getPageData();
+            assertArrayEquals(inserted, page.getBeforeImage().getPageData());
+            page.deleteTuple(page.iterator().next());
+            assertArrayEquals(inserted, page.getBeforeImage().getPageData());
+            assertFalse(Arrays.equals(inserted, page.getPageData()));
+        }
+    }
+
     /**
      * JUnit suite target
      */
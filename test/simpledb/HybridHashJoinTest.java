@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Joins two inputs with a tiny memory budget and checks the result
+   * against nested loops.
+   */
+  private HybridHashJoin checkAgainstNestedLoops(TupleIterator left, TupleIterator right)
+      throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join expected = new Join(pred, left, right);
+    expected.open();
+    List<String> expectedRows = TestUtil.drain(expected);
+    expected.close();
+
+    HybridHashJoin op = new HybridHashJoin(pred, left, right, 1);
+    op.open();
+    assertEquals(expectedRows, TestUtil.drain(op));
+    op.rewind();
+    assertEquals(expectedRows, TestUtil.drain(op));
+    op.close();
+    return op;
+  }
+
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(0, op.getSpilledPartitionCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonEquality() {
+    new HybridHashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * A build side of 5000 tuples does not fit into one page (512 tuples), so
+   * partitions have to be spilled and joined from disk.
+   */
+  @Test public void spillingJoin() throws Exception {
+    Random r = new Random(8);
+    HybridHashJoin op = checkAgainstNestedLoops(TestUtil.randomTuples(r, 5000, 2000),
+        TestUtil.randomTuples(r, 3000, 2000));
+    assertTrue(op.getSpilledPartitionCount() > 0);
+  }
+
+  /**
+   * A key that alone exceeds the budget cannot be split by repartitioning;
+   * the join still has to produce every pair.
+   */
+  @Test public void skewedSpillingJoin() throws Exception {
+    Random r = new Random(9);
+    checkAgainstNestedLoops(TestUtil.randomTuples(r, 2000, 2), TestUtil.randomTuples(r, 200, 3));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HybridHashJoinTest.class);
+  }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+
+    private HeapFile venues, papers;
+    private ArrayList<ArrayList<Integer>> venueRows, paperRows;
+    private BTreeFile paperIndex;
+
+    @Before public void createTables() throws Exception {
+        venueRows = new ArrayList<ArrayList<Integer>>();
+        venues = SystemTestUtil.createRandomHeapFile(2, 100, 100, null, venueRows, "c");
+        Database.getCatalog().addTable(venues, "v");
+        paperRows = new ArrayList<ArrayList<Integer>>();
+        papers = SystemTestUtil.createRandomHeapFile(3, 20000, 100, null, paperRows, "c");
+        Database.getCatalog().addTable(papers, "p");
+        paperIndex = BTreeFile.build(TestUtil.tempFile(".idx"), papers.getId(), 1);
+        Database.getCatalog().addIndex(paperIndex);
+    }
+
+    /**
+     * @return the pairs of venue and paper rows with "v.c0 op p.c1" whose
+     *         venue satisfies "v.c1 venueOp venueValue", sorted
+     */
+    private List<String> expected(Predicate.Op op, Predicate.Op venueOp, int venueValue) {
+        List<String> rows = new ArrayList<String>();
+        for (ArrayList<Integer> v : venueRows) {
+            if (!new IntField(v.get(1)).compare(venueOp, new IntField(venueValue)))
+                continue;
+            for (ArrayList<Integer> p : paperRows)
+                if (new IntField(v.get(0)).compare(op, new IntField(p.get(1)))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(v);
+                    row.addAll(p);
+                    rows.add(row.toString());
+                }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** Probing the index of either child gives the same tuples as a scan. */
+    @Test public void joinsEitherChild() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(0, op, 1);
+            DbIterator outer = new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+                    new IntField(5)), new SeqScan(tid, venues.getId(), "v"));
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid, p, outer,
+                    new SeqScan(tid, papers.getId(), "p"));
+            assertFalse(join.isInnerChild1());
+            assertEquals(op.toString(), expected(op, Predicate.Op.LESS_THAN, 5), TestUtil.executeLists(join));
+        }
+
+        // papers as child1: "p.c1 < v.c0" probes the index with "p.c1 < key"
+        DbIterator outer = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)),
+                new SeqScan(tid, venues.getId(), "v"));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid,
+                new JoinPredicate(1, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, papers.getId(), "p"), outer, true);
+        assertTrue(join.isInnerChild1());
+        assertEquals("p.c1", join.getJoinField1Name());
+        List<String> rows = new ArrayList<String>();
+        for (ArrayList<Integer> p : paperRows)
+            for (ArrayList<Integer> v : venueRows)
+                if (v.get(1) == 3 && p.get(1) < v.get(0)) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(p);
+                    row.addAll(v);
+                    rows.add(row.toString());
+                }
+        Collections.sort(rows);
+        assertEquals(rows, TestUtil.executeLists(join));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Filters on the inner child hold for the returned tuples. */
+    @Test public void innerFilters() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbIterator inner = new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(10)),
+                new SeqScan(tid, papers.getId(), "p"));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid,
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, venues.getId(), "v"), inner);
+        List<String> rows = new ArrayList<String>();
+        for (ArrayList<Integer> v : venueRows)
+            for (ArrayList<Integer> p : paperRows)
+                if (v.get(0).equals(p.get(1)) && p.get(2) < 10) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(v);
+                    row.addAll(p);
+                    rows.add(row.toString());
+                }
+        Collections.sort(rows);
+        assertEquals(rows, TestUtil.executeLists(join));
+
+        // rewinding starts over from the first outer tuple
+        join.open();
+        int count = 0;
+        while (join.hasNext() && count < 5) {
+            join.next();
+            count++;
+        }
+        join.rewind();
+        count = 0;
+        while (join.hasNext()) {
+            join.next();
+            count++;
+        }
+        join.close();
+        assertEquals(rows.size(), count);
+
+        // so do predicates pushed into the inner scan
+        SeqScan scan = new SeqScan(tid, papers.getId(), "p");
+        scan.addPredicate(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(10)));
+        join = new IndexNestedLoopJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, venues.getId(), "v"), scan);
+        assertEquals(rows, TestUtil.executeLists(join));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A join can only probe an index of a table scan. */
+    @Test(expected = IllegalArgumentException.class)
+    public void noIndex() throws Exception {
+        TransactionId tid = new TransactionId();
+        new IndexNestedLoopJoin(tid, new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, papers.getId(), "p"), new SeqScan(tid, venues.getId(), "v"));
+    }
+
+    private static boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator)
+            for (DbIterator child : ((Operator) plan).getChildren())
+                if (child != null && contains(child, c))
+                    return true;
+        return false;
+    }
+
+    /**
+     * The planner probes the papers index for a few filtered venues, and
+     * hashes the whole of both tables otherwise.
+     */
+    @Test public void plans() throws Exception {
+        TableStats.setTableStats("v", new TableStats(venues.getId(), 1));
+        TableStats.setTableStats("p", new TableStats(papers.getId(), 1));
+        TransactionId tid = new TransactionId();
+        Parser parser = new Parser();
+        LogicalPlan lp = parser.generateLogicalPlan(tid,
+                "SELECT * FROM v, p WHERE v.c0 = p.c1 AND v.c1 = 17;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(contains(plan, IndexNestedLoopJoin.class));
+        assertEquals(expected(Predicate.Op.EQUALS, Predicate.Op.EQUALS, 17), TestUtil.executeLists(plan));
+
+        lp = parser.generateLogicalPlan(tid, "SELECT * FROM v, p WHERE v.c0 = p.c1;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(contains(plan, IndexNestedLoopJoin.class));
+        assertEquals(expected(Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN_OR_EQ, 0).size(), TestUtil.executeLists(plan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
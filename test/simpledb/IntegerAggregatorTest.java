@@ -126,6 +126,31 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator.merge() of partial averages: the result is the
+   * average of all values, not the average of the partial averages
+   */
+  @Test public void mergePartialAvg() throws Exception {
+    scan1.open();
+    IntegerAggregator first = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator second = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    // { 1, 2 }, { 1, 4 }, { 1, 6 } and { 3, 2 } go to the first, the rest
+    // to the second aggregator
+    for (int i = 0; i < 4; i++)
+      first.mergeTupleIntoGroup(scan1.next());
+    while (scan1.hasNext())
+      second.mergeTupleIntoGroup(scan1.next());
+
+    first.merge(second);
+    DbIterator it = first.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 3, 4, 5, 7 }), it);
+    assertEquals(3, first.numGroups());
+    // the merged aggregator is left unchanged
+    assertEquals(2, second.numGroups());
+  }
+
   /**
    * Test IntegerAggregator.iterator() for DbIterator behaviour
    */
@@ -105,6 +105,55 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Joins with an outer relation that spans several blocks must scan the
+   * inner relation once per block and still find every match.
+   */
+  @Test public void blockNestedLoops() throws Exception {
+    int blockTuples = Join.blockTuples(1, scan1.getTupleDesc());
+    int[] outer = new int[width1 * (2 * blockTuples + 3)];
+    for (int i = 0; i < outer.length; i++)
+      outer[i] = i / width1 % 10;
+    TupleIterator outerScan = TestUtil.createTupleList(width1, outer);
+    final int[] innerScans = new int[1];
+    TupleIterator innerScan = new TupleIterator(scan2.getTupleDesc(),
+        tupleList(width2, new int[] { 1, 2, 3, 4, 5, 6, 11, 12, 13 })) {
+      private static final long serialVersionUID = 1L;
+      public void open() {
+        super.open();
+        innerScans[0]++;
+      }
+    };
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, outerScan, innerScan, 1);
+    assertEquals(1, op.getBlockPages());
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(width1));
+      count++;
+    }
+    // outer keys 1 and 4 each occur once in every ten tuples
+    int expected = 0;
+    for (int i = 0; i < outer.length; i += width1)
+      if (outer[i] == 1 || outer[i] == 4)
+        expected++;
+    assertEquals(expected, count);
+    // one open plus one rewind for each of the two later blocks
+    assertEquals(3, innerScans[0]);
+  }
+
+  private static java.util.List<Tuple> tupleList(int width, int[] data) throws Exception {
+    java.util.ArrayList<Tuple> tuples = new java.util.ArrayList<Tuple>();
+    TupleIterator it = TestUtil.createTupleList(width, data);
+    it.open();
+    while (it.hasNext())
+      tuples.add(it.next());
+    return tuples;
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,83 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /** Checks that an opened iterator returns count tuples in order. */
+  private static void checkSorted(DbIterator it, int[] fields, boolean[] asc, int count)
+      throws Exception {
+    TupleComparator order = new TupleComparator(fields, asc);
+    Tuple prev = null;
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (prev != null)
+        assertTrue(order.compare(prev, t) <= 0);
+      prev = t;
+      n++;
+    }
+    assertEquals(count, n);
+  }
+
+  @Test public void singleField() throws Exception {
+    DbIterator child = TestUtil.createTupleList(2,
+        new int[] { 3, 1, 1, 2, 2, 3, 1, 4 });
+    OrderBy op = new OrderBy(0, false, child);
+    op.open();
+    checkSorted(op, new int[] { 0 }, new boolean[] { false }, 4);
+    op.rewind();
+    checkSorted(op, new int[] { 0 }, new boolean[] { false }, 4);
+    op.close();
+  }
+
+  /**
+   * Sorting 6000 tuples within three pages spills runs to disk; ties on
+   * the first field are ordered by the second.
+   */
+  @Test public void multipleFieldsExternally() throws Exception {
+    Random r = new Random(3);
+    int[] data = new int[6000 * 2];
+    for (int i = 0; i < data.length; i++)
+      data[i] = r.nextInt(50);
+    int[] fields = { 0, 1 };
+    boolean[] asc = { true, false };
+    OrderBy op = new OrderBy(fields, asc, TestUtil.createTupleList(2, data), 3);
+    op.open();
+    checkSorted(op, fields, asc, 6000);
+    op.close();
+  }
+
+  /** The parser accepts ORDER BY lists with several fields. */
+  @Test public void parseMultipleFields() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 2000, 20, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT * FROM t ORDER BY t.c2 DESC, t.c0;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    plan.open();
+    checkSorted(plan, new int[] { 2, 0 }, new boolean[] { false, true }, 2000);
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+  private HeapFile f;
+
+  @Before public void createTable() throws Exception {
+    f = SystemTestUtil.createRandomHeapFile(3, 20000, 500, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "t");
+  }
+
+  private void check(int[] afields, int gfield, Aggregator.Op[] aops) throws Exception {
+    TransactionId tid = new TransactionId();
+    Aggregate serial = new Aggregate(new SeqScan(tid, f.getId(), "t"), afields, gfield, aops);
+    serial.open();
+    List<String> expected = TestUtil.drain(serial);
+    serial.close();
+
+    ParallelAggregate parallel = new ParallelAggregate(
+        SeqScan.partition(tid, f.getId(), "t", 4), afields, gfield, aops);
+    assertEquals(4, parallel.getParallelism());
+    assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+    parallel.open();
+    assertEquals(expected, TestUtil.drain(parallel));
+    parallel.rewind();
+    assertEquals(expected, TestUtil.drain(parallel));
+    parallel.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Every aggregate, grouped and not, matches the serial Aggregate. */
+  @Test public void matchesAggregate() throws Exception {
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      check(new int[] { 1 }, 0, new Aggregator.Op[] { op });
+      check(new int[] { 1 }, Aggregator.NO_GROUPING, new Aggregator.Op[] { op });
+    }
+  }
+
+  /** Several aggregates are merged column by column. */
+  @Test public void multipleAggregates() throws Exception {
+    check(new int[] { 1, 2, 2 }, 0, new Aggregator.Op[] { Aggregator.Op.AVG,
+        Aggregator.Op.COUNT, Aggregator.Op.MAX });
+  }
+
+  /** A parallel plan aggregates the table's page ranges in parallel. */
+  @Test public void parallelPlan() throws Exception {
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser parser = new Parser();
+    parser.setParallelism(4);
+    LogicalPlan lp = parser.generateLogicalPlan(tid,
+        "SELECT t.c0, AVG(t.c1) FROM t WHERE t.c2 < 250 GROUP BY t.c0;");
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof ParallelAggregate);
+
+    Aggregate serial = new Aggregate(new Filter(new Predicate(2, Predicate.Op.LESS_THAN,
+        new IntField(250)), new SeqScan(tid, f.getId(), "t")), 1, 0, Aggregator.Op.AVG);
+    serial.open();
+    plan.open();
+    assertEquals(TestUtil.drain(serial), TestUtil.drain(plan));
+    plan.close();
+    serial.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelAggregateTest.class);
+  }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
 public class PredicateTest extends SimpleDbTestBase{
@@ -55,6 +56,48 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  private static boolean compare(int value, Predicate.Op op, int operand) {
+    return new IntField(value).compare(op, new IntField(operand));
+  }
+
+  /**
+   * Unit test for IntPredicate: every operator agrees with IntField.compare,
+   * both value by value and when selecting rows of a column.
+   */
+  @Test public void intPredicate() {
+    int[] values = new int[] { 5, -3, 0, 7, 5, 12, -8, 5 };
+    int[] rows = new int[] { 0, 2, 3, 4, 7 };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      IntPredicate ip = IntPredicate.forOp(op);
+      for (int operand = -9; operand <= 13; operand++) {
+        int expectedAll = 0;
+        for (int i = 0; i < values.length; i++) {
+          boolean expected = compare(values[i], op, operand);
+          assertEquals(expected, ip.test(values[i], operand));
+          assertEquals(expected, new Predicate(0, op, TestUtil.getField(operand)).filter(values[i]));
+          if (expected) expectedAll++;
+        }
+        int[] out = new int[values.length];
+        int n = ip.select(values, null, values.length, operand, out);
+        assertEquals(expectedAll, n);
+        for (int i = 0; i < n; i++) {
+          assertTrue(compare(values[out[i]], op, operand));
+          if (i > 0) assertTrue(out[i - 1] < out[i]);
+        }
+
+        // selecting in place from a selection vector
+        int[] sel = rows.clone();
+        n = ip.select(values, sel, sel.length, operand, sel);
+        int k = 0;
+        for (int row : rows) {
+          if (compare(values[row], op, operand))
+            assertEquals(row, sel[k++]);
+        }
+        assertEquals(k, n);
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
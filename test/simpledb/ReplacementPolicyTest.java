@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 10;
+    private static final int HOT_PAGES = 4;
+    private static final int TABLE_PAGES = 40;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // two int columns: 504 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        assertEquals(TABLE_PAGES, hf.numPages());
+        tid = new TransactionId();
+    }
+
+    private void get(BufferPool bp, int pageNo) throws Exception {
+        bp.getPage(tid, new HeapPageId(hf.getId(), pageNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Touches a few pages twice, scans the rest of the table once and checks
+     * that the re-referenced pages survived the scan.
+     */
+    private void checkScanResistant(ReplacementPolicy policy) throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, policy);
+        for (int i = 0; i < HOT_PAGES; i++) {
+            get(bp, i);
+            get(bp, i);
+        }
+        for (int i = HOT_PAGES; i < TABLE_PAGES; i++)
+            get(bp, i);
+        assertEquals(HOT_PAGES, bp.getHitCount());
+        assertEquals(TABLE_PAGES, bp.getMissCount());
+        assertEquals(TABLE_PAGES - POOL_PAGES, bp.getEvictionCount());
+
+        bp.resetStatistics();
+        for (int i = 0; i < HOT_PAGES; i++)
+            get(bp, i);
+        assertEquals(HOT_PAGES, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    @Test public void lruKScanResistance() throws Exception {
+        checkScanResistant(new LruKPolicy());
+    }
+
+    @Test public void clockProScanResistance() throws Exception {
+        checkScanResistant(new ClockProPolicy(POOL_PAGES));
+    }
+
+    /**
+     * Plain LRU (LRU-1) is not scan resistant; make sure the test above
+     * would actually notice.
+     */
+    @Test public void lruOneIsNotScanResistant() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, 0));
+        for (int i = 0; i < HOT_PAGES; i++) {
+            get(bp, i);
+            get(bp, i);
+        }
+        for (int i = HOT_PAGES; i < TABLE_PAGES; i++)
+            get(bp, i);
+        bp.resetStatistics();
+        for (int i = 0; i < HOT_PAGES; i++)
+            get(bp, i);
+        assertEquals(0, bp.getHitCount());
+    }
+
+    private void checkSkipsDirtyPages(ReplacementPolicy policy) throws Exception {
+        HashMap<PageId, Page> resident = new HashMap<PageId, Page>();
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            resident.put(pid, hf.readPage(pid));
+            policy.pageAdmitted(pid);
+        }
+        for (Page p : resident.values())
+            p.markDirty(true, tid);
+        assertNull(policy.chooseVictim(resident));
+
+        HeapPageId clean = new HeapPageId(hf.getId(), 1);
+        resident.get(clean).markDirty(false, null);
+        assertEquals(clean, policy.chooseVictim(resident));
+    }
+
+    @Test public void lruKSkipsDirtyPages() throws Exception {
+        checkSkipsDirtyPages(new LruKPolicy());
+    }
+
+    @Test public void clockProSkipsDirtyPages() throws Exception {
+        checkSkipsDirtyPages(new ClockProPolicy(3));
+    }
+
+    /**
+     * A victim that stays in the pool because it was dirtied after it was
+     * chosen is not a re-fault: it is neither promoted to hot nor does it
+     * grow the cold target.
+     */
+    @Test public void clockProCancelledEviction() throws Exception {
+        ClockProPolicy policy = new ClockProPolicy(3);
+        HashMap<PageId, Page> resident = new HashMap<PageId, Page>();
+        for (int i = 0; i < 3; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            resident.put(pid, hf.readPage(pid));
+            policy.pageAdmitted(pid);
+        }
+        int coldTarget = policy.getColdTarget();
+        PageId victim = policy.chooseVictim(resident);
+        assertNotNull(victim);
+        policy.evictionCancelled(victim);
+        assertFalse(policy.isHot(victim));
+        assertEquals(coldTarget, policy.getColdTarget());
+
+        // it is resident and cold again, so it can still be evicted
+        for (Page p : resident.values())
+            if (!p.getId().equals(victim))
+                p.markDirty(true, tid);
+        assertEquals(victim, policy.chooseVictim(resident));
+    }
+
+    /** Concurrent misses never fill the pool past its capacity. */
+    @Test public void concurrentLoadsStayWithinCapacity() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy());
+        final int threads = 8;
+        Thread[] readers = new Thread[threads];
+        final Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            readers[t] = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int i = first; i < TABLE_PAGES; i += threads)
+                            bp.getPage(tid, new HeapPageId(hf.getId(), i),
+                                    Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (Thread r : readers)
+            r.join();
+        if (failure[0] != null)
+            throw failure[0];
+        assertEquals(TABLE_PAGES, bp.getMissCount());
+        assertEquals(TABLE_PAGES - POOL_PAGES, bp.getEvictionCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-2, 0);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        StringBuilder sb = new StringBuilder("n");
+        for (int k = 0; k < i % 13; k++)
+            sb.append((char) ('a' + k));
+        return sb.toString();
+    }
+
+    private static List<String> contents(Iterator<Tuple> it) {
+        List<String> rows = new ArrayList<String>();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Short strings take only the space they need, so many more of them fit
+     * than on a fixed-size page, and they read back from the page image.
+     */
+    @Test public void insertAndRead() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(0, contents(page.iterator()).size());
+        List<String> expected = new ArrayList<String>();
+        int i = 0;
+        while (true) {
+            Tuple t = tuple(i, name(i));
+            try {
+                page.insertTuple(t);
+            } catch (DbException e) {
+                break;
+            }
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            expected.add(t.toString());
+            i++;
+        }
+        int fixedSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(i > 5 * fixedSlots);
+        assertEquals(0, page.getNumEmptySlots());
+        Collections.sort(expected);
+        assertEquals(expected, contents(page.iterator()));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(expected, contents(copy.iterator()));
+        assertEquals(0, contents(page.getBeforeImage().iterator()).size());
+        assertEquals("n" + "abc", copy.getTuple(3).getField(1).toString());
+    }
+
+    /**
+     * Deleted slots are reused and the holes they leave are compacted away
+     * when a longer record needs the room.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> stored = new ArrayList<Tuple>();
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            Tuple t = tuple(i, "abcdefgh");
+            page.insertTuple(t);
+            stored.add(t);
+        }
+        // free every other record: plenty of space, but only in small holes
+        int freed = 0;
+        for (int i = 0; i < stored.size(); i += 2) {
+            page.deleteTuple(stored.get(i));
+            assertFalse(page.isSlotUsed(i));
+            freed++;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < Type.STRING_LEN; k++)
+            sb.append('x');
+        int inserted = 0;
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = tuple(1000 + inserted, sb.toString());
+            page.insertTuple(t);
+            // the first empty slot is reused
+            assertEquals(2 * inserted, t.getRecordId().tupleno());
+            inserted++;
+        }
+        assertTrue(inserted > 0 && inserted < freed);
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        for (int i = 0; i < stored.size(); i++) {
+            Tuple t = copy.getTuple(i);
+            if (i % 2 == 1)
+                assertEquals(stored.get(i).toString(), t.toString());
+            else if (i / 2 < inserted)
+                assertEquals(sb.toString(), t.getField(1).toString());
+            else
+                assertEquals(null, t);
+        }
+    }
+
+    /**
+     * Pushed-down predicates and batch reads work on variable-length records.
+     */
+    @Test public void predicatesAndColumns() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 100; i++)
+            page.insertTuple(tuple(i, name(i)));
+        Predicate[] preds = new Predicate[] {
+            new Predicate(1, Predicate.Op.EQUALS, new StringField(name(5), Type.STRING_LEN)),
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20)) };
+        List<String> matches = contents(page.iterator(preds));
+        assertEquals(Arrays.asList(tuple(31, name(31)).toString(), tuple(44, name(44)).toString(),
+                tuple(57, name(57)).toString(), tuple(70, name(70)).toString(),
+                tuple(83, name(83)).toString(), tuple(96, name(96)).toString()), matches);
+
+        TupleBatch batch = new TupleBatch(td, 64);
+        assertEquals(64, page.readColumns(0, batch));
+        assertEquals(63, batch.getInt(0, 63));
+        assertEquals(name(63), batch.getString(1, 63));
+    }
+
+    /**
+     * The encoder writes slotted files that a slotted HeapFile reads and
+     * inserts into, and that are smaller than fixed-size ones.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(text));
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            out.println(i + "," + name(i));
+            expected.add(tuple(i, name(i)).toString());
+        }
+        out.close();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File fixed = File.createTempFile("fixed", ".dat");
+        HeapFile.deleteOnExit(fixed);
+        File slotted = File.createTempFile("slotted", ".dat");
+        HeapFile.deleteOnExit(slotted);
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), 2, types, ',',
+                HeapFile.PageFormat.FIXED);
+        HeapFileEncoder.convert(text, slotted, BufferPool.getPageSize(), 2, types, ',',
+                HeapFile.PageFormat.SLOTTED);
+        assertTrue(slotted.length() * 5 < fixed.length());
+
+        HeapFile hf = new HeapFile(slotted, td, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        Tuple added = tuple(-1, "added");
+        Database.getBufferPool().insertTuple(tid, hf.getId(), added);
+        expected.add(added.toString());
+        Collections.sort(expected);
+
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        List<String> rows = new ArrayList<String>();
+        scan.open();
+        while (scan.hasNext())
+            rows.add(scan.next().toString());
+        scan.close();
+        Collections.sort(rows);
+        assertEquals(expected, rows);
+
+        BatchToTuples batches = new BatchToTuples(new BatchSeqScan(tid, hf.getId(), "t"));
+        rows.clear();
+        batches.open();
+        while (batches.hasNext())
+            rows.add(batches.next().toString());
+        batches.close();
+        Collections.sort(rows);
+        assertEquals(expected, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 7, 8,
+                    3, 4,
+                    5, 6,
+                    1, 2 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 5, 6, 7,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    1, 2, 3 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Joins two inputs with the smallest memory budget and checks the result
+   * against nested loops.
+   */
+  private void checkAgainstNestedLoops(Predicate.Op op, DbIterator left, DbIterator right)
+      throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    Join expected = new Join(pred, left, right);
+    expected.open();
+    List<String> expectedRows = TestUtil.drain(expected);
+    expected.close();
+
+    SortMergeJoin join = new SortMergeJoin(pred, left, right, 3);
+    join.open();
+    assertEquals(expectedRows, TestUtil.drain(join));
+    join.rewind();
+    assertEquals(expectedRows, TestUtil.drain(join));
+    join.close();
+  }
+
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNotEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  @Test public void rangeJoins() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops)
+      checkAgainstNestedLoops(op, scan1, scan2);
+  }
+
+  /**
+   * Inputs of several thousand tuples do not fit into three pages, so both
+   * have to be sorted externally before they are merged.
+   */
+  @Test public void externallySortedEqJoin() throws Exception {
+    Random r = new Random(10);
+    checkAgainstNestedLoops(Predicate.Op.EQUALS, TestUtil.randomTuples(r, 5000, 3000),
+        TestUtil.randomTuples(r, 4000, 3000));
+  }
+
+  @Test public void externallySortedBandJoin() throws Exception {
+    Random r = new Random(11);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN, TestUtil.randomTuples(r, 1600, 100000),
+        TestUtil.randomTuples(r, 400, 100000));
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN_OR_EQ, TestUtil.randomTuples(r, 1600, 100000),
+        TestUtil.randomTuples(r, 400, 100000));
+  }
+
+  /**
+   * The right tuples that match the first left tuple of a band join do not
+   * fit into three pages, so part of them is spilled.
+   */
+  @Test public void spilledBandWindow() throws Exception {
+    Random r = new Random(13);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN, TestUtil.randomTuples(r, 100, 100000),
+        TestUtil.randomTuples(r, 4000, 100000));
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN_OR_EQ, TestUtil.randomTuples(r, 100, 100000),
+        TestUtil.randomTuples(r, 4000, 100000));
+  }
+
+  /** Equal keys on both sides must produce every pair. */
+  @Test public void duplicateKeys() throws Exception {
+    Random r = new Random(12);
+    checkAgainstNestedLoops(Predicate.Op.EQUALS, TestUtil.randomTuples(r, 300, 3),
+        TestUtil.randomTuples(r, 200, 4));
+  }
+
+  @Test public void emptyInputs() throws Exception {
+    TupleIterator empty = TestUtil.createTupleList(2, new int[0]);
+    checkAgainstNestedLoops(Predicate.Op.EQUALS, empty, scan2);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN, scan1, empty);
+  }
+
+  /** Inputs that are sorted already are not sorted again. */
+  @Test public void sortedInputs() throws Exception {
+    OrderBy left = new OrderBy(0, true, scan1);
+    ExternalSort right = new ExternalSort(scan2, new int[] { 0 }, new boolean[] { true });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, left, right);
+    assertTrue(op.isLeftSorted());
+    assertTrue(op.isRightSorted());
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertTrue(SortMergeJoin.isSortedOn(op, 0, true));
+    assertTrue(SortMergeJoin.isSortedOn(op, width1, true));
+
+    // a band join needs the left side sorted descending
+    op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), left, right);
+    assertFalse(op.isLeftSorted());
+    assertTrue(op.isRightSorted());
+  }
+
+  /**
+   * The optimizer picks a sort-merge join for range predicates and for
+   * equality joins of sorted inputs.
+   */
+  @Test public void optimizerRule() throws Exception {
+    LogicalJoinNode lt = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.LESS_THAN);
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+    LogicalJoinNode ne = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.NOT_EQUALS);
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a.c"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b.c"), new ArrayList<Tuple>());
+    assertTrue(JoinOptimizer.instantiateJoin(lt, a, b) instanceof SortMergeJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(eq, a, b) instanceof HybridHashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(ne, a, b) instanceof Join);
+    a = new OrderBy(0, true, a);
+    b = new OrderBy(0, true, b);
+    assertTrue(JoinOptimizer.instantiateJoin(eq, a, b) instanceof SortMergeJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -53,6 +53,21 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test a COUNT without grouping
+   */
+  @Test public void mergeCountNoGrouping() throws Exception {
+    scan1.open();
+    StringAggregator agg = new StringAggregator(Aggregator.NO_GROUPING, null, 1,
+        Aggregator.Op.COUNT);
+    for (int i = 1; i <= 3; i++) {
+      agg.mergeTupleIntoGroup(scan1.next());
+      DbIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { i }), it);
+    }
+  }
+
   /**
    * Test StringAggregator.iterator() for DbIterator behaviour
    */
@@ -5,6 +5,8 @@ import java.util.*;
 
 import static org.junit.Assert.*;
 
+import simpledb.systemtest.SystemTestUtil;
+
 public class TestUtil {
     /**
      * @return an IntField with value n
@@ -190,6 +192,72 @@ public class TestUtil {
         return buf;
     }
 
+    /**
+     * @return rows tuples of two int fields: a random key below keys, and
+     *         the row number
+     */
+    public static TupleIterator randomTuples(Random r, int rows, int keys) {
+        int[] data = new int[rows * 2];
+        for (int i = 0; i < rows; i++) {
+            data[2 * i] = r.nextInt(keys);
+            data[2 * i + 1] = i;
+        }
+        return createTupleList(2, data);
+    }
+
+    /** @return the tuples of an opened iterator, as sorted strings */
+    public static List<String> drain(DbIterator it) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return the tuples of an opened iterator over int fields, as the
+     *         sorted strings of their {@link SystemTestUtil#tupleToList} lists
+     */
+    public static List<String> drainLists(DbIterator it) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()).toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** Opens an iterator, drains it like {@link #drain} and closes it. */
+    public static List<String> execute(DbIterator it) throws Exception {
+        it.open();
+        List<String> rows = drain(it);
+        it.close();
+        return rows;
+    }
+
+    /** Opens an iterator, drains it like {@link #drainLists} and closes it. */
+    public static List<String> executeLists(DbIterator it) throws Exception {
+        it.open();
+        List<String> rows = drainLists(it);
+        it.close();
+        return rows;
+    }
+
+    /** @return a new file that is deleted when the virtual machine exits */
+    public static File tempFile(String suffix) throws IOException {
+        File file = File.createTempFile("index", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * @return the pages requested from the buffer pool since its statistics
+     *         were last reset
+     */
+    public static long pageRequests() {
+        BufferPool bp = Database.getBufferPool();
+        return bp.getHitCount() + bp.getMissCount();
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
@@ -241,6 +309,30 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * A predicate that counts the tuples it is applied to, from any thread.
+     */
+    public static class CountingPredicate extends Predicate {
+        private static final long serialVersionUID = 1L;
+        private final java.util.concurrent.atomic.AtomicInteger calls =
+                new java.util.concurrent.atomic.AtomicInteger();
+
+        public CountingPredicate(int field, Op op, Field operand) {
+            super(field, op, operand);
+        }
+
+        @Override
+        public boolean filter(Tuple t) {
+            calls.incrementAndGet();
+            return super.filter(t);
+        }
+
+        /** @return the number of tuples filter(Tuple) was called on */
+        public int getCalls() {
+            return calls.get();
+        }
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
@@ -378,7 +470,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            HeapFile.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  /** @return the first fields of the tuples of an opened iterator */
+  private static List<Integer> firstFields(DbIterator it) throws Exception {
+    List<Integer> values = new ArrayList<Integer>();
+    while (it.hasNext())
+      values.add(((IntField) it.next().getField(0)).getValue());
+    return values;
+  }
+
+  @Test public void keepsFirstTuples() throws Exception {
+    Random r = new Random(4);
+    int[] data = new int[5000 * 2];
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < 5000; i++) {
+      data[2 * i] = r.nextInt(100000);
+      data[2 * i + 1] = i;
+      keys.add(data[2 * i]);
+    }
+    Collections.sort(keys, Collections.reverseOrder());
+
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { false }, 10,
+        TestUtil.createTupleList(2, data));
+    op.open();
+    assertEquals(keys.subList(0, 10), firstFields(op));
+    op.rewind();
+    assertEquals(keys.subList(0, 10), firstFields(op));
+    op.close();
+  }
+
+  @Test public void limitLargerThanInput() throws Exception {
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { true }, 10,
+        TestUtil.createTupleList(1, new int[] { 3, 1, 2 }));
+    op.open();
+    assertEquals(Arrays.asList(1, 2, 3), firstFields(op));
+    op.close();
+
+    op = new TopN(new int[] { 0 }, new boolean[] { true }, 0,
+        TestUtil.createTupleList(1, new int[] { 3, 1, 2 }));
+    op.open();
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(2, TestUtil.createTupleList(1, new int[] { 3, 1, 2 }));
+    op.open();
+    assertEquals(Arrays.asList(3, 1), firstFields(op));
+    op.rewind();
+    assertEquals(Arrays.asList(3, 1), firstFields(op));
+    op.close();
+  }
+
+  /** The parser turns ORDER BY ... LIMIT into a TopN, and LIMIT alone into a Limit. */
+  @Test public void parseLimit() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+
+    DbIterator plan = p.generateLogicalPlan(tid,
+        "SELECT * FROM t ORDER BY t.c0 DESC LIMIT 5;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+    plan.open();
+    List<Integer> top = firstFields(plan);
+    plan.close();
+    assertEquals(5, top.size());
+    DbFileIterator all = f.iterator(tid);
+    all.open();
+    int larger = 0;
+    while (all.hasNext())
+      if (((IntField) all.next().getField(0)).getValue() > top.get(4))
+        larger++;
+    all.close();
+    assertTrue(larger < 5);
+    new QueryPlanVisualizer().getQueryPlanTree(((Operator) plan).getChildren()[0]);
+
+    plan = p.generateLogicalPlan(tid, "SELECT * FROM t limit 7;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+    plan.open();
+    assertEquals(7, firstFields(plan).size());
+    plan.close();
+    new QueryPlanVisualizer().getQueryPlanTree(((Operator) plan).getChildren()[0]);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Only the LIMIT at the end of the statement being parsed is applied. */
+  @Test public void limitOfLaterStatement() throws Exception {
+    java.io.InputStream in = new java.io.ByteArrayInputStream(
+        "SELECT * FROM t WHERE t.c0 = ';' ;\nSELECT * FROM t LIMIT 3;".getBytes("UTF-8"));
+    String first = Parser.readStatement(in);
+    assertEquals("SELECT * FROM t WHERE t.c0 = ';' ;", first);
+    Parser p = new Parser();
+    assertEquals(first, p.stripLimit(first));
+    assertEquals("\nSELECT * FROM t;", p.stripLimit(Parser.readStatement(in)));
+    assertEquals("SELECT * FROM t", p.stripLimit("SELECT * FROM t limit 4 "));
+  }
+
+  /** The sort of a TopN can have its child replaced like any operator. */
+  @Test public void replaceChild() throws Exception {
+    DbIterator child = TestUtil.createTupleList(1, new int[] { 3, 1, 2 });
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { true }, 2, child);
+    Operator sort = (Operator) op.newSort(child);
+    sort.setChildren(new DbIterator[] {
+        TestUtil.createTupleList(1, new int[] { 9, 7, 8 }) });
+    sort.open();
+    assertEquals(Arrays.asList(7, 8), firstFields(sort));
+    sort.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
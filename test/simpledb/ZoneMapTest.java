@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ };
+
+    private File data;
+    private HeapFile f;
+    private ArrayList<ArrayList<Integer>> rows;
+    private int perPage;
+
+    /** A table whose field 0 grows with the page number, and field 1 does not. */
+    @Before public void createTable() throws Exception {
+        rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        data = File.createTempFile("zonemap", ".dat");
+        HeapFile.deleteOnExit(data);
+        HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 2);
+        f = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, "z");
+        perPage = (BufferPool.getPageSize() * 8) / (f.getTupleDesc().getSize() * 8 + 1);
+    }
+
+    /** @return the values of field 0 the scan returns, sorted */
+    private List<Integer> scan(TransactionId tid, Predicate p) throws Exception {
+        SeqScan s = new SeqScan(tid, f.getId(), "z");
+        s.addPredicate(p);
+        List<Integer> values = new ArrayList<Integer>();
+        s.open();
+        while (s.hasNext())
+            values.add(((IntField) s.next().getField(0)).getValue());
+        s.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    private List<Integer> expected(Predicate p) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (ArrayList<Integer> row : rows)
+            if (new IntField(row.get(p.getField())).compare(p.getOp(), p.getOperand()))
+                values.add(row.get(0));
+        Collections.sort(values);
+        return values;
+    }
+
+    /** Every page has the range of the values on it. */
+    @Test public void ranges() throws Exception {
+        ZoneMap zm = f.getZoneMap();
+        assertTrue(zm.getFile().length() > 0);
+        for (int p = 0; p < f.numPages(); p++) {
+            assertEquals(p * perPage, zm.getMin(p, 0));
+            assertEquals(Math.min(rows.size(), (p + 1) * perPage) - 1, zm.getMax(p, 0));
+            assertEquals(0, zm.getMin(p, 1));
+            assertEquals(9, zm.getMax(p, 1));
+        }
+    }
+
+    /**
+     * Scans return the same tuples with or without zone maps, and read
+     * only the pages whose range overlaps the predicate's.
+     */
+    @Test public void scansSkipPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : OPS) {
+            for (int v : new int[] { -1, 0, 17, 2500, 4999, 5000 }) {
+                Predicate p = new Predicate(0, op, new IntField(v));
+                assertEquals(op + " " + v, expected(p), scan(tid, p));
+            }
+            Predicate p = new Predicate(1, op, new IntField(3));
+            assertEquals(op + " 3", expected(p), scan(tid, p));
+        }
+
+        long before = TestUtil.pageRequests();
+        assertEquals(expected(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(4990))),
+                scan(tid, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(4990))));
+        assertEquals(1, TestUtil.pageRequests() - before);
+        before = TestUtil.pageRequests();
+        assertEquals(0, scan(tid, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))).size());
+        assertEquals(0, TestUtil.pageRequests() - before);
+        // field 1 has every value on every page
+        before = TestUtil.pageRequests();
+        scan(tid, new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+        assertEquals(f.numPages(), TestUtil.pageRequests() - before);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts widen the range of their page and deletes narrow it. */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(100000));
+        assertEquals(0, scan(tid, big).size());
+
+        // make room on the first page, and fill it with a large value
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        assertEquals(1, f.getZoneMap().getMin(0, 0));
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(200000));
+        t.setField(1, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(200000, f.getZoneMap().getMax(0, 0));
+        assertEquals(Arrays.asList(200000), scan(tid, big));
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(perPage - 1, f.getZoneMap().getMax(0, 0));
+        assertEquals(0, scan(tid, big).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The side file is written with the pages, read back by a new HeapFile,
+     * and rebuilt if the data file is newer.
+     */
+    @Test public void persisted() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(-7));
+        t.setField(1, new IntField(42));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        int last = t.getRecordId().getPageId().pageNumber();
+
+        File side = f.getZoneMap().getFile();
+        HeapFile reopened = new HeapFile(data, f.getTupleDesc());
+        assertEquals(-7, reopened.getZoneMap().getMin(last, 0));
+        assertEquals(42, reopened.getZoneMap().getMax(last, 1));
+
+        // a side file older than the data is not trusted
+        RandomAccessFile raf = new RandomAccessFile(side, "rw");
+        raf.write(new byte[(int) raf.length()]);
+        raf.close();
+        assertTrue(side.setLastModified(data.lastModified() - 10000));
+        reopened = new HeapFile(data, f.getTupleDesc());
+        assertEquals(-7, reopened.getZoneMap().getMin(last, 0));
+        assertEquals(perPage - 1, reopened.getZoneMap().getMax(0, 0));
+        assertFalse(reopened.getZoneMap().mayMatch(0,
+                new Predicate[] { new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(4999)) }));
+    }
+
+    /** Closing the side files does not stop the map from being kept up to date. */
+    @Test public void closedSideFile() throws Exception {
+        TransactionId tid = new TransactionId();
+        f.getZoneMap();
+        f.closeSideFiles();
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(-7));
+        t.setField(1, new IntField(42));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        int last = t.getRecordId().getPageId().pageNumber();
+
+        HeapFile reopened = new HeapFile(data, f.getTupleDesc());
+        assertEquals(-7, reopened.getZoneMap().getMin(last, 0));
+        reopened.closeSideFiles();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
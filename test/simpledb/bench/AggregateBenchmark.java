@@ -0,0 +1,126 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Benchmark for grouped aggregation: SELECT authorid, COUNT(paperid) FROM
+ * paperauths GROUP BY authorid over the DBLP paperauths table. Times
+ * IntegerAggregator, which finds a tuple's group by hashing, against the
+ * linear search over all groups it used before. The linear search is run on
+ * a prefix of the table only, since it is quadratic in the number of groups.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.bench.AggregateBenchmark
+ * [paperauths.dat [prefix]]
+ */
+public class AggregateBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    /** Keeps the JIT from discarding the work being measured. */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        File data = new File(args.length > 0 ? args[0] : "paperauths.dat");
+        int prefix = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "paperid", "authorid" });
+        HeapFile paperauths = new HeapFile(data, td);
+        Database.getCatalog().addTable(paperauths, "paperauths");
+
+        // read the table once so that only aggregation is timed
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = paperauths.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        List<Tuple> head = tuples.subList(0, Math.min(prefix, tuples.size()));
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            boolean report = round == WARMUP_ROUNDS;
+
+            long start = System.nanoTime();
+            int groups = hashAggregate(tuples);
+            long hashAll = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            hashAggregate(head);
+            long hashHead = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int headGroups = linearAggregate(head);
+            long linearHead = System.nanoTime() - start;
+
+            if (report) {
+                System.out.println("paperauths tuples:             " + tuples.size()
+                        + " (" + groups + " authors)");
+                System.out.println("hash aggregation, all tuples:  " + millis(hashAll));
+                System.out.println("prefix tuples:                 " + head.size()
+                        + " (" + headGroups + " authors)");
+                System.out.println("hash aggregation, prefix:      " + millis(hashHead));
+                System.out.println("linear search, prefix:         " + millis(linearHead));
+                System.out.println("speedup on prefix:             "
+                        + String.format("%.1fx", (double) linearHead / hashHead));
+            }
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%10.2f ms", nanos / 1e6);
+    }
+
+    /** @return the number of groups IntegerAggregator finds */
+    private static int hashAggregate(List<Tuple> tuples) throws Exception {
+        IntegerAggregator agg = new IntegerAggregator(1, Type.INT_TYPE, 0,
+                Aggregator.Op.COUNT);
+        for (Tuple t : tuples)
+            agg.mergeTupleIntoGroup(t);
+        DbIterator result = agg.iterator();
+        result.open();
+        int groups = 0;
+        while (result.hasNext()) {
+            sink += result.next().getField(1).hashCode();
+            groups++;
+        }
+        return groups;
+    }
+
+    /**
+     * The grouping IntegerAggregator used to do: a list of result tuples,
+     * searched from start to end for every input tuple.
+     *
+     * @return the number of groups found
+     */
+    private static int linearAggregate(List<Tuple> tuples) {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+        ArrayList<Tuple> groups = new ArrayList<Tuple>();
+        for (Tuple t : tuples) {
+            Field group = t.getField(1);
+            Tuple current = null;
+            for (int i = 0; i < groups.size(); i++) {
+                if (groups.get(i).getField(0).equals(group))
+                    current = groups.get(i);
+            }
+            if (current == null) {
+                current = new Tuple(td);
+                current.setField(0, group);
+                current.setField(1, new IntField(1));
+                groups.add(current);
+            } else {
+                int count = ((IntField) current.getField(1)).getValue();
+                current.setField(1, new IntField(count + 1));
+            }
+        }
+        for (Tuple g : groups)
+            sink += g.getField(1).hashCode();
+        return groups.size();
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb.bench;
+
+import java.io.*;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Micro-benchmark for HeapPage serialization. Compares getPageData(), which
+ * copies the in-place page image, with the stream-based serialization
+ * HeapPage used before (every header byte, field and padding byte written
+ * through a DataOutputStream), and times page creation, which captures the
+ * before image.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.bench.HeapPageBenchmark
+ * [iterations]
+ */
+public class HeapPageBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    /** Keeps the JIT from discarding the work being measured. */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        // a half-full page of a table with an int and a string column
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "name" });
+        int tableId = 4711;
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(tableId, td), "bench");
+        HeapPageId pid = new HeapPageId(tableId, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int fill = page.getNumEmptySlots() / 2;
+        for (int i = 0; i < fill; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("row " + i, Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        byte[] image = page.getPageData();
+        if (!Arrays.equals(image, streamSerialize(page, td)))
+            throw new IllegalStateException("serializations disagree");
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            boolean report = round == WARMUP_ROUNDS;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += page.getPageData().length;
+            long copy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += streamSerialize(page, td).length;
+            long stream = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += new HeapPage(pid, image).getNumEmptySlots();
+            long load = System.nanoTime() - start;
+
+            if (report) {
+                System.out.println("iterations:                   " + iterations);
+                System.out.println("getPageData (page image copy): " + perOp(copy, iterations));
+                System.out.println("stream serialization:          " + perOp(stream, iterations));
+                System.out.println("page load incl. before image:  " + perOp(load, iterations));
+                System.out.println("speedup of getPageData:        "
+                        + String.format("%.1fx", (double) stream / copy));
+            }
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static String perOp(long nanos, int iterations) {
+        return String.format("%8.2f us/op", nanos / 1000.0 / iterations);
+    }
+
+    /**
+     * The serialization HeapPage.getPageData() used to do: header bytes,
+     * fields of used slots and zeros for empty slots and padding, one write
+     * at a time.
+     */
+    private static byte[] streamSerialize(HeapPage page, TupleDesc td) throws IOException {
+        int len = BufferPool.getPageSize();
+        int slots = page.getNumEmptySlots();
+        Tuple[] used = new Tuple[0];
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        used = tuples.toArray(used);
+        slots += used.length;
+        int headerLen = (slots + 7) / 8;
+
+        byte[] header = new byte[headerLen];
+        Tuple[] bySlot = new Tuple[slots];
+        for (Tuple t : used) {
+            int slot = t.getRecordId().tupleno();
+            bySlot[slot] = t;
+            header[slot / 8] |= 1 << (slot % 8);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < headerLen; i++)
+            dos.writeByte(header[i]);
+        for (int i = 0; i < slots; i++) {
+            if (bySlot[i] == null) {
+                for (int j = 0; j < td.getSize(); j++)
+                    dos.writeByte(0);
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++)
+                bySlot[i].getField(j).serialize(dos);
+        }
+        int zerolen = len - (headerLen + td.getSize() * slots);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Micro-benchmark for the int predicate path. Filters freshly loaded heap
+ * pages of a table with two int columns with a selective predicate, once by
+ * decoding every tuple and comparing IntFields through Field.compare (as
+ * Filter over an unfiltered scan does), and once with the predicate pushed
+ * into the page, where an {@link IntPredicate} compares values straight from
+ * the page data. Reports the time and the bytes allocated per row, the
+ * latter from the JVM's per-thread allocation counter. It also times the
+ * comparisons of a nested-loops join block through JoinPredicate.filter on
+ * tuples and through IntPredicate.select on the block's int keys.
+ * <p>
+ * Run with: java -cp bin/src:bin/test:lib/* simpledb.bench.IntPredicateBenchmark
+ * [iterations]
+ */
+public class IntPredicateBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    /** Keeps the JIT from discarding the work being measured. */
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "id", "value" });
+        int tableId = 4712;
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(tableId, td), "bench");
+        HeapPageId pid = new HeapPageId(tableId, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int rows = page.getNumEmptySlots();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 97));
+            page.insertTuple(t);
+        }
+        byte[] image = page.getPageData();
+        // about one row in a hundred qualifies
+        Predicate pred = new Predicate(1, Predicate.Op.EQUALS, new IntField(42));
+        Predicate[] preds = new Predicate[] { pred };
+
+        // a join block and the inner tuples probing it
+        Tuple[] block = new Tuple[rows];
+        int[] blockKeys = new int[rows];
+        Iterator<Tuple> it = new HeapPage(pid, image).iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            block[i] = it.next();
+            blockKeys[i] = ((IntField) block[i].getField(1)).getValue();
+        }
+        JoinPredicate jp = new JoinPredicate(1, Predicate.Op.LESS_THAN, 0);
+        int[] matches = new int[rows];
+        int probes = Math.max(1, iterations / 100);
+
+        if (boxedFilter(pid, image, pred) != kernelFilter(pid, image, preds))
+            throw new IllegalStateException("filters disagree");
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            boolean report = round == WARMUP_ROUNDS;
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += new HeapPage(pid, image).getNumEmptySlots();
+            long load = System.nanoTime() - start;
+            long loadBytes = allocatedBytes() - bytes;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += boxedFilter(pid, image, pred);
+            long boxed = System.nanoTime() - start - load;
+            long boxedBytes = allocatedBytes() - bytes - loadBytes;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                sink += kernelFilter(pid, image, preds);
+            long kernel = System.nanoTime() - start - load;
+            long kernelBytes = allocatedBytes() - bytes - loadBytes;
+
+            start = System.nanoTime();
+            for (int i = 0; i < probes; i++) {
+                Tuple inner = block[i % rows];
+                for (Tuple left : block)
+                    if (jp.filter(left, inner))
+                        sink++;
+            }
+            long joinTuples = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            IntPredicate ip = jp.getIntPredicate();
+            for (int i = 0; i < probes; i++) {
+                int key = ((IntField) block[i % rows].getField(0)).getValue();
+                sink += ip.select(blockKeys, null, rows, key, matches);
+            }
+            long joinKernel = System.nanoTime() - start;
+
+            if (report) {
+                long total = (long) iterations * rows;
+                System.out.println("pages filtered:                " + iterations
+                        + " x " + rows + " rows");
+                System.out.println("decode + Field.compare:        " + perRow(boxed, total)
+                        + ", " + bytesPerRow(boxedBytes, total));
+                System.out.println("IntPredicate on page data:     " + perRow(kernel, total)
+                        + ", " + bytesPerRow(kernelBytes, total));
+                System.out.println("speedup of IntPredicate:       "
+                        + String.format("%.1fx", (double) boxed / kernel));
+                long comparisons = (long) probes * rows;
+                System.out.println("join comparisons:              " + comparisons);
+                System.out.println("JoinPredicate.filter(tuples):  " + perRow(joinTuples, comparisons));
+                System.out.println("IntPredicate.select(keys):     " + perRow(joinKernel, comparisons));
+            }
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    /** @return the qualifying rows of a fresh page, decoding every tuple */
+    private static int boxedFilter(HeapPageId pid, byte[] image, Predicate pred)
+            throws Exception {
+        int count = 0;
+        Iterator<Tuple> it = new HeapPage(pid, image).iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getField(pred.getField()).compare(pred.getOp(), pred.getOperand()))
+                count++;
+        }
+        return count;
+    }
+
+    /** @return the qualifying rows of a fresh page, filtered in the page */
+    private static int kernelFilter(HeapPageId pid, byte[] image, Predicate[] preds)
+            throws Exception {
+        int count = 0;
+        Iterator<Tuple> it = new HeapPage(pid, image).iterator(preds);
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /** @return the bytes this thread has allocated so far */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String perRow(long nanos, long rows) {
+        return String.format("%8.2f ns/row", (double) nanos / rows);
+    }
+
+    private static String bytesPerRow(long bytes, long rows) {
+        return String.format("%8.2f bytes/row", (double) bytes / rows);
+    }
+}